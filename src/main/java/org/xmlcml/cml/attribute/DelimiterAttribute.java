@@ -18,6 +18,7 @@ package org.xmlcml.cml.attribute;
 
 import nu.xom.Attribute;
 
+import org.xmlcml.cml.base.NumericTokenizer;
 import org.xmlcml.cml.base.StringSTAttribute;
 import org.xmlcml.euclid.Util;
 
@@ -73,6 +74,14 @@ public class DelimiterAttribute extends StringSTAttribute {
         this.setCMLValue(att.getValue());
     }
     
+    /** delimiter sets splitter and concat so is always processed.
+     * 
+     * @param value
+     */
+    public void setTrustedValue(String value) {
+        this.setCMLValue(value);
+    }
+
     /** set value and process.
      * 
      * @param value
@@ -154,6 +163,58 @@ public class DelimiterAttribute extends StringSTAttribute {
      */
     public String[] getSplitContent(String content) {
         String[] ss = new String[0];
+        NumericTokenizer tokenizer = getTokenizer(content);
+        if (tokenizer != null) {
+            ss = new String[tokenizer.countTokens()];
+            for (int i = 0; i < ss.length; i++) {
+                ss[i] = tokenizer.nextToken();
+            }
+        }
+        return ss;
+    }
+
+    /**
+     * splits content into doubles. same tokens as getSplitContent() but
+     * parsed without intermediate strings
+     *
+     * @param content
+     * @return doubles
+     * @throws NumberFormatException giving the bad token and its position
+     */
+    public double[] getSplitDoubles(String content) {
+        double[] dd = new double[0];
+        NumericTokenizer tokenizer = getTokenizer(content);
+        if (tokenizer != null) {
+            dd = new double[tokenizer.countTokens()];
+            for (int i = 0; i < dd.length; i++) {
+                dd[i] = tokenizer.nextDouble();
+            }
+        }
+        return dd;
+    }
+
+    /**
+     * splits content into ints. same tokens as getSplitContent() but
+     * parsed without intermediate strings
+     *
+     * @param content
+     * @return ints
+     * @throws NumberFormatException giving the bad token and its position
+     */
+    public int[] getSplitInts(String content) {
+        int[] ii = new int[0];
+        NumericTokenizer tokenizer = getTokenizer(content);
+        if (tokenizer != null) {
+            ii = new int[tokenizer.countTokens()];
+            for (int i = 0; i < ii.length; i++) {
+                ii[i] = tokenizer.nextInt();
+            }
+        }
+        return ii;
+    }
+
+    private NumericTokenizer getTokenizer(String content) {
+        NumericTokenizer tokenizer = null;
 	    content = content.trim();
 	    if (content.length() > 0) {
 	    	if (!isWhitespace()) {
@@ -164,9 +225,9 @@ public class DelimiterAttribute extends StringSTAttribute {
 	                content = content.substring(0, content.length() - concat.length());
 	            }
 	    	}
-	        ss = content.split(splitter);
+	        tokenizer = new NumericTokenizer(content, isWhitespace() ? null : concat);
 	    }
-	    return ss;
+	    return tokenizer;
     }
 
     /**
@@ -225,6 +286,37 @@ public class DelimiterAttribute extends StringSTAttribute {
         }
         return s;
     }
+
+    /**
+     * adds an item to a buffer of items that will later be appended
+     * with appendXMLContent(String, StringBuilder).
+     *
+     * @param buffer items not yet appended
+     * @param snew to append
+     */
+    public void appendToBuffer(StringBuilder buffer, String snew) {
+        if (!isWhitespace()) {
+            buffer.append(snew).append(concat);
+        } else {
+            buffer.append(concat).append(snew);
+        }
+    }
+
+    /**
+     * append buffered items to text content. gives the same result as
+     * calling appendXMLContent(String, String) for each item
+     *
+     * @param s previous string
+     * @param buffer items from appendToBuffer()
+     * @return xml content
+     */
+    public String appendXMLContent(String s, StringBuilder buffer) {
+        s = getDelimitedXMLContent(s);
+        if (!isWhitespace() && s.length() == 0 && buffer.length() > 0) {
+            s = concat;
+        }
+        return s + buffer;
+    }
     
     private boolean isWhitespace() {
     	return S_WHITEREGEX.equals(splitter);
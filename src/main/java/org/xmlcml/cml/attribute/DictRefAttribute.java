@@ -22,6 +22,8 @@ import nu.xom.Node;
 
 import org.xmlcml.cml.base.CMLConstants;
 import org.xmlcml.cml.base.CMLElement;
+import org.xmlcml.cml.element.CMLEntry;
+import org.xmlcml.cml.element.DictionaryRegistry;
 
 /**
  * user-modifiable class supporting DictRefAttribute. supports dictRef attribute
@@ -81,6 +83,33 @@ public class DictRefAttribute extends NamespaceRefAttribute {
         }
         return dictRefAttribute;
     }
+
+    /**
+     * gets dictionary entry for the dictRef on element or its parent.
+     * the prefix is resolved on the element holding the attribute and the
+     * dictionary is looked up in the process-wide DictionaryRegistry
+     *
+     * @param el
+     *            the element
+     * @return entry or null if no dictRef or dictionary not registered
+     */
+    public static CMLEntry getCMLEntryFromElementOrParent(CMLElement el) {
+        return getCMLEntryFromElementOrParent(el, DictionaryRegistry.dictionaryRegistry);
+    }
+
+    /**
+     * gets dictionary entry for the dictRef on element or its parent.
+     *
+     * @param el
+     *            the element
+     * @param registry
+     *            dictionaries to search
+     * @return entry or null if no dictRef or dictionary not registered
+     */
+    public static CMLEntry getCMLEntryFromElementOrParent(CMLElement el,
+            DictionaryRegistry registry) {
+        return registry.getCMLEntry(getDictRefFromElementOrParent(el));
+    }
     
     /**
      * gets local value of dictRef value on element
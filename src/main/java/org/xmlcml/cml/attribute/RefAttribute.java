@@ -105,7 +105,7 @@ public class RefAttribute extends StringSTAttribute {
             throw new RuntimeException("Cannot reference elements from oldest ancestor");
         }
         String id = ref.getValue();
-        List<CMLElement> elemList = oldest.getElementsById(id, true);
+        List<CMLElement> elemList = oldest.getElementsById(id, false);
         if (elemList.size() == 0) {
             throw new RuntimeException("Cannot find element: "+id);
         }
@@ -20,12 +20,8 @@
 package org.xmlcml.cml.base;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
-import nu.xom.Element;
-import nu.xom.Node;
-
 import org.apache.log4j.Logger;
 
 /**
@@ -41,7 +37,6 @@ public class AttributeFactory implements CMLConstants {
     static {
     	attributeFactory.init();
     }
- 	private Map<String, Element> attributeGroupElementMap;
     private Map<String, CMLAttribute> attributeGroupNameAttributeMap;
  	private Map<String, Map<String, String>> elementSynonymMap;
 	private SchemaManager schemaManager;
@@ -52,12 +47,14 @@ public class AttributeFactory implements CMLConstants {
 	}
 	
     void init() {
-//        attributeGroupNameAttributeMap = new HashMap<String, CMLAttribute>();
-        elementSynonymMap = new HashMap<String, Map<String, String>>();
-        schemaManager = new SchemaManager();
-    	schemaManager.readAndCreateIndexesFromSchemaFiles();
+    	// the compiled index avoids parsing the schemas at startup
+    	SchemaIndex schemaIndex = SchemaIndex.readIndex();
+    	if (schemaIndex == null) {
+    		schemaIndex = SchemaIndex.createFromSchemaFiles();
+    	}
+        schemaManager = schemaIndex.getSchemaManager();
     	AttributeFactory.attributeFactory.setSchemaManager(schemaManager);
-    	makeSynonymMap();
+    	makeSynonymMap(schemaIndex);
     }
 
 	/** custom attributeFactory.
@@ -79,51 +76,24 @@ public class AttributeFactory implements CMLConstants {
         return (CMLAttribute) attributeGroupNameAttributeMap.get(name);
     }
 
-    private void makeSynonymMap() {
-    	attributeGroupElementMap = new HashMap<String, Element>();
-    	try {
-    		// create special attributes
-    		Map<String, CMLAttribute> attributeGroupMap = 
-    			schemaManager.getAttributeGenerator().getAttributeGroupMap();
-    		for (String attributeGroupName : attributeGroupMap.keySet()) {
-    			CMLAttribute specialAttribute = createSpecialAttribute(attributeGroupName);
-    			// replace by special attribute
-    			if (specialAttribute != null) {
-    				attributeGroupMap.put(attributeGroupName, specialAttribute);
-    			}
-    		}
-    		
-    		Element attributeTop = CMLUtil.getXMLResource(SchemaManager.ATTRIBUTEGROUPS_XSD).getRootElement();
-    		List<Node> attributeGroups = CMLUtil.getQueryNodes(attributeTop, "./"+XSD_ATTRIBUTE_GROUP, XPATH_XSD);
+    private void makeSynonymMap(SchemaIndex schemaIndex) {
+		// create special attributes
+		Map<String, CMLAttribute> attributeGroupMap = 
+			schemaManager.getAttributeGenerator().getAttributeGroupMap();
+		for (String attributeGroupName : attributeGroupMap.keySet()) {
+			CMLAttribute specialAttribute = createSpecialAttribute(attributeGroupName);
+			// replace by special attribute
+			if (specialAttribute != null) {
+				attributeGroupMap.put(attributeGroupName, specialAttribute);
+			}
+		}
 // this is a mess - there is some duplication    		
-    		attributeGroupNameAttributeMap = new HashMap<String, CMLAttribute>();
-    		for (Node node : attributeGroups) {
-    			Element xsdAttribute = (Element) node;
-    			String attributeGroupName = xsdAttribute.getAttributeValue("name");
-    			attributeGroupElementMap.put(attributeGroupName, xsdAttribute);
-    			CMLAttribute att = schemaManager.getAttributeGenerator().createAttribute(attributeGroupName);
-    			attributeGroupNameAttributeMap.put(attributeGroupName, att);
-    		}
-    		Element elementTop = CMLUtil.getXMLResource(SchemaManager.ELEMENTS_XSD).getRootElement();
-    		List<Node> elements = CMLUtil.getQueryNodes(elementTop, "./"+XSD_ELEMENT, XPATH_XSD);
-    		for (Node node : elements) {
-    			Element xsdElement = (Element) node;
-    			String elementName = xsdElement.getAttributeValue("name");
-    			Map<String, String> synonymMap = new HashMap<String, String>();
-    			elementSynonymMap.put(elementName, synonymMap);
-        		List<Node> attributeGroupsx = CMLUtil.getQueryNodes(xsdElement, ".//"+XSD_ATTRIBUTE_GROUP, XPATH_XSD);
-        		for (Node nodex : attributeGroupsx) {
-        			String ref = ((Element)nodex).getAttributeValue("ref");
-        			Element attributeGroupx = attributeGroupElementMap.get(ref);
-        			List<Node> attNodes = CMLUtil.getQueryNodes(attributeGroupx, "./"+XSD_ATTRIBUTE, XPATH_XSD);
-        			String attributeName = ((Element)attNodes.get(0)).getAttributeValue("name");
-        			synonymMap.put(attributeName, ref);
-        		}
-    		}
-    	} catch (Exception e) {
-    		e.printStackTrace();
-    		throw new RuntimeException("Cannot parse elements/attributes: "+e);
-    	}
+		attributeGroupNameAttributeMap = new HashMap<String, CMLAttribute>();
+		for (String attributeGroupName : schemaIndex.getAttributeGroupNames()) {
+			CMLAttribute att = schemaIndex.createAttribute(attributeGroupName);
+			attributeGroupNameAttributeMap.put(attributeGroupName, att);
+		}
+		elementSynonymMap = schemaIndex.getElementSynonymMap();
     }
 
     /** create attributes if class exists.
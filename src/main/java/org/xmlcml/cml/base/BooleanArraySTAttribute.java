@@ -126,10 +126,13 @@ public class BooleanArraySTAttribute extends CMLAttribute {
      */
     public static boolean[] split(String s, String delim) {
         String sss = s.trim().replace(S_WHITEREGEX, CMLConstants.S_SPACE);
-        if (delim == null || delim.trim().equals(S_EMPTY)
-                || delim.equals(S_WHITEREGEX)) {
-            delim = CMLConstants.S_WHITEREGEX;
-            sss = sss.trim();
+        if (NumericTokenizer.isWhitespace(delim)) {
+            NumericTokenizer tokenizer = new NumericTokenizer(sss, null);
+            boolean[] bb = new boolean[tokenizer.countTokens()];
+            for (int i = 0; i < bb.length; i++) {
+                bb[i] = tokenizer.nextBoolean();
+            }
+            return bb;
         }
         String[] ss = sss.split(delim);
         boolean[] bb = new boolean[ss.length];
@@ -155,12 +158,26 @@ public class BooleanArraySTAttribute extends CMLAttribute {
         this.setCMLValue(bb);
     }
 
+    /**
+     * parses a value set by setTrustedValue() on first typed access.
+     * the value is not checked; use validate() for that.
+     */
+    private void parseTrustedValue() {
+        if (unparsed && bb == null) {
+            String s = getValue();
+            if (s != null && !s.trim().equals(S_EMPTY)) {
+                bb = split(s.trim(), S_WHITEREGEX);
+            }
+        }
+    }
+
     /**
      * get array.
      * 
      * @return null if not set
      */
     public Object getCMLValue() {
+        parseTrustedValue();
         return bb;
     }
 
@@ -170,6 +187,7 @@ public class BooleanArraySTAttribute extends CMLAttribute {
      * @return null if not set
      */
     public boolean[] getIntegerArray() {
+        parseTrustedValue();
         return bb;
     }
 
@@ -123,12 +123,26 @@ public class BooleanSTAttribute extends CMLAttribute {
         }
     }
 
+    /**
+     * parses a value set by setTrustedValue() on first typed access.
+     * the value is not checked; use validate() for that.
+     */
+    private void parseTrustedValue() {
+        if (unparsed && b == null) {
+            String s = getValue();
+            if (s != null && !s.trim().equals(S_EMPTY)) {
+                b = Boolean.valueOf(s.trim());
+            }
+        }
+    }
+
     /**
      * returns value as Booleaneger.
      * 
      * @return value
      */
     public Object getCMLValue() {
+        parseTrustedValue();
         return b;
     }
 
@@ -138,6 +152,7 @@ public class BooleanSTAttribute extends CMLAttribute {
      * @return value
      */
     public boolean getBoolean() {
+        parseTrustedValue();
         if (b == null) {
             throw new RuntimeException("booleaneger attribute unset");
         }
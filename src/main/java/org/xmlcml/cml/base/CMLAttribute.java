@@ -52,6 +52,8 @@ public class CMLAttribute extends Attribute implements CMLConstants {
     protected String summary;
     protected String description;
     protected String attributeGroupName; // used in code generation
+    /** value set by setTrustedValue() and not yet parsed */
+    boolean unparsed = false;
 
     /**
      * creates attribute without value. do not use directly
@@ -96,6 +98,7 @@ public class CMLAttribute extends Attribute implements CMLConstants {
     public CMLAttribute(CMLAttribute att) {
         super(att);
         this.cmlType = att.cmlType;
+        this.unparsed = att.unparsed;
         // if (att.getLocalName().equals("dictRef")) {
         // new Exception().printStackTrace();
         // }
@@ -276,6 +279,32 @@ public class CMLAttribute extends Attribute implements CMLConstants {
         this.setValue(s);
     }
 
+    /**
+     * sets value from trusted input without parsing or checking it.
+     * typed subclasses parse the value on first typed access. Subclasses
+     * which derive state from the value must override this.
+     * 
+     * @param s
+     *            the value
+     */
+    public void setTrustedValue(String s) {
+        // bypass any subclass setValue() which parses the value
+        super.setValue(s);
+        unparsed = true;
+    }
+
+    /**
+     * parses and checks the current value as setCMLValue() does.
+     * used after trusted parsing.
+     * 
+     * @throws RuntimeException
+     *             if value is of wrong type or violates restriction
+     */
+    public void validate() {
+        unparsed = false;
+        this.setCMLValue(this.getValue());
+    }
+
     /**
      * get documentation summary.
      * 
@@ -0,0 +1,552 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.base;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import nu.xom.Document;
+import nu.xom.Element;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * Parses many CML documents in parallel.
+ * </p>
+ * <p>
+ * Documents can come from a list of files, a directory (optionally filtered
+ * by a glob), a ZIP stream or an uncompressed tar stream. Each worker thread
+ * has its own CMLBuilder. Results are returned through an iterator in order
+ * of completion. At most queueSize documents are held between the reader
+ * and the consumer, so a slow consumer throttles reading. A document which
+ * cannot be read or parsed, or which the executor rejects, gives a Result
+ * carrying the exception and does not stop the batch.
+ * </p>
+ * <p>
+ * Consumers should drain each iterator; the reader thread waits while the
+ * queue is full.
+ * </p>
+ */
+public class CMLBatchParser implements CMLConstants {
+
+	private static Logger LOG = Logger.getLogger(CMLBatchParser.class);
+
+	/** default number of documents held between reader and consumer */
+	public static final int DEFAULT_QUEUE_SIZE = 64;
+
+	private static final int TAR_BLOCK = 512;
+	private static final byte[] USTAR_MAGIC = {'u', 's', 't', 'a', 'r', 0};
+
+	/** result of parsing one document.
+	 */
+	public static class Result {
+		private String name;
+		private CMLElement element;
+		private Exception exception;
+
+		Result(String name, CMLElement element, Exception exception) {
+			this.name = name;
+			this.element = element;
+			this.exception = exception;
+		}
+
+		/**
+		 * @return file path or archive entry name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return root element (null if parse failed)
+		 */
+		public CMLElement getElement() {
+			return element;
+		}
+
+		/**
+		 * @return exception (null if parse succeeded)
+		 */
+		public Exception getException() {
+			return exception;
+		}
+
+		/**
+		 * @return true if parse succeeded
+		 */
+		public boolean isOk() {
+			return exception == null;
+		}
+	}
+
+	private static final Result END = new Result(null, null, null);
+
+	private ExecutorService executor;
+	private boolean ownsExecutor;
+	private int queueSize;
+	private ThreadLocal<CMLBuilder> builders = new ThreadLocal<CMLBuilder>() {
+		protected CMLBuilder initialValue() {
+			return new CMLBuilder();
+		}
+	};
+	private AtomicLong documentCount = new AtomicLong();
+	private AtomicLong failureCount = new AtomicLong();
+	private AtomicLong startTime = new AtomicLong();
+	private AtomicLong lastTime = new AtomicLong();
+
+	/** parser with one thread per processor.
+	 */
+	public CMLBatchParser() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/** parser with its own fork-join pool.
+	 * the pool is closed by shutdown()
+	 * @param nThreads number of parsing threads
+	 */
+	public CMLBatchParser(int nThreads) {
+		this(new ForkJoinPool(nThreads), DEFAULT_QUEUE_SIZE);
+		ownsExecutor = true;
+	}
+
+	/** parser using caller's executor.
+	 * any executor may be used, e.g. a virtual thread executor on
+	 * recent JVMs. It is not shut down by this class.
+	 * @param executor runs the parse tasks
+	 * @param queueSize maximum documents held in memory
+	 */
+	public CMLBatchParser(ExecutorService executor, int queueSize) {
+		if (executor == null) {
+			throw new RuntimeException("null executor");
+		}
+		if (queueSize < 1) {
+			throw new RuntimeException("queueSize must be positive: "+queueSize);
+		}
+		this.executor = executor;
+		this.queueSize = queueSize;
+	}
+
+	/** parses list of files.
+	 *
+	 * @param files
+	 * @return results in order of completion
+	 */
+	public Iterator<Result> parseFiles(final List<File> files) {
+		return new Batch() {
+			void read() {
+				for (File file : files) {
+					submit(file.getPath(), file, null);
+				}
+			}
+		}.start();
+	}
+
+	/** parses all files under a directory.
+	 *
+	 * @param dir top directory (searched recursively)
+	 * @param glob matched against path relative to dir,
+	 * e.g. "**.xml" or "*.cml" (top level only); null accepts all
+	 * @return results in order of completion
+	 */
+	public Iterator<Result> parseDirectory(File dir, String glob) {
+		if (!dir.isDirectory()) {
+			throw new RuntimeException("not a directory: "+dir.getAbsolutePath());
+		}
+		final List<File> files = new ArrayList<File>();
+		final Path root = dir.toPath();
+		PathMatcher matcher = makeMatcher(glob);
+		try {
+			Stream<Path> stream = Files.walk(root);
+			try {
+				Iterator<Path> paths = stream.iterator();
+				while (paths.hasNext()) {
+					Path path = paths.next();
+					if (Files.isRegularFile(path) &&
+							(matcher == null || matcher.matches(root.relativize(path)))) {
+						files.add(path.toFile());
+					}
+				}
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("cannot list directory: "+dir.getAbsolutePath(), e);
+		}
+		Collections.sort(files);
+		return parseFiles(files);
+	}
+
+	/** parses entries in ZIP stream.
+	 * the stream is read on a separate thread and closed at the end
+	 * @param is
+	 * @param glob matched against entry name; null accepts all
+	 * @return results in order of completion
+	 */
+	public Iterator<Result> parseZip(final InputStream is, String glob) {
+		final PathMatcher matcher = makeMatcher(glob);
+		return new Batch() {
+			void read() throws IOException {
+				ZipInputStream zis = new ZipInputStream(is);
+				try {
+					ZipEntry entry;
+					while ((entry = zis.getNextEntry()) != null) {
+						if (!entry.isDirectory() && matches(matcher, entry.getName())) {
+							submit(entry.getName(), null, IOUtils.toByteArray(zis));
+						}
+					}
+				} finally {
+					zis.close();
+				}
+			}
+		}.start();
+	}
+
+	/** parses regular file entries in an uncompressed tar stream.
+	 * wrap in GZIPInputStream for .tar.gz.
+	 * the stream is read on a separate thread and closed at the end
+	 * @param is
+	 * @param glob matched against entry name; null accepts all
+	 * @return results in order of completion
+	 */
+	public Iterator<Result> parseTar(final InputStream is, String glob) {
+		final PathMatcher matcher = makeMatcher(glob);
+		return new Batch() {
+			void read() throws IOException {
+				try {
+					readTar(is, this, matcher);
+				} finally {
+					is.close();
+				}
+			}
+		}.start();
+	}
+
+	/** shuts down the pool if it was created by this parser.
+	 */
+	public void shutdown() {
+		if (ownsExecutor) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * @return number of documents parsed successfully
+	 */
+	public long getDocumentCount() {
+		return documentCount.get();
+	}
+
+	/**
+	 * @return number of documents which failed
+	 */
+	public long getFailureCount() {
+		return failureCount.get();
+	}
+
+	/** throughput of all documents (including failures)
+	 * from the start of the first batch to the latest completion.
+	 * @return documents per second (0 if nothing completed)
+	 */
+	public double getDocumentsPerSecond() {
+		long start = startTime.get();
+		long elapsed = lastTime.get() - start;
+		long count = documentCount.get() + failureCount.get();
+		return (start == 0 || elapsed <= 0) ? 0.0 : count * 1.0e9 / elapsed;
+	}
+
+	private Result parse(String name, File file, byte[] bytes) {
+		Result result = null;
+		try {
+			CMLBuilder builder = builders.get();
+			Document doc = (file != null) ? builder.build(file) :
+				builder.build(new ByteArrayInputStream(bytes));
+			Element root = doc.getRootElement();
+			if (!(root instanceof CMLElement)) {
+				throw new RuntimeException("root element is not CML: "+root.getQualifiedName());
+			}
+			// release the document so the element can be used standalone
+			root.detach();
+			result = new Result(name, (CMLElement) root, null);
+			documentCount.incrementAndGet();
+		} catch (Exception e) {
+			LOG.debug("cannot parse "+name+": "+e);
+			result = new Result(name, null, e);
+			failureCount.incrementAndGet();
+		}
+		lastTime.set(System.nanoTime());
+		return result;
+	}
+
+	private static PathMatcher makeMatcher(String glob) {
+		return (glob == null) ? null : FileSystems.getDefault().getPathMatcher("glob:"+glob);
+	}
+
+	private static boolean matches(PathMatcher matcher, String name) {
+		return matcher == null || matcher.matches(Paths.get(name));
+	}
+
+	/** reads ustar/GNU/pax tar format.
+	 * skips directories, links, pax headers and other special entries;
+	 * GNU long names and pax path records rename the next entry
+	 */
+	private static void readTar(InputStream is, Batch batch, PathMatcher matcher) throws IOException {
+		byte[] header = new byte[TAR_BLOCK];
+		String longName = null;
+		while (readBlock(is, header)) {
+			if (isZeroBlock(header)) {
+				break;
+			}
+			String name = tarString(header, 0, 100);
+			// POSIX "ustar\0"; GNU "ustar " has times, not a prefix, here
+			if (isPosixUstar(header)) {
+				String prefix = tarString(header, 345, 155);
+				if (prefix.length() > 0) {
+					name = prefix + S_SLASH + name;
+				}
+			}
+			if (longName != null) {
+				name = longName;
+				longName = null;
+			}
+			String sizeS = tarString(header, 124, 12).trim();
+			long size = (sizeS.length() == 0) ? 0 : Long.parseLong(sizeS, 8);
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("tar entry too large: "+name);
+			}
+			byte[] data = new byte[(int) size];
+			IOUtils.readFully(is, data);
+			long padding = (TAR_BLOCK - size % TAR_BLOCK) % TAR_BLOCK;
+			IOUtils.skipFully(is, padding);
+			char type = (char) header[156];
+			if (type == 'L') {
+				// GNU long name for next entry
+				longName = tarString(data, 0, data.length);
+			} else if (type == 'x') {
+				// pax extended header for next entry
+				String path = getPaxPath(data);
+				if (path != null) {
+					longName = path;
+				}
+			} else if ((type == '0' || type == 0) && matches(matcher, name)) {
+				batch.submit(name, null, data);
+			}
+		}
+	}
+
+	/** path record of pax extended header.
+	 * records are "length keyword=value\n", length in decimal bytes
+	 * including itself
+	 * @return path or null if none
+	 */
+	private static String getPaxPath(byte[] data) throws IOException {
+		String path = null;
+		int pos = 0;
+		while (pos < data.length && data[pos] != 0) {
+			int space = pos;
+			while (space < data.length && data[space] != ' ') {
+				space++;
+			}
+			int length;
+			try {
+				length = Integer.parseInt(new String(data, pos, space - pos, "US-ASCII"));
+			} catch (NumberFormatException e) {
+				throw new IOException("bad pax header record at "+pos);
+			}
+			if (space + 1 >= pos + length || pos + length > data.length) {
+				throw new IOException("bad pax header record length: "+length);
+			}
+			// drop the newline
+			String record = new String(data, space + 1, pos + length - space - 2, "UTF-8");
+			if (record.startsWith("path=")) {
+				path = record.substring("path=".length());
+			}
+			pos += length;
+		}
+		return path;
+	}
+
+	private static boolean readBlock(InputStream is, byte[] block) throws IOException {
+		int n = IOUtils.read(is, block);
+		if (n == 0) {
+			return false;
+		} else if (n < block.length) {
+			throw new IOException("truncated tar stream");
+		}
+		return true;
+	}
+
+	private static boolean isZeroBlock(byte[] block) {
+		for (byte b : block) {
+			if (b != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isPosixUstar(byte[] header) {
+		for (int i = 0; i < USTAR_MAGIC.length; i++) {
+			if (header[257 + i] != USTAR_MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String tarString(byte[] bytes, int offset, int length) {
+		int end = offset;
+		while (end < offset + length && bytes[end] != 0) {
+			end++;
+		}
+		try {
+			return new String(bytes, offset, end - offset, "UTF-8");
+		} catch (IOException e) {
+			throw new RuntimeException("BUG", e);
+		}
+	}
+
+	/** one batch of documents.
+	 * the reader thread calls read() which submits documents to the
+	 * executor. Permits bound the documents in flight; the consumer
+	 * returns a permit for each result it takes.
+	 */
+	private abstract class Batch implements Iterator<Result> {
+
+		private BlockingQueue<Result> queue = new ArrayBlockingQueue<Result>(queueSize + 2);
+		private Semaphore permits = new Semaphore(queueSize);
+		// reader counts as one pending task
+		private AtomicInteger pending = new AtomicInteger(1);
+		private Result next;
+
+		abstract void read() throws IOException;
+
+		Batch start() {
+			startTime.compareAndSet(0, System.nanoTime());
+			Thread reader = new Thread(new Runnable() {
+				public void run() {
+					try {
+						read();
+					} catch (Exception e) {
+						LOG.error("batch read failed: "+e);
+						put(new Result(null, null, e));
+						failureCount.incrementAndGet();
+					} finally {
+						finishTask();
+					}
+				}
+			}, "CMLBatchParser-reader");
+			reader.setDaemon(true);
+			reader.start();
+			return this;
+		}
+
+		void submit(final String name, final File file, final byte[] bytes) {
+			try {
+				permits.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("interrupted", e);
+			}
+			pending.incrementAndGet();
+			try {
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							put(parse(name, file, bytes));
+						} finally {
+							finishTask();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// e.g. executor shut down or saturated
+				LOG.debug("cannot submit "+name+": "+e);
+				put(new Result(name, null, e));
+				failureCount.incrementAndGet();
+				finishTask();
+			}
+		}
+
+		private void finishTask() {
+			if (pending.decrementAndGet() == 0) {
+				put(END);
+			}
+		}
+
+		private void put(Result result) {
+			try {
+				queue.put(result);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("interrupted", e);
+			}
+		}
+
+		public boolean hasNext() {
+			if (next == null) {
+				try {
+					next = queue.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("interrupted", e);
+				}
+				if (next != END && next.getName() != null) {
+					permits.release();
+				}
+			}
+			return next != END;
+		}
+
+		public Result next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Result result = next;
+			next = null;
+			return result;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
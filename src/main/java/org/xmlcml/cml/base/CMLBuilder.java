@@ -16,25 +16,39 @@
 
 package org.xmlcml.cml.base;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringReader;
 
+import nu.xom.Attribute;
 import nu.xom.Builder;
+import nu.xom.Comment;
 import nu.xom.Document;
 import nu.xom.Element;
+import nu.xom.Node;
 import nu.xom.NodeFactory;
+import nu.xom.Nodes;
+import nu.xom.ParentNode;
 import nu.xom.ParsingException;
+import nu.xom.ProcessingInstruction;
+import nu.xom.Text;
 import nu.xom.ValidityException;
 
+import org.apache.log4j.Logger;
+
 /**
  * 
  * <p>
  * Class extending the XOM builder, constructs a XOM builder using either the
  * CML node factory as default or a passed node factory.
  * </p>
+ * <p>
+ * The default constructors give each builder its own CMLNodeFactory so 
+ * that builders on different threads do not share parse state. As with
+ * the XOM Builder, a single CMLBuilder must not be used by several threads
+ * at once.
+ * </p>
  * 
  * @author Peter Murray-Rust
  * @version 5.0
@@ -42,22 +56,24 @@ import nu.xom.ValidityException;
  */
 public class CMLBuilder extends Builder implements CMLConstants {
 
+	private static Logger LOG = Logger.getLogger(CMLBuilder.class);
+
     /**
-     * Constructs a XOM builder using the (subclassed) CML node factory
+     * Constructs a XOM builder using a new (subclassed) CML node factory
      */
     public CMLBuilder() {
-        this(CMLNodeFactory.nodeFactory);
+        this(CMLNodeFactory.createNodeFactory());
     }
     
 
     /**
-     * Constructs a XOM builder using the (subclassed) CML node factory
+     * Constructs a XOM builder using a new (subclassed) CML node factory
      * 
      * @param validate
      *            if true
      */
     public CMLBuilder(boolean validate) {
-        this(validate, CMLNodeFactory.nodeFactory);
+        this(validate, CMLNodeFactory.createNodeFactory());
     }
 
     /**
@@ -82,6 +98,38 @@ public class CMLBuilder extends Builder implements CMLConstants {
         super(validate, nodeFactory);
     }
 
+    /**
+     * trust input, e.g. files written by this library.
+     * CML attributes keep their raw values, which are parsed on first typed
+     * access and not checked against their types. Use CMLElement.validate()
+     * to check a tree on demand.
+     * 
+     * @param trusted
+     * @throws RuntimeException
+     *             if the node factory is not a CMLNodeFactory
+     */
+    public void setTrusted(boolean trusted) {
+        NodeFactory nodeFactory = this.getNodeFactory();
+        if (!(nodeFactory instanceof CMLNodeFactory)) {
+            throw new RuntimeException("trusted parsing needs a CMLNodeFactory");
+        }
+        if (nodeFactory == CMLNodeFactory.nodeFactory) {
+            throw new RuntimeException("cannot change shared CMLNodeFactory");
+        }
+        ((CMLNodeFactory) nodeFactory).setTrusted(trusted);
+    }
+
+    /**
+     * is input trusted.
+     * 
+     * @return true if attribute values are parsed lazily and not checked
+     */
+    public boolean isTrusted() {
+        NodeFactory nodeFactory = this.getNodeFactory();
+        return (nodeFactory instanceof CMLNodeFactory) &&
+            ((CMLNodeFactory) nodeFactory).isTrusted();
+    }
+
     /**
      * convenience method to parse XML string.
      * 
@@ -103,8 +151,11 @@ public class CMLBuilder extends Builder implements CMLConstants {
 
     /** make sure a document has CMLNamespace if possible.
      * if document has CML namespace, returns it.
-     * if document does not, converts to String and reparses it.
-     * horrid hack, but that's because some people don't use namespaces.
+     * if document does not, makes a CML copy in which elements without
+     * a namespace are in the CML namespace (as if the root element had
+     * declared it as default namespace). Obsolete CML namespaces are
+     * converted as in parsing.
+     * that's because some people don't use namespaces.
      * @param doc
      * @return document
      */
@@ -112,25 +163,21 @@ public class CMLBuilder extends Builder implements CMLConstants {
     	Element root = doc.getRootElement();
 		String nameURI = root.getNamespaceURI();
     	if (!CMLConstants.CML_NS.equals(nameURI)) {
-    		
-    		try {
-	    		System.err.println("No CML namespace; munging one in");
-	    		ByteArrayOutputStream ss = new ByteArrayOutputStream();
-	    		CMLUtil.debug(root, ss, 0);
-	    		ss.close(); 
-	    		String s = ss.toString();
-	    		// find first line after any declaration
-	    		int idx = s.indexOf(">\n");
-	    		if (s.startsWith("<?")) {
-	    			idx = s.indexOf(">\n", idx);
-	    		}
-	    		// add namespace
-	    		String sss = s.substring(0, idx) + S_SPACE+CMLConstants.CML_XMLNS +s.substring(idx);
-	    		Element newRoot = new CMLBuilder().parseString(sss);
-	    		doc = newRoot.getDocument();
-    		} catch (Exception e) {
-    			throw new RuntimeException("BUG "+e);
+    		LOG.debug("No CML namespace; munging one in");
+    		Element newRoot = convert(root, true);
+    		Document newDoc = new Document(newRoot);
+    		// prolog and epilog
+    		int pos = 0;
+    		for (int i = 0; i < doc.getChildCount(); i++) {
+    			Node child = doc.getChild(i);
+    			if (child == root) {
+    				pos = newDoc.indexOf(newRoot) + 1;
+    			} else {
+    				newDoc.insertChild(child.copy(), pos++);
+    			}
     		}
+    		newDoc.setBaseURI(doc.getBaseURI());
+    		doc = newDoc;
     	}
     	return doc;
     }
@@ -184,11 +231,11 @@ public class CMLBuilder extends Builder implements CMLConstants {
         if (xml instanceof CMLElement) {
             return (CMLElement) xml.copy();
         } else {
-            Document doc = new Document((Element) xml.copy());
             try {
-                Document doc2 = new CMLBuilder().build(doc.toXML(), doc.getBaseURI());
-                CMLElement cmlElement = (CMLElement) doc2.getRootElement();
-                return cmlElement;
+                Element element = convert(xml, false);
+                Document doc = new Document(element);
+                doc.setBaseURI(xml.getBaseURI());
+                return (CMLElement) element;
             } catch (Exception e) {
                 CMLUtil.debug(xml, "ensureCMLProblem "+e);
                 throw new RuntimeException("ensureCMLProblem", e);
@@ -196,5 +243,88 @@ public class CMLBuilder extends Builder implements CMLConstants {
        }
     }
 
+    /** copies a XOM tree through a new CMLNodeFactory.
+     * calls the factory as the builder does when parsing the serialized
+     * tree, so gives the same CMLElement subclasses, attributes and
+     * finishMakingElement() callbacks without a text round trip.
+     * xml is not changed.
+     * @param xml
+     * @param noNamespaceIsCML put elements without namespace into CML
+     * @return new root element
+     */
+    private static Element convert(Element xml, boolean noNamespaceIsCML) {
+    	CMLNodeFactory factory = CMLNodeFactory.createNodeFactory();
+    	factory.startMakingDocument();
+    	return convert(xml, null, factory, noNamespaceIsCML);
+    }
+
+    private static Element convert(Element xml, ParentNode parent,
+    		CMLNodeFactory factory, boolean noNamespaceIsCML) {
+    	String namespace = xml.getNamespaceURI();
+    	if (noNamespaceIsCML && namespace.length() == 0) {
+    		namespace = CML_NS;
+    	}
+    	Element element = factory.startMakingElement(xml.getQualifiedName(), namespace);
+    	if (parent != null) {
+    		parent.appendChild(element);
+    	}
+    	for (int i = 0; i < xml.getAttributeCount(); i++) {
+    		Attribute att = xml.getAttribute(i);
+    		Nodes nodes = factory.makeAttribute(att.getQualifiedName(),
+    				att.getNamespaceURI(), att.getValue(), att.getType());
+    		for (int j = 0; j < nodes.size(); j++) {
+    			Node node = nodes.get(j);
+    			if (node instanceof Attribute) {
+    				element.addAttribute((Attribute) node);
+    			} else {
+    				element.appendChild(node);
+    			}
+    		}
+    	}
+    	for (int i = 0; i < xml.getNamespaceDeclarationCount(); i++) {
+    		String prefix = xml.getNamespacePrefix(i);
+    		String uri = xml.getNamespaceURI(prefix);
+    		if (!uri.equals(element.getNamespaceURI(prefix)) &&
+    				!prefix.equals(element.getNamespacePrefix())) {
+    			element.addNamespaceDeclaration(prefix, uri);
+    		}
+    	}
+    	StringBuilder text = null;
+    	for (int i = 0; i < xml.getChildCount(); i++) {
+    		Node child = xml.getChild(i);
+    		if (child instanceof Text) {
+    			// adjacent Text nodes are one (non-empty) node after parsing
+    			if (text == null) {
+    				text = new StringBuilder();
+    			}
+    			text.append(child.getValue());
+    			continue;
+    		}
+    		if (text != null && text.length() > 0) {
+    			appendNodes(element, factory.makeText(text.toString()));
+    		}
+    		text = null;
+    		if (child instanceof Element) {
+    			convert((Element) child, element, factory, noNamespaceIsCML);
+    		} else if (child instanceof Comment) {
+    			appendNodes(element, factory.makeComment(child.getValue()));
+    		} else if (child instanceof ProcessingInstruction) {
+    			ProcessingInstruction pi = (ProcessingInstruction) child;
+    			appendNodes(element, factory.makeProcessingInstruction(pi.getTarget(), pi.getValue()));
+    		}
+    	}
+    	if (text != null && text.length() > 0) {
+    		appendNodes(element, factory.makeText(text.toString()));
+    	}
+    	factory.finishMakingElement(element);
+    	return element;
+    }
+
+    private static void appendNodes(Element element, Nodes nodes) {
+    	for (int i = 0; i < nodes.size(); i++) {
+    		element.appendChild(nodes.get(i));
+    	}
+    }
+
 
 }
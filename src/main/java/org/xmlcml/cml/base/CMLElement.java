@@ -120,9 +120,12 @@ public class CMLElement extends Element implements CMLConstants, Comparable<CMLE
 
     private Map<String, Object> propertyMap;
 
-    private Map<String, List<CMLElement>> idMap;
+    /** only held by the oldest CML ancestor; see getElementsById() */
+    private IdIndex idIndex;
     private CMLLog log = null;
     private AbstractTool tool;
+    /** set by a trusted CMLNodeFactory while parsed attributes are added */
+    private boolean trustedValues = false;
     
     protected static CMLNodeFactory nodeFactory = CMLNodeFactory.nodeFactory;
     protected static AttributeFactory attributeFactory = AttributeFactory.attributeFactory;
@@ -216,17 +219,115 @@ public class CMLElement extends Element implements CMLConstants, Comparable<CMLE
      */
     public void finishMakingElement(Element parent) {
     }
+
+    /**
+     * callback before the element is written by CMLSerializer. allows
+     * subclasses holding values outside XOM to update their attributes
+     * and content.
+     * No-op unless overridden in subclass
+     */
+    public void updateXOM() {
+    }
     
     protected void addRemove(CMLAttribute att, String value) {
     	if (value == null || value.equals(S_EMPTY)) {
     		this.removeAttribute(att.getLocalName());
     	} else if (att == null) {
     	} else {
-    		att.setCMLValue(value);
-    		super.addAttribute(att);
+    		if (trustedValues) {
+    			att.setTrustedValue(value);
+    		} else {
+    			att.setCMLValue(value);
+    		}
+    		addAttributeAndIndex(att);
     	}
     }
 
+    /** override addAttribute.
+     * keeps the id index of the tree up to date
+     * @param attribute
+     */
+    public void addAttribute(Attribute attribute) {
+        addAttributeAndIndex(attribute);
+    }
+
+    private void addAttributeAndIndex(Attribute attribute) {
+        if (isIdAttribute(attribute)) {
+            String oldId = this.getAttributeValue(ID);
+            super.addAttribute(attribute);
+            updateIdIndex(oldId, attribute.getValue());
+        } else {
+            super.addAttribute(attribute);
+        }
+    }
+
+    /** override removeAttribute.
+     * keeps the id index of the tree up to date
+     * @param attribute
+     * @return removed attribute
+     */
+    public Attribute removeAttribute(Attribute attribute) {
+        Attribute removed = super.removeAttribute(attribute);
+        if (isIdAttribute(attribute)) {
+            updateIdIndex(attribute.getValue(), null);
+        }
+        return removed;
+    }
+
+    private static boolean isIdAttribute(Attribute attribute) {
+        return attribute != null && ID.equals(attribute.getLocalName()) &&
+            attribute.getNamespaceURI().length() == 0;
+    }
+
+    private void updateIdIndex(String oldId, String newId) {
+        if (oldId == null ? newId == null : oldId.equals(newId)) {
+            return;
+        }
+        IdIndex index = getOldestCMLAncestor().idIndex;
+        if (index != null) {
+            index.remove(oldId, this);
+            index.add(newId, this);
+        }
+    }
+
+    /**
+     * parses and checks the values of all CML attributes on this element
+     * and its descendants as an untrusted parse would.
+     * see CMLBuilder.setTrusted().
+     * 
+     * @throws RuntimeException
+     *             if a value is of wrong type or violates restriction
+     */
+    public void validate() {
+        validate(this);
+    }
+
+    /** attributes added by setFoo(String) keep their raw values.
+     * used by CMLNodeFactory for trusted parsing.
+     * @param trusted
+     */
+    void setTrustedValues(boolean trusted) {
+        this.trustedValues = trusted;
+    }
+
+    private static void validate(Element element) {
+        for (int i = 0; i < element.getAttributeCount(); i++) {
+            Attribute attribute = element.getAttribute(i);
+            if (attribute instanceof CMLAttribute) {
+                try {
+                    ((CMLAttribute) attribute).validate();
+                } catch (RuntimeException e) {
+                    throw new RuntimeException("bad "+attribute.getLocalName()+
+                        " on "+element.getLocalName()+": "+e.getMessage(), e);
+                }
+            }
+        }
+        Elements childElements = element.getChildElements();
+        for (int i = 0; i < childElements.size(); i++) {
+            validate(childElements.get(i));
+        }
+    }
+
     /**
      * copies attributes. makes subclass if necessary.
      * 
@@ -280,13 +381,39 @@ public class CMLElement extends Element implements CMLConstants, Comparable<CMLE
     }
 
     /** override insertChild.
-     * if newNode has parent detach()es first
+     * if newNode has parent detach()es first.
+     * adds the ids of a CMLElement subtree to the id index of the tree
      * @param newNode
      * @param pos
      */
     public void insertChild(Node newNode, int pos) {
         newNode.detach();
         super.insertChild(newNode, pos);
+        if (newNode instanceof CMLElement) {
+            CMLElement element = (CMLElement) newNode;
+            element.idIndex = null;
+            IdIndex index = getOldestCMLAncestor().idIndex;
+            if (index != null) {
+                index.addTree(element);
+            }
+        }
+    }
+
+    /** override removeChild.
+     * removes the ids of a CMLElement subtree from the id index of the tree.
+     * removeChild(Node) and detach() come here as well
+     * @param pos
+     * @return removed node
+     */
+    public Node removeChild(int pos) {
+        Node child = this.getChild(pos);
+        if (child instanceof CMLElement) {
+            IdIndex index = getOldestCMLAncestor().idIndex;
+            if (index != null) {
+                index.removeTree((CMLElement) child);
+            }
+        }
+        return super.removeChild(pos);
     }
 
     /** re-route detach().
@@ -755,17 +882,16 @@ public class CMLElement extends Element implements CMLConstants, Comparable<CMLE
 
     /**
      * descendant elements by id. normally only one, but id is not required to
-     * be unique
+     * be unique. uses the id index (see getElementsById())
      * 
      * @param id
-     * @return elements
+     * @return elements (not including this)
      */
     public List<CMLElement> getDescendantCMLElementsById(String id) {
         List<CMLElement> elementList = new ArrayList<CMLElement>();
         if (id != null) {
-            List<CMLElement> childElements = this.getChildCMLElements();
-            for (CMLElement e : childElements) {
-                if (id.equals(e.getAttribute(ID))) {
+            for (CMLElement e : getElementsById(id, false)) {
+                if (e != this) {
                     elementList.add(e);
                 }
             }
@@ -951,41 +1077,39 @@ public class CMLElement extends Element implements CMLConstants, Comparable<CMLE
         return current;
     }
     
-    /** gets element(s) which have given id.
-     * fragile as it indexes the object once and if the 
-     * XOM is modified will be out of sync and needs refreshing
+    /** gets element(s) in this subtree (including this) which have given id.
+     * the whole tree under the oldest CML ancestor is indexed on the first
+     * call and the index is then kept up to date by insertChild(),
+     * removeChild(), addAttribute() and removeAttribute() (and so by
+     * appendChild(), detach(), setId(), resetId()...). Only changing the
+     * value of an id attribute in place needs a refresh.
      * @param id (not necessarily unique
-     * @param refresh the idMap
+     * @param refresh rebuild the index
      * @return list of ids (never null, nay be 0)
      */
     public List<CMLElement> getElementsById(String id, boolean refresh) {
-        if (idMap == null || refresh) {
-            idMap = new HashMap<String, List<CMLElement>>();
-            addIds(this);
+        CMLElement root = getOldestCMLAncestor();
+        if (root.idIndex == null || refresh) {
+            root.idIndex = new IdIndex(root);
         }
-        List<CMLElement> elemList = idMap.get(id);
-        if (elemList == null) {
-            elemList = new ArrayList<CMLElement>();
+        List<CMLElement> elemList = root.idIndex.get(id);
+        if (root != this) {
+            for (int i = elemList.size() - 1; i >= 0; i--) {
+                if (!isAncestorOrSelf(elemList.get(i))) {
+                    elemList.remove(i);
+                }
+            }
         }
         return elemList;
     }
-    
-    void addIds(CMLElement elem) {
-        String id = elem.getAttributeValue(ID);
-        if (id != null) {
-            List<CMLElement> idList = idMap.get(id);
-            if (idList == null) {
-                idList = new ArrayList<CMLElement>();
-                idMap.put(id, idList);
-            }
-            if (!idList.contains(elem)) {
-                idList.add(elem);
+
+    private boolean isAncestorOrSelf(Node node) {
+        for (; node != null; node = node.getParent()) {
+            if (node == this) {
+                return true;
             }
         }
-        List<CMLElement> childList = elem.getChildCMLElements();
-        for (CMLElement child : childList) {
-            addIds(child);
-        }
+        return false;
     }
     /**
      * gets an Xpointer-like string describing the context of the element.
@@ -1190,15 +1314,29 @@ public class CMLElement extends Element implements CMLConstants, Comparable<CMLE
 	 * 
 	 */
 	public CMLElement dereferenceRef() {
+		return dereferenceRef(null);
+	}
+
+	/**
+	 * @param externalMap elements already read from URLs and files, by ref
+	 *     (if null, reads each time)
+	 */
+	private CMLElement dereferenceRef(Map<String, CMLElement> externalMap) {
 		CMLElement element = null;
 		String ref = this.getAttributeValue(RefAttribute.NAME);
 		if (ref != null) {
 			element = referenceWithinXML(ref);
-			if (element == null) {
-				element = readFromURL(ref);
+			if (element == null && externalMap != null && externalMap.containsKey(ref)) {
+				return externalMap.get(ref);
 			}
 			if (element == null) {
-				element = readFromRelativeFile(ref);
+				element = readFromURL(ref);
+				if (element == null) {
+					element = readFromRelativeFile(ref);
+				}
+				if (externalMap != null) {
+					externalMap.put(ref, element);
+				}
 			}
 		}
 		return element;
@@ -1207,18 +1345,39 @@ public class CMLElement extends Element implements CMLConstants, Comparable<CMLE
 	/**
 	 * dereferences element in @ref attribute and creates a new element
 	 * replaces 'this' by copy of new element
-	 * 
+	 * does this for all elements with @ref in the document, looking ids up
+	 * in the id index and reading each URL or file only once
 	 * 
 	 */
 	public void dereferenceRefsCopyReplace() {
-		Nodes nodes = this.query("//*[@"+RefAttribute.NAME+"]", CMLConstants.CML_XPATH);
 		List<CMLElement> elementList = new ArrayList<CMLElement>();
-		for (int i = 0; i < nodes.size(); i++) {
-			elementList.add((CMLElement) nodes.get(i));
-		}
+		addElementsWithRef(getTopElement(), elementList);
+		// each URL or file is only read once
+		Map<String, CMLElement> externalMap = new HashMap<String, CMLElement>();
 		for (CMLElement element : elementList) {
-			element.dereferenceRefCopyReplace();
+			element.dereferenceRefCopyReplace(externalMap);
+		}
+	}
+
+	private static void addElementsWithRef(Element element, List<CMLElement> elementList) {
+		if (element instanceof CMLElement &&
+				element.getAttribute(RefAttribute.NAME) != null) {
+			elementList.add((CMLElement) element);
+		}
+		for (int i = 0; i < element.getChildCount(); i++) {
+			Node child = element.getChild(i);
+			if (child instanceof Element) {
+				addElementsWithRef((Element) child, elementList);
+			}
+		}
+	}
+
+	private Element getTopElement() {
+		Element top = this;
+		while (top.getParent() instanceof Element) {
+			top = (Element) top.getParent();
 		}
+		return top;
 	}
 
 	/**
@@ -1228,7 +1387,11 @@ public class CMLElement extends Element implements CMLConstants, Comparable<CMLE
 	 * else discards it
 	 */
 	public CMLElement dereferenceRefCopyReplace() {
-		CMLElement dereferencedElement = (CMLElement) this.dereferenceRef();
+		return dereferenceRefCopyReplace(null);
+	}
+
+	private CMLElement dereferenceRefCopyReplace(Map<String, CMLElement> externalMap) {
+		CMLElement dereferencedElement = (CMLElement) this.dereferenceRef(externalMap);
 		if (this.getParent() != null && !(this.getParent() instanceof Document) && dereferencedElement != null) {
 			String id = this.getId();
 			CMLElement newElement = (CMLElement) dereferencedElement.copy();
@@ -1243,7 +1406,30 @@ public class CMLElement extends Element implements CMLConstants, Comparable<CMLE
 		return dereferencedElement;
 	}
 
+	/** the single CML element in the document (other than the root
+	 * element) with id=ref.
+	 * uses the id index (see getElementsById()) unless there are
+	 * non-CML elements above this. The index does not look below non-CML
+	 * elements, so if it has no match the document is searched with XPath.
+	 */
 	private CMLElement referenceWithinXML(String ref) {
+		Element top = getTopElement();
+		if (top == this) {
+			return null;
+		}
+		if (top == getOldestCMLAncestor()) {
+			CMLElement element = null;
+			int count = 0;
+			for (CMLElement e : ((CMLElement) top).getElementsById(ref, false)) {
+				if (e != top && CMLConstants.CML_NS.equals(e.getNamespaceURI())) {
+					element = e;
+					count++;
+				}
+			}
+			if (count > 0) {
+				return (count == 1) ? element : null;
+			}
+		}
 		Nodes refs = this.query("ancestor::*//*[namespace-uri()='"+CMLConstants.CML_NS+"'and @id='"+ref+"']");
 		CMLElement element = refs.size() == 1 ? (CMLElement) refs.get(0) : null;
 		return element;
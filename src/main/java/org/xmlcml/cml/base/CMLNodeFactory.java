@@ -16,11 +16,12 @@
 
 package org.xmlcml.cml.base;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 
 import nu.xom.Attribute;
+import nu.xom.Document;
 import nu.xom.Element;
 import nu.xom.NodeFactory;
 import nu.xom.Nodes;
@@ -32,6 +33,11 @@ import org.apache.log4j.Logger;
 *
 * autogenerated from schema
 * use as a shell which can be edited
+* 
+* the current element and stack change during every parse, so an instance
+* must only be used by one builder at a time. Use createNodeFactory() to
+* get a private instance for each thread; the class lookup cache is shared
+* between all instances.
 
 */
 public class CMLNodeFactory extends NodeFactory implements CMLConstants {
@@ -43,12 +49,17 @@ public class CMLNodeFactory extends NodeFactory implements CMLConstants {
     private Element current;
     /** current element stack*/
     private Stack<Element> stack = new Stack<Element>();
-    /** must give simple documentation.
+    /** keep raw attribute values; parse them on first typed access */
+    private boolean trusted = false;
+    /** prototype elements indexed by local name.
+     * shared by all factories and threads
      */
-     private Map<String, CMLElement> factoryElementMap;
+     private static final Map<String, CMLElement> factoryElementMap =
+    	 new ConcurrentHashMap<String, CMLElement>();
 
     // singleton
      /** singleton node factory.
+      * NOT thread-safe; concurrent parsers should each use createNodeFactory()
       */
     public static final CMLNodeFactory nodeFactory = new CMLNodeFactory();
     static {
@@ -56,13 +67,40 @@ public class CMLNodeFactory extends NodeFactory implements CMLConstants {
     }
     
     private CMLNodeFactory() {
-    	factoryElementMap = new HashMap<String, CMLElement>();
+    }
+
+    /** creates a new node factory with its own parse state.
+     * the element class cache is shared with all other factories
+     * so this is cheap.
+     * @return node factory
+     */
+    public static CMLNodeFactory createNodeFactory() {
+    	CMLNodeFactory factory = new CMLNodeFactory();
+    	factory.init();
+    	return factory;
     }
     
     void init() {
 //    	LOG.debug("NODE FACTORY INIT");
     }
 
+    /** is input trusted.
+     * @return true if attribute values are neither parsed nor checked
+     */
+    public boolean isTrusted() {
+    	return trusted;
+    }
+
+    /** trust input, e.g. files written by this library.
+     * attributes keep their raw values which are parsed on first
+     * typed access (getDouble(), getIntArray()...) and only checked
+     * by CMLElement.validate(). Do not set on the shared nodeFactory.
+     * @param trusted
+     */
+    public void setTrusted(boolean trusted) {
+    	this.trusted = trusted;
+    }
+
     public static Class<?> makeClass(String base, String name) {
 		Class<?> newClass = null;
 		String className = null;
@@ -85,6 +123,16 @@ public class CMLNodeFactory extends NodeFactory implements CMLConstants {
 	private static String makeClassName(String base, String name) {
 		return base+S_PERIOD+CMLUtil.makeCMLName(name);
 	}
+    /** callback at start of document.
+     * clears any state left from a previous (possibly failed) parse
+     * @return document
+     */
+    public Document startMakingDocument() {
+    	current = null;
+    	stack.clear();
+    	return super.startMakingDocument();
+    }
+
     /** callback from element end tag.
     *
     * @param element the context element
@@ -92,6 +140,9 @@ public class CMLNodeFactory extends NodeFactory implements CMLConstants {
     */
     public Nodes finishMakingElement(Element element) {
         Element parent = stack.pop();
+        if (trusted && current instanceof CMLElement) {
+        	((CMLElement) current).setTrustedValues(false);
+        }
         if (current instanceof CMLElement) {
         	// trap exceptions, mainly due to semantics
         	// still trying to work this out
@@ -128,8 +179,13 @@ public class CMLNodeFactory extends NodeFactory implements CMLConstants {
             if (attributeGroupName == null) {
             	attribute = new Attribute(attributeName, value);
             } else {
-            	attribute = AttributeFactory.attributeFactory.getAttributeByGroupName(attributeGroupName);
-            	((CMLAttribute)attribute).setCMLValue(value);
+            	// copy the shared prototype; it must never be modified here
+            	attribute = AttributeFactory.attributeFactory.getAttributeByGroupName(attributeGroupName).copy();
+            	if (trusted) {
+            		((CMLAttribute)attribute).setTrustedValue(value);
+            	} else {
+            		((CMLAttribute)attribute).setCMLValue(value);
+            	}
             }
         } else if (prefixLoc == -1) {
     // non-prefixed non-cml element
@@ -208,9 +264,16 @@ public class CMLNodeFactory extends NodeFactory implements CMLConstants {
     	        	e.printStackTrace();
     	            throw new RuntimeException("Cannot instantiate because: "+name+"["+e+"]");
     	        }
-    	        factoryElementMap.put(name, factoryElement);
+    	        CMLElement oldElement = factoryElementMap.putIfAbsent(name, factoryElement);
+    	        if (oldElement != null) {
+    	        	factoryElement = oldElement;
+    	        }
     	    }
             newElement = factoryElement.makeElementInContext((Element)current);
+            if (trusted) {
+            	// cleared in finishMakingElement()
+            	((CMLElement) newElement).setTrustedValues(true);
+            }
         }
         stack.push(current);
         current = newElement;
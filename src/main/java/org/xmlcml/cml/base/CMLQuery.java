@@ -0,0 +1,384 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.base;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nu.xom.Element;
+import nu.xom.Node;
+import nu.xom.Nodes;
+import nu.xom.ParentNode;
+
+/**
+ * simple CML paths evaluated by walking the tree instead of by XPath.
+ * <p>
+ * Covers the child, descendant and ancestor axes with a name test, which
+ * is what most queries on CML trees are:
+ * </p>
+ * <pre>
+ * cml:peak  ./cml:peak  child::cml:peak  ./*
+ * .//cml:peak  descendant::cml:peak
+ * ancestor::cml:molecule
+ * </pre>
+ * <p>
+ * As in XPath (with CML_XPATH) the prefix cml means the CML namespace,
+ * no prefix means no namespace and * is any name (or any element).
+ * Results are in document order, as from XOM query(), so the first
+ * ancestor is the outermost one. The iterators do not copy the tree and
+ * must not be used while it is being changed.
+ * </p>
+ * <p>
+ * Compiled queries are immutable and are cached by compile() so can be
+ * held in static fields and shared between threads.
+ * </p>
+ * <pre>
+ * private final static CMLQuery PEAKS = CMLQuery.compile(".//cml:peak");
+ * ...
+ * for (Element peak : PEAKS.iterable(peakList)) {
+ * </pre>
+ */
+public final class CMLQuery {
+
+    /** axes that can be queried.
+     */
+    public enum Axis {
+        /** child:: */
+        CHILD,
+        /** descendant:: */
+        DESCENDANT,
+        /** ancestor:: */
+        ANCESTOR;
+    }
+
+    private final static Map<String, CMLQuery> queryMap =
+        new ConcurrentHashMap<String, CMLQuery>();
+
+    private final Axis axis;
+    // null for any
+    private final String localName;
+    // null for any
+    private final String namespaceURI;
+
+    /** query for CML elements.
+     *
+     * @param axis
+     * @param localName null or * for any name
+     */
+    public CMLQuery(Axis axis, String localName) {
+        this(axis, localName, CMLConstants.CML_NS);
+    }
+
+    /**
+     * @param axis
+     * @param localName null or * for any name
+     * @param namespaceURI null for any namespace
+     */
+    public CMLQuery(Axis axis, String localName, String namespaceURI) {
+        if (axis == null) {
+            throw new RuntimeException("null axis");
+        }
+        this.axis = axis;
+        this.localName = ("*".equals(localName)) ? null : localName;
+        this.namespaceURI = namespaceURI;
+    }
+
+    /** compiles (or gets from the cache) query for a path.
+     *
+     * @param path such as ./cml:peak, .//cml:peak or ancestor::cml:molecule
+     * @return query
+     * @throws RuntimeException if path is not a single supported step
+     */
+    public static CMLQuery compile(String path) {
+        CMLQuery query = queryMap.get(path);
+        if (query == null) {
+            query = parse(path);
+            queryMap.put(path, query);
+        }
+        return query;
+    }
+
+    private static CMLQuery parse(String path) {
+        String step = path.trim();
+        Axis axis = Axis.CHILD;
+        if (step.startsWith(".//")) {
+            axis = Axis.DESCENDANT;
+            step = step.substring(3);
+        } else if (step.startsWith("./")) {
+            step = step.substring(2);
+        }
+        if (step.startsWith("child::")) {
+            step = step.substring("child::".length());
+        } else if (axis == Axis.CHILD && step.startsWith("descendant::")) {
+            axis = Axis.DESCENDANT;
+            step = step.substring("descendant::".length());
+        } else if (axis == Axis.CHILD && step.startsWith("ancestor::")) {
+            axis = Axis.ANCESTOR;
+            step = step.substring("ancestor::".length());
+        }
+        String namespaceURI = "";
+        int idx = step.indexOf(CMLConstants.S_COLON);
+        if (step.equals("*")) {
+            namespaceURI = null;
+        } else if (idx != -1) {
+            if (!CMLConstants.CML_PREFIX.equals(step.substring(0, idx))) {
+                throw new RuntimeException("unsupported prefix in CMLQuery path: "+path);
+            }
+            namespaceURI = CMLConstants.CML_NS;
+            step = step.substring(idx + 1);
+        }
+        if (step.length() == 0 || !(step.equals("*") || isName(step))) {
+            throw new RuntimeException("unsupported CMLQuery path: "+path);
+        }
+        return new CMLQuery(axis, step, namespaceURI);
+    }
+
+    private static boolean isName(String s) {
+        if (!Character.isLetter(s.charAt(0)) && s.charAt(0) != '_') {
+            return false;
+        }
+        for (int i = 1; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return axis
+     */
+    public Axis getAxis() {
+        return axis;
+    }
+
+    /**
+     * @param element
+     * @return true if name and namespace match
+     */
+    public boolean matches(Element element) {
+        return (localName == null || localName.equals(element.getLocalName())) &&
+            (namespaceURI == null || namespaceURI.equals(element.getNamespaceURI()));
+    }
+
+    /** iterates over the matching elements.
+     *
+     * @param context
+     * @return iterator in document order
+     */
+    public Iterator<Element> iterator(Node context) {
+        switch (axis) {
+        case CHILD:
+            return new ChildIterator(context);
+        case DESCENDANT:
+            return new DescendantIterator(context);
+        default:
+            return ancestors(context).iterator();
+        }
+    }
+
+    /** for use in foreach loops.
+     *
+     * @param context
+     * @return iterable
+     */
+    public Iterable<Element> iterable(final Node context) {
+        return new Iterable<Element>() {
+            public Iterator<Element> iterator() {
+                return CMLQuery.this.iterator(context);
+            }
+        };
+    }
+
+    /**
+     * @param context
+     * @return first matching element in document order or null
+     */
+    public Element first(Node context) {
+        Iterator<Element> iterator = iterator(context);
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    /**
+     * @param context
+     * @return matching elements
+     */
+    public List<Element> list(Node context) {
+        return list(context, Element.class);
+    }
+
+    /**
+     * @param <T> type of elements
+     * @param context
+     * @param type of all matching elements
+     * @return matching elements
+     * @throws ClassCastException if an element is not of type
+     */
+    public <T extends Element> List<T> list(Node context, Class<T> type) {
+        List<T> elementList = new ArrayList<T>();
+        for (Iterator<Element> iterator = iterator(context); iterator.hasNext(); ) {
+            elementList.add(type.cast(iterator.next()));
+        }
+        return elementList;
+    }
+
+    /** same result as context.query(path, CML_XPATH).
+     *
+     * @param context
+     * @return matching elements
+     */
+    public Nodes query(Node context) {
+        Nodes nodes = new Nodes();
+        for (Iterator<Element> iterator = iterator(context); iterator.hasNext(); ) {
+            nodes.append(iterator.next());
+        }
+        return nodes;
+    }
+
+    /**
+     * @param context
+     * @return number of matching elements
+     */
+    public int count(Node context) {
+        int count = 0;
+        for (Iterator<Element> iterator = iterator(context); iterator.hasNext(); ) {
+            iterator.next();
+            count++;
+        }
+        return count;
+    }
+
+    private List<Element> ancestors(Node context) {
+        List<Element> elementList = new ArrayList<Element>(4);
+        for (ParentNode parent = context.getParent(); parent instanceof Element;
+                parent = parent.getParent()) {
+            if (matches((Element) parent)) {
+                elementList.add(0, (Element) parent);
+            }
+        }
+        return elementList;
+    }
+
+    /**
+     * @return path such as child::cml:peak
+     */
+    public String toString() {
+        String prefix = CMLConstants.CML_NS.equals(namespaceURI) ?
+            CMLConstants.CML_PREFIX + CMLConstants.S_COLON : "";
+        return axis.toString().toLowerCase() + "::" + prefix + ((localName == null) ? "*" : localName);
+    }
+
+    private abstract class MatchIterator implements Iterator<Element> {
+        Element next;
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public Element next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Element element = next;
+            advance();
+            return element;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        abstract void advance();
+    }
+
+    private class ChildIterator extends MatchIterator {
+        private ParentNode parent;
+        private int index = 0;
+
+        ChildIterator(Node context) {
+            parent = (context instanceof ParentNode) ? (ParentNode) context : null;
+            advance();
+        }
+
+        void advance() {
+            next = null;
+            if (parent != null) {
+                while (index < parent.getChildCount()) {
+                    Node child = parent.getChild(index++);
+                    if (child instanceof Element && matches((Element) child)) {
+                        next = (Element) child;
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private class DescendantIterator extends MatchIterator {
+        // stack of parents and positions of next child
+        private ParentNode[] parents = new ParentNode[8];
+        private int[] index = new int[8];
+        private int depth = -1;
+
+        DescendantIterator(Node context) {
+            if (context instanceof ParentNode) {
+                push((ParentNode) context);
+            }
+            advance();
+        }
+
+        void advance() {
+            next = null;
+            while (depth >= 0) {
+                ParentNode parent = parents[depth];
+                if (index[depth] >= parent.getChildCount()) {
+                    parents[depth--] = null;
+                    continue;
+                }
+                Node child = parent.getChild(index[depth]++);
+                if (child instanceof Element) {
+                    Element element = (Element) child;
+                    if (element.getChildCount() > 0) {
+                        push(element);
+                    }
+                    if (matches(element)) {
+                        next = element;
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void push(ParentNode parent) {
+            if (++depth == parents.length) {
+                ParentNode[] newParents = new ParentNode[2 * depth];
+                System.arraycopy(parents, 0, newParents, 0, depth);
+                parents = newParents;
+                int[] newIndex = new int[2 * depth];
+                System.arraycopy(index, 0, newIndex, 0, depth);
+                index = newIndex;
+            }
+            parents[depth] = parent;
+            index[depth] = 0;
+        }
+    }
+}
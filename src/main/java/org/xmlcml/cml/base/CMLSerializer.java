@@ -87,17 +87,23 @@ public class CMLSerializer extends Serializer implements CMLConstants {
     }
 
     /**
-     * write XML for an element node. copies elements so it doesn't have a
-     * document parent
+     * write XML for an element node. writes the element directly
+     * so it need not be copied out of any document it belongs to
      * 
      * @param elem
      * @return the XML String
      */
 
     public String getXML(Element elem) {
-        Element clone = (Element) elem.copy();
-        Document doc = new Document(clone);
-        return getXML(doc);
+        try {
+            this.writeXMLDeclaration();
+            this.write(elem);
+            this.breakLine();
+            this.flush();
+        } catch (IOException e) {
+            Util.BUG(e);
+        }
+        return baos.toString();
     }
 
     /** overrides attribute writing.
@@ -121,14 +127,15 @@ public class CMLSerializer extends Serializer implements CMLConstants {
         super.write(attribute);
     }
 
-    /** overrides element writing. allows updating of XOM before
+    /** overrides element writing. updates XOM of each element before
+     * its attributes and content are written.
      * 
      * @param element
      * @throws IOException
      */
     protected void write(Element element) throws IOException {
         if (element instanceof CMLElement) {
-            // ((CMLElement) element).updateXOM();
+            ((CMLElement) element).updateXOM();
         }
         super.write(element);
     }
@@ -0,0 +1,162 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.base;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import nu.xom.Element;
+
+import org.xmlcml.cml.element.CMLCml;
+
+/**
+ * <p>
+ * Writes a CML document incrementally.
+ * </p>
+ * <p>
+ * The root start tag is written first, then any number of elements
+ * (molecules, reactions...) and finally the root end tag. Elements are
+ * serialized directly from the tree to a buffered UTF-8 stream; they are
+ * not copied or wrapped in a Document and no String is built, so memory
+ * does not grow with the number of records written. Elements may be
+ * detached or still in their own document.
+ * </p>
+ * <pre>
+ * CMLStreamWriter writer = new CMLStreamWriter(outputStream);
+ * writer.writeStartRoot();
+ * for (CMLMolecule molecule : molecules) {
+ *     writer.writeElement(molecule);
+ * }
+ * writer.close();
+ * </pre>
+ */
+public class CMLStreamWriter extends CMLSerializer implements Closeable {
+
+	/** size of output buffer */
+	public static final int BUFFER_SIZE = 1 << 16;
+
+	private OutputStream outputStream;
+	private Element root = null;
+	private boolean closed = false;
+	private long elementCount = 0;
+
+	/** writer to stream.
+	 * the stream is buffered and closed by close()
+	 * @param outputStream
+	 */
+	public CMLStreamWriter(OutputStream outputStream) {
+		super(new BufferedOutputStream(outputStream, BUFFER_SIZE));
+		// flush() pushes the buffer through to this stream
+		this.outputStream = outputStream;
+	}
+
+	/** writer to channel.
+	 * the channel is closed by close()
+	 * @param channel
+	 */
+	public CMLStreamWriter(WritableByteChannel channel) {
+		this(Channels.newOutputStream(channel));
+	}
+
+	/** writes XML declaration and start tag of a cml root element.
+	 * @throws IOException
+	 */
+	public void writeStartRoot() throws IOException {
+		writeStartRoot(new Element(CMLCml.TAG, CML_NS));
+	}
+
+	/** writes XML declaration and start tag of given root.
+	 * only the attributes and namespace declarations of root are written;
+	 * any children are ignored.
+	 * @param root
+	 * @throws IOException
+	 */
+	public void writeStartRoot(Element root) throws IOException {
+		checkOpen();
+		if (this.root != null) {
+			throw new RuntimeException("root already written");
+		}
+		this.root = root;
+		writeXMLDeclaration();
+		writeStartTag(root);
+	}
+
+	/** writes element and all its descendants.
+	 * does not copy or modify the element.
+	 * @param element
+	 * @throws IOException
+	 */
+	public void writeElement(Element element) throws IOException {
+		checkOpen();
+		if (root == null) {
+			throw new RuntimeException("must write root first");
+		}
+		if (getIndent() > 0) {
+			breakLine();
+		}
+		write(element);
+		elementCount++;
+	}
+
+	/** writes root end tag and flushes.
+	 * @throws IOException
+	 */
+	public void writeEndRoot() throws IOException {
+		checkOpen();
+		if (root == null) {
+			throw new RuntimeException("no root written");
+		}
+		if (getIndent() > 0) {
+			breakLine();
+		}
+		writeEndTag(root);
+		breakLine();
+		root = null;
+		flush();
+	}
+
+	/** closes root if open, flushes and closes stream.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (!closed) {
+			if (root != null) {
+				writeEndRoot();
+			}
+			flush();
+			closed = true;
+			outputStream.close();
+		}
+	}
+
+	/**
+	 * @return number of elements written by writeElement
+	 */
+	public long getElementCount() {
+		return elementCount;
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new RuntimeException("writer closed");
+		}
+	}
+}
@@ -0,0 +1,307 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.base;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import nu.xom.Attribute;
+import nu.xom.Document;
+import nu.xom.Element;
+import nu.xom.NodeFactory;
+import nu.xom.Nodes;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * Reads large CML documents one record at a time.
+ * </p>
+ * <p>
+ * Every outermost element of the chosen class (e.g. CMLMolecule in a
+ * cml/moleculeList) is built as a complete subtree and handed to the
+ * consumer without a parent. Records and the whitespace between them are
+ * not kept, so memory is proportional to the largest record plus any
+ * non-record content, rather than to the file.
+ * Namespace declarations on ancestors are copied onto each record so that
+ * prefixed values (e.g. dictRef) can still be resolved.
+ * </p>
+ * <p>
+ * Parsing runs on a separate thread a few records ahead of the consumer.
+ * Call close() if the iterator is abandoned before the end.
+ * </p>
+ * @param <T> element class
+ */
+public class CMLStreamingReader<T extends CMLElement> implements Iterator<T>, Closeable {
+
+	private static Logger LOG = Logger.getLogger(CMLStreamingReader.class);
+
+	/** default number of records parsed ahead of the consumer */
+	public static final int DEFAULT_QUEUE_SIZE = 4;
+
+	private static final Object END = new Object();
+
+	private Class<T> elementClass;
+	private InputStream inputStream;
+	private BlockingQueue<Object> queue;
+	private volatile boolean closed = false;
+	private Object next;
+
+	/** reader for elements of given class.
+	 * @param inputStream CML document
+	 * @param elementClass e.g. CMLMolecule.class
+	 */
+	public CMLStreamingReader(InputStream inputStream, Class<T> elementClass) {
+		this(inputStream, elementClass, DEFAULT_QUEUE_SIZE);
+	}
+
+	/** reader for elements of given class.
+	 * @param inputStream CML document
+	 * @param elementClass e.g. CMLMolecule.class
+	 * @param queueSize number of records parsed ahead of the consumer
+	 */
+	public CMLStreamingReader(InputStream inputStream, Class<T> elementClass, int queueSize) {
+		if (inputStream == null || elementClass == null) {
+			throw new RuntimeException("null inputStream or elementClass");
+		}
+		this.inputStream = inputStream;
+		this.elementClass = elementClass;
+		this.queue = new ArrayBlockingQueue<Object>(queueSize);
+		Thread parser = new Thread(new Runnable() {
+			public void run() {
+				parse();
+			}
+		}, "CMLStreamingReader");
+		parser.setDaemon(true);
+		parser.start();
+	}
+
+	/** sequential stream of the records.
+	 * closing the stream closes this reader.
+	 * @return stream
+	 */
+	public Stream<T> stream() {
+		Stream<T> stream = StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+				this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+		return stream.onClose(new Runnable() {
+			public void run() {
+				close();
+			}
+		});
+	}
+
+	public boolean hasNext() {
+		if (closed) {
+			return false;
+		}
+		if (next == null) {
+			try {
+				next = queue.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("interrupted", e);
+			}
+		}
+		if (next instanceof Throwable) {
+			Throwable t = (Throwable) next;
+			next = END;
+			throw new RuntimeException("cannot parse stream", t);
+		}
+		return next != END;
+	}
+
+	@SuppressWarnings("unchecked")
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		T element = (T) next;
+		next = null;
+		return element;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/** stops parsing and closes the input.
+	 */
+	public void close() {
+		if (!closed) {
+			closed = true;
+			// unblock the parser; it stops at the next record
+			queue.clear();
+			try {
+				inputStream.close();
+			} catch (IOException e) {
+				LOG.debug("cannot close stream: "+e);
+			}
+		}
+	}
+
+	private void parse() {
+		Object last = END;
+		RecordFactory factory = new RecordFactory();
+		try {
+			new CMLBuilder(factory).build(inputStream);
+		} catch (Throwable t) {
+			last = t;
+			// records completed before the error are still delivered
+			if (!closed) {
+				factory.handOver();
+			}
+		} finally {
+			try {
+				inputStream.close();
+			} catch (IOException e) {
+				LOG.debug("cannot close stream: "+e);
+			}
+		}
+		if (!closed) {
+			put(last);
+		}
+	}
+
+	private void put(Object object) {
+		try {
+			queue.put(object);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("interrupted", e);
+		}
+	}
+
+	/** wraps the CML node factory.
+	 * hands over outermost records instead of attaching them and
+	 * discards whitespace, comments and PIs outside them.
+	 */
+	private class RecordFactory extends NodeFactory {
+
+		private CMLNodeFactory delegate = CMLNodeFactory.createNodeFactory();
+		private List<Element> elementStack = new ArrayList<Element>();
+		private int recordDepth = 0;
+		// XOM detaches a replaced element after finishMakingElement returns
+		// so the record is handed over at the next callback
+		private Element pendingRecord = null;
+		private List<String> pendingNamespaces = new ArrayList<String>();
+
+		public Document startMakingDocument() {
+			return delegate.startMakingDocument();
+		}
+
+		public void finishMakingDocument(Document document) {
+			handOver();
+			delegate.finishMakingDocument(document);
+		}
+
+		public Element startMakingElement(String name, String namespace) {
+			handOver();
+			Element element = delegate.startMakingElement(name, namespace);
+			elementStack.add(element);
+			if (elementClass.isInstance(element)) {
+				recordDepth++;
+			}
+			return element;
+		}
+
+		public Nodes finishMakingElement(Element element) {
+			handOver();
+			Nodes nodes = delegate.finishMakingElement(element);
+			elementStack.remove(elementStack.size() - 1);
+			boolean isRoot = elementStack.isEmpty();
+			if (elementClass.isInstance(element)) {
+				recordDepth--;
+				if (recordDepth == 0) {
+					pendingRecord = element;
+					collectAncestorNamespaces();
+					nodes = new Nodes();
+					if (isRoot) {
+						// XOM needs a root element
+						nodes.append(new Element(element.getLocalName()));
+					}
+				}
+			}
+			return nodes;
+		}
+
+		public Nodes makeAttribute(String name, String URI, String value, Attribute.Type type) {
+			handOver();
+			return delegate.makeAttribute(name, URI, value, type);
+		}
+
+		public Nodes makeText(String text) {
+			handOver();
+			// whitespace between records would otherwise pile up in containers
+			return (recordDepth == 0 && text.trim().length() == 0) ?
+					new Nodes() : delegate.makeText(text);
+		}
+
+		public Nodes makeComment(String data) {
+			handOver();
+			return (recordDepth == 0) ? new Nodes() : super.makeComment(data);
+		}
+
+		public Nodes makeProcessingInstruction(String target, String data) {
+			handOver();
+			return (recordDepth == 0) ? new Nodes() : super.makeProcessingInstruction(target, data);
+		}
+
+		private void handOver() {
+			if (pendingRecord != null) {
+				if (closed) {
+					throw new RuntimeException("reader closed");
+				}
+				// now detached, so only its own declarations are in scope
+				for (int i = 0; i < pendingNamespaces.size(); i += 2) {
+					String prefix = pendingNamespaces.get(i);
+					if (pendingRecord.getNamespaceURI(prefix) == null) {
+						pendingRecord.addNamespaceDeclaration(prefix, pendingNamespaces.get(i + 1));
+					}
+				}
+				put(pendingRecord);
+				pendingRecord = null;
+			}
+		}
+
+		/** prefix/URI pairs declared on ancestors, nearest first.
+		 */
+		private void collectAncestorNamespaces() {
+			pendingNamespaces.clear();
+			for (int i = elementStack.size() - 1; i >= 0; i--) {
+				Element ancestor = elementStack.get(i);
+				for (int j = 0; j < ancestor.getNamespaceDeclarationCount(); j++) {
+					String prefix = ancestor.getNamespacePrefix(j);
+					if (prefix.length() > 0) {
+						pendingNamespaces.add(prefix);
+						pendingNamespaces.add(ancestor.getNamespaceURI(prefix));
+					}
+				}
+			}
+		}
+	}
+}
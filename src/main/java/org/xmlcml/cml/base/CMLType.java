@@ -19,11 +19,13 @@ package org.xmlcml.cml.base;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import org.xmlcml.euclid.Util;
 
 import nu.xom.Element;
 import nu.xom.Node;
+import nu.xom.ParentNode;
 
 /**
  * 
@@ -40,6 +42,31 @@ public class CMLType implements CMLConstants {
 
     /** dewisott */
 	public final static String NO_BASE = "Cannot find base: ";
+	/** xsd:pattern of idType */
+	public static final String ID_PATTERN = "[A-Za-z][A-Za-z0-9\\.\\-_]*";
+	/** xsd:pattern of atomIDType and moleculeIDType */
+	public static final String ATOM_ID_PATTERN = "[A-Za-z_][A-Za-z0-9_\\-]*(:[A-Za-z0-9_\\-]+)?";
+	/** xsd:pattern of bondRefType */
+	public static final String BOND_REF_PATTERN = "[A-Za-z0-9_\\-]+(:[A-Za-z0-9_\\-]+)?";
+	/** xsd:pattern of refType */
+	public static final String REF_PATTERN = "([A-Za-z_][A-Za-z0-9_\\.\\-]*:)?[A-Za-z_][A-Za-z0-9_\\.\\-]*";
+
+	// character classes for the id/ref fast path
+	private static final int ALPHA = 1;
+	private static final int DIGIT = 2;
+	private static final int UNDERSCORE = 4;
+	private static final int DOT = 8;
+	private static final int MINUS = 16;
+	private static final int NAME_START = ALPHA | UNDERSCORE;
+	private static final int NAME_CHAR = ALPHA | DIGIT | UNDERSCORE | MINUS;
+	private static final int DOTTED_NAME_CHAR = NAME_CHAR | DOT;
+
+	// fast path for compiledPattern
+	private static final int REGEX = 0;
+	private static final int ID = 1;
+	private static final int ATOM_ID = 2;
+	private static final int BOND_REF = 3;
+	private static final int REF = 4;
 
 	protected String summary = "";
 	protected String description = "";
@@ -69,6 +96,28 @@ public class CMLType implements CMLConstants {
 
 	private Element simpleType;
 
+	// XSD simpleType of a type read from SchemaIndex; simpleType,
+	// restriction, union and list are parsed from it on first use
+	String schemaXML;
+
+	/** pattern as compiled; immutable so that it can be shared by threads
+	 * through one volatile field.
+	 */
+	private static final class CompiledPattern {
+		final String from;
+		final int type;
+		final Pattern regex;
+
+		CompiledPattern(String from, int type, Pattern regex) {
+			this.from = from;
+			this.type = type;
+			this.regex = regex;
+		}
+	}
+
+	// compiled from pattern on first use
+	private volatile CompiledPattern compiledPattern;
+
 	/**
 	 * default.
 	 */
@@ -1054,10 +1103,92 @@ public class CMLType implements CMLConstants {
 		if (s == null) {
 			throw new RuntimeException("Null strings not allowed");
 		}
-		if (pattern != null && !s.matches(pattern)) {
+		String p = pattern;
+		if (p != null && !matchesPattern(p, s)) {
 			throw new RuntimeException("String (" + s
-					+ ") does not match pattern (" + pattern + ") for " + name);
+					+ ") does not match pattern (" + p + ") for " + name);
+		}
+	}
+
+	private boolean matchesPattern(String p, String s) {
+		// pattern is protected and may have been reset since the last compile
+		CompiledPattern compiled = compiledPattern;
+		if (compiled == null || compiled.from != p) {
+			compiled = compilePattern(p);
+			compiledPattern = compiled;
+		}
+		switch (compiled.type) {
+		case ID:
+			return matchesName(s, 0, s.length(), ALPHA, DOTTED_NAME_CHAR);
+		case ATOM_ID:
+			return matchesQualifiedName(s, NAME_START, NAME_CHAR, NAME_CHAR, NAME_CHAR, false);
+		case BOND_REF:
+			return matchesQualifiedName(s, NAME_CHAR, NAME_CHAR, NAME_CHAR, NAME_CHAR, false);
+		case REF:
+			return matchesQualifiedName(s, NAME_START, DOTTED_NAME_CHAR, NAME_START, DOTTED_NAME_CHAR, true);
+		default:
+			return compiled.regex.matcher(s).matches();
+		}
+	}
+
+	private static CompiledPattern compilePattern(String p) {
+		int type = REGEX;
+		Pattern regex = null;
+		if (ID_PATTERN.equals(p)) {
+			type = ID;
+		} else if (ATOM_ID_PATTERN.equals(p)) {
+			type = ATOM_ID;
+		} else if (BOND_REF_PATTERN.equals(p)) {
+			type = BOND_REF;
+		} else if (REF_PATTERN.equals(p)) {
+			type = REF;
+		} else {
+			regex = Pattern.compile(p);
+		}
+		return new CompiledPattern(p, type, regex);
+	}
+
+	/**
+	 * matches first:second, or without a colon either first (first(:second)?)
+	 * or second ((first:)?second).
+	 */
+	private static boolean matchesQualifiedName(String s, int firstStart,
+			int firstChar, int secondStart, int secondChar, boolean optionalFirst) {
+		int colon = s.indexOf(':');
+		if (colon == -1) {
+			return (optionalFirst) ?
+				matchesName(s, 0, s.length(), secondStart, secondChar) :
+				matchesName(s, 0, s.length(), firstStart, firstChar);
 		}
+		return matchesName(s, 0, colon, firstStart, firstChar) &&
+			matchesName(s, colon + 1, s.length(), secondStart, secondChar);
+	}
+
+	private static boolean matchesName(String s, int start, int end, int first, int rest) {
+		if (end <= start || (charClass(s.charAt(start)) & first) == 0) {
+			return false;
+		}
+		for (int i = start + 1; i < end; i++) {
+			if ((charClass(s.charAt(i)) & rest) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int charClass(char c) {
+		if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')) {
+			return ALPHA;
+		} else if (c >= '0' && c <= '9') {
+			return DIGIT;
+		} else if (c == '_') {
+			return UNDERSCORE;
+		} else if (c == '.') {
+			return DOT;
+		} else if (c == '-') {
+			return MINUS;
+		}
+		return 0;
 	}
 
 	private void checkMinMax(int i) throws RuntimeException {
@@ -1291,7 +1422,8 @@ public class CMLType implements CMLConstants {
 	 */
 	public String toString() {
 		String s = "Name: " + name + "\n";
-		if (union != null) {
+		// types read from the schema index have subTypes but no union
+		if (subTypes.length > 0) {
 			s += ".....UNION: " + subTypes.length;
 		} else {
 			s += this.getFullDescription();
@@ -1469,6 +1601,7 @@ public class CMLType implements CMLConstants {
 	 * @return the list
 	 */
 	public Element getList() {
+		ensureSchemaElements();
 		return list;
 	}
 
@@ -1477,6 +1610,7 @@ public class CMLType implements CMLConstants {
 	 *            the list to set
 	 */
 	public void setList(Element list) {
+		ensureSchemaElements();
 		this.list = list;
 	}
 
@@ -1484,6 +1618,7 @@ public class CMLType implements CMLConstants {
 	 * @return the restriction
 	 */
 	public Element getRestriction() {
+		ensureSchemaElements();
 		return restriction;
 	}
 
@@ -1492,6 +1627,7 @@ public class CMLType implements CMLConstants {
 	 *            the restriction to set
 	 */
 	public void setRestriction(Element restriction) {
+		ensureSchemaElements();
 		this.restriction = restriction;
 	}
 
@@ -1511,9 +1647,14 @@ public class CMLType implements CMLConstants {
 	}
 
 	/**
+	 * the simpleType this type was created from. For a union this is the
+	 * first simpleType in the union. For types read from the compiled
+	 * SchemaIndex it is parsed on first use and has no parent.
+	 * 
 	 * @return the simpleType
 	 */
 	public Element getSimpleType() {
+		ensureSchemaElements();
 		return simpleType;
 	}
 
@@ -1522,6 +1663,7 @@ public class CMLType implements CMLConstants {
 	 *            the simpleType to set
 	 */
 	public void setSimpleType(Element simpleType) {
+		ensureSchemaElements();
 		this.simpleType = simpleType;
 	}
 
@@ -1529,6 +1671,7 @@ public class CMLType implements CMLConstants {
 	 * @return the union
 	 */
 	public Element getUnion() {
+		ensureSchemaElements();
 		return union;
 	}
 
@@ -1537,9 +1680,57 @@ public class CMLType implements CMLConstants {
 	 *            the union to set
 	 */
 	public void setUnion(Element union) {
+		ensureSchemaElements();
 		this.union = union;
 	}
 
+	/** XML of the XSD simpleType this type was created from.
+	 * for a union this is the simpleType containing the union.
+	 * 
+	 * @return XML or null if not created from a simpleType
+	 */
+	synchronized String getSchemaXML() {
+		if (schemaXML != null) {
+			return schemaXML;
+		}
+		Element top = simpleType;
+		if (union != null) {
+			for (ParentNode parent = union.getParent(); parent instanceof Element;
+					parent = parent.getParent()) {
+				top = (Element) parent;
+				if (top.getLocalName().equals("simpleType")) {
+					break;
+				}
+			}
+		}
+		// a copy has no parent so declares the xsd namespace
+		return (top == null) ? null : ((Element) top.copy()).toXML();
+	}
+
+	/** parses the schema elements of a type read from SchemaIndex.
+	 * as in CMLType(Element) but without creating subTypes.
+	 */
+	private synchronized void ensureSchemaElements() {
+		if (schemaXML == null) {
+			return;
+		}
+		simpleType = CMLUtil.parseXML(schemaXML);
+		schemaXML = null;
+		List<Node> unions = CMLUtil.getQueryNodes(simpleType,
+				".//" + XSD_UNION, XPATH_XSD);
+		union = (unions.size() == 1) ? (Element) unions.get(0) : null;
+		if (union != null) {
+			simpleType = (Element) CMLUtil.getQueryNodes(union, "./"
+					+ XSD_SIMPLE_TYPE, XPATH_XSD).get(0);
+		}
+		createRestriction();
+		List<Node> lists = (restriction != null) ?
+			CMLUtil.getQueryNodes(restriction, "./" + XSD_SIMPLE_TYPE
+					+ CMLConstants.S_SLASH + XSD_LIST, XPATH_XSD) :
+			CMLUtil.getQueryNodes(simpleType, ".//" + XSD_LIST, XPATH_XSD);
+		list = (lists.size() == 1) ? (Element) lists.get(0) : null;
+	}
+
 	/**
 	 * @return the id
 	 */
@@ -151,11 +151,12 @@ public class DoubleArraySTAttribute extends CMLAttribute {
 	 */
 	public static double[] split(String s, String delim) {
 		String sss = s;
-		if (delim == null || delim.trim().equals(S_EMPTY)
-				|| delim.equals(S_WHITEREGEX)) {
-			delim = S_WHITEREGEX;
-			sss = sss.trim();
-		} else {
+		if (NumericTokenizer.isWhitespace(delim)) {
+			try {
+				return NumericTokenizer.parseDoubles(sss, null);
+			} catch (NumberFormatException nfe) {
+				throw new RuntimeException(nfe.getMessage() + " in " + sss.trim(), nfe);
+			}
 		}
 		String[] ss = sss.split(delim);
 		double[] dd = new double[ss.length];
@@ -172,12 +173,26 @@ public class DoubleArraySTAttribute extends CMLAttribute {
 		return dd;
 	}
 
+	/**
+	 * parses a value set by setTrustedValue() on first typed access.
+	 * the value is not checked; use validate() for that.
+	 */
+	private void parseTrustedValue() {
+		if (unparsed && dd == null) {
+			String s = getValue();
+			if (s != null && !s.trim().equals(S_EMPTY)) {
+				dd = split(s, S_WHITEREGEX);
+			}
+		}
+	}
+
 	/**
 	 * get array.
 	 * 
 	 * @return null if not set
 	 */
 	public Object getCMLValue() {
+		parseTrustedValue();
 		return dd;
 	}
 
@@ -187,6 +202,7 @@ public class DoubleArraySTAttribute extends CMLAttribute {
 	 * @return null if not set
 	 */
 	public double[] getDoubleArray() {
+		parseTrustedValue();
 		return dd;
 	}
 
@@ -112,19 +112,36 @@ public class DoubleSTAttribute extends CMLAttribute {
 	 */
 	public void setCMLValue(String s) {
 		if (s != null && !s.trim().equals(S_EMPTY)) {
-			double d;
-			try {
-				String ss = s.trim();
-				if (ss.startsWith(S_PLUS)) {
-					ss = ss.substring(1);
-				}
-				d = (Util.parseFlexibleDouble(ss));
-			} catch (NumberFormatException nfe) {
-				throw new RuntimeException("" + nfe, nfe);
-			} catch (ParseException e) {
-				throw new RuntimeException("Bad double: " + s.trim(), e);
+			this.setCMLValue(parseDouble(s));
+		}
+	}
+
+	private static double parseDouble(String s) {
+		double d;
+		try {
+			String ss = s.trim();
+			if (ss.startsWith(S_PLUS)) {
+				ss = ss.substring(1);
+			}
+			d = (Util.parseFlexibleDouble(ss));
+		} catch (NumberFormatException nfe) {
+			throw new RuntimeException("" + nfe, nfe);
+		} catch (ParseException e) {
+			throw new RuntimeException("Bad double: " + s.trim(), e);
+		}
+		return d;
+	}
+
+	/**
+	 * parses a value set by setTrustedValue() on first typed access.
+	 * the value is not checked; use validate() for that.
+	 */
+	private void parseTrustedValue() {
+		if (unparsed && d == null) {
+			String s = getValue();
+			if (s != null && !s.trim().equals(S_EMPTY)) {
+				d = Double.valueOf(parseDouble(s));
 			}
-			this.setCMLValue(d);
 		}
 	}
 
@@ -161,6 +178,7 @@ public class DoubleSTAttribute extends CMLAttribute {
 	 * @return value
 	 */
 	public double getDouble() {
+		parseTrustedValue();
 		return d.doubleValue();
 	}
 
@@ -0,0 +1,169 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.base;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nu.xom.Node;
+
+/**
+ * index from id to the CMLElements carrying it in one tree.
+ * <p>
+ * Held by the oldest CML ancestor and kept up to date by CMLElement as
+ * children are inserted and removed and ids are set or removed, so a
+ * lookup is O(1) however large the tree is. Changing the value of an id
+ * attribute in place (Attribute.setValue()) is not seen; lookups check
+ * the current id and drop such stale entries but cannot find the new id
+ * until the index is rebuilt.
+ * </p>
+ * <p>
+ * Most ids are unique, so a value is either a CMLElement or a List of
+ * them.
+ * </p>
+ */
+class IdIndex {
+
+    private Map<String, Object> map = new HashMap<String, Object>();
+
+    /** indexes the tree below (and including) root.
+     *
+     * @param root
+     */
+    IdIndex(CMLElement root) {
+        addTree(root);
+    }
+
+    /** elements with given id.
+     *
+     * @param id
+     * @return elements in no defined order (never null)
+     */
+    List<CMLElement> get(String id) {
+        List<CMLElement> elementList = new ArrayList<CMLElement>();
+        Object value = map.get(id);
+        if (value instanceof CMLElement) {
+            CMLElement element = (CMLElement) value;
+            if (id.equals(element.getAttributeValue(CMLElement.ID))) {
+                elementList.add(element);
+            } else {
+                map.remove(id);
+            }
+        } else if (value != null) {
+            @SuppressWarnings("unchecked")
+            List<CMLElement> list = (List<CMLElement>) value;
+            for (int i = list.size() - 1; i >= 0; i--) {
+                if (!id.equals(list.get(i).getAttributeValue(CMLElement.ID))) {
+                    list.remove(i);
+                }
+            }
+            elementList.addAll(list);
+        }
+        return elementList;
+    }
+
+    /** adds element under id.
+     *
+     * @param id (null is ignored)
+     * @param element
+     */
+    void add(String id, CMLElement element) {
+        if (id == null) {
+            return;
+        }
+        Object value = map.get(id);
+        if (value == null) {
+            map.put(id, element);
+        } else if (value instanceof CMLElement) {
+            if (value != element) {
+                List<CMLElement> list = new ArrayList<CMLElement>(2);
+                list.add((CMLElement) value);
+                list.add(element);
+                map.put(id, list);
+            }
+        } else {
+            @SuppressWarnings("unchecked")
+            List<CMLElement> list = (List<CMLElement>) value;
+            if (!list.contains(element)) {
+                list.add(element);
+            }
+        }
+    }
+
+    /** removes element from under id.
+     *
+     * @param id (null is ignored)
+     * @param element
+     */
+    void remove(String id, CMLElement element) {
+        if (id == null) {
+            return;
+        }
+        Object value = map.get(id);
+        if (value == element) {
+            map.remove(id);
+        } else if (value instanceof List<?>) {
+            List<?> list = (List<?>) value;
+            list.remove(element);
+            if (list.size() == 1) {
+                map.put(id, list.get(0));
+            } else if (list.isEmpty()) {
+                map.remove(id);
+            }
+        }
+    }
+
+    /** adds all CMLElements in the tree below (and including) root.
+     * stops at non-CML elements as getOldestCMLAncestor() does.
+     *
+     * @param root
+     */
+    void addTree(CMLElement root) {
+        List<CMLElement> stack = new ArrayList<CMLElement>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            CMLElement element = stack.remove(stack.size() - 1);
+            add(element.getAttributeValue(CMLElement.ID), element);
+            pushChildren(element, stack);
+        }
+    }
+
+    /** removes all CMLElements in the tree below (and including) root.
+     *
+     * @param root
+     */
+    void removeTree(CMLElement root) {
+        List<CMLElement> stack = new ArrayList<CMLElement>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            CMLElement element = stack.remove(stack.size() - 1);
+            remove(element.getAttributeValue(CMLElement.ID), element);
+            pushChildren(element, stack);
+        }
+    }
+
+    private static void pushChildren(CMLElement element, List<CMLElement> stack) {
+        for (int i = element.getChildCount() - 1; i >= 0; i--) {
+            Node child = element.getChild(i);
+            if (child instanceof CMLElement) {
+                stack.add((CMLElement) child);
+            }
+        }
+    }
+}
@@ -130,10 +130,12 @@ public class IntArraySTAttribute extends CMLAttribute {
      */
     public static int[] split(String s, String delim) {
         String sss = s.trim().replace(S_WHITEREGEX, CMLConstants.S_SPACE);
-        if (delim == null || delim.trim().equals(S_EMPTY)
-                || delim.equals(S_WHITEREGEX)) {
-            delim = CMLConstants.S_WHITEREGEX;
-            sss = sss.trim();
+        if (NumericTokenizer.isWhitespace(delim)) {
+            try {
+                return NumericTokenizer.parseInts(sss, null);
+            } catch (NumberFormatException nfe) {
+                throw new RuntimeException(S_EMPTY + nfe);
+            }
         }
         String[] ss = sss.split(delim);
         int[] ii = new int[ss.length];
@@ -159,12 +161,26 @@ public class IntArraySTAttribute extends CMLAttribute {
         this.setCMLValue(ii);
     }
 
+    /**
+     * parses a value set by setTrustedValue() on first typed access.
+     * the value is not checked; use validate() for that.
+     */
+    private void parseTrustedValue() {
+        if (unparsed && ii == null) {
+            String s = getValue();
+            if (s != null && !s.trim().equals(S_EMPTY)) {
+                ii = split(s.trim(), S_WHITEREGEX);
+            }
+        }
+    }
+
     /**
      * get array.
      * 
      * @return null if not set
      */
     public Object getCMLValue() {
+        parseTrustedValue();
         return ii;
     }
 
@@ -174,6 +190,7 @@ public class IntArraySTAttribute extends CMLAttribute {
      * @return null if not set
      */
     public int[] getIntArray() {
+        parseTrustedValue();
         return ii;
     }
 
@@ -94,16 +94,31 @@ public class IntSTAttribute extends CMLAttribute {
      */
     public void setCMLValue(String s) {
     	if (s!= null && !s.trim().equals(S_EMPTY)) {
-	        int i;
-	        try {
-	            i = Integer.parseInt(s.trim());
-	        } catch (NumberFormatException nfe) {
-	            throw new RuntimeException(S_EMPTY + nfe);
-	        }
-	        this.setCMLValue(i);
+	        this.setCMLValue(parseInt(s));
     	}
     }
 
+    private static int parseInt(String s) {
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException nfe) {
+            throw new RuntimeException(S_EMPTY + nfe);
+        }
+    }
+
+    /**
+     * parses a value set by setTrustedValue() on first typed access.
+     * the value is not checked; use validate() for that.
+     */
+    private void parseTrustedValue() {
+        if (unparsed && i == null) {
+            String s = getValue();
+            if (s != null && !s.trim().equals(S_EMPTY)) {
+                i = Integer.valueOf(parseInt(s));
+            }
+        }
+    }
+
     /**
      * set and check value.
      * 
@@ -135,6 +150,7 @@ public class IntSTAttribute extends CMLAttribute {
      * @return value
      */
     public Object getCMLValue() {
+        parseTrustedValue();
         return i;
     }
 
@@ -144,6 +160,7 @@ public class IntSTAttribute extends CMLAttribute {
      * @return int
      */
     public int getInt() {
+        parseTrustedValue();
         if (i == null) {
             throw new RuntimeException("integer attribute unset");
         }
@@ -0,0 +1,379 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.base;
+
+import java.text.ParseException;
+
+import org.xmlcml.euclid.Util;
+
+/**
+ * reads the tokens of array content without regexes or substrings.
+ * <p>
+ * The tokens are the same as those of String.split(): with whitespace the
+ * content is trimmed and split at runs of whitespace; with another
+ * delimiter it is split at each occurrence of the delimiter (taken
+ * literally) and trailing empty tokens are dropped. Content without any
+ * separator is one token, even if empty.
+ * </p>
+ * <p>
+ * Plain decimal numbers (such as -1.25E-3) with up to 15 significant
+ * digits are parsed straight from the characters and give exactly the
+ * same double as Double.valueOf(). Anything else (INF, NaN, hex, long
+ * mantissas...) is handed to Util.parseFlexibleDouble().
+ * </p>
+ * <pre>
+ * NumericTokenizer tokenizer = new NumericTokenizer(content, null);
+ * double[] dd = new double[tokenizer.countTokens()];
+ * for (int i = 0; i &lt; dd.length; i++) {
+ *     dd[i] = tokenizer.nextDouble();
+ * }
+ * </pre>
+ */
+public class NumericTokenizer {
+
+    // exactly representable powers of ten
+    private final static double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+        1e21, 1e22,
+    };
+    // largest mantissa held exactly by a double
+    private final static long MAX_EXACT = 1L << 53;
+
+    private CharSequence s;
+    // null for whitespace
+    private String delimiter;
+    private int start;
+    private int end;
+    private int count;
+    private int pos;
+    private int index = 0;
+    private int tokenStart;
+    private int tokenEnd;
+
+    /**
+     * @param s content
+     * @param delimiter null, whitespace or S_WHITEREGEX for whitespace,
+     *     otherwise a literal delimiter
+     */
+    public NumericTokenizer(CharSequence s, String delimiter) {
+        this.s = s;
+        this.delimiter = isWhitespace(delimiter) ? null : delimiter;
+        start = 0;
+        end = s.length();
+        if (this.delimiter == null) {
+            while (start < end && s.charAt(start) <= ' ') {
+                start++;
+            }
+            while (end > start && s.charAt(end - 1) <= ' ') {
+                end--;
+            }
+        }
+        count = count();
+        pos = start;
+    }
+
+    /**
+     * @param delimiter
+     * @return true if null, blank or S_WHITEREGEX
+     */
+    public static boolean isWhitespace(String delimiter) {
+        return delimiter == null || delimiter.trim().length() == 0 ||
+            CMLConstants.S_WHITEREGEX.equals(delimiter);
+    }
+
+    /** parses all tokens as doubles.
+     *
+     * @param s content
+     * @param delimiter as in constructor
+     * @return doubles
+     * @throws NumberFormatException giving the bad token and its position
+     */
+    public static double[] parseDoubles(CharSequence s, String delimiter) {
+        NumericTokenizer tokenizer = new NumericTokenizer(s, delimiter);
+        double[] dd = new double[tokenizer.countTokens()];
+        for (int i = 0; i < dd.length; i++) {
+            dd[i] = tokenizer.nextDouble();
+        }
+        return dd;
+    }
+
+    /** parses all tokens as ints.
+     *
+     * @param s content
+     * @param delimiter as in constructor
+     * @return ints
+     * @throws NumberFormatException giving the bad token and its position
+     */
+    public static int[] parseInts(CharSequence s, String delimiter) {
+        NumericTokenizer tokenizer = new NumericTokenizer(s, delimiter);
+        int[] ii = new int[tokenizer.countTokens()];
+        for (int i = 0; i < ii.length; i++) {
+            ii[i] = tokenizer.nextInt();
+        }
+        return ii;
+    }
+
+    /**
+     * @return total number of tokens
+     */
+    public int countTokens() {
+        return count;
+    }
+
+    /**
+     * @return true if nextFoo() will return a value
+     */
+    public boolean hasMoreTokens() {
+        return index < count;
+    }
+
+    /**
+     * @return next token as a String
+     */
+    public String nextToken() {
+        advance();
+        return s.subSequence(tokenStart, tokenEnd).toString();
+    }
+
+    /** next token as Boolean.parseBoolean() would read it.
+     *
+     * @return true if token is "true" in any case
+     */
+    public boolean nextBoolean() {
+        advance();
+        if (tokenEnd - tokenStart != 4) {
+            return false;
+        }
+        String t = "true";
+        for (int i = 0; i < 4; i++) {
+            if (Character.toLowerCase(s.charAt(tokenStart + i)) != t.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** next token as Integer.parseInt() would read it.
+     *
+     * @return value
+     * @throws NumberFormatException giving the bad token and its position
+     */
+    public int nextInt() {
+        advance();
+        int i = tokenStart;
+        boolean negative = false;
+        if (i < tokenEnd && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            negative = s.charAt(i) == '-';
+            i++;
+        }
+        if (i == tokenEnd || tokenEnd - i > 10) {
+            return parseIntToken();
+        }
+        long value = 0;
+        for (; i < tokenEnd; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return parseIntToken();
+            }
+            value = value * 10 + (c - '0');
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return parseIntToken();
+        }
+        return (int) value;
+    }
+
+    /** next token as Util.parseFlexibleDouble() would read it.
+     *
+     * @return value
+     * @throws NumberFormatException giving the bad token and its position
+     */
+    public double nextDouble() {
+        advance();
+        int i = tokenStart;
+        boolean negative = false;
+        if (i < tokenEnd && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            negative = s.charAt(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int significant = 0;
+        int exponent = 0;
+        boolean point = false;
+        for (; i < tokenEnd; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+                if (mantissa != 0 || c != '0') {
+                    if (++significant > 15) {
+                        return parseDoubleToken();
+                    }
+                    mantissa = mantissa * 10 + (c - '0');
+                }
+                if (point) {
+                    exponent--;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return parseDoubleToken();
+        }
+        if (i < tokenEnd) {
+            char c = s.charAt(i++);
+            if (c != 'e' && c != 'E' || i == tokenEnd) {
+                return parseDoubleToken();
+            }
+            boolean negativeExponent = false;
+            if (s.charAt(i) == '-' || s.charAt(i) == '+') {
+                negativeExponent = s.charAt(i) == '-';
+                i++;
+            }
+            if (i == tokenEnd || tokenEnd - i > 3) {
+                return parseDoubleToken();
+            }
+            int e = 0;
+            for (; i < tokenEnd; i++) {
+                c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    return parseDoubleToken();
+                }
+                e = e * 10 + (c - '0');
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        double value;
+        if (mantissa == 0) {
+            value = 0.0;
+        } else if (mantissa < MAX_EXACT && exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[exponent];
+        } else if (mantissa < MAX_EXACT && exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            return parseDoubleToken();
+        }
+        return negative ? -value : value;
+    }
+
+    private int count() {
+        if (delimiter == null) {
+            int n = 0;
+            boolean inToken = false;
+            for (int i = start; i < end; i++) {
+                boolean white = isWhitespace(s.charAt(i));
+                if (!white && !inToken) {
+                    n++;
+                }
+                inToken = !white;
+            }
+            return (n == 0) ? 1 : n;
+        } else {
+            int n = 0;
+            int nonEmpty = 0;
+            int tokenStart = start;
+            int i = start;
+            boolean found = false;
+            while (i <= end) {
+                int next = indexOfDelimiter(i);
+                found |= next < end;
+                n++;
+                if (next > tokenStart) {
+                    nonEmpty = n;
+                }
+                i = next + delimiter.length();
+                tokenStart = i;
+                if (next == end) {
+                    break;
+                }
+            }
+            return found ? nonEmpty : 1;
+        }
+    }
+
+    private void advance() {
+        if (index >= count) {
+            throw new RuntimeException("no more tokens");
+        }
+        index++;
+        if (delimiter == null) {
+            while (pos < end && isWhitespace(s.charAt(pos))) {
+                pos++;
+            }
+            tokenStart = pos;
+            while (pos < end && !isWhitespace(s.charAt(pos))) {
+                pos++;
+            }
+            tokenEnd = pos;
+        } else {
+            tokenStart = pos;
+            tokenEnd = indexOfDelimiter(pos);
+            pos = tokenEnd + delimiter.length();
+        }
+    }
+
+    private int indexOfDelimiter(int from) {
+        int last = end - delimiter.length();
+        char first = delimiter.charAt(0);
+        for (int i = from; i <= last; i++) {
+            if (s.charAt(i) == first) {
+                int j = 1;
+                while (j < delimiter.length() && s.charAt(i + j) == delimiter.charAt(j)) {
+                    j++;
+                }
+                if (j == delimiter.length()) {
+                    return i;
+                }
+            }
+        }
+        return end;
+    }
+
+    // as in the regex \s
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+    }
+
+    private double parseDoubleToken() {
+        String token = s.subSequence(tokenStart, tokenEnd).toString();
+        try {
+            return Util.parseFlexibleDouble(token);
+        } catch (ParseException e) {
+            NumberFormatException nfe = new NumberFormatException(
+                "Bad double: " + token + " at position " + (index - 1));
+            nfe.initCause(e);
+            throw nfe;
+        }
+    }
+
+    private int parseIntToken() {
+        String token = s.subSequence(tokenStart, tokenEnd).toString();
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            NumberFormatException nfe = new NumberFormatException(
+                "Bad int: " + token + " at position " + (index - 1));
+            nfe.initCause(e);
+            throw nfe;
+        }
+    }
+}
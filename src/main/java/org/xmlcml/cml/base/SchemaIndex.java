@@ -0,0 +1,526 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.base;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import nu.xom.Element;
+import nu.xom.Node;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * Compiled form of the schema indexes used by AttributeFactory.
+ * </p>
+ * <p>
+ * Holds the CMLTypes, the type and documentation of every attributeGroup
+ * and the attribute synonyms of every element. It is built from the XSD
+ * resources (slow: parses the schemas and runs XPath over them) and written
+ * as a small binary resource during the build (process-classes) by main().
+ * At startup AttributeFactory reads the resource instead of the schemas.
+ * The resource records a checksum of the XSDs it was made from. This is
+ * only compared if the XSDs may not come from the same build as the
+ * resource (see isSameBuild()), so a normal startup does not read them.
+ * The resource is ignored if missing, unreadable or stale, in which case
+ * the schemas are read as before. Setting the system property
+ * org.xmlcml.cml.schemaindex=false also forces the schemas to be read.
+ * </p>
+ * @author pm286
+ */
+public class SchemaIndex implements CMLConstants {
+
+	private static Logger LOG = Logger.getLogger(SchemaIndex.class);
+
+	/** compiled index resource */
+	public static final String SCHEMA_INDEX = "org/xmlcml/cml/base/schemaindex.bin";
+	/** system property; "false" disables the compiled index */
+	public static final String USE_INDEX_PROPERTY = "org.xmlcml.cml.schemaindex";
+
+	private static final int MAGIC = 0x434d4c58; // CMLX
+	private static final int VERSION = 2;
+	private static final String[] SCHEMAS = {
+		SchemaManager.TYPES_XSD,
+		SchemaManager.ATTRIBUTEGROUPS_XSD,
+		SchemaManager.ELEMENTS_XSD,
+	};
+
+	// attributeGroup fields
+	private static final int ATTRIBUTE_NAME = 0;
+	private static final int TYPE = 1;
+	private static final int SUMMARY = 2;
+	private static final int DESCRIPTION = 3;
+
+	private Map<String, CMLType> typeMap;
+	private List<String> typeNameList;
+	private Map<String, String[]> attributeGroupMap;
+	private Map<String, Map<String, String>> elementSynonymMap;
+	private SchemaManager schemaManager;
+
+	private SchemaIndex() {
+		typeMap = new LinkedHashMap<String, CMLType>();
+		typeNameList = new ArrayList<String>();
+		attributeGroupMap = new LinkedHashMap<String, String[]>();
+		elementSynonymMap = new LinkedHashMap<String, Map<String, String>>();
+	}
+
+	/** compiled index if available and current.
+	 *
+	 * @return index or null
+	 */
+	public static SchemaIndex readIndex() {
+		if ("false".equals(System.getProperty(USE_INDEX_PROPERTY))) {
+			return null;
+		}
+		SchemaIndex index = null;
+		URL url = SchemaIndex.class.getClassLoader().getResource(SCHEMA_INDEX);
+		if (url != null) {
+			InputStream in = null;
+			try {
+				in = url.openStream();
+				if (isSameBuild(url)) {
+					index = read(in, 0L, false);
+				} else {
+					index = read(in, calculateChecksum(), true);
+					if (index == null) {
+						LOG.warn("schema index is out of date; reading schemas");
+					}
+				}
+			} catch (Exception e) {
+				LOG.warn("cannot read schema index; reading schemas: "+e);
+			} finally {
+				IOUtils.closeQuietly(in);
+			}
+		}
+		return index;
+	}
+
+	/** whether the XSDs must be those the index was compiled from.
+	 * true if they are in the same jar as the index, or in the same
+	 * directory and not modified after it. Otherwise they may have been
+	 * edited or overridden on the classpath and their checksum is compared.
+	 *
+	 * @param indexUrl location of the index resource
+	 * @return true if the XSDs need not be read
+	 */
+	static boolean isSameBuild(URL indexUrl) {
+		String root = getRoot(indexUrl, SCHEMA_INDEX);
+		boolean isFile = "file".equals(indexUrl.getProtocol());
+		if (root == null || !(isFile || "jar".equals(indexUrl.getProtocol()))) {
+			return false;
+		}
+		for (String schema : SCHEMAS) {
+			URL url = SchemaIndex.class.getClassLoader().getResource(schema);
+			if (url == null || !root.equals(getRoot(url, schema))) {
+				return false;
+			}
+			if (isFile) {
+				try {
+					if (new File(url.toURI()).lastModified() > new File(indexUrl.toURI()).lastModified()) {
+						return false;
+					}
+				} catch (URISyntaxException e) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static String getRoot(URL url, String resource) {
+		String s = url.toExternalForm();
+		return s.endsWith(resource) ? s.substring(0, s.length() - resource.length()) : null;
+	}
+
+	/** build index from the XSD resources.
+	 *
+	 * @return index
+	 */
+	public static SchemaIndex createFromSchemaFiles() {
+		SchemaIndex index = new SchemaIndex();
+		SchemaManager schemaManager = new SchemaManager();
+		schemaManager.readAndCreateIndexesFromSchemaFiles();
+		index.schemaManager = schemaManager;
+		TypeGenerator typeGenerator = schemaManager.getTypeGenerator();
+		index.typeMap.putAll(typeGenerator.getMap());
+		index.typeNameList.addAll(typeGenerator.nameList);
+		try {
+			index.indexAttributeGroups(CMLUtil.getXMLResource(SchemaManager.ATTRIBUTEGROUPS_XSD).getRootElement());
+			index.indexElements(CMLUtil.getXMLResource(SchemaManager.ELEMENTS_XSD).getRootElement());
+		} catch (Exception e) {
+			throw new RuntimeException("Cannot parse elements/attributes: "+e, e);
+		}
+		return index;
+	}
+
+	private void indexAttributeGroups(Element attributeTop) {
+		List<Node> attributeGroups = CMLUtil.getQueryNodes(attributeTop, "./"+XSD_ATTRIBUTE_GROUP, XPATH_XSD);
+		for (Node node : attributeGroups) {
+			Element attributeGroup = (Element) node;
+			String attributeGroupName = attributeGroup.getAttributeValue("name");
+			List<Node> attributes = CMLUtil.getQueryNodes(attributeGroup, "./"+XSD_ATTRIBUTE, XPATH_XSD);
+			if (attributes.size() != 1) {
+				throw new RuntimeException("Cannot find unique attribute: "+attributeGroupName);
+			}
+			Element attributeElement = (Element) attributes.get(0);
+			String[] fields = new String[4];
+			fields[ATTRIBUTE_NAME] = attributeElement.getAttributeValue("name");
+			fields[TYPE] = attributeElement.getAttributeValue("type");
+			if (fields[TYPE] == null) {
+				throw new RuntimeException("No type given for attribute "+attributeGroupName);
+			}
+			List<Node> summarys = CMLUtil.getQueryNodes(attributeElement, ".//*[@class='summary']");
+			fields[SUMMARY] = (summarys.size() == 0) ? "No summary" : summarys.get(0).getValue();
+			List<Node> descriptions = CMLUtil.getQueryNodes(attributeElement, ".//*[@class='description']");
+			fields[DESCRIPTION] = (descriptions.size() == 0) ? "No description" : descriptions.get(0).getValue();
+			attributeGroupMap.put(attributeGroupName, fields);
+		}
+	}
+
+	private void indexElements(Element elementTop) {
+		List<Node> elements = CMLUtil.getQueryNodes(elementTop, "./"+XSD_ELEMENT, XPATH_XSD);
+		for (Node node : elements) {
+			Element xsdElement = (Element) node;
+			String elementName = xsdElement.getAttributeValue("name");
+			Map<String, String> synonymMap = new HashMap<String, String>();
+			elementSynonymMap.put(elementName, synonymMap);
+			List<Node> attributeGroups = CMLUtil.getQueryNodes(xsdElement, ".//"+XSD_ATTRIBUTE_GROUP, XPATH_XSD);
+			for (Node attributeGroup : attributeGroups) {
+				String ref = ((Element) attributeGroup).getAttributeValue("ref");
+				synonymMap.put(attributeGroupMap.get(ref)[ATTRIBUTE_NAME], ref);
+			}
+		}
+	}
+
+	/** create attribute template for attributeGroup.
+	 * equivalent to AttributeGenerator.createAttribute() without the schema.
+	 *
+	 * @param attributeGroupName
+	 * @return attribute
+	 */
+	public CMLAttribute createAttribute(String attributeGroupName) {
+		String[] fields = attributeGroupMap.get(attributeGroupName);
+		if (fields == null) {
+			throw new RuntimeException("Cannot find unique attributeGroup: "+attributeGroupName);
+		}
+		CMLType type = typeMap.get(fields[TYPE]);
+		if (type == null) {
+			throw new RuntimeException("Cannot find CMLType for "+fields[TYPE]);
+		}
+		CMLAttribute attribute = AttributeFactory.createCMLAttribute(fields[ATTRIBUTE_NAME], type);
+		attribute.setSummary(fields[SUMMARY]);
+		attribute.setDescription(fields[DESCRIPTION]);
+		return attribute;
+	}
+
+	/** schema manager with type and attribute indexes.
+	 * if the index was read from the compiled resource the element
+	 * generator is empty; it is only needed for code generation.
+	 *
+	 * @return schema manager
+	 */
+	public SchemaManager getSchemaManager() {
+		if (schemaManager == null) {
+			schemaManager = new SchemaManager();
+			TypeGenerator typeGenerator = schemaManager.getTypeGenerator();
+			typeGenerator.getMap().putAll(typeMap);
+			typeGenerator.nameList.addAll(typeNameList);
+			AttributeGenerator attributeGenerator = schemaManager.getAttributeGenerator();
+			for (String attributeGroupName : attributeGroupMap.keySet()) {
+				attributeGenerator.getAttributeGroupMap().put(
+						attributeGroupName, createAttribute(attributeGroupName));
+				attributeGenerator.nameList.add(attributeGroupName);
+			}
+		}
+		return schemaManager;
+	}
+
+	/**
+	 * @return names of attributeGroups in schema order
+	 */
+	public List<String> getAttributeGroupNames() {
+		return new ArrayList<String>(attributeGroupMap.keySet());
+	}
+
+	/**
+	 * @return map of types by name
+	 */
+	public Map<String, CMLType> getTypeMap() {
+		return typeMap;
+	}
+
+	/**
+	 * @return attributeGroup names by attribute name by element name
+	 */
+	public Map<String, Map<String, String>> getElementSynonymMap() {
+		return elementSynonymMap;
+	}
+
+	/** checksum of the XSD resources.
+	 *
+	 * @return CRC32 of schemas
+	 * @throws IOException
+	 */
+	static long calculateChecksum() throws IOException {
+		CRC32 crc = new CRC32();
+		for (String schema : SCHEMAS) {
+			InputStream in = SchemaIndex.class.getClassLoader().getResourceAsStream(schema);
+			if (in == null) {
+				throw new IOException("missing schema: "+schema);
+			}
+			try {
+				crc.update(IOUtils.toByteArray(in));
+			} finally {
+				in.close();
+			}
+		}
+		return crc.getValue();
+	}
+
+	/** write compiled index.
+	 *
+	 * @param outputStream not closed
+	 * @param checksum of schemas
+	 * @throws IOException
+	 */
+	public void write(OutputStream outputStream, long checksum) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(checksum);
+		out.writeInt(typeMap.size());
+		for (Map.Entry<String, CMLType> entry : typeMap.entrySet()) {
+			writeString(out, entry.getKey());
+			writeType(out, entry.getValue());
+		}
+		writeStrings(out, typeNameList.toArray(new String[0]));
+		out.writeInt(attributeGroupMap.size());
+		for (Map.Entry<String, String[]> entry : attributeGroupMap.entrySet()) {
+			writeString(out, entry.getKey());
+			writeStrings(out, entry.getValue());
+		}
+		out.writeInt(elementSynonymMap.size());
+		for (Map.Entry<String, Map<String, String>> entry : elementSynonymMap.entrySet()) {
+			writeString(out, entry.getKey());
+			Map<String, String> synonymMap = entry.getValue();
+			out.writeInt(synonymMap.size());
+			for (Map.Entry<String, String> synonym : synonymMap.entrySet()) {
+				writeString(out, synonym.getKey());
+				writeString(out, synonym.getValue());
+			}
+		}
+		out.flush();
+	}
+
+	/** read compiled index.
+	 *
+	 * @param inputStream not closed
+	 * @param checksum expected checksum of schemas
+	 * @return index or null if made from different schemas
+	 * @throws IOException if not an index or wrong version
+	 */
+	public static SchemaIndex read(InputStream inputStream, long checksum) throws IOException {
+		return read(inputStream, checksum, true);
+	}
+
+	private static SchemaIndex read(InputStream inputStream, long checksum,
+			boolean verify) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+		if (in.readInt() != MAGIC) {
+			throw new IOException("not a schema index");
+		}
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new IOException("unsupported schema index version: "+version);
+		}
+		if (in.readLong() != checksum && verify) {
+			return null;
+		}
+		SchemaIndex index = new SchemaIndex();
+		int nTypes = in.readInt();
+		for (int i = 0; i < nTypes; i++) {
+			String name = readString(in);
+			index.typeMap.put(name, readType(in));
+		}
+		for (String name : readStrings(in)) {
+			index.typeNameList.add(name);
+		}
+		int nGroups = in.readInt();
+		for (int i = 0; i < nGroups; i++) {
+			String name = readString(in);
+			index.attributeGroupMap.put(name, readStrings(in));
+		}
+		int nElements = in.readInt();
+		for (int i = 0; i < nElements; i++) {
+			String elementName = readString(in);
+			int nSynonyms = in.readInt();
+			Map<String, String> synonymMap = new HashMap<String, String>();
+			for (int j = 0; j < nSynonyms; j++) {
+				String attributeName = readString(in);
+				synonymMap.put(attributeName, readString(in));
+			}
+			index.elementSynonymMap.put(elementName, synonymMap);
+		}
+		return index;
+	}
+
+	private static void writeType(DataOutputStream out, CMLType type) throws IOException {
+		writeString(out, type.name);
+		writeString(out, type.id);
+		writeString(out, type.base);
+		writeString(out, type.summary);
+		writeString(out, type.description);
+		writeString(out, type.pattern);
+		writeString(out, type.javaType);
+		writeString(out, type.getSchemaXML());
+		out.writeBoolean(type.isList);
+		out.writeInt(type.listLength);
+		out.writeInt(type.iMinInclusive);
+		out.writeInt(type.iMinExclusive);
+		out.writeInt(type.iMaxInclusive);
+		out.writeInt(type.iMaxExclusive);
+		out.writeDouble(type.dMinInclusive);
+		out.writeDouble(type.dMinExclusive);
+		out.writeDouble(type.dMaxInclusive);
+		out.writeDouble(type.dMaxExclusive);
+		writeStrings(out, type.sEnumerationValues);
+		out.writeInt(type.iEnumerationValues.length);
+		for (int i : type.iEnumerationValues) {
+			out.writeInt(i);
+		}
+		out.writeInt(type.dEnumerationValues.length);
+		for (double d : type.dEnumerationValues) {
+			out.writeDouble(d);
+		}
+		out.writeInt(type.subTypes.length);
+		for (CMLType subType : type.subTypes) {
+			writeType(out, subType);
+		}
+	}
+
+	private static CMLType readType(DataInputStream in) throws IOException {
+		CMLType type = new CMLType();
+		type.name = readString(in);
+		type.id = readString(in);
+		type.base = readString(in);
+		type.summary = readString(in);
+		type.description = readString(in);
+		type.pattern = readString(in);
+		type.javaType = readString(in);
+		type.schemaXML = readString(in);
+		type.isList = in.readBoolean();
+		type.listLength = in.readInt();
+		type.iMinInclusive = in.readInt();
+		type.iMinExclusive = in.readInt();
+		type.iMaxInclusive = in.readInt();
+		type.iMaxExclusive = in.readInt();
+		type.dMinInclusive = in.readDouble();
+		type.dMinExclusive = in.readDouble();
+		type.dMaxInclusive = in.readDouble();
+		type.dMaxExclusive = in.readDouble();
+		type.sEnumerationValues = readStrings(in);
+		type.iEnumerationValues = new int[in.readInt()];
+		for (int i = 0; i < type.iEnumerationValues.length; i++) {
+			type.iEnumerationValues[i] = in.readInt();
+		}
+		type.dEnumerationValues = new double[in.readInt()];
+		for (int i = 0; i < type.dEnumerationValues.length; i++) {
+			type.dEnumerationValues[i] = in.readDouble();
+		}
+		type.subTypes = new CMLType[in.readInt()];
+		for (int i = 0; i < type.subTypes.length; i++) {
+			type.subTypes[i] = readType(in);
+		}
+		return type;
+	}
+
+	private static void writeStrings(DataOutputStream out, String[] ss) throws IOException {
+		out.writeInt(ss.length);
+		for (String s : ss) {
+			writeString(out, s);
+		}
+	}
+
+	private static String[] readStrings(DataInputStream in) throws IOException {
+		String[] ss = new String[in.readInt()];
+		for (int i = 0; i < ss.length; i++) {
+			ss[i] = readString(in);
+		}
+		return ss;
+	}
+
+	// documentation can exceed the 64K limit of writeUTF
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = s.getBytes("UTF-8");
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	/** compiles the schema index into a class directory.
+	 * run by the build after the resources have been copied.
+	 *
+	 * @param args output directory (e.g. target/classes)
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("usage: SchemaIndex <outputDirectory>");
+			System.exit(1);
+		}
+		File file = new File(args[0], SCHEMA_INDEX);
+		file.getParentFile().mkdirs();
+		SchemaIndex index = createFromSchemaFiles();
+		OutputStream out = new FileOutputStream(file);
+		try {
+			index.write(out, calculateChecksum());
+		} finally {
+			out.close();
+		}
+		LOG.info("wrote "+file+" ("+file.length()+" bytes)");
+	}
+}
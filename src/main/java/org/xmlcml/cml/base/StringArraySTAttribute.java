@@ -109,7 +109,11 @@ public class StringArraySTAttribute extends CMLAttribute {
     }
     
     protected String[] arrayFromString(String s){
-    	String[] split = s.trim().split(S_WHITEREGEX);
+    	NumericTokenizer tokenizer = new NumericTokenizer(s, null);
+    	String[] split = new String[tokenizer.countTokens()];
+    	for (int i = 0; i < split.length; i++) {
+    		split[i] = tokenizer.nextToken();
+    	}
     	return split;
     }
 
@@ -144,12 +148,26 @@ public class StringArraySTAttribute extends CMLAttribute {
         }
     }
 
+    /**
+     * parses a value set by setTrustedValue() on first typed access.
+     * the value is not checked; use validate() for that.
+     */
+    private void parseTrustedValue() {
+        if (unparsed && ss == null) {
+            String s = getValue();
+            if (s != null && !s.trim().equals(S_EMPTY)) {
+                ss = arrayFromString(s);
+            }
+        }
+    }
+
     /**
      * get array.
      * 
      * @return null if not set
      */
     public Object getCMLValue() {
+        parseTrustedValue();
         return ss;
     }
 
@@ -159,6 +177,7 @@ public class StringArraySTAttribute extends CMLAttribute {
      * @return null if not set
      */
     public String[] getStringArray() {
+        parseTrustedValue();
         return ss;
     }
 
@@ -110,6 +110,15 @@ public class StringSTAttribute extends CMLAttribute {
 	}
 
 
+    /**
+     * sets value from trusted input; trims as setCMLValue() does.
+     * 
+     * @param s
+     */
+    public void setTrustedValue(String s) {
+        super.setTrustedValue(s.trim());
+    }
+
     /**
 	 * checks value of simpleType. uses CMLType.checkvalue() fails if type is
 	 * int or double or is a list
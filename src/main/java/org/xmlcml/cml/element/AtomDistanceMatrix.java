@@ -0,0 +1,559 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.element;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.xmlcml.cml.base.CMLElement.CoordinateType;
+import org.xmlcml.euclid.Point3;
+import org.xmlcml.euclid.RealMatrix;
+
+/**
+ * 3D distances between all atoms of two lists.
+ * <p>
+ * Coordinates are packed once into a flat array and the distances are
+ * computed in tiles of BLOCK_SIZE columns (so the column coordinates stay
+ * in cache) by fork-join tasks over bands of rows. If the row and column
+ * atoms are the same list only one triangle is computed and it is copied
+ * to the other. Positions are CARTESIAN
+ * (x3, y3, z3) or FRACTIONAL (xFract, yFract, zFract), which are
+ * orthogonalized with the crystal cell; distances are always cartesian.
+ * Periodic images are not considered (see AtomSpatialIndex for that).
+ * </p>
+ * <p>
+ * Values are stored row-major as double or, with Precision.FLOAT, as
+ * float to halve the memory. createSparse() keeps only the distances
+ * within a cutoff, row by row, for sets where a full matrix is too big;
+ * the column atoms are put in an AtomSpatialIndex so that only nearby
+ * pairs are visited.
+ * </p>
+ * <pre>
+ * AtomDistanceMatrix matrix = AtomDistanceMatrix.createDense(
+ *     atomSet.getAtoms(), atomSet.getAtoms(), CoordinateType.CARTESIAN, null, Precision.FLOAT);
+ * double d = matrix.get(i, j);
+ * </pre>
+ * <p>
+ * The matrix is a snapshot and is not updated if the atoms move.
+ * </p>
+ */
+public class AtomDistanceMatrix {
+
+    /** storage for distances. */
+    public enum Precision {
+        /** 8 bytes per distance */
+        DOUBLE,
+        /** 4 bytes per distance */
+        FLOAT;
+    }
+
+    /** number of columns in a tile. */
+    public final static int BLOCK_SIZE = 256;
+    // rows in the band computed by one task
+    private final static int ROWS_PER_TASK = 64;
+    // pairs below which the work is not split
+    private final static int PARALLEL_THRESHOLD = 1 << 16;
+
+    private List<CMLAtom> rowAtoms;
+    private List<CMLAtom> columnAtoms;
+    private int rows;
+    private int columns;
+    // one is null
+    private double[] doubles;
+    private float[] floats;
+
+    private AtomDistanceMatrix(List<CMLAtom> rowAtoms, List<CMLAtom> columnAtoms) {
+        this.rowAtoms = Collections.unmodifiableList(rowAtoms);
+        this.columnAtoms = Collections.unmodifiableList(columnAtoms);
+        this.rows = rowAtoms.size();
+        this.columns = columnAtoms.size();
+    }
+
+    /** computes all distances.
+     *
+     * @param rowAtoms
+     * @param columnAtoms may be the same list as rowAtoms
+     * @param type CARTESIAN or FRACTIONAL
+     * @param crystal required for FRACTIONAL, else ignored
+     * @param precision of stored distances
+     * @return matrix with rowAtoms.size() rows
+     * @throws RuntimeException if an atom has no coordinates or the matrix
+     *     is too large for one array
+     */
+    public static AtomDistanceMatrix createDense(List<CMLAtom> rowAtoms,
+            List<CMLAtom> columnAtoms, CoordinateType type, CMLCrystal crystal,
+            Precision precision) {
+        AtomDistanceMatrix matrix = new AtomDistanceMatrix(rowAtoms, columnAtoms);
+        long size = (long) matrix.rows * matrix.columns;
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new RuntimeException("distance matrix too large: "+
+                    matrix.rows+" x "+matrix.columns+"; use createSparse()");
+        }
+        if (Precision.FLOAT.equals(precision)) {
+            matrix.floats = new float[(int) size];
+        } else {
+            matrix.doubles = new double[(int) size];
+        }
+        double[] xyz1 = packCoordinates(rowAtoms, type, crystal);
+        double[] xyz2 = (columnAtoms == rowAtoms) ? xyz1 : packCoordinates(columnAtoms, type, crystal);
+        run(new DenseTask(xyz1, xyz2, 0, matrix.rows, matrix.doubles, matrix.floats), size);
+        return matrix;
+    }
+
+    /** computes distances up to cutoff.
+     *
+     * @param rowAtoms
+     * @param columnAtoms may be the same list as rowAtoms
+     * @param type CARTESIAN or FRACTIONAL
+     * @param crystal required for FRACTIONAL, else ignored
+     * @param cutoff largest distance kept
+     * @param precision of stored distances
+     * @return sparse matrix
+     * @throws RuntimeException if an atom has no coordinates
+     */
+    public static Sparse createSparse(List<CMLAtom> rowAtoms,
+            List<CMLAtom> columnAtoms, CoordinateType type, CMLCrystal crystal,
+            double cutoff, Precision precision) {
+        if (!(cutoff >= 0.0)) {
+            throw new RuntimeException("cutoff must not be negative: "+cutoff);
+        }
+        double[] xyz1 = packCoordinates(rowAtoms, type, crystal);
+        double[] xyz2 = (columnAtoms == rowAtoms) ? xyz1 : packCoordinates(columnAtoms, type, crystal);
+        // coordinates are now cartesian
+        AtomSpatialIndex index = new AtomSpatialIndex(columnAtoms, xyz2, (cutoff > 0.0) ? cutoff : 1.0);
+        int rows = rowAtoms.size();
+        int nbands = (rows + ROWS_PER_TASK - 1) / ROWS_PER_TASK;
+        SparseBand[] bands = new SparseBand[nbands];
+        for (int b = 0; b < nbands; b++) {
+            bands[b] = new SparseBand(b * ROWS_PER_TASK, Math.min(rows, (b + 1) * ROWS_PER_TASK),
+                    Precision.FLOAT.equals(precision));
+        }
+        run(new SparseTask(xyz1, xyz2, index, bands, 0, nbands, cutoff), (long) rows * columnAtoms.size());
+        return new Sparse(rowAtoms, columnAtoms, bands, Precision.FLOAT.equals(precision));
+    }
+
+    /** packs coordinates as x0 y0 z0 x1 y1 z1 ...
+     * fractional coordinates are orthogonalized.
+     *
+     * @param atoms
+     * @param type CARTESIAN or FRACTIONAL
+     * @param crystal required for FRACTIONAL, else ignored
+     * @return cartesian coordinates
+     * @throws RuntimeException if an atom has no coordinates
+     */
+    public static double[] packCoordinates(List<CMLAtom> atoms, CoordinateType type, CMLCrystal crystal) {
+        double[][] orth = null;
+        if (CoordinateType.FRACTIONAL.equals(type)) {
+            if (crystal == null) {
+                throw new RuntimeException("fractional coordinates need a crystal");
+            }
+            orth = crystal.getOrthogonalizationMatrix().getMatrix();
+        } else if (!CoordinateType.CARTESIAN.equals(type)) {
+            throw new RuntimeException("unsupported coordinate type: "+type);
+        }
+        double[] xyz = new double[3 * atoms.size()];
+        int k = 0;
+        for (CMLAtom atom : atoms) {
+            Point3 point = atom.getPoint3(type);
+            if (point == null) {
+                throw new RuntimeException("atom has no "+type+" coordinates: "+atom.getId());
+            }
+            double[] p = point.getArray();
+            if (orth == null) {
+                xyz[k++] = p[0];
+                xyz[k++] = p[1];
+                xyz[k++] = p[2];
+            } else {
+                for (int d = 0; d < 3; d++) {
+                    xyz[k++] = orth[d][0] * p[0] + orth[d][1] * p[1] + orth[d][2] * p[2];
+                }
+            }
+        }
+        return xyz;
+    }
+
+    private static void run(RecursiveAction task, long pairs) {
+        if (pairs < PARALLEL_THRESHOLD) {
+            task.invoke();
+        } else {
+            ForkJoinPool.commonPool().invoke(task);
+        }
+    }
+
+    /**
+     * @return atoms of the rows
+     */
+    public List<CMLAtom> getRowAtoms() {
+        return rowAtoms;
+    }
+
+    /**
+     * @return atoms of the columns
+     */
+    public List<CMLAtom> getColumnAtoms() {
+        return columnAtoms;
+    }
+
+    /**
+     * @return number of rows
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return number of columns
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return precision of stored distances
+     */
+    public Precision getPrecision() {
+        return (floats == null) ? Precision.DOUBLE : Precision.FLOAT;
+    }
+
+    /**
+     * @param i row
+     * @param j column
+     * @return distance
+     */
+    public double get(int i, int j) {
+        if (i < 0 || i >= rows || j < 0 || j >= columns) {
+            throw new IndexOutOfBoundsException("bad index "+i+"/"+j+" in "+rows+" x "+columns);
+        }
+        int k = i * columns + j;
+        return (floats == null) ? doubles[k] : floats[k];
+    }
+
+    /** copies a row.
+     *
+     * @param i
+     * @return distances from row atom i
+     */
+    public double[] getRow(int i) {
+        if (i < 0 || i >= rows) {
+            throw new IndexOutOfBoundsException("bad row "+i+" in "+rows);
+        }
+        double[] row = new double[columns];
+        if (floats == null) {
+            System.arraycopy(doubles, i * columns, row, 0, columns);
+        } else {
+            for (int j = 0, k = i * columns; j < columns; j++, k++) {
+                row[j] = floats[k];
+            }
+        }
+        return row;
+    }
+
+    /** copies to a RealMatrix, as from CMLAtomSet.getDistanceMatrix().
+     *
+     * @return matrix
+     */
+    public RealMatrix getRealMatrix() {
+        RealMatrix matrix = new RealMatrix(rows, columns);
+        double[][] mat = matrix.getMatrix();
+        for (int i = 0; i < rows; i++) {
+            System.arraycopy(getRow(i), 0, mat[i], 0, columns);
+        }
+        return matrix;
+    }
+
+    /** distances within a cutoff, stored row by row (compressed sparse rows). */
+    public static class Sparse {
+        private List<CMLAtom> rowAtoms;
+        private List<CMLAtom> columnAtoms;
+        private int[] rowStart;
+        private int[] columnIndex;
+        // one is null
+        private double[] doubles;
+        private float[] floats;
+
+        private Sparse(List<CMLAtom> rowAtoms, List<CMLAtom> columnAtoms,
+                SparseBand[] bands, boolean useFloat) {
+            this.rowAtoms = Collections.unmodifiableList(rowAtoms);
+            this.columnAtoms = Collections.unmodifiableList(columnAtoms);
+            int rows = rowAtoms.size();
+            int count = 0;
+            for (SparseBand band : bands) {
+                count += band.count;
+            }
+            rowStart = new int[rows + 1];
+            columnIndex = new int[count];
+            if (useFloat) {
+                floats = new float[count];
+            } else {
+                doubles = new double[count];
+            }
+            int k = 0;
+            for (SparseBand band : bands) {
+                for (int i = band.i0; i < band.i1; i++) {
+                    rowStart[i] = k + band.rowStart[i - band.i0];
+                }
+                System.arraycopy(band.columns, 0, columnIndex, k, band.count);
+                if (useFloat) {
+                    System.arraycopy(band.floats, 0, floats, k, band.count);
+                } else {
+                    System.arraycopy(band.doubles, 0, doubles, k, band.count);
+                }
+                k += band.count;
+            }
+            rowStart[rows] = k;
+        }
+
+        /**
+         * @return atoms of the rows
+         */
+        public List<CMLAtom> getRowAtoms() {
+            return rowAtoms;
+        }
+
+        /**
+         * @return atoms of the columns
+         */
+        public List<CMLAtom> getColumnAtoms() {
+            return columnAtoms;
+        }
+
+        /**
+         * @return number of rows
+         */
+        public int getRows() {
+            return rowAtoms.size();
+        }
+
+        /**
+         * @return number of columns
+         */
+        public int getColumns() {
+            return columnAtoms.size();
+        }
+
+        /**
+         * @return number of stored distances
+         */
+        public int getCount() {
+            return columnIndex.length;
+        }
+
+        /**
+         * @param i row
+         * @return columns within cutoff of row atom i, in increasing order
+         */
+        public int[] getColumns(int i) {
+            return Arrays.copyOfRange(columnIndex, rowStart[i], rowStart[i + 1]);
+        }
+
+        /**
+         * @param i row
+         * @return distances in the order of getColumns(i)
+         */
+        public double[] getDistances(int i) {
+            double[] dd = new double[rowStart[i + 1] - rowStart[i]];
+            for (int k = 0; k < dd.length; k++) {
+                int kk = rowStart[i] + k;
+                dd[k] = (floats == null) ? doubles[kk] : floats[kk];
+            }
+            return dd;
+        }
+
+        /**
+         * @param i row
+         * @param j column
+         * @return distance or NaN if beyond cutoff
+         */
+        public double get(int i, int j) {
+            int k = Arrays.binarySearch(columnIndex, rowStart[i], rowStart[i + 1], j);
+            if (k < 0) {
+                return Double.NaN;
+            }
+            return (floats == null) ? doubles[k] : floats[k];
+        }
+    }
+
+    /** distances within cutoff for one band of rows. */
+    private static class SparseBand {
+        int i0;
+        int i1;
+        // relative to start of band
+        int[] rowStart;
+        int count;
+        int[] columns = new int[16];
+        double[] doubles;
+        float[] floats;
+
+        SparseBand(int i0, int i1, boolean useFloat) {
+            this.i0 = i0;
+            this.i1 = i1;
+            this.rowStart = new int[i1 - i0];
+            if (useFloat) {
+                floats = new float[16];
+            } else {
+                doubles = new double[16];
+            }
+        }
+
+        void add(int j, double d) {
+            if (count == columns.length) {
+                columns = Arrays.copyOf(columns, 2 * count);
+                if (floats == null) {
+                    doubles = Arrays.copyOf(doubles, 2 * count);
+                } else {
+                    floats = Arrays.copyOf(floats, 2 * count);
+                }
+            }
+            columns[count] = j;
+            if (floats == null) {
+                doubles[count] = d;
+            } else {
+                floats[count] = (float) d;
+            }
+            count++;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class DenseTask extends RecursiveAction {
+        private double[] xyz1;
+        private double[] xyz2;
+        private int i0;
+        private int i1;
+        private double[] doubles;
+        private float[] floats;
+
+        DenseTask(double[] xyz1, double[] xyz2, int i0, int i1, double[] doubles, float[] floats) {
+            this.xyz1 = xyz1;
+            this.xyz2 = xyz2;
+            this.i0 = i0;
+            this.i1 = i1;
+            this.doubles = doubles;
+            this.floats = floats;
+        }
+
+        protected void compute() {
+            if (i1 - i0 > ROWS_PER_TASK) {
+                int mid = (i0 + i1) >>> 1;
+                invokeAll(new DenseTask(xyz1, xyz2, i0, mid, doubles, floats),
+                        new DenseTask(xyz1, xyz2, mid, i1, doubles, floats));
+                return;
+            }
+            int n2 = xyz2.length / 3;
+            // if symmetric only j >= i is computed and (i, j) is copied to (j, i);
+            // each pair belongs to the task of its row so tasks never share an element
+            boolean symmetric = (xyz1 == xyz2);
+            int jFirst = symmetric ? (i0 / BLOCK_SIZE) * BLOCK_SIZE : 0;
+            for (int jb = jFirst; jb < n2; jb += BLOCK_SIZE) {
+                int jEnd = Math.min(jb + BLOCK_SIZE, n2);
+                for (int i = i0; i < i1; i++) {
+                    double x = xyz1[3 * i];
+                    double y = xyz1[3 * i + 1];
+                    double z = xyz1[3 * i + 2];
+                    int j0 = symmetric ? Math.max(jb, i) : jb;
+                    int k = i * n2 + j0;
+                    for (int j = j0; j < jEnd; j++, k++) {
+                        double dx = x - xyz2[3 * j];
+                        double dy = y - xyz2[3 * j + 1];
+                        double dz = z - xyz2[3 * j + 2];
+                        double d = Math.sqrt(dx * dx + dy * dy + dz * dz);
+                        if (floats == null) {
+                            doubles[k] = d;
+                        } else {
+                            floats[k] = (float) d;
+                        }
+                    }
+                }
+                if (symmetric) {
+                    // copy the tile to (j, i), writing along rows
+                    for (int j = Math.max(jb, i0 + 1); j < jEnd; j++) {
+                        int iEnd = Math.min(i1, j);
+                        int kk = j * n2 + i0;
+                        if (floats == null) {
+                            for (int i = i0; i < iEnd; i++, kk++) {
+                                doubles[kk] = doubles[i * n2 + j];
+                            }
+                        } else {
+                            for (int i = i0; i < iEnd; i++, kk++) {
+                                floats[kk] = floats[i * n2 + j];
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class SparseTask extends RecursiveAction {
+        private double[] xyz1;
+        private double[] xyz2;
+        private AtomSpatialIndex index;
+        private SparseBand[] bands;
+        private int b0;
+        private int b1;
+        private double cutoff;
+
+        SparseTask(double[] xyz1, double[] xyz2, AtomSpatialIndex index,
+                SparseBand[] bands, int b0, int b1, double cutoff) {
+            this.xyz1 = xyz1;
+            this.xyz2 = xyz2;
+            this.index = index;
+            this.bands = bands;
+            this.b0 = b0;
+            this.b1 = b1;
+            this.cutoff = cutoff;
+        }
+
+        protected void compute() {
+            if (b1 - b0 > 1) {
+                int mid = (b0 + b1) >>> 1;
+                invokeAll(new SparseTask(xyz1, xyz2, index, bands, b0, mid, cutoff),
+                        new SparseTask(xyz1, xyz2, index, bands, mid, b1, cutoff));
+                return;
+            }
+            if (b1 == b0) {
+                return;
+            }
+            SparseBand band = bands[b0];
+            double cutoff2 = cutoff * cutoff;
+            double[] point = new double[3];
+            // rows in order so that each row's columns are contiguous and sorted
+            for (int i = band.i0; i < band.i1; i++) {
+                band.rowStart[i - band.i0] = band.count;
+                double x = xyz1[3 * i];
+                double y = xyz1[3 * i + 1];
+                double z = xyz1[3 * i + 2];
+                point[0] = x;
+                point[1] = y;
+                point[2] = z;
+                for (int j : index.getIndicesWithin(point, cutoff)) {
+                    double dx = x - xyz2[3 * j];
+                    double dy = y - xyz2[3 * j + 1];
+                    double dz = z - xyz2[3 * j + 2];
+                    double d2 = dx * dx + dy * dy + dz * dz;
+                    if (d2 <= cutoff2) {
+                        band.add(j, Math.sqrt(d2));
+                    }
+                }
+            }
+        }
+    }
+}
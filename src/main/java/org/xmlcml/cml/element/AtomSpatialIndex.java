@@ -0,0 +1,614 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.element;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xmlcml.cml.base.CMLElement.CoordinateType;
+import org.xmlcml.euclid.Point3;
+
+/**
+ * cell list of atom positions for neighbour and contact queries.
+ * <p>
+ * The atoms are binned into a grid of cells at least cellSize wide so
+ * that a query only visits the cells overlapping its sphere; finding all
+ * contacts up to about cellSize is then O(n) rather than O(n^2).
+ * Positions are CARTESIAN (x3, y3, z3) or FRACTIONAL (xFract, yFract,
+ * zFract). If a crystal is given the index is periodic: positions are
+ * wrapped into the unit cell and queries see all periodic images.
+ * Distances are always cartesian.
+ * </p>
+ * <p>
+ * Atoms without coordinates of the given type are not indexed. The index
+ * is a snapshot and must be rebuilt if the atoms move.
+ * </p>
+ */
+public class AtomSpatialIndex {
+
+    /** a pair of atoms within a given distance.
+     * in a periodic index atom2 may be an image of atom1 or of
+     * another atom in a neighbouring cell.
+     */
+    public static class Contact {
+        private CMLAtom atom1;
+        private CMLAtom atom2;
+        private double distance;
+
+        Contact(CMLAtom atom1, CMLAtom atom2, double distance) {
+            this.atom1 = atom1;
+            this.atom2 = atom2;
+            this.distance = distance;
+        }
+
+        /**
+         * @return first atom
+         */
+        public CMLAtom getAtom1() {
+            return atom1;
+        }
+
+        /**
+         * @return second atom
+         */
+        public CMLAtom getAtom2() {
+            return atom2;
+        }
+
+        /**
+         * @return cartesian distance
+         */
+        public double getDistance() {
+            return distance;
+        }
+
+        /**
+         * @return string
+         */
+        public String toString() {
+            return atom1.getId()+" "+atom2.getId()+" "+distance;
+        }
+    }
+
+    /** atom (as index) found by a search, with the periodic image it is in. */
+    private static class Hit implements Comparable<Hit> {
+        int atom;
+        int si;
+        int sj;
+        int sk;
+        double dist2;
+
+        Hit(int atom, int si, int sj, int sk, double dist2) {
+            this.atom = atom;
+            this.si = si;
+            this.sj = sj;
+            this.sk = sk;
+            this.dist2 = dist2;
+        }
+
+        boolean isPositiveShift() {
+            return si > 0 || (si == 0 && (sj > 0 || (sj == 0 && sk > 0)));
+        }
+
+        public int compareTo(Hit hit) {
+            return Double.compare(dist2, hit.dist2);
+        }
+    }
+
+    // upper limit on the number of cells in a sparse system
+    private final static int MAX_CELLS_PER_ATOM = 8;
+
+    private CoordinateType type;
+    private boolean periodic;
+    private List<CMLAtom> atoms;
+    private Map<CMLAtom, Integer> atomIndex;
+    // grid coordinates, cartesian or fractional in [0, 1) if periodic
+    private double[][] grid;
+    // grid to cartesian, periodic only
+    private double[][] orth;
+    // cartesian to fractional, periodic only
+    private double[][] deorth;
+    private double[] origin = new double[3];
+    private double[] cellEdge = new double[3];
+    // grid units per unit cartesian distance along each axis
+    private double[] reach = new double[3];
+    private int[] dims = new int[3];
+    private int[] cellStart;
+    private int[] cellAtoms;
+
+    /** index atoms.
+     *
+     * @param atoms
+     * @param type CARTESIAN or FRACTIONAL
+     * @param crystal if not null the index is periodic in its cell;
+     * required for FRACTIONAL
+     * @param cellSize minimum width of the cells, usually the largest
+     * radius that will be queried
+     * @throws RuntimeException if the arguments are inconsistent
+     */
+    public AtomSpatialIndex(List<CMLAtom> atoms, CoordinateType type,
+            CMLCrystal crystal, double cellSize) {
+        checkCellSize(cellSize);
+        if (CoordinateType.CARTESIAN.equals(type)) {
+        } else if (CoordinateType.FRACTIONAL.equals(type)) {
+            if (crystal == null) {
+                throw new RuntimeException("fractional coordinates need a crystal");
+            }
+        } else {
+            throw new RuntimeException("unsupported coordinate type: "+type);
+        }
+        this.type = type;
+        this.periodic = (crystal != null);
+        if (periodic) {
+            orth = crystal.getOrthogonalizationMatrix().getMatrix();
+            deorth = invert(orth);
+        }
+        this.atoms = new ArrayList<CMLAtom>();
+        this.atomIndex = new IdentityHashMap<CMLAtom, Integer>();
+        List<double[]> gridList = new ArrayList<double[]>();
+        for (CMLAtom atom : atoms) {
+            Point3 point = atom.getPoint3(type);
+            if (point != null) {
+                atomIndex.put(atom, this.atoms.size());
+                this.atoms.add(atom);
+                gridList.add(toGrid(point));
+            }
+        }
+        grid = gridList.toArray(new double[gridList.size()][]);
+        makeCells(cellSize);
+    }
+
+    /** index packed cartesian coordinates; not periodic.
+     * used by AtomDistanceMatrix, which has already packed them.
+     *
+     * @param atoms
+     * @param xyz x0 y0 z0 x1 ... for atoms
+     * @param cellSize minimum width of the cells
+     */
+    AtomSpatialIndex(List<CMLAtom> atoms, double[] xyz, double cellSize) {
+        checkCellSize(cellSize);
+        this.type = CoordinateType.CARTESIAN;
+        this.periodic = false;
+        this.atoms = new ArrayList<CMLAtom>(atoms);
+        this.atomIndex = new IdentityHashMap<CMLAtom, Integer>();
+        grid = new double[atoms.size()][];
+        for (int i = 0; i < grid.length; i++) {
+            atomIndex.put(this.atoms.get(i), i);
+            grid[i] = new double[] {xyz[3 * i], xyz[3 * i + 1], xyz[3 * i + 2]};
+        }
+        makeCells(cellSize);
+    }
+
+    private static void checkCellSize(double cellSize) {
+        if (!(cellSize > 0.0)) {
+            throw new RuntimeException("cellSize must be positive: "+cellSize);
+        }
+    }
+
+    /** index atoms of atomSet.
+     *
+     * @param atomSet
+     * @param type CARTESIAN or FRACTIONAL
+     * @param crystal if not null the index is periodic
+     * @param cellSize minimum width of the cells
+     */
+    public AtomSpatialIndex(CMLAtomSet atomSet, CoordinateType type,
+            CMLCrystal crystal, double cellSize) {
+        this(atomSet.getAtoms(), type, crystal, cellSize);
+    }
+
+    /** index atoms of molecule.
+     *
+     * @param molecule
+     * @param type CARTESIAN or FRACTIONAL
+     * @param crystal if not null the index is periodic
+     * @param cellSize minimum width of the cells
+     */
+    public AtomSpatialIndex(CMLMolecule molecule, CoordinateType type,
+            CMLCrystal crystal, double cellSize) {
+        this(molecule.getAtoms(), type, crystal, cellSize);
+    }
+
+    /** get the indexed atoms.
+     *
+     * @return atoms with coordinates, in input order
+     */
+    public List<CMLAtom> getAtoms() {
+        return Collections.unmodifiableList(atoms);
+    }
+
+    /** is the index periodic.
+     *
+     * @return true if built with a crystal
+     */
+    public boolean isPeriodic() {
+        return periodic;
+    }
+
+    /** get atoms within radius of a point.
+     * in a periodic index an atom is included once for each of its
+     * images within radius.
+     *
+     * @param point in the coordinates of the index
+     * @param radius cartesian
+     * @return atoms in order of increasing distance
+     */
+    public List<CMLAtom> getAtomsWithin(Point3 point, double radius) {
+        return getAtomsWithin(toGrid(point), radius, -1);
+    }
+
+    /** get atoms within radius of an atom.
+     * the atom itself is excluded but in a periodic index its other
+     * images are not.
+     *
+     * @param atom
+     * @param radius cartesian
+     * @return atoms in order of increasing distance
+     * @throws RuntimeException if atom has no coordinates
+     */
+    public List<CMLAtom> getAtomsWithin(CMLAtom atom, double radius) {
+        return getAtomsWithin(toGrid(getPoint3(atom)), radius, indexOf(atom));
+    }
+
+    private List<CMLAtom> getAtomsWithin(double[] q, double radius, int self) {
+        List<Hit> hits = new ArrayList<Hit>();
+        search(q, radius, self, hits);
+        Collections.sort(hits);
+        return toAtoms(hits, hits.size());
+    }
+
+    /** get the positions in getAtoms() of the atoms within radius of a point.
+     * nothing is excluded and images are not distinguished.
+     *
+     * @param point x, y, z in the coordinates of the index
+     * @param radius cartesian
+     * @return positions in increasing order
+     */
+    int[] getIndicesWithin(double[] point, double radius) {
+        List<Hit> hits = new ArrayList<Hit>();
+        search(toGrid(new Point3(point)), radius, -1, hits);
+        int[] indices = new int[hits.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = hits.get(i).atom;
+        }
+        Arrays.sort(indices);
+        return indices;
+    }
+
+    /** get the nearest atoms to a point.
+     *
+     * @param point in the coordinates of the index
+     * @param k number of atoms
+     * @return up to k atoms in order of increasing distance
+     */
+    public List<CMLAtom> getNearestAtoms(Point3 point, int k) {
+        return getNearestAtoms(toGrid(point), k, -1);
+    }
+
+    /** get the nearest atoms to an atom.
+     * the atom itself is excluded.
+     *
+     * @param atom
+     * @param k number of atoms
+     * @return up to k atoms in order of increasing distance
+     * @throws RuntimeException if atom has no coordinates
+     */
+    public List<CMLAtom> getNearestAtoms(CMLAtom atom, int k) {
+        return getNearestAtoms(toGrid(getPoint3(atom)), k, indexOf(atom));
+    }
+
+    private List<CMLAtom> getNearestAtoms(double[] q, int k, int self) {
+        int available = (self == -1) ? atoms.size() : atoms.size() - 1;
+        if (k <= 0 || atoms.size() == 0 || (!periodic && available == 0)) {
+            return new ArrayList<CMLAtom>();
+        }
+        double radius = Math.min(cellEdge[0] / reach[0],
+                Math.min(cellEdge[1] / reach[1], cellEdge[2] / reach[2]));
+        while (true) {
+            List<Hit> hits = new ArrayList<Hit>();
+            search(q, radius, self, hits);
+            if (hits.size() >= k || (!periodic && hits.size() == available)) {
+                Collections.sort(hits);
+                return toAtoms(hits, Math.min(k, hits.size()));
+            }
+            radius *= 2.0;
+        }
+    }
+
+    /** get all pairs of atoms within radius.
+     * each pair is reported once.
+     *
+     * @param radius cartesian
+     * @return contacts
+     */
+    public List<Contact> getContacts(double radius) {
+        return getContacts(radius, false);
+    }
+
+    /** get all pairs of atoms within radius that are not bonded.
+     * atoms are bonded if either is in the ligand list of the other.
+     *
+     * @param radius cartesian
+     * @return contacts
+     */
+    public List<Contact> getNonBondedContacts(double radius) {
+        return getContacts(radius, true);
+    }
+
+    /** get all pairs of atoms closer than the sum of their radii plus tolerance.
+     * each atom is only searched as far as its own radius plus the largest
+     * radius, and pairs are tested during the search, so one large radius
+     * does not widen the search or the result for every atom.
+     *
+     * @param radii one for each atom of getAtoms(), in the same order
+     * @param tolerance added to each sum of radii
+     * @return contacts, each pair once
+     * @throws RuntimeException if radii and atoms differ in length
+     */
+    public List<Contact> getContacts(double[] radii, double tolerance) {
+        if (radii.length != atoms.size()) {
+            throw new RuntimeException("need "+atoms.size()+" radii, found "+radii.length);
+        }
+        double maxRadius = 0.0;
+        for (double radius : radii) {
+            maxRadius = Math.max(maxRadius, radius);
+        }
+        List<Contact> contacts = new ArrayList<Contact>();
+        List<Hit> hits = new ArrayList<Hit>();
+        for (int i = 0; i < atoms.size(); i++) {
+            hits.clear();
+            double extra = radii[i] + tolerance;
+            search(grid[i], extra + maxRadius, i, radii, extra, hits);
+            for (Hit hit : hits) {
+                if (hit.atom > i || (hit.atom == i && hit.isPositiveShift())) {
+                    contacts.add(new Contact(atoms.get(i), atoms.get(hit.atom), Math.sqrt(hit.dist2)));
+                }
+            }
+        }
+        return contacts;
+    }
+
+    private List<Contact> getContacts(double radius, boolean nonBonded) {
+        List<Contact> contacts = new ArrayList<Contact>();
+        List<Hit> hits = new ArrayList<Hit>();
+        for (int i = 0; i < atoms.size(); i++) {
+            hits.clear();
+            search(grid[i], radius, i, hits);
+            CMLAtom atom = atoms.get(i);
+            for (Hit hit : hits) {
+                // each pair is found from both ends
+                if (hit.atom > i || (hit.atom == i && hit.isPositiveShift())) {
+                    CMLAtom atom2 = atoms.get(hit.atom);
+                    if (nonBonded && atom.getLigandAtoms().contains(atom2)) {
+                        continue;
+                    }
+                    contacts.add(new Contact(atom, atom2, Math.sqrt(hit.dist2)));
+                }
+            }
+        }
+        return contacts;
+    }
+
+    private List<CMLAtom> toAtoms(List<Hit> hits, int n) {
+        List<CMLAtom> atomList = new ArrayList<CMLAtom>(n);
+        for (int i = 0; i < n; i++) {
+            atomList.add(atoms.get(hits.get(i).atom));
+        }
+        return atomList;
+    }
+
+    /** adds atoms within radius of q to hits.
+     * self (at zero shift) is skipped. Cells outside the grid are
+     * periodic images; a non-periodic grid is clamped so the shifts are 0.
+     */
+    private void search(double[] q, double radius, int self, List<Hit> hits) {
+        search(q, radius, self, null, 0.0, hits);
+    }
+
+    /** as search() but if radii is not null an atom a is only added if
+     * it is closer than radii[a] + extra; radius must cover the largest.
+     */
+    private void search(double[] q, double radius, int self,
+            double[] radii, double extra, List<Hit> hits) {
+        double r2 = radius * radius;
+        int[] lo = new int[3];
+        int[] hi = new int[3];
+        for (int d = 0; d < 3; d++) {
+            double extent = radius * reach[d];
+            lo[d] = (int) Math.floor((q[d] - extent - origin[d]) / cellEdge[d]);
+            hi[d] = (int) Math.floor((q[d] + extent - origin[d]) / cellEdge[d]);
+            if (!periodic) {
+                lo[d] = Math.max(lo[d], 0);
+                hi[d] = Math.min(hi[d], dims[d] - 1);
+            }
+        }
+        for (int i = lo[0]; i <= hi[0]; i++) {
+            int ci = Math.floorMod(i, dims[0]);
+            int si = Math.floorDiv(i, dims[0]);
+            for (int j = lo[1]; j <= hi[1]; j++) {
+                int cj = Math.floorMod(j, dims[1]);
+                int sj = Math.floorDiv(j, dims[1]);
+                for (int k = lo[2]; k <= hi[2]; k++) {
+                    int ck = Math.floorMod(k, dims[2]);
+                    int sk = Math.floorDiv(k, dims[2]);
+                    int cell = (ci * dims[1] + cj) * dims[2] + ck;
+                    for (int n = cellStart[cell]; n < cellStart[cell + 1]; n++) {
+                        int a = cellAtoms[n];
+                        if (a == self && si == 0 && sj == 0 && sk == 0) {
+                            continue;
+                        }
+                        double[] g = grid[a];
+                        double dx = g[0] + si - q[0];
+                        double dy = g[1] + sj - q[1];
+                        double dz = g[2] + sk - q[2];
+                        if (periodic) {
+                            double x = orth[0][0] * dx + orth[0][1] * dy + orth[0][2] * dz;
+                            double y = orth[1][0] * dx + orth[1][1] * dy + orth[1][2] * dz;
+                            double z = orth[2][0] * dx + orth[2][1] * dy + orth[2][2] * dz;
+                            dx = x;
+                            dy = y;
+                            dz = z;
+                        }
+                        double dist2 = dx * dx + dy * dy + dz * dz;
+                        if (radii != null) {
+                            double limit = radii[a] + extra;
+                            if (dist2 < limit * limit) {
+                                hits.add(new Hit(a, si, sj, sk, dist2));
+                            }
+                        } else if (dist2 <= r2) {
+                            hits.add(new Hit(a, si, sj, sk, dist2));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** bins atoms into cells.
+     * cells are enlarged if a sparse system would need too many.
+     */
+    private void makeCells(double cellSize) {
+        int natoms = grid.length;
+        long maxCells = Math.max((long) MAX_CELLS_PER_ATOM * natoms, 1L);
+        double[] extent = new double[3];
+        if (periodic) {
+            for (int d = 0; d < 3; d++) {
+                // perpendicular width of the unit cell is 1/|a*|
+                reach[d] = Math.sqrt(deorth[d][0] * deorth[d][0] +
+                        deorth[d][1] * deorth[d][1] + deorth[d][2] * deorth[d][2]);
+                extent[d] = 1.0 / reach[d];
+            }
+        } else {
+            for (int d = 0; d < 3; d++) {
+                double min = Double.MAX_VALUE;
+                double max = -Double.MAX_VALUE;
+                for (double[] g : grid) {
+                    min = Math.min(min, g[d]);
+                    max = Math.max(max, g[d]);
+                }
+                origin[d] = (natoms == 0) ? 0.0 : min;
+                extent[d] = (natoms == 0) ? 0.0 : max - min;
+                reach[d] = 1.0;
+            }
+        }
+        while (true) {
+            long ncells = 1;
+            for (int d = 0; d < 3; d++) {
+                if (periodic) {
+                    dims[d] = Math.max(1, (int) Math.min(Integer.MAX_VALUE, Math.floor(extent[d] / cellSize)));
+                    cellEdge[d] = 1.0 / dims[d];
+                } else {
+                    dims[d] = (int) Math.min(Integer.MAX_VALUE, Math.floor(extent[d] / cellSize) + 1);
+                    cellEdge[d] = cellSize;
+                }
+                ncells *= dims[d];
+            }
+            if (ncells <= maxCells) {
+                break;
+            }
+            cellSize *= 2.0;
+        }
+        // counting sort of atoms by cell
+        int ncells = dims[0] * dims[1] * dims[2];
+        int[] atomCell = new int[natoms];
+        cellStart = new int[ncells + 1];
+        for (int a = 0; a < natoms; a++) {
+            int cell = 0;
+            for (int d = 0; d < 3; d++) {
+                int c = (int) Math.floor((grid[a][d] - origin[d]) / cellEdge[d]);
+                c = Math.max(0, Math.min(c, dims[d] - 1));
+                cell = cell * dims[d] + c;
+            }
+            atomCell[a] = cell;
+            cellStart[cell + 1]++;
+        }
+        for (int c = 0; c < ncells; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] next = new int[ncells];
+        System.arraycopy(cellStart, 0, next, 0, ncells);
+        cellAtoms = new int[natoms];
+        for (int a = 0; a < natoms; a++) {
+            cellAtoms[next[atomCell[a]]++] = a;
+        }
+    }
+
+    private int indexOf(CMLAtom atom) {
+        Integer index = atomIndex.get(atom);
+        return (index == null) ? -1 : index.intValue();
+    }
+
+    private Point3 getPoint3(CMLAtom atom) {
+        Point3 point = atom.getPoint3(type);
+        if (point == null) {
+            throw new RuntimeException("atom has no "+type+" coordinates: "+atom.getId());
+        }
+        return point;
+    }
+
+    /** converts point to grid coordinates.
+     * periodic grid coordinates are fractional and wrapped into [0, 1)
+     */
+    private double[] toGrid(Point3 point) {
+        double[] p = point.getArray();
+        double[] g = new double[3];
+        if (!periodic) {
+            System.arraycopy(p, 0, g, 0, 3);
+        } else {
+            if (CoordinateType.CARTESIAN.equals(type)) {
+                for (int d = 0; d < 3; d++) {
+                    g[d] = deorth[d][0] * p[0] + deorth[d][1] * p[1] + deorth[d][2] * p[2];
+                }
+            } else {
+                System.arraycopy(p, 0, g, 0, 3);
+            }
+            for (int d = 0; d < 3; d++) {
+                g[d] -= Math.floor(g[d]);
+                // rounding can give exactly 1.0
+                if (g[d] >= 1.0) {
+                    g[d] = 0.0;
+                }
+            }
+        }
+        return g;
+    }
+
+    private static double[][] invert(double[][] m) {
+        double det =
+            m[0][0] * (m[1][1] * m[2][2] - m[1][2] * m[2][1]) -
+            m[0][1] * (m[1][0] * m[2][2] - m[1][2] * m[2][0]) +
+            m[0][2] * (m[1][0] * m[2][1] - m[1][1] * m[2][0]);
+        if (Math.abs(det) < 1.0e-10) {
+            throw new RuntimeException("singular cell");
+        }
+        double[][] inv = new double[3][3];
+        inv[0][0] = (m[1][1] * m[2][2] - m[1][2] * m[2][1]) / det;
+        inv[0][1] = (m[0][2] * m[2][1] - m[0][1] * m[2][2]) / det;
+        inv[0][2] = (m[0][1] * m[1][2] - m[0][2] * m[1][1]) / det;
+        inv[1][0] = (m[1][2] * m[2][0] - m[1][0] * m[2][2]) / det;
+        inv[1][1] = (m[0][0] * m[2][2] - m[0][2] * m[2][0]) / det;
+        inv[1][2] = (m[0][2] * m[1][0] - m[0][0] * m[1][2]) / det;
+        inv[2][0] = (m[1][0] * m[2][1] - m[1][1] * m[2][0]) / det;
+        inv[2][1] = (m[0][1] * m[2][0] - m[0][0] * m[2][1]) / det;
+        inv[2][2] = (m[0][0] * m[1][1] - m[0][1] * m[1][0]) / det;
+        return inv;
+    }
+}
@@ -535,7 +535,8 @@ public class CMLArg extends AbstractArg {
                 if (node instanceof Attribute) {
                     ((Attribute)node).setValue(val);
                 } else if (node instanceof Text) {
-                    ((Text)node).setValue(val);
+                    // replace rather than reset so parsed array values are dropped
+                    node.getParent().replaceChild(node, new Text(val));
                 } else {
                     throw new RuntimeException("BUG "+node.getClass());
                 }
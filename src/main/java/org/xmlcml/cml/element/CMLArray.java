@@ -16,7 +16,7 @@
 
 package org.xmlcml.cml.element;
 
-import java.text.ParseException;
+import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -43,7 +43,6 @@ import org.xmlcml.euclid.EuclidRuntimeException;
 import org.xmlcml.euclid.IntArray;
 import org.xmlcml.euclid.JodaDate;
 import org.xmlcml.euclid.RealArray;
-import org.xmlcml.euclid.Util;
 
 /**
  * user-modifiable class supporting array. * autogenerated from schema use as a
@@ -57,6 +56,11 @@ public class CMLArray extends AbstractArray implements HasUnits, HasArraySize,
 	/** namespaced element name. */
 	public final static String NS = C_E + TAG;
 	private DelimiterAttribute delimiterAttribute = null;
+	// items appended in buffered mode and not yet in the text content
+	private StringBuilder appendBuffer = null;
+	private int appendCount = 0;
+	// values parsed by the getters; see getParsedValues()
+	private ParsedContent parsedContent = null;
 
 	/**
 	 * constructor.
@@ -75,10 +79,15 @@ public class CMLArray extends AbstractArray implements HasUnits, HasArraySize,
 	 * @param old
 	 */
 	public CMLArray(CMLArray old) {
-		super((AbstractArray) old);
+		super((AbstractArray) updated(old));
 		init();
 	}
 
+	private static CMLArray updated(CMLArray array) {
+		array.updateContent();
+		return array;
+	}
+
 	/**
 	 * copy node .
 	 * 
@@ -432,19 +441,76 @@ public class CMLArray extends AbstractArray implements HasUnits, HasArraySize,
 		return primitiveArray;
 	}
 
+	/**
+	 * values as returned by getPrimitiveArray() but shared, not copied.
+	 * used by TableColumns; callers must not modify them. Values of
+	 * unknown dataType are returned as strings.
+	 * 
+	 * @return double[], int[], boolean[], DateTime[] or String[]
+	 */
+	Object getParsedPrimitiveArray() {
+		String dataType = this.getDataType();
+		Object values = null;
+		if (XSD_DOUBLE.equals(dataType)) {
+			values = this.getParsedDoubles();
+		} else if (XSD_INTEGER.equals(dataType)) {
+			values = this.getParsedInts();
+		} else if (XSD_BOOLEAN.equals(dataType)) {
+			values = this.getParsedBooleans();
+		} else if (XSD_DATE.equals(dataType)) {
+			values = this.getParsedDates();
+		} else if (XSD_STRING.equals(dataType)) {
+			values = this.getParsedStrings();
+		} else {
+			values = this.getSplitContent();
+		}
+		return values;
+	}
+
 	/**
 	 * get strings.
 	 * 
 	 * @return strings
 	 */
 	public String[] getStrings() {
+		String[] ss = getParsedStrings();
+		return (ss == null) ? null : ss.clone();
+	}
+
+	private String[] getParsedStrings() {
 		String[] ss = null;
 		if (this.getDataType().equals(XSD_STRING)) {
-			ss = getSplitContent();
+			ss = (String[]) getParsedValues(XSD_STRING);
+			if (ss == null) {
+				ss = getSplitContent();
+				setParsedValues(XSD_STRING, ss);
+			}
 		}
 		return ss;
 	}
 
+	/** values parsed from the current content by an earlier call.
+	 * the getters keep the values they parse, so that repeated calls and
+	 * getElementAt() do not split and parse the content again. The values
+	 * are dropped when the content, dataType or delimiter change.
+	 * 
+	 * @param dataType of the values
+	 * @return shared values or null
+	 */
+	private Object getParsedValues(String dataType) {
+		updateContent();
+		return (parsedContent == null) ? null : parsedContent.getValues(
+				this, dataType, this.getAttributeValue("delimiter"));
+	}
+
+	private void setParsedValues(String dataType, Object values) {
+		if (parsedContent == null) {
+			parsedContent = new ParsedContent();
+		}
+		parsedContent.setValues(this, dataType,
+				this.getAttributeValue("delimiter"), values);
+	}
+
 	/**
 	 * splits content into tokens. if delimiter is whitespace, trims content and
 	 * splits at whitespace (however long) else assume starts and ends with
@@ -486,14 +552,23 @@ public class CMLArray extends AbstractArray implements HasUnits, HasArraySize,
 	 * @throws RuntimeException
 	 */
 	public boolean[] getBooleans() throws RuntimeException {
+		boolean[] dd = getParsedBooleans();
+		return (dd == null) ? null : dd.clone();
+	}
+
+	private boolean[] getParsedBooleans() throws RuntimeException {
 		boolean[] dd = null;
 		String dataType = this.getDataType();
 		if (dataType != null
 				&& XSD_BOOLEAN.equals(CMLType.getNormalizedValue(dataType))) {
-			String[] ss = getSplitContent();
-			dd = new boolean[ss.length];
-			for (int i = 0; i < dd.length; i++) {
-				dd[i] = new Boolean(ss[i]);
+			dd = (boolean[]) getParsedValues(XSD_BOOLEAN);
+			if (dd == null) {
+				String[] ss = getSplitContent();
+				dd = new boolean[ss.length];
+				for (int i = 0; i < dd.length; i++) {
+					dd[i] = new Boolean(ss[i]);
+				}
+				setParsedValues(XSD_BOOLEAN, dd);
 			}
 		}
 		return dd;
@@ -506,22 +581,29 @@ public class CMLArray extends AbstractArray implements HasUnits, HasArraySize,
 	 * @throws RuntimeException
 	 */
 	public double[] getDoubles() throws RuntimeException {
+		double[] dd = getParsedDoubles();
+		return (dd == null) ? null : dd.clone();
+	}
+
+	private double[] getParsedDoubles() throws RuntimeException {
 		double[] dd = null;
 		String dataType = this.getDataType();
 		if (dataType != null
 				&& XSD_DOUBLE.equals(CMLType.getNormalizedValue(dataType))) {
-			String[] ss = getSplitContent();
-			dd = new double[ss.length];
-			for (int i = 0; i < dd.length; i++) {
-				try {
-					dd[i] = Util.parseFlexibleDouble(ss[i]);
-				} catch (NumberFormatException nfe) {
-					throw new RuntimeException("Bad double :" + ss[i]
-							+ " at position: " + i, nfe);
-				} catch (ParseException e) {
-					throw new RuntimeException("Bad double : " + ss[i]
-							+ "at position " + i, e);
+			dd = (double[]) getParsedValues(XSD_DOUBLE);
+			if (dd == null) {
+				String content = this.getXMLContent();
+				dd = new double[0];
+				if (content != null) {
+					ensureDelimiterAttribute(Action.PRESERVE);
+					try {
+						dd = delimiterAttribute.getSplitDoubles(content);
+					} catch (NumberFormatException nfe) {
+						throw new RuntimeException(nfe.getMessage(), nfe);
+					}
 				}
+				this.removeWhitespaceDelimiterAttribute();
+				setParsedValues(XSD_DOUBLE, dd);
 			}
 		}
 		return dd;
@@ -551,14 +633,23 @@ public class CMLArray extends AbstractArray implements HasUnits, HasArraySize,
 	 * @throws RuntimeException
 	 */
 	public DateTime[] getDates() throws RuntimeException {
+		DateTime[] dd = getParsedDates();
+		return (dd == null) ? null : dd.clone();
+	}
+
+	private DateTime[] getParsedDates() throws RuntimeException {
 		DateTime[] dd = null;
 		String dataType = this.getDataType();
 		if (dataType != null
 				&& XSD_DATE.equals(CMLType.getNormalizedValue(dataType))) {
-			String[] ss = getSplitContent();
-			dd = new DateTime[ss.length];
-			for (int i = 0; i < dd.length; i++) {
-				dd[i] = JodaDate.parseDate(ss[i]);
+			dd = (DateTime[]) getParsedValues(XSD_DATE);
+			if (dd == null) {
+				String[] ss = getSplitContent();
+				dd = new DateTime[ss.length];
+				for (int i = 0; i < dd.length; i++) {
+					dd[i] = JodaDate.parseDate(ss[i]);
+				}
+				setParsedValues(XSD_DATE, dd);
 			}
 		}
 		return dd;
@@ -571,18 +662,28 @@ public class CMLArray extends AbstractArray implements HasUnits, HasArraySize,
 	 * @throws RuntimeException
 	 */
 	public int[] getInts() throws RuntimeException {
+		int[] ii = getParsedInts();
+		return (ii == null) ? null : ii.clone();
+	}
+
+	private int[] getParsedInts() throws RuntimeException {
 		int[] ii = null;
 		String dataType = this.getDataType();
 		if (XSD_INTEGER.equals(dataType)) {
-			String[] ss = getSplitContent();
-			ii = new int[ss.length];
-			for (int i = 0; i < ii.length; i++) {
-				try {
-					ii[i] = new Integer(ss[i]).intValue();
-				} catch (NumberFormatException nfe) {
-					throw new RuntimeException("Bad int (" + ss[i]
-							+ ") at position: " + i);
+			ii = (int[]) getParsedValues(XSD_INTEGER);
+			if (ii == null) {
+				String content = this.getXMLContent();
+				ii = new int[0];
+				if (content != null) {
+					ensureDelimiterAttribute(Action.PRESERVE);
+					try {
+						ii = delimiterAttribute.getSplitInts(content);
+					} catch (NumberFormatException nfe) {
+						throw new RuntimeException(nfe.getMessage());
+					}
 				}
+				this.removeWhitespaceDelimiterAttribute();
+				setParsedValues(XSD_INTEGER, ii);
 			}
 		}
 		return ii;
@@ -597,19 +698,19 @@ public class CMLArray extends AbstractArray implements HasUnits, HasArraySize,
 			}
 
 			if (dataType.equals(XSD_STRING)) {
-				String s = getStrings()[i];
+				String s = getParsedStrings()[i];
 				scalar = new CMLScalar(s);
 			} else if (dataType.equals(XSD_BOOLEAN)) {
-				Boolean b = getBooleans()[i];
+				Boolean b = getParsedBooleans()[i];
 				scalar = new CMLScalar(b);
 			} else if (dataType.equals(XSD_DATE)) {
-				DateTime d = getDates()[i];
+				DateTime d = getParsedDates()[i];
 				scalar = new CMLScalar(d);
 			} else if (dataType.equals(XSD_DOUBLE)) {
-				Double d = getDoubles()[i];
+				Double d = getParsedDoubles()[i];
 				scalar = new CMLScalar(d);
 			} else if (dataType.equals(XSD_INTEGER)) {
-				Integer ii = getInts()[i];
+				Integer ii = getParsedInts()[i];
 				scalar = new CMLScalar(ii);
 			}
 			CMLArray.copyAttributesFromTo(this, scalar);
@@ -644,18 +745,18 @@ public class CMLArray extends AbstractArray implements HasUnits, HasArraySize,
 		List<String> values = new ArrayList<String>();
 		String dataType = this.getDataType();
 		if (dataType == null || dataType.equals(XSD_STRING)) {
-			String[] strings = this.getStrings();
+			String[] strings = this.getParsedStrings();
 			for (String s : strings) {
 				values.add(s);
 			}
 		} else if (XSD_INTEGER.equals(dataType)) {
-			int[] ints = this.getInts();
+			int[] ints = this.getParsedInts();
 			for (int i : ints) {
 				values.add(S_EMPTY + i);
 			}
 		} else if (XSD_DOUBLE.equals(dataType)) {
 
-			double[] doubles = this.getDoubles();
+			double[] doubles = this.getParsedDoubles();
 			for (double d : doubles) {
 				values.add(S_EMPTY + d);
 			}
@@ -757,12 +858,14 @@ public class CMLArray extends AbstractArray implements HasUnits, HasArraySize,
 	 * @return int size of array
 	 */
 	public int getSize() {
+		updateContent();
 		int size = -1;
 		if (this.getSizeAttribute() != null) {
 			size = super.getSize();
 		} else {
-			String[] array = this.getSplitContent();
-			size = array.length;
+			Object values = getParsedValues(this.getDataType());
+			size = (values != null) ? Array.getLength(values)
+					: this.getSplitContent().length;
 		}
 		return size;
 	}
@@ -1038,6 +1141,16 @@ public class CMLArray extends AbstractArray implements HasUnits, HasArraySize,
 	}
 
 	private void appendXML(String s, int toAdd) {
+		if (appendBuffer != null) {
+			ensureDelimiterAttribute(Action.PRESERVE);
+			if (toAdd <= 1) {
+				delimiterAttribute.checkDelimiter(s);
+			}
+			delimiterAttribute.appendToBuffer(appendBuffer, s);
+			appendCount += toAdd;
+			this.removeWhitespaceDelimiterAttribute();
+			return;
+		}
 		int size = (this.getSizeAttribute() == null) ? 0 : this.getSize();
 		ensureDelimiterAttribute(Action.PRESERVE);
 		if (toAdd <= 1) {
@@ -1051,6 +1164,86 @@ public class CMLArray extends AbstractArray implements HasUnits, HasArraySize,
 		this.removeWhitespaceDelimiterAttribute();
 	}
 
+	/** collects appended values in a buffer.
+	 * <p>
+	 * When true, append() adds to a growable buffer instead of rewriting the
+	 * text content, so building an array of n values is linear rather than
+	 * quadratic. The text content and size attribute are brought up to date by
+	 * updateContent(), which is called by the getters (getDoubles(),
+	 * getSize(), getXMLContent()...), when the array is copied or written by
+	 * CMLSerializer and when the mode is switched off. Until then getValue(),
+	 * XPath and toXML() may see old content.
+	 * </p>
+	 * @param buffered
+	 */
+	public void setBuffered(boolean buffered) {
+		if (buffered && appendBuffer == null) {
+			appendBuffer = new StringBuilder();
+			appendCount = 0;
+		} else if (!buffered && appendBuffer != null) {
+			updateContent();
+			appendBuffer = null;
+		}
+	}
+
+	/**
+	 * @return true if appended values are buffered
+	 */
+	public boolean isBuffered() {
+		return appendBuffer != null;
+	}
+
+	/** writes buffered values to the text content and size attribute.
+	 * no-op unless buffered values are waiting
+	 * @see #setBuffered(boolean)
+	 */
+	public void updateContent() {
+		if (appendBuffer != null && appendBuffer.length() > 0) {
+			StringBuilder buffer = appendBuffer;
+			int toAdd = appendCount;
+			appendBuffer = new StringBuilder();
+			appendCount = 0;
+			int size = (this.getSizeAttribute() == null) ? 0 : super.getSize();
+			ensureDelimiterAttribute(Action.PRESERVE);
+			super.setXMLContent(delimiterAttribute.appendXMLContent(
+					super.getXMLContent(), buffer));
+			resetSize(size + toAdd);
+			this.removeWhitespaceDelimiterAttribute();
+		}
+	}
+
+	/** writes buffered values before serialization.
+	 */
+	@Override
+	public void updateXOM() {
+		updateContent();
+	}
+
+	/**
+	 * gets text content, including buffered values.
+	 * 
+	 * @return content
+	 */
+	@Override
+	public String getXMLContent() {
+		updateContent();
+		return super.getXMLContent();
+	}
+
+	/**
+	 * sets text content. discards buffered values.
+	 * 
+	 * @param value
+	 */
+	@Override
+	public void setXMLContent(String value) {
+		if (appendBuffer != null) {
+			appendBuffer.setLength(0);
+			appendCount = 0;
+		}
+		super.setXMLContent(value);
+	}
+
 	public void append(CMLScalar scalar) {
 		if (scalar != null) {
 			String dataType = this.getDataType();
@@ -241,6 +241,16 @@ public class CMLArrayList extends org.xmlcml.cml.element.AbstractArrayList {
         return delimiter;
     }
 
+    /** columnar view of the arrays and lists.
+     * the values parsed by each array are shared, not copied
+     *
+     * @return view
+     * @throws RuntimeException if columns have different lengths
+     */
+    public TableColumns getTableColumns() {
+        return TableColumns.createTableColumns(this);
+    }
+
     /** get row size (from first array).
      *
      * @return size
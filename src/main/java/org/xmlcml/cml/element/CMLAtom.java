@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
+import nu.xom.Attribute;
 import nu.xom.Element;
 import nu.xom.Node;
 import nu.xom.ParentNode;
@@ -27,6 +28,7 @@ import nu.xom.ParentNode;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.xmlcml.cml.base.CMLElement;
+import org.xmlcml.cml.base.DoubleSTAttribute;
 import org.xmlcml.euclid.Point3;
 import org.xmlcml.euclid.Real2;
 import org.xmlcml.euclid.Transform2;
@@ -55,6 +57,9 @@ public class CMLAtom extends AbstractAtom {
 
     List<CMLAtom> ligandAtoms = null;
     List<CMLBond> ligandBonds = null;
+    /** atomArray holding packed coordinates; null unless coordinate-backed */
+    CMLAtomArray coordinateArray = null;
+    int coordinateSlot = -1;
 
     /**
      * Construct a new CMLAtom element without id.
@@ -114,6 +119,7 @@ public class CMLAtom extends AbstractAtom {
      * @return Node
      */
     public Element copy() {
+        syncCoordinates();
         return new CMLAtom(this);
 
     }
@@ -400,6 +406,264 @@ public class CMLAtom extends AbstractAtom {
         return null;
     }
 
+    /** writes packed coordinates back to the attributes.
+     * no-op unless the atom is in a coordinate-backed atomArray
+     * @see CMLAtomArray#setCoordinateBacked(boolean)
+     */
+    public void syncCoordinates() {
+        if (coordinateArray != null) {
+            coordinateArray.syncCoordinates(this);
+        }
+    }
+
+    /** writes packed coordinates back before serialization.
+     */
+    public void updateXOM() {
+        syncCoordinates();
+    }
+
+    double getCoordinateAttribute(int column) {
+        switch (column) {
+        case CMLAtomArray.X2: return super.getX2();
+        case CMLAtomArray.Y2: return super.getY2();
+        case CMLAtomArray.X3: return super.getX3();
+        case CMLAtomArray.Y3: return super.getY3();
+        case CMLAtomArray.Z3: return super.getZ3();
+        case CMLAtomArray.XFRACT: return super.getXFract();
+        case CMLAtomArray.YFRACT: return super.getYFract();
+        case CMLAtomArray.ZFRACT: return super.getZFract();
+        default: throw new RuntimeException("bad coordinate: "+column);
+        }
+    }
+
+    void setCoordinateAttribute(int column, double value) {
+        switch (column) {
+        case CMLAtomArray.X2: super.setX2(value); break;
+        case CMLAtomArray.Y2: super.setY2(value); break;
+        case CMLAtomArray.X3: super.setX3(value); break;
+        case CMLAtomArray.Y3: super.setY3(value); break;
+        case CMLAtomArray.Z3: super.setZ3(value); break;
+        case CMLAtomArray.XFRACT: super.setXFract(value); break;
+        case CMLAtomArray.YFRACT: super.setYFract(value); break;
+        case CMLAtomArray.ZFRACT: super.setZFract(value); break;
+        default: throw new RuntimeException("bad coordinate: "+column);
+        }
+    }
+
+    /** writes a packed coordinate to its attribute when syncing.
+     * the value of an existing attribute is set in place so that syncing
+     * does not change the order of attributes. NaN marks an unset packed
+     * coordinate so removes the attribute.
+     */
+    void updateCoordinateAttribute(int column, double value) {
+        Attribute attribute = this.getAttribute(CMLAtomArray.COORDINATE_NAMES[column]);
+        if (Double.isNaN(value)) {
+            if (attribute != null) {
+                this.removeAttribute(attribute);
+            }
+        } else if (attribute instanceof DoubleSTAttribute) {
+            ((DoubleSTAttribute) attribute).setCMLValue(value);
+        } else {
+            setCoordinateAttribute(column, value);
+        }
+    }
+
+    private double getCoordinate(int column) {
+        return (coordinateArray == null) ? getCoordinateAttribute(column) :
+            coordinateArray.coordinates[column][coordinateSlot];
+    }
+
+    private void setCoordinate(int column, double value) {
+        if (coordinateArray == null) {
+            setCoordinateAttribute(column, value);
+        } else {
+            coordinateArray.setCoordinate(column, coordinateSlot, value);
+        }
+    }
+
+    // string values are validated and stored as attributes
+    private void reloadCoordinate(int column) {
+        if (coordinateArray != null) {
+            coordinateArray.setCoordinate(column, coordinateSlot, getCoordinateAttribute(column));
+        }
+    }
+
+    /** x2; read from packed coordinates if coordinate-backed.
+     * @return x2 or NaN
+     */
+    public double getX2() {
+        return getCoordinate(CMLAtomArray.X2);
+    }
+
+    /** x2; stored in packed coordinates if coordinate-backed.
+     * @param value
+     */
+    public void setX2(double value) {
+        setCoordinate(CMLAtomArray.X2, value);
+    }
+
+    /** x2.
+     * @param value
+     */
+    public void setX2(String value) {
+        super.setX2(value);
+        reloadCoordinate(CMLAtomArray.X2);
+    }
+
+    /** y2; read from packed coordinates if coordinate-backed.
+     * @return y2 or NaN
+     */
+    public double getY2() {
+        return getCoordinate(CMLAtomArray.Y2);
+    }
+
+    /** y2; stored in packed coordinates if coordinate-backed.
+     * @param value
+     */
+    public void setY2(double value) {
+        setCoordinate(CMLAtomArray.Y2, value);
+    }
+
+    /** y2.
+     * @param value
+     */
+    public void setY2(String value) {
+        super.setY2(value);
+        reloadCoordinate(CMLAtomArray.Y2);
+    }
+
+    /** x3; read from packed coordinates if coordinate-backed.
+     * @return x3 or NaN
+     */
+    public double getX3() {
+        return getCoordinate(CMLAtomArray.X3);
+    }
+
+    /** x3; stored in packed coordinates if coordinate-backed.
+     * @param value
+     */
+    public void setX3(double value) {
+        setCoordinate(CMLAtomArray.X3, value);
+    }
+
+    /** x3.
+     * @param value
+     */
+    public void setX3(String value) {
+        super.setX3(value);
+        reloadCoordinate(CMLAtomArray.X3);
+    }
+
+    /** y3; read from packed coordinates if coordinate-backed.
+     * @return y3 or NaN
+     */
+    public double getY3() {
+        return getCoordinate(CMLAtomArray.Y3);
+    }
+
+    /** y3; stored in packed coordinates if coordinate-backed.
+     * @param value
+     */
+    public void setY3(double value) {
+        setCoordinate(CMLAtomArray.Y3, value);
+    }
+
+    /** y3.
+     * @param value
+     */
+    public void setY3(String value) {
+        super.setY3(value);
+        reloadCoordinate(CMLAtomArray.Y3);
+    }
+
+    /** z3; read from packed coordinates if coordinate-backed.
+     * @return z3 or NaN
+     */
+    public double getZ3() {
+        return getCoordinate(CMLAtomArray.Z3);
+    }
+
+    /** z3; stored in packed coordinates if coordinate-backed.
+     * @param value
+     */
+    public void setZ3(double value) {
+        setCoordinate(CMLAtomArray.Z3, value);
+    }
+
+    /** z3.
+     * @param value
+     */
+    public void setZ3(String value) {
+        super.setZ3(value);
+        reloadCoordinate(CMLAtomArray.Z3);
+    }
+
+    /** xFract; read from packed coordinates if coordinate-backed.
+     * @return xFract or NaN
+     */
+    public double getXFract() {
+        return getCoordinate(CMLAtomArray.XFRACT);
+    }
+
+    /** xFract; stored in packed coordinates if coordinate-backed.
+     * @param value
+     */
+    public void setXFract(double value) {
+        setCoordinate(CMLAtomArray.XFRACT, value);
+    }
+
+    /** xFract.
+     * @param value
+     */
+    public void setXFract(String value) {
+        super.setXFract(value);
+        reloadCoordinate(CMLAtomArray.XFRACT);
+    }
+
+    /** yFract; read from packed coordinates if coordinate-backed.
+     * @return yFract or NaN
+     */
+    public double getYFract() {
+        return getCoordinate(CMLAtomArray.YFRACT);
+    }
+
+    /** yFract; stored in packed coordinates if coordinate-backed.
+     * @param value
+     */
+    public void setYFract(double value) {
+        setCoordinate(CMLAtomArray.YFRACT, value);
+    }
+
+    /** yFract.
+     * @param value
+     */
+    public void setYFract(String value) {
+        super.setYFract(value);
+        reloadCoordinate(CMLAtomArray.YFRACT);
+    }
+
+    /** zFract; read from packed coordinates if coordinate-backed.
+     * @return zFract or NaN
+     */
+    public double getZFract() {
+        return getCoordinate(CMLAtomArray.ZFRACT);
+    }
+
+    /** zFract; stored in packed coordinates if coordinate-backed.
+     * @param value
+     */
+    public void setZFract(double value) {
+        setCoordinate(CMLAtomArray.ZFRACT, value);
+    }
+
+    /** zFract.
+     * @param value
+     */
+    public void setZFract(String value) {
+        super.setZFract(value);
+        reloadCoordinate(CMLAtomArray.ZFRACT);
+    }
+
     /**
      * gets Point3 for cartesians or fractionals.
      *
@@ -425,9 +689,10 @@ public class CMLAtom extends AbstractAtom {
      * @param point
      */
     public void setXYZ3(Point3 point) {
-        this.setX3(point.getArray()[0]);
-        this.setY3(point.getArray()[1]);
-        this.setZ3(point.getArray()[2]);
+        double[] xyz = point.getArray();
+        this.setX3(xyz[0]);
+        this.setY3(xyz[1]);
+        this.setZ3(xyz[2]);
     }
 
     /**
@@ -472,6 +737,9 @@ public class CMLAtom extends AbstractAtom {
         this.removeAttribute("x3");
         this.removeAttribute("y3");
         this.removeAttribute("z3");
+        reloadCoordinate(CMLAtomArray.X3);
+        reloadCoordinate(CMLAtomArray.Y3);
+        reloadCoordinate(CMLAtomArray.Z3);
     }
 
     /**
@@ -481,6 +749,9 @@ public class CMLAtom extends AbstractAtom {
         this.removeAttribute("xFract");
         this.removeAttribute("yFract");
         this.removeAttribute("zFract");
+        reloadCoordinate(CMLAtomArray.XFRACT);
+        reloadCoordinate(CMLAtomArray.YFRACT);
+        reloadCoordinate(CMLAtomArray.ZFRACT);
     }
 
     /**
@@ -489,6 +760,8 @@ public class CMLAtom extends AbstractAtom {
     public void unsetXY2() {
         this.removeAttribute("x2");
         this.removeAttribute("y2");
+        reloadCoordinate(CMLAtomArray.X2);
+        reloadCoordinate(CMLAtomArray.Y2);
     }
 
     /**
@@ -498,6 +771,10 @@ public class CMLAtom extends AbstractAtom {
      *            the transformation
      */
     public void transformCartesians(Transform3 transform) {
+        if (coordinateArray != null) {
+            coordinateArray.transformCartesians(transform.getMatrix(), coordinateSlot);
+            return;
+        }
         Point3 point = this.getXYZ3();
         if (point != null) {
 	        point = point.transform(transform);
@@ -934,7 +1211,9 @@ public class CMLAtom extends AbstractAtom {
      */
     public boolean hasCoordinates(CoordinateType type) {
         boolean has = false;
-        if (CoordinateType.TWOD.equals(type)) {
+        if (coordinateArray != null) {
+            has = coordinateArray.hasCoordinates(type, coordinateSlot);
+        } else if (CoordinateType.TWOD.equals(type)) {
             has = (this.getX2Attribute() != null && this.getY2Attribute() != null);
         } else if (CoordinateType.CARTESIAN.equals(type)) {
             has = (this.getX3Attribute() != null
@@ -18,6 +18,7 @@ package org.xmlcml.cml.element;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +34,7 @@ import org.xmlcml.cml.base.CMLElements;
 import org.xmlcml.cml.base.DoubleArraySTAttribute;
 import org.xmlcml.cml.base.StringArraySTAttribute;
 import org.xmlcml.cml.element.CMLFormula.Sort;
+import org.xmlcml.euclid.Transform3;
 import org.xmlcml.euclid.Util;
 
 /**
@@ -49,6 +51,31 @@ public class CMLAtomArray extends AbstractAtomArray {
 
     /** map of atom ids to atoms.*/
     Map<String, CMLAtom> atomMap;
+    // number of child atoms, -1 until counted after a change
+    private int atomCount = -1;
+
+    /** coordinate attributes held in packed arrays, in column order */
+    public final static String[] COORDINATE_NAMES = {
+        "x2", "y2", "x3", "y3", "z3", "xFract", "yFract", "zFract",
+    };
+    final static int X2 = 0;
+    final static int Y2 = 1;
+    final static int X3 = 2;
+    final static int Y3 = 3;
+    final static int Z3 = 4;
+    final static int XFRACT = 5;
+    final static int YFRACT = 6;
+    final static int ZFRACT = 7;
+
+    /** packed coordinates [column][slot]; null unless coordinate-backed.
+     * NaN marks an unset coordinate.*/
+    double[][] coordinates = null;
+    private int slotCount = 0;
+    /** slots of removed atoms, reused before new slots are taken */
+    private int[] freeSlots = null;
+    private int freeCount = 0;
+    /** slots whose attributes are out of date */
+    private BitSet changedSlots = null;
 
     /**
      * constructor.
@@ -127,6 +154,7 @@ public class CMLAtomArray extends AbstractAtomArray {
         super.finishMakingElement(parent);
         // this is here because the parser doesn't route through the
         // addAtom
+        atomCount = -1;
         indexAtoms();
     }
 
@@ -178,7 +206,10 @@ public class CMLAtomArray extends AbstractAtomArray {
      * @return count
      */
     public int size() {
-        return this.getAtomElements().size();
+        if (atomCount < 0) {
+            atomCount = this.getAtomElements().size();
+        }
+        return atomCount;
     }
     
     /** sorts atomArray.
@@ -410,6 +441,51 @@ public class CMLAtomArray extends AbstractAtomArray {
         return molecule;
     }
 
+    /** override insertChild.
+     * clears the cached atoms of the molecule.
+     * keeps count and index of atoms if they are current, so that
+     * checking each atom while parsing is not quadratic.
+     * packs the coordinates of a new atom if coordinate-backed.
+     * @param newNode
+     * @param pos
+     */
+    public void insertChild(Node newNode, int pos) {
+        super.insertChild(newNode, pos);
+        if (atomCount >= 0 && newNode instanceof CMLAtom) {
+            String id = ((CMLAtom) newNode).getId();
+            if (atomMap != null && atomMap.size() == atomCount &&
+                    id != null && !atomMap.containsKey(id)) {
+                atomMap.put(id, (CMLAtom) newNode);
+            }
+            atomCount++;
+        } else {
+            atomCount = -1;
+        }
+        if (coordinates != null && newNode instanceof CMLAtom) {
+            registerCoordinates((CMLAtom) newNode);
+        }
+        CMLMolecule.clearAtomBondLists(this);
+    }
+
+    /** override removeChild.
+     * clears the cached atoms of the molecule.
+     * removeAtom(), removeChild(Node), replaceChild() and detach() come
+     * here; if coordinate-backed the attributes of a removed atom are
+     * brought up to date and its slot is freed.
+     * @param pos
+     * @return removed node
+     */
+    public Node removeChild(int pos) {
+        Node child = this.getChild(pos);
+        if (child instanceof CMLAtom) {
+            releaseCoordinates((CMLAtom) child);
+        }
+        Node node = super.removeChild(pos);
+        atomCount = -1;
+        CMLMolecule.clearAtomBondLists(this);
+        return node;
+    }
+
     /** reroute to molecule.removeAtomArray().
      * also implicitly removes bondArray
      */
@@ -425,6 +501,166 @@ public class CMLAtomArray extends AbstractAtomArray {
         }
     }
 
+    /** keeps the coordinates of the atoms in packed arrays.
+     * <p>
+     * When true, x2, y2, x3, y3, z3, xFract, yFract and zFract of the
+     * child atoms are held in one double[] per coordinate. The atom getters
+     * and setters (getX3(), setXYZ3(), transformCartesians()...) then work on
+     * these arrays and do not create attributes or format values. The
+     * attributes are brought up to date by syncCoordinates(), which is called
+     * when atoms are copied, removed or written by CMLSerializer and when the
+     * mode is switched off. Until then getX3Attribute(), XPath and
+     * toXML() may see old values.
+     * </p>
+     * <p>
+     * Atoms added while coordinate-backed are packed and atoms removed
+     * (by any route) are given back their attributes; the slots of removed
+     * atoms are reused.
+     * </p>
+     * @param backed
+     */
+    public void setCoordinateBacked(boolean backed) {
+        if (backed && coordinates == null) {
+            List<CMLAtom> atoms = this.getAtoms();
+            coordinates = new double[COORDINATE_NAMES.length][Math.max(atoms.size(), 8)];
+            slotCount = 0;
+            freeSlots = new int[8];
+            freeCount = 0;
+            changedSlots = new BitSet();
+            for (CMLAtom atom : atoms) {
+                registerCoordinates(atom);
+            }
+        } else if (!backed && coordinates != null) {
+            for (CMLAtom atom : this.getAtoms()) {
+                releaseCoordinates(atom);
+            }
+            coordinates = null;
+            freeSlots = null;
+            changedSlots = null;
+        }
+    }
+
+    /**
+     * @return true if coordinates are held in packed arrays
+     */
+    public boolean isCoordinateBacked() {
+        return coordinates != null;
+    }
+
+    /** writes changed packed coordinates to the atom attributes.
+     */
+    public void syncCoordinates() {
+        if (coordinates != null) {
+            for (CMLAtom atom : this.getAtoms()) {
+                syncCoordinates(atom);
+            }
+        }
+    }
+
+    void syncCoordinates(CMLAtom atom) {
+        int slot = atom.coordinateSlot;
+        if (atom.coordinateArray == this && changedSlots.get(slot)) {
+            for (int column = 0; column < COORDINATE_NAMES.length; column++) {
+                double value = coordinates[column][slot];
+                if (Double.compare(value, atom.getCoordinateAttribute(column)) != 0) {
+                    atom.updateCoordinateAttribute(column, value);
+                }
+            }
+            changedSlots.clear(slot);
+        }
+    }
+
+    private void registerCoordinates(CMLAtom atom) {
+        if (atom.coordinateArray == this) {
+            return;
+        }
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (slotCount == coordinates[0].length) {
+                for (int column = 0; column < coordinates.length; column++) {
+                    coordinates[column] = Arrays.copyOf(coordinates[column], 2 * slotCount);
+                }
+            }
+            slot = slotCount++;
+        }
+        for (int column = 0; column < COORDINATE_NAMES.length; column++) {
+            coordinates[column][slot] = atom.getCoordinateAttribute(column);
+        }
+        atom.coordinateArray = this;
+        atom.coordinateSlot = slot;
+    }
+
+    /** writes the attributes of an atom and unpacks it.
+     * no-op unless atom is packed in this array
+     * @param atom
+     */
+    private void releaseCoordinates(CMLAtom atom) {
+        if (atom.coordinateArray == this) {
+            syncCoordinates(atom);
+            if (freeCount == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, 2 * freeCount);
+            }
+            freeSlots[freeCount++] = atom.coordinateSlot;
+            atom.coordinateArray = null;
+            atom.coordinateSlot = -1;
+        }
+    }
+
+    void setCoordinate(int column, int slot, double value) {
+        coordinates[column][slot] = value;
+        changedSlots.set(slot);
+    }
+
+    boolean hasCoordinates(CoordinateType type, int slot) {
+        if (CoordinateType.TWOD.equals(type)) {
+            return !Double.isNaN(coordinates[X2][slot]) && !Double.isNaN(coordinates[Y2][slot]);
+        } else if (CoordinateType.CARTESIAN.equals(type)) {
+            return !Double.isNaN(coordinates[X3][slot]) && !Double.isNaN(coordinates[Y3][slot]) &&
+                !Double.isNaN(coordinates[Z3][slot]);
+        } else if (CoordinateType.FRACTIONAL.equals(type)) {
+            return !Double.isNaN(coordinates[XFRACT][slot]) && !Double.isNaN(coordinates[YFRACT][slot]) &&
+                !Double.isNaN(coordinates[ZFRACT][slot]);
+        }
+        return false;
+    }
+
+    /** transform 3D coordinates of all atoms.
+     * does NOT alter fractional or 2D coordinates. Atoms without
+     * cartesians are unchanged.
+     * @param transform
+     */
+    public void transformCartesians(Transform3 transform) {
+        if (coordinates == null) {
+            for (CMLAtom atom : this.getAtoms()) {
+                atom.transformCartesians(transform);
+            }
+        } else {
+            double[][] matrix = transform.getMatrix();
+            for (CMLAtom atom : this.getAtoms()) {
+                if (atom.coordinateArray == this) {
+                    transformCartesians(matrix, atom.coordinateSlot);
+                } else {
+                    atom.transformCartesians(transform);
+                }
+            }
+        }
+    }
+
+    void transformCartesians(double[][] m, int slot) {
+        if (hasCoordinates(CoordinateType.CARTESIAN, slot)) {
+            double x = coordinates[X3][slot];
+            double y = coordinates[Y3][slot];
+            double z = coordinates[Z3][slot];
+            // same arithmetic as Point3.transform()
+            coordinates[X3][slot] = m[0][0] * x + m[0][1] * y + m[0][2] * z + m[0][3];
+            coordinates[Y3][slot] = m[1][0] * x + m[1][1] * y + m[1][2] * z + m[1][3];
+            coordinates[Z3][slot] = m[2][0] * x + m[2][1] * y + m[2][2] * z + m[2][3];
+            changedSlots.set(slot);
+        }
+    }
+
     void indexAtoms() {
         List<CMLAtom> atoms = this.getAtoms();
         this.getAtomMap();
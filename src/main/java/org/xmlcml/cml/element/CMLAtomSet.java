@@ -60,6 +60,8 @@ public class CMLAtomSet extends AbstractAtomSet {
     protected LinkedHashSet<CMLAtom> set = new LinkedHashSet<CMLAtom>();
     protected Map<String, CMLAtom> idTable;
     protected boolean checkDuplicates = false;
+    // ids added in buffered mode and not yet in the text content
+    private IdBuffer idBuffer = null;
     /**
      * constructor.
      */
@@ -83,8 +85,9 @@ public class CMLAtomSet extends AbstractAtomSet {
         super(old);
         init();
         for (CMLAtom atom : old.set) {
-            this.addAtom(atom);
+            this.addAtom(atom, false);
         }
+        updateContent();
     }
 
 //    private void copyTable(Map<String, CMLAtom> fromMap,
@@ -248,10 +251,96 @@ public class CMLAtomSet extends AbstractAtomSet {
         this.setSize(ids.length);
     }
 
+    /** collects the ids of added atoms in a buffer.
+     * <p>
+     * When true, addAtom(atom) adds the id to a growable list instead of
+     * rewriting the text content, so adding n atoms one by one is linear
+     * rather than quadratic. The text content and size attribute are brought
+     * up to date by getXMLContent(), getSize() and updateContent(), when the
+     * set is written by CMLSerializer and when the mode is switched off.
+     * Until then getValue(), XPath and toXML() may see old content.
+     * </p>
+     * @param buffered
+     */
+    public void setBuffered(boolean buffered) {
+        if (buffered && idBuffer == null) {
+            idBuffer = new IdBuffer();
+        } else if (!buffered && idBuffer != null) {
+            flushBufferedIds();
+            idBuffer = null;
+        }
+    }
+
+    /**
+     * @return true if ids of added atoms are buffered
+     */
+    public boolean isBuffered() {
+        return idBuffer != null;
+    }
+
+    /** writes buffered ids to the text content and size attribute.
+     * no-op unless buffered ids are waiting
+     */
+    private void flushBufferedIds() {
+        if (idBuffer != null) {
+            idBuffer.flushTo(this);
+        }
+    }
+
+    /** writes buffered ids before serialization.
+     */
+    public void updateXOM() {
+        flushBufferedIds();
+    }
+
+    /**
+     * gets atom ids in text content, including buffered ids.
+     *
+     * @return ids
+     */
+    public String[] getXMLContent() {
+        flushBufferedIds();
+        return super.getXMLContent();
+    }
+
+    /**
+     * sets text content. discards buffered ids.
+     *
+     * @param value
+     */
+    public void setXMLContent(String value) {
+        if (idBuffer != null) {
+            idBuffer.clear();
+        }
+        super.setXMLContent(value);
+    }
+
+    /**
+     * sets text content. discards buffered ids.
+     *
+     * @param value
+     */
+    public void setXMLContent(String[] value) {
+        if (idBuffer != null) {
+            idBuffer.clear();
+        }
+        super.setXMLContent(value);
+    }
+
+    /**
+     * gets size, including buffered ids.
+     *
+     * @return size
+     */
+    public int getSize() {
+        flushBufferedIds();
+        return super.getSize();
+    }
+
     /**
      * adds atom to set.
      * SLOW. alters text content in XOM. Only use if adding single atoms
-     * for lists of atoms, use addAtoms()
+     * for lists of atoms, use addAtoms() or setBuffered(true)
      * @param atom
      *            to add
      */
@@ -276,7 +365,11 @@ public class CMLAtomSet extends AbstractAtomSet {
             }
             idTable.put(atom.getId(), atom);
             if (forceUpdate) {
-            	addAtomId(atom.getId());
+            	if (idBuffer != null) {
+            		idBuffer.add(atom.getId());
+            	} else {
+            		addAtomId(atom.getId());
+            	}
             }
         }
         if (molecule == null) {
@@ -1201,10 +1294,11 @@ public class CMLAtomSet extends AbstractAtomSet {
     }
 
     /**
-     * get distance matrix.
+     * get 2D distance matrix.
      *
      * @param atomSet2
      * @return distance matrix
+     * @see #getDistanceMatrix3(CMLAtomSet, CoordinateType, CMLCrystal)
      */
     public RealMatrix getDistanceMatrix(CMLAtomSet atomSet2) {
         List<Real2> coords = this.getVector2D();
@@ -1216,6 +1310,24 @@ public class CMLAtomSet extends AbstractAtomSet {
         return matrix;
     }
 
+    /**
+     * get 3D distance matrix.
+     * see AtomDistanceMatrix for float storage and cutoffs
+     *
+     * @param atomSet2
+     * @param type CARTESIAN or FRACTIONAL
+     * @param crystal required for FRACTIONAL
+     * @return distance matrix with a row for each atom in this
+     * @throws RuntimeException if an atom has no coordinates
+     */
+    public AtomDistanceMatrix getDistanceMatrix3(CMLAtomSet atomSet2,
+            CoordinateType type, CMLCrystal crystal) {
+        List<CMLAtom> atoms = this.getAtoms();
+        List<CMLAtom> atoms2 = (atomSet2 == this) ? atoms : atomSet2.getAtoms();
+        return AtomDistanceMatrix.createDense(atoms, atoms2, type, crystal,
+                AtomDistanceMatrix.Precision.DOUBLE);
+    }
+
     /**
      * Sets chemical element of all atoms in set.
      *
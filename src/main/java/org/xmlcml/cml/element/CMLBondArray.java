@@ -175,6 +175,33 @@ public class CMLBondArray extends AbstractBondArray {
         return addedBond;
     }
 
+    /**
+     * adds bonds in bulk.
+     * appends all bonds and indexes them, checking the parent molecule
+     * once rather than per bond. Bonds without ids get
+     * atomId1_atomId2 as in CMLMolecule.addBond().
+     * @param bonds to add (must not have parents)
+     * @throws RuntimeException if bondArray is not child of molecule,
+     * a bond has a parent or duplicates an existing bond
+     */
+    public void addBonds(List<CMLBond> bonds) {
+        if (this.getMolecule() == null) {
+            throw new RuntimeException("bondArray parent must be molecule");
+        }
+        for (CMLBond bond : bonds) {
+            if (bond.getParent() != null) {
+                throw new RuntimeException("bond already has parent "+bond.getString());
+            }
+            if (bond.getId() == null) {
+                String[] atomRefs2 = bond.getAtomRefs2();
+                bond.setId(atomRefs2[0]+S_UNDER+atomRefs2[1]);
+            }
+            this.insertChild(bond, this.getChildCount());
+            indexBondAndLigands(bond);
+            indexBondId(bond);
+        }
+    }
+
     private CMLBond indexBondAndLigands(CMLBond bond) {
         CMLBond addedBond = null;
         String hash = CMLBond.atomHash(bond);
@@ -368,6 +395,27 @@ public class CMLBondArray extends AbstractBondArray {
         return (bondIdMap == null) ? null : bondIdMap.get(id);
     }
 
+    /** override insertChild.
+     * clears the cached bonds of the molecule
+     * @param newNode
+     * @param pos
+     */
+    public void insertChild(Node newNode, int pos) {
+        super.insertChild(newNode, pos);
+        CMLMolecule.clearAtomBondLists(this);
+    }
+
+    /** override removeChild.
+     * clears the cached bonds of the molecule
+     * @param pos
+     * @return removed node
+     */
+    public Node removeChild(int pos) {
+        Node node = super.removeChild(pos);
+        CMLMolecule.clearAtomBondLists(this);
+        return node;
+    }
+
     /** reroute to molecule.removeBondArray().
      *
      */
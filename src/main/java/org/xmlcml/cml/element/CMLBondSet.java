@@ -48,6 +48,9 @@ public class CMLBondSet extends AbstractBondSet {
 
     protected CMLMolecule molecule = null;
 
+    // ids added in buffered mode and not yet in the text content
+    private IdBuffer idBuffer = null;
+
     /**
      * default constructor.
      *
@@ -67,9 +70,11 @@ public class CMLBondSet extends AbstractBondSet {
         super(old);
         init();
         // copy bond references
+        setBuffered(true);
         for (CMLBond bond : old.set) {
         	this.addBond(bond);
         }
+        setBuffered(false);
     }
 
     /**
@@ -118,9 +123,7 @@ public class CMLBondSet extends AbstractBondSet {
     public CMLBondSet(CMLMolecule mol) {
     	this();
         try {
-            for (CMLBond bond : mol.getBonds()) {
-                this.addBond(bond);
-            }
+            this.addBonds(mol.getBonds());
         } catch (Exception e) {
             ;
         }
@@ -192,8 +195,14 @@ public class CMLBondSet extends AbstractBondSet {
      */
     public void addBonds(CMLBond[] bonds) {
         if (bonds != null) {
-            for (CMLBond b : bonds) {
-                this.addBond(b);
+            boolean buffered = isBuffered();
+            setBuffered(true);
+            try {
+                for (CMLBond b : bonds) {
+                    this.addBond(b);
+                }
+            } finally {
+                setBuffered(buffered);
             }
         }
     }
@@ -207,8 +216,14 @@ public class CMLBondSet extends AbstractBondSet {
      *             one or more bonds has no id
      */
     public void addBonds(List<CMLBond> bonds) throws RuntimeException {
-        for (CMLBond b : bonds) {
-            this.addBond(b);
+        boolean buffered = isBuffered();
+        setBuffered(true);
+        try {
+            for (CMLBond b : bonds) {
+                this.addBond(b);
+            }
+        } finally {
+            setBuffered(buffered);
         }
     }
 
@@ -245,7 +260,11 @@ public class CMLBondSet extends AbstractBondSet {
             } else {
             }
             idTable.put(bond.getId(), bond);
-            addBondId(bond.getId());
+            if (idBuffer != null) {
+                idBuffer.add(id);
+            } else {
+                addBondId(id);
+            }
             atomRefs2Table.put(CMLBond.atomHash(bond), bond);
         }
     }
@@ -263,6 +282,92 @@ public class CMLBondSet extends AbstractBondSet {
         this.setSize(size + 1);
     }
 
+    /** collects the ids of added bonds in a buffer.
+     * <p>
+     * When true, addBond() adds the id to a growable list instead of
+     * rewriting the text content, so adding n bonds one by one is linear
+     * rather than quadratic. The text content and size attribute are brought
+     * up to date by getXMLContent() and getSize(), when the set is written
+     * by CMLSerializer and when the mode is switched off. Until then getValue(), XPath and toXML() may see old
+     * content.
+     * </p>
+     * @param buffered
+     */
+    public void setBuffered(boolean buffered) {
+        if (buffered && idBuffer == null) {
+            idBuffer = new IdBuffer();
+        } else if (!buffered && idBuffer != null) {
+            flushBufferedIds();
+            idBuffer = null;
+        }
+    }
+
+    /**
+     * @return true if ids of added bonds are buffered
+     */
+    public boolean isBuffered() {
+        return idBuffer != null;
+    }
+
+    /** writes buffered ids to the text content and size attribute.
+     * no-op unless buffered ids are waiting
+     */
+    private void flushBufferedIds() {
+        if (idBuffer != null) {
+            idBuffer.flushTo(this);
+        }
+    }
+
+    /** writes buffered ids before serialization.
+     */
+    public void updateXOM() {
+        flushBufferedIds();
+    }
+
+    /**
+     * gets bond ids in text content, including buffered ids.
+     *
+     * @return ids
+     */
+    public String[] getXMLContent() {
+        flushBufferedIds();
+        return super.getXMLContent();
+    }
+
+    /**
+     * sets text content. discards buffered ids.
+     *
+     * @param value
+     */
+    public void setXMLContent(String value) {
+        if (idBuffer != null) {
+            idBuffer.clear();
+        }
+        super.setXMLContent(value);
+    }
+
+    /**
+     * sets text content. discards buffered ids.
+     *
+     * @param value
+     */
+    public void setXMLContent(String[] value) {
+        if (idBuffer != null) {
+            idBuffer.clear();
+        }
+        super.setXMLContent(value);
+    }
+
+    /**
+     * gets size, including buffered ids.
+     *
+     * @return size
+     */
+    public int getSize() {
+        flushBufferedIds();
+        return super.getSize();
+    }
+
     /**
      * adds bondSet to set.
      *
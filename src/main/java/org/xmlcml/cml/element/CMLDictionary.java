@@ -20,8 +20,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import nu.xom.Document;
 import nu.xom.Element;
@@ -44,7 +44,8 @@ public class CMLDictionary extends AbstractDictionary {
 	/** namespaced element name.*/
 	public final static String NS = C_E+TAG;
 
-	protected Map<String, CMLEntry> entryMap = null;
+	/** built once by indexEntries(); safe for concurrent lookups */
+	protected volatile Map<String, CMLEntry> entryMap = null;
 
 	/**
 	 * constructor.
@@ -84,21 +85,25 @@ public class CMLDictionary extends AbstractDictionary {
 
 	/**
 	 * index entries by id.
-	 *
+	 * the index is built completely before it is published so
+	 * getCMLEntry() can be called from several threads
+	 * (see also DictionaryRegistry).
 	 */
 	public int indexEntries() {
-		if (entryMap == null) {
-			entryMap = new HashMap<String, CMLEntry>();
+		Map<String, CMLEntry> map = entryMap;
+		if (map == null) {
+			map = new ConcurrentHashMap<String, CMLEntry>();
 			CMLElements<CMLEntry> entryNodes = this.getEntryElements();
 			for (CMLEntry entry : entryNodes) {
 				String id = entry.getId();
 				if (id != null) {
-					entryMap.put(id, entry);
+					map.put(id, entry);
 				}
 			}
 			LOG.trace("Created dictionary with entries: "+entryNodes.size());
+			entryMap = map;
 		} 
-		return entryMap.size();
+		return map.size();
 	}
 
 	/**
@@ -171,8 +176,8 @@ public class CMLDictionary extends AbstractDictionary {
 	 * @return entry
 	 */
 	public CMLEntry getCMLEntry(String id) {
-		int nentries = this.indexEntries();
-		return entryMap.get(id);
+		this.indexEntries();
+		return (id == null) ? null : entryMap.get(id);
 	}
 
 	/**
@@ -252,67 +252,123 @@ public class CMLFormula extends AbstractFormula {
 	 */
 	public CMLFormula(CMLMolecule molecule) {
 		init();
-		int formalCharge = 0;
-		// iterate through atoms adding elements, occupancies and charges
+		ElementAccumulator accumulator = new ElementAccumulator();
+		int formalCharge = accumulator.addMolecule(molecule);
+		setElementTypesAndCounts(accumulator);
+		// has the molecule a net computed charge?
+		if (formalCharge != Integer.MIN_VALUE) {
+			this.setFormalCharge(formalCharge);
+		} else if (molecule.getFormalChargeAttribute() != null) {
+			this.setFormalCharge(molecule.getFormalCharge());
+		}
+	}
 
-//		HydrogenStrategy strategy = null;
-		for (CMLAtom atom : molecule.getAtoms()) {
-			double occupancy = 1.0;
-			if (atom.getOccupancyAttribute() != null) {
-				occupancy = atom.getOccupancy();
-			}
-			if (occupancy <= 0.0) {
-				throw new RuntimeException("zero or negative occupancy: " + occupancy);
-			}
-			String elementType = atom.getElementType();
-			if (elementType == null
-					|| ChemicalElement.getChemicalElement(elementType) == null) {
-				throw new RuntimeException(
-						"Missing or invalid elementType for atom : "+atom.getId()+" .. "
-						+ elementType);
+	/** element counts keyed by elementType.
+	 * collects the atoms of molecules in one pass so that the
+	 * atomArray and concise of the formula are only written once.
+	 * Elements are kept in order of first occurrence.
+	 */
+	private static class ElementAccumulator {
+		// not by atomic number, as isotopes such as D and T share that of H
+		private Map<String, Integer> indexByType = new HashMap<String, Integer>();
+		private double[] counts = new double[16];
+		private String[] elementTypes = new String[16];
+		private int nelem = 0;
+
+		void add(String elementType, double count) {
+			Integer index = indexByType.get(elementType);
+			if (index == null) {
+				if (nelem == counts.length) {
+					counts = Arrays.copyOf(counts, 2 * nelem);
+					elementTypes = Arrays.copyOf(elementTypes, 2 * nelem);
+				}
+				index = nelem++;
+				indexByType.put(elementType, index);
+				elementTypes[index] = elementType;
 			}
-//			if (AS.H.equals(elementType) && strategy == null) {
-//				strategy = HydrogenStrategy.EXPLICIT_HYDROGENS;
-//			}
-			if (!AS.H.equals(elementType) ) {
-//				HydrogenStrategy.EXPLICIT_HYDROGENS == strategy) {
-					this.add(elementType, 1.0);
-	//			}
-				
-				if (atom.getFormalChargeAttribute() != null) {
-					formalCharge += atom.getFormalCharge();
+			counts[index] += count;
+		}
+
+		/** adds atoms as in CMLFormula(CMLMolecule).
+		 * @return sum of formal charges
+		 */
+		int addMolecule(CMLMolecule molecule) {
+			int formalCharge = 0;
+			// iterate through atoms adding elements, occupancies and charges
+			for (CMLAtom atom : molecule.getAtoms()) {
+				double occupancy = 1.0;
+				if (atom.getOccupancyAttribute() != null) {
+					occupancy = atom.getOccupancy();
 				}
-	
-				int hydrogenCount = atom.getHydrogenCount();
-				if (hydrogenCount > 0) {
-					this.add(AS.H.value, hydrogenCount);
+				if (occupancy <= 0.0) {
+					throw new RuntimeException("zero or negative occupancy: " + occupancy);
 				}
-			}
-			else {
-				// only count a H if it is not bonded to non-hydrogens
-				List<CMLAtom> oatoms = atom.getLigandAtoms();
-				boolean countit = true;
-				for (CMLAtom chk : oatoms) {
-					String ctype = chk.getElementType();
-					if ( !AS.H.equals(ctype)) {
-						countit = false;
-					}
+				String elementType = atom.getElementType();
+				ChemicalElement element = (elementType == null) ? null :
+					ChemicalElement.getChemicalElement(elementType);
+				if (element == null) {
+					throw new RuntimeException(
+							"Missing or invalid elementType for atom : "+atom.getId()+" .. "
+							+ elementType);
 				}
-				if ( countit ) {
-					this.add(AS.H.value, 1.0);
+				if (!AS.H.equals(elementType) ) {
+					add(elementType, 1.0);
+				
 					if (atom.getFormalChargeAttribute() != null) {
 						formalCharge += atom.getFormalCharge();
 					}
+	
+					int hydrogenCount = atom.getHydrogenCount();
+					if (hydrogenCount > 0) {
+						add(AS.H.value, hydrogenCount);
+					}
+				}
+				else {
+					// only count a H if it is not bonded to non-hydrogens
+					List<CMLAtom> oatoms = atom.getLigandAtoms();
+					boolean countit = true;
+					for (CMLAtom chk : oatoms) {
+						String ctype = chk.getElementType();
+						if ( !AS.H.equals(ctype)) {
+							countit = false;
+						}
+					}
+					if ( countit ) {
+						add(AS.H.value, 1.0);
+						if (atom.getFormalChargeAttribute() != null) {
+							formalCharge += atom.getFormalCharge();
+						}
+					}
 				}
 			}
+			return formalCharge;
 		}
-		// has the molecule a net computed charge?
-		if (formalCharge != Integer.MIN_VALUE) {
-			this.setFormalCharge(formalCharge);
-		} else if (molecule.getFormalChargeAttribute() != null) {
-			this.setFormalCharge(molecule.getFormalCharge());
+
+		String[] getElementTypes() {
+			return Arrays.copyOf(elementTypes, nelem);
 		}
-		
+
+		double[] getCounts() {
+			return Arrays.copyOf(counts, nelem);
+		}
+	}
+
+	/** writes atomArray and concise from accumulated counts.
+	 * leaves the formula as the last of a series of add() calls would.
+	 * no-op if nothing was accumulated.
+	 */
+	private void setElementTypesAndCounts(ElementAccumulator accumulator) {
+		String[] elements = accumulator.getElementTypes();
+		if (elements.length == 0) {
+			return;
+		}
+		normalize();
+		CMLAtomArray atomArray = new CMLAtomArray();
+		setAtomArray(atomArray);
+		atomArray.setElementTypeAndCount(elements, accumulator.getCounts());
+		int formalCharge = (this.getFormalChargeAttribute() == null) ? 0 : this.getFormalCharge();
+		String conciseS = atomArray.generateConcise(formalCharge);
+		super.setConcise(conciseS);
 	}
 
 	/**
@@ -846,6 +902,28 @@ public class CMLFormula extends AbstractFormula {
 		}
 		return new CMLFormula(mol);
 	}
+
+	/**
+	 * create formula from several molecules.
+	 * counts atoms and charges as CMLFormula(CMLMolecule) does, but for
+	 * all molecules in one pass, and writes the formula once.
+	 *
+	 * @param molecules
+	 * @exception RuntimeException
+	 *             if an atom has a missing or invalid elementType
+	 * @return the summed formula
+	 */
+	public static CMLFormula createFormula(List<CMLMolecule> molecules) {
+		CMLFormula formula = new CMLFormula();
+		ElementAccumulator accumulator = new ElementAccumulator();
+		int formalCharge = 0;
+		for (CMLMolecule molecule : molecules) {
+			formalCharge += accumulator.addMolecule(molecule);
+		}
+		formula.setElementTypesAndCounts(accumulator);
+		formula.setFormalCharge(formalCharge);
+		return formula;
+	}
 	
 	/**
 	 * create formula from string. convention defaults to ANY
@@ -23,6 +23,7 @@ import org.xmlcml.cml.attribute.DelimiterAttribute;
 import org.xmlcml.cml.attribute.NamespaceRefAttribute;
 import org.xmlcml.cml.base.CMLElement;
 import org.xmlcml.cml.base.CMLType;
+import org.xmlcml.cml.base.NumericTokenizer;
 import org.xmlcml.cml.interfacex.HasDataType;
 import org.xmlcml.cml.interfacex.HasDelimiter;
 import org.xmlcml.cml.interfacex.HasDictRef;
@@ -101,6 +102,8 @@ public class CMLMatrix extends AbstractMatrix
 	public final static String NS = C_E+TAG;
 
 	private DelimiterAttribute delimiterAttribute = null;
+	// values parsed by the getters; see getParsedValues()
+	private ParsedContent parsedContent = null;
     /**
      * constructor.
      *
@@ -498,25 +501,67 @@ public class CMLMatrix extends AbstractMatrix
      * @return double array (or null if different type)
      */
     public double[] getDoubleArray() {
+        double[] dd = getParsedDoubleArray();
+        return (dd == null) ? null : dd.clone();
+    }
+
+    private double[] getParsedDoubleArray() {
         double[] dd = null;
-        if (this.getDataType().equals(XSD_DOUBLE) || this.getDataType().equals(FPX_REAL)) {
-            dd = Util.splitToDoubleArray(this.getXMLContent(), S_WHITEREGEX);
+        String dataType = this.getDataType();
+        if (dataType.equals(XSD_DOUBLE) || dataType.equals(FPX_REAL)) {
+            dd = (double[]) getParsedValues(dataType);
+            if (dd == null) {
+                try {
+                    dd = NumericTokenizer.parseDoubles(this.getXMLContent(), null);
+                } catch (NumberFormatException e) {
+                    throw new EuclidRuntimeException(e.getMessage(), e);
+                }
+                setParsedValues(dataType, dd);
+            }
         }
         return dd;
     }
 
+    /** values parsed from the current content by an earlier call.
+     * dropped when the content or dataType change.
+     *
+     * @param dataType of the values
+     * @return shared values or null
+     */
+    private Object getParsedValues(String dataType) {
+        return (parsedContent == null) ? null : parsedContent.getValues(
+                this, dataType, this.getAttributeValue("delimiter"));
+    }
+
+    private void setParsedValues(String dataType, Object values) {
+        if (parsedContent == null) {
+            parsedContent = new ParsedContent();
+        }
+        parsedContent.setValues(this, dataType,
+                this.getAttributeValue("delimiter"), values);
+    }
+
     /**
      * gets values as array.
      *
      * @return int array (or null if different type)
      */
     public int[] getIntegerArray() {
+        int[] ii = getParsedIntegerArray();
+        return (ii == null) ? null : ii.clone();
+    }
+
+    private int[] getParsedIntegerArray() {
         int[] ii = null;
         if (XSD_INTEGER.equals(this.getDataType())) {
-            try {
-                ii = Util.splitToIntArray(this.getXMLContent(), S_WHITEREGEX);
-            } catch (EuclidRuntimeException e) {
-                throw new RuntimeException("bug " + e);
+            ii = (int[]) getParsedValues(XSD_INTEGER);
+            if (ii == null) {
+                try {
+                    ii = NumericTokenizer.parseInts(this.getXMLContent(), null);
+                } catch (NumberFormatException e) {
+                    throw new RuntimeException("bug " + e);
+                }
+                setParsedValues(XSD_INTEGER, ii);
             }
         }
         return ii;
@@ -529,7 +574,7 @@ public class CMLMatrix extends AbstractMatrix
      */
     public double[][] getDoubleMatrix() {
         double[][] ddd = null;
-        double[] dd = this.getDoubleArray();
+        double[] dd = this.getParsedDoubleArray();
         int count = 0;
         if (dd != null) {
             int rows = getRows();
@@ -550,7 +595,7 @@ public class CMLMatrix extends AbstractMatrix
      */
     public int[][] getIntegerMatrix() {
         int[][] iii = null;
-        int[] ii = this.getIntegerArray();
+        int[] ii = this.getParsedIntegerArray();
         int count = 0;
         if (ii != null) {
             int rows = getRows();
@@ -573,10 +618,10 @@ public class CMLMatrix extends AbstractMatrix
 			}
 			
 			if (dataType.equals(XSD_DOUBLE)) {
-				Double d = getDoubleMatrix()[row][col];
+				Double d = getParsedDoubleArray()[row * getColumns() + col];
 				scalar = new CMLScalar(d);
 			} else if (dataType.equals(XSD_INTEGER)) {
-				Integer ii = getIntegerMatrix()[row][col];
+				Integer ii = getParsedIntegerArray()[row * getColumns() + col];
 				scalar = new CMLScalar(ii);
 			}
 			CMLArray.copyAttributesFromTo(this, scalar);
@@ -17,9 +17,11 @@
 package org.xmlcml.cml.element;
 
 import java.util.ArrayList;
+import java.util.Collections;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -29,7 +31,7 @@ import nu.xom.Document;
 import nu.xom.Element;
 import nu.xom.Elements;
 import nu.xom.Node;
-import nu.xom.Nodes;
+import nu.xom.ParentNode;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -37,9 +39,11 @@ import org.xmlcml.cml.attribute.IdAttribute;
 import org.xmlcml.cml.base.CMLConstants;
 import org.xmlcml.cml.base.CMLElement;
 import org.xmlcml.cml.base.CMLElements;
+import org.xmlcml.cml.base.CMLQuery;
 import org.xmlcml.cml.base.CMLUtil;
 import org.xmlcml.euclid.Real2;
 import org.xmlcml.euclid.Real2Vector;
+import org.xmlcml.molutil.ChemicalElement;
 
 /**
  * Class representing the CML molecule element, this class can be used to
@@ -95,6 +99,8 @@ public class CMLMolecule
 
 	final static Logger logger;
 
+	private final static CMLQuery ANCESTOR_MOLECULES = CMLQuery.compile("ancestor::cml:molecule");
+
 	// / @cond DOXYGEN_STATIC_BLOCK_WORKAROUND
 	static {
 		logger = Logger.getLogger(CMLMolecule.class);
@@ -104,15 +110,13 @@ public class CMLMolecule
 	// ancillary elements or helpers
 
     /** gets the first ancestor molecule
+     * (in document order, so the outermost)
      * 
      * @return null if none
      */
 	public static CMLMolecule getAncestorMolecule(CMLElement element) {
-    	try {
-    		return (CMLMolecule)(element.query("ancestor::cml:molecule", CML_XPATH)).get(0);
-    	} catch (Exception e) {
-    		 return null;
-    	}
+		Element molecule = ANCESTOR_MOLECULES.first(element);
+		return (molecule instanceof CMLMolecule) ? (CMLMolecule) molecule : null;
 	}
 
 
@@ -160,6 +164,15 @@ public class CMLMolecule
 	 */
 	Map<CMLAtom, CMLMolecule> atomChildMoleculeMap = null;
 
+	/** atoms and bonds of this molecule or its child molecules.
+	 * built on demand and cleared by clearAtomBondLists() whenever
+	 * this, its atomArray, bondArray or child molecules change children.
+	 */
+	private List<CMLAtom> cachedAtoms = null;
+	private List<CMLBond> cachedBonds = null;
+	private MoleculeGraph cachedGraph = null;
+	private MoleculeRings cachedRings = null;
+
 	// =========================== main constructors ========================
 
 	/**
@@ -647,6 +660,8 @@ public class CMLMolecule
 	 */
 	public void finishMakingElement(Element parent) {
 		super.finishMakingElement(parent);
+		// the parser may add children without insertChild()
+		clearAtomBondLists();
 		// not necessary as done already
 //		indexAtoms();
 		// this also updates the ligands
@@ -777,8 +792,7 @@ public class CMLMolecule
 			// use atomArray first in case there are child molecules
 			if (atomArray != null) {
 				// crude check for update index
-				if (atomArray.atomMap.size() !=
-					atomArray.getAtomElements().size()) {
+				if (atomArray.atomMap.size() != atomArray.size()) {
 					atomArray.indexAtoms();
 				}
 				atom = atomArray.getAtomById(id);
@@ -902,6 +916,63 @@ public class CMLMolecule
 		return contactMap;
 	}
 
+	/**
+	 * creates bonds from 3D coordinates.
+	 * atoms are bonded if closer than the sum of their covalent radii
+	 * plus ChemicalElement.getBondingRadiusTolerance(). Candidate pairs come
+	 * from an AtomSpatialIndex so the time is roughly linear in the
+	 * number of atoms. Atoms without x3, y3, z3 are ignored and existing
+	 * bonds are kept. In a container each child molecule is treated
+	 * separately. The new bonds are added with CMLBondArray.addBonds().
+	 *
+	 * @return the new bonds
+	 * @throws RuntimeException if an atom has no chemical element
+	 */
+	public List<CMLBond> createBondsFromCoordinates() {
+		List<CMLBond> newBonds = new ArrayList<CMLBond>();
+		for (CMLMolecule molecule : this.getDescendantsOrMolecule()) {
+			List<CMLBond> bonds = molecule.calculateBondsFromCoordinates();
+			if (bonds.size() > 0) {
+				molecule.getOrCreateBondArray().addBonds(bonds);
+				newBonds.addAll(bonds);
+			}
+		}
+		return newBonds;
+	}
+
+	private List<CMLBond> calculateBondsFromCoordinates() {
+		List<CMLBond> bonds = new ArrayList<CMLBond>();
+		Map<CMLAtom, Double> radiusMap = new IdentityHashMap<CMLAtom, Double>();
+		double maxRadius = 0.0;
+		for (CMLAtom atom : this.getAtoms()) {
+			ChemicalElement el = atom.getChemicalElement();
+			if (el == null) {
+				throw new RuntimeException("cannot find chemicalElement for atom ("+
+						atom.getId()+"):"+atom.getElementType());
+			}
+			double radius = el.getCovalentRadius();
+			radiusMap.put(atom, radius);
+			maxRadius = Math.max(maxRadius, radius);
+		}
+		double tolerance = ChemicalElement.getBondingRadiusTolerance();
+		double cutoff = 2 * maxRadius + tolerance;
+		AtomSpatialIndex index = new AtomSpatialIndex(this, CoordinateType.CARTESIAN, null, cutoff);
+		List<CMLAtom> indexed = index.getAtoms();
+		double[] radii = new double[indexed.size()];
+		for (int i = 0; i < radii.length; i++) {
+			radii[i] = radiusMap.get(indexed.get(i));
+		}
+		// the radius test is applied inside the search
+		for (AtomSpatialIndex.Contact contact : index.getContacts(radii, tolerance)) {
+			CMLAtom atom1 = contact.getAtom1();
+			CMLAtom atom2 = contact.getAtom2();
+			if (getBond(atom1, atom2) == null) {
+				bonds.add(new CMLBond(atom1, atom2));
+			}
+		}
+		return bonds;
+	}
+
 	/**
 	 * gets bond by id
 	 *
@@ -987,16 +1058,21 @@ public class CMLMolecule
 
 	/**
 	 * get atoms.
+	 * the list is cached until the atoms of the molecule change
+	 * and must not be modified.
 	 *
 	 * @return the atoms (none returns emptyList)
 	 */
 	public List<CMLAtom> getAtoms() {
-		List<CMLAtom> atomList = new ArrayList<CMLAtom>();
-		for (CMLMolecule molecule : this.getDescendantsOrMolecule()) {
-			CMLAtomArray atomArray = molecule.getAtomArray();
-			if (atomArray != null) {
-				atomList.addAll(atomArray.getAtoms());
+		if (cachedAtoms == null) {
+			List<CMLAtom> atoms = new ArrayList<CMLAtom>();
+			for (CMLMolecule molecule : this.getDescendantsOrMolecule()) {
+				CMLAtomArray atomArray = molecule.getAtomArray();
+				if (atomArray != null) {
+					atoms.addAll(atomArray.getAtoms());
+				}
 			}
+			cachedAtoms = Collections.unmodifiableList(atoms);
 		}
 		/*
         if (isMoleculeContainer()) {
@@ -1012,12 +1088,15 @@ public class CMLMolecule
         }
 		 */
 		// else return a blank list
-		return atomList;
+		return cachedAtoms;
 	}
 
 
 	/**
 	 * get bond connecting 2 atoms.
+	 * if the atoms belong to this molecule (or its child molecules) the
+	 * ligand lists of the atoms are searched by identity; otherwise the
+	 * bonds are matched on atom ids.
 	 *
 	 * @param a1
 	 *            first atom
@@ -1026,6 +1105,36 @@ public class CMLMolecule
 	 * @return bond or null if not found
 	 */
 	public CMLBond getBond(CMLAtom a1, CMLAtom a2) {
+		if (a1 == null || a2 == null || a1 == a2) {
+			return null;
+		}
+		if (isBondedAtom(a1) && isBondedAtom(a2)) {
+			// ligand lists are maintained by CMLBondArray
+			List<CMLAtom> ligandAtoms = a1.getLigandAtoms();
+			for (int i = 0; i < ligandAtoms.size(); i++) {
+				if (ligandAtoms.get(i) == a2) {
+					return a1.getLigandBonds().get(i);
+				}
+			}
+			return null;
+		}
+		return getBondByAtomHash(a1, a2);
+	}
+
+	/** is atom in a molecule whose bonds are returned by getBonds().
+	 * 
+	 * @param atom
+	 * @return true if in this molecule or in a child of a container
+	 */
+	private boolean isBondedAtom(CMLAtom atom) {
+		CMLMolecule molecule = atom.getMolecule();
+		if (molecule == this) {
+			return this.getFirstCMLChild(CMLMolecule.TAG) == null;
+		}
+		return molecule != null && molecule.getParent() == this;
+	}
+
+	private CMLBond getBondByAtomHash(CMLAtom a1, CMLAtom a2) {
 		String atomHash = CMLBond.atomHash(a1, a2);
 		if (atomHash != null) {
 			for (CMLBond bond : getBonds()) {
@@ -1059,18 +1168,120 @@ public class CMLMolecule
 
 	/**
 	 * gets a typed list containing all the bonds in this molecule
+	 * the list is cached until the bonds of the molecule change
+	 * and must not be modified.
 	 *
 	 * @return a typed list
 	 */
 	public List<CMLBond> getBonds() {
-		List<CMLBond> bondList = new ArrayList<CMLBond>();
-		for (CMLMolecule molecule : this.getDescendantsOrMolecule()) {
-			CMLBondArray bondArray = molecule.getBondArray();
-			if (bondArray != null) {
-				bondList.addAll(bondArray.getBonds());
+		if (cachedBonds == null) {
+			List<CMLBond> bonds = new ArrayList<CMLBond>();
+			for (CMLMolecule molecule : this.getDescendantsOrMolecule()) {
+				CMLBondArray bondArray = molecule.getBondArray();
+				if (bondArray != null) {
+					bonds.addAll(bondArray.getBonds());
+				}
 			}
+			cachedBonds = Collections.unmodifiableList(bonds);
+		}
+		return cachedBonds;
+	}
+
+	/**
+	 * gets an integer-indexed snapshot of the atoms and bonds.
+	 * the result is cached until atoms or bonds are added or removed.
+	 *
+	 * @return graph
+	 */
+	public MoleculeGraph getGraph() {
+		if (cachedGraph == null) {
+			cachedGraph = new MoleculeGraph(this);
 		}
-		return bondList;
+		return cachedGraph;
+	}
+
+	/**
+	 * splits this molecule into its connected fragments.
+	 * each fragment is a new molecule holding copies of the atoms and
+	 * bonds of one connected component, in order of their first atom.
+	 * this molecule is not changed.
+	 *
+	 * @return fragments (one copy of the whole molecule if connected)
+	 */
+	public List<CMLMolecule> createFragments() {
+		MoleculeGraph graph = getGraph();
+		List<CMLMolecule> fragments = new ArrayList<CMLMolecule>(graph.getComponentCount());
+		for (int c = 0; c < graph.getComponentCount(); c++) {
+			fragments.add(new CMLMolecule());
+		}
+		for (int i = 0; i < graph.getAtomCount(); i++) {
+			fragments.get(graph.getComponent(i)).addAtom(new CMLAtom(graph.getAtom(i)));
+		}
+		for (int e = 0; e < graph.getBondCount(); e++) {
+			CMLMolecule fragment = fragments.get(graph.getComponent(graph.getBondAtom(e, 0)));
+			fragment.addBond(new CMLBond(graph.getBond(e)));
+		}
+		return fragments;
+	}
+
+	/**
+	 * gets the rings (SSSR) of this molecule.
+	 * the result is cached until atoms or bonds are added or removed.
+	 *
+	 * @return rings
+	 */
+	public MoleculeRings getRings() {
+		if (cachedRings == null) {
+			cachedRings = new MoleculeRings(this);
+		}
+		return cachedRings;
+	}
+
+	/** clears the cached atom and bond lists.
+	 * also clears those of ancestor molecules. Called when
+	 * children are added to or removed from this molecule,
+	 * its atomArray or its bondArray.
+	 */
+	void clearAtomBondLists() {
+		cachedAtoms = null;
+		cachedBonds = null;
+		cachedGraph = null;
+		cachedRings = null;
+		ParentNode parent = this.getParent();
+		if (parent instanceof CMLMolecule) {
+			((CMLMolecule) parent).clearAtomBondLists();
+		}
+	}
+
+	/** clears the atom and bond lists of the parent molecule (if any).
+	 * @param node atomArray or bondArray
+	 */
+	static void clearAtomBondLists(Node node) {
+		ParentNode parent = node.getParent();
+		if (parent instanceof CMLMolecule) {
+			((CMLMolecule) parent).clearAtomBondLists();
+		}
+	}
+
+	/** override insertChild.
+	 * clears cached atoms and bonds
+	 * @param newNode
+	 * @param pos
+	 */
+	public void insertChild(Node newNode, int pos) {
+		super.insertChild(newNode, pos);
+		clearAtomBondLists();
+	}
+
+	/** override removeChild.
+	 * clears cached atoms and bonds
+	 * @param pos
+	 * @return removed node
+	 */
+	public Node removeChild(int pos) {
+		Node node = super.removeChild(pos);
+		clearAtomBondLists();
+		return node;
 	}
 
 	/**
@@ -1491,9 +1702,7 @@ public class CMLMolecule
 	public void normalizeFormulas() {
 		CMLFormula formula = new CMLFormula(this);
 		String concise = formula.getConcise();
-		Nodes formulaElements = this.query("./cml:formula", CML_XPATH);
-		for (int i = 0; i < formulaElements.size(); i++) {
-			CMLFormula formulaElement = (CMLFormula) formulaElements.get(i);
+		for (CMLFormula formulaElement : this.getFormulaElements()) {
 			String conciseString = formulaElement.getConcise();
 			if (conciseString == null) {
 				formulaElement.setConcise(concise);
@@ -1504,16 +1713,21 @@ public class CMLMolecule
 						conciseString+"; now "+concise);
 			}
 			// remove any spurious atomArrays
-			Nodes atomArrays = formulaElement.query("./cml:atomArray", CML_XPATH);
-			for (int j = 0; j < atomArrays.size(); j++) {
-				atomArrays.get(j).detach();
+			for (CMLAtomArray atomArray : formulaElement.getAtomArrayElements()) {
+				atomArray.detach();
 			}
 		}
 	}
 	
 	public CMLFormula getFirstConciseFormula() {
-		Nodes nodes = this.query("./*[local-name()='"+CMLFormula.TAG+"' and @concise]");
-		return (nodes.size() > 0) ? (CMLFormula) nodes.get(0) : null;
+		for (int i = 0; i < this.getChildCount(); i++) {
+			Node child = this.getChild(i);
+			if (child instanceof CMLFormula &&
+					((CMLFormula) child).getConciseAttribute() != null) {
+				return (CMLFormula) child;
+			}
+		}
+		return null;
 	}
 	
 	public String getFirstConciseFormulaString() {
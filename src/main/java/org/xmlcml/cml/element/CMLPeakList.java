@@ -21,10 +21,9 @@ import java.util.List;
 
 import nu.xom.Element;
 import nu.xom.Node;
-import nu.xom.Nodes;
 
-import org.xmlcml.cml.base.CMLConstants;
 import org.xmlcml.cml.base.CMLElement;
+import org.xmlcml.cml.base.CMLQuery;
 import org.xmlcml.cml.interfacex.PeakOrGroup;
 
 /**
@@ -48,6 +47,9 @@ public class CMLPeakList extends AbstractPeakList {
     /** argument name to identify id.
      */
     public final static String IDX = "idx";
+
+    private final static CMLQuery PEAK_CHILDREN = CMLQuery.compile("./cml:peak");
+    private final static CMLQuery PEAK_DESCENDANTS = CMLQuery.compile(".//cml:peak");
     
     /**
      * constructor.
@@ -108,34 +110,26 @@ public class CMLPeakList extends AbstractPeakList {
      * @return list of peak children (not peakGroups or descendants)
      */
     public List<CMLPeak> getPeakChildren() {
-    	Nodes nodes = this.query("./cml:peak", CMLConstants.CML_XPATH);
-    	List<CMLPeak> peaks = new ArrayList<CMLPeak>();
-    	for (int i = 0; i < nodes.size(); i++) {
-    		peaks.add((CMLPeak) nodes.get(i));
-    	}
-    	return peaks;
+    	return PEAK_CHILDREN.list(this, CMLPeak.class);
     }
     
     /**
      * @return list of peak descendants (not peakGroups)
      */
     public List<CMLPeak> getPeakDescendants() {
-    	Nodes nodes = this.query(".//cml:peak", CMLConstants.CML_XPATH);
-    	List<CMLPeak> peaks = new ArrayList<CMLPeak>();
-    	for (int i = 0; i < nodes.size(); i++) {
-    		peaks.add((CMLPeak) nodes.get(i));
-    	}
-    	return peaks;
+    	return PEAK_DESCENDANTS.list(this, CMLPeak.class);
     }
     
     /**
      * @return list of peak or peakGroup children (not descendants)
      */
     public List<PeakOrGroup> getPeakOrGroupChildren() {
-    	Nodes nodes = this.query("./cml:peak | ./cml:peakGroup", CMLConstants.CML_XPATH);
     	List<PeakOrGroup> peaks = new ArrayList<PeakOrGroup>();
-    	for (int i = 0; i < nodes.size(); i++) {
-    		peaks.add((PeakOrGroup) nodes.get(i));
+    	for (int i = 0; i < this.getChildCount(); i++) {
+    		Node child = this.getChild(i);
+    		if (child instanceof CMLPeak || child instanceof CMLPeakGroup) {
+    			peaks.add((PeakOrGroup) child);
+    		}
     	}
     	return peaks;
     }
@@ -21,11 +21,10 @@ import java.util.List;
 
 import nu.xom.Element;
 import nu.xom.Node;
-import nu.xom.Nodes;
 
-import org.xmlcml.cml.base.CMLConstants;
 import org.xmlcml.cml.base.CMLElement;
 import org.xmlcml.cml.base.CMLElements;
+import org.xmlcml.cml.base.CMLQuery;
 import org.xmlcml.euclid.Point3;
 
 /**
@@ -37,6 +36,8 @@ public class CMLSymmetry extends AbstractSymmetry {
 
 	/** namespaced element name.*/
 	public final static String NS = C_E+TAG;
+
+	private final static CMLQuery SYMMETRY_DESCENDANTS = CMLQuery.compile(".//"+NS);
 	
     /**
      * constructor.
@@ -415,13 +416,13 @@ public class CMLSymmetry extends AbstractSymmetry {
      */
     //TODO should this really call a RunTimeException?
     public static CMLSymmetry getContainedSymmetry(CMLElement element) throws RuntimeException {
-        Nodes symmetryNodes = element.query(".//"+CMLSymmetry.NS, CMLConstants.CML_XPATH);
-        if (symmetryNodes.size() == 0) {
+        List<CMLSymmetry> symmetryList = SYMMETRY_DESCENDANTS.list(element, CMLSymmetry.class);
+        if (symmetryList.size() == 0) {
             throw new RuntimeException("NO <symmetry> FOUND");
-        } else if (symmetryNodes.size() > 1) {
-            throw new RuntimeException("TOO MANY <symmetry> FOUND "+symmetryNodes.size());
+        } else if (symmetryList.size() > 1) {
+            throw new RuntimeException("TOO MANY <symmetry> FOUND "+symmetryList.size());
         }
-        return (CMLSymmetry) symmetryNodes.get(0);
+        return symmetryList.get(0);
     }
 
     
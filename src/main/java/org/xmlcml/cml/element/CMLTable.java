@@ -342,6 +342,56 @@ public class CMLTable extends AbstractTable {
         return stringListList;
     }
 
+    /**
+     * get values columnwise as primitive arrays.
+     * unlike getColumnValuesList() does not convert values to strings.
+     * columnBased tables give a view of their arrays; rowBased and
+     * contentBased tables are parsed from their cells using the dataTypes
+     * of the tableHeader.
+     *
+     * @return view or null if table has neither arrayList nor tableHeader
+     * @throws RuntimeException
+     *             columns inconsistent
+     */
+    public TableColumns getTableColumns() {
+        CMLArrayList arrayList = (CMLArrayList) this.getFirstCMLChild(CMLArrayList.TAG);
+        if (arrayList != null) {
+            return arrayList.getTableColumns();
+        }
+        CMLTableHeader header = (CMLTableHeader) this.getFirstCMLChild(CMLTableHeader.TAG);
+        if (header == null) {
+            return null;
+        }
+        String[][] cells = null;
+        CMLTableRowList rowList = (CMLTableRowList) this.getFirstCMLChild(CMLTableRowList.TAG);
+        CMLTableContent content = (CMLTableContent) this.getFirstCMLChild(CMLTableContent.TAG);
+        if (rowList != null) {
+            CMLElements<CMLTableRow> rows = rowList.getTableRowElements();
+            cells = new String[rows.size()][];
+            for (int i = 0; i < cells.length; i++) {
+                CMLElements<CMLTableCell> rowCells = rows.get(i).getTableCellElements();
+                cells[i] = new String[rowCells.size()];
+                for (int j = 0; j < cells[i].length; j++) {
+                    cells[i][j] = rowCells.get(j).getValue();
+                }
+            }
+        } else if (content != null) {
+            int ncols = header.getColumnCount();
+            String[] strings = content.getStrings();
+            if (ncols == 0 || strings.length % ncols != 0) {
+                throw new RuntimeException("tableContent has " + strings.length
+                        + " values for " + ncols + " columns");
+            }
+            cells = new String[strings.length / ncols][ncols];
+            for (int i = 0; i < cells.length; i++) {
+                System.arraycopy(strings, i * ncols, cells[i], 0, ncols);
+            }
+        } else {
+            cells = new String[0][];
+        }
+        return TableColumns.createTableColumns(header, cells);
+    }
+
     @SuppressWarnings("unused")
     private void writeArrays(Writer w, List<List<String>> stringListList)
             throws IOException {
@@ -17,6 +17,8 @@
 // /*======AUTOGENERATED FROM SCHEMA; DO NOT EDIT BELOW THIS LINE ======*/
 package org.xmlcml.cml.element;
 
+import java.util.regex.Pattern;
+
 import nu.xom.Element;
 import nu.xom.Node;
 
@@ -93,22 +95,29 @@ public class CMLTableContent extends AbstractTableContent {
     }
 
     /**
-     * get content as strings. not yet edited for delimiters
+     * get content as strings.
+     * splits on whitespace or on the delimiter attribute; a leading and
+     * trailing delimiter are ignored.
      *
-     * @return strings
+     * @return strings (zero length if no content)
      */
     public String[] getStrings() {
         String content = this.getStringContent().trim();
-        String delimiter = (this.getDelimiterAttribute() == null)
-            ? S_WHITEREGEX : this.getDelimiter();
+        if (content.length() == 0) {
+            return new String[0];
+        }
+        if (this.getDelimiterAttribute() == null) {
+            return content.split(S_WHITEREGEX);
+        }
+        String delimiter = this.getDelimiter();
         // trim leading and trailing delimiters
         if (content.startsWith(delimiter)) {
-            content = content.substring(1);
+            content = content.substring(delimiter.length());
         }
-        if (content.startsWith(delimiter)) {
-            content = content.substring(0, content.length()-1);
+        if (content.endsWith(delimiter)) {
+            content = content.substring(0, content.length() - delimiter.length());
         }
-        return content.split(delimiter);
+        return content.split(Pattern.quote(delimiter), -1);
     }
 
 
@@ -0,0 +1,268 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.element;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+import org.xmlcml.cml.attribute.DictRefAttribute;
+import org.xmlcml.cml.base.CMLElement;
+
+/**
+ * thread-safe registry of dictionaries keyed by namespace URI.
+ * <p>
+ * Dictionaries can be registered by URL (or file) and are then only read
+ * when an entry is first looked up; each is read once however many
+ * threads ask for it. Lookups of loaded dictionaries take no locks and
+ * are O(1).
+ * </p>
+ * <p>
+ * At most getMaxLoaded() dictionaries registered by URL are kept in
+ * memory; when another is loaded the one used least recently is dropped
+ * and will be read again if needed. Dictionaries registered as objects
+ * are always kept.
+ * </p>
+ * <p>
+ * Dictionaries and entries are shared by all users of the registry and
+ * must not be modified.
+ * </p>
+ * <pre>
+ * DictionaryRegistry.dictionaryRegistry.register(CASTEP_NS, castepDictURL);
+ * ...
+ * CMLEntry entry = DictionaryRegistry.dictionaryRegistry.getCMLEntryFromElementOrParent(scalar);
+ * </pre>
+ */
+public class DictionaryRegistry {
+	private final static Logger LOG = Logger.getLogger(DictionaryRegistry.class);
+
+	/** default maximum number of dictionaries loaded from URLs */
+	public final static int DEFAULT_MAX_LOADED = 32;
+
+	/** process-wide registry */
+	public final static DictionaryRegistry dictionaryRegistry = new DictionaryRegistry();
+
+	private final Map<String, Holder> holderMap = new ConcurrentHashMap<String, Holder>();
+	private volatile int maxLoaded = DEFAULT_MAX_LOADED;
+
+	/** one registered dictionary */
+	private class Holder {
+		final String namespaceURI;
+		// null if registered as an object
+		final URL url;
+		// indexed before it is published; null if not in memory
+		volatile CMLDictionary loaded;
+		volatile long lastUsed;
+
+		Holder(String namespaceURI, URL url, CMLDictionary dictionary) {
+			this.namespaceURI = namespaceURI;
+			this.url = url;
+			if (dictionary != null) {
+				dictionary.indexEntries();
+			}
+			this.loaded = dictionary;
+		}
+
+		CMLDictionary getLoaded() {
+			lastUsed = System.nanoTime();
+			CMLDictionary current = loaded;
+			if (current == null) {
+				current = load();
+			}
+			return current;
+		}
+
+		private synchronized CMLDictionary load() {
+			if (loaded == null) {
+				LOG.trace("loading dictionary "+namespaceURI+" from "+url);
+				CMLDictionary dictionary;
+				try {
+					// createDictionary() indexes the entries
+					dictionary = CMLDictionary.createDictionary(url);
+				} catch (IOException e) {
+					throw new RuntimeException("Cannot read dictionary: "+url, e);
+				}
+				loaded = dictionary;
+				evict(this);
+			}
+			return loaded;
+		}
+	}
+
+	/**
+	 * creates an empty registry. Most callers should use dictionaryRegistry.
+	 */
+	public DictionaryRegistry() {
+	}
+
+	/** registers a dictionary to be read when first used.
+	 * replaces any dictionary registered for the namespace.
+	 *
+	 * @param namespaceURI
+	 * @param url
+	 */
+	public void register(String namespaceURI, URL url) {
+		if (namespaceURI == null || url == null) {
+			throw new RuntimeException("null namespace or url");
+		}
+		holderMap.put(namespaceURI, new Holder(namespaceURI, url, null));
+	}
+
+	/** registers a dictionary file to be read when first used.
+	 *
+	 * @param namespaceURI
+	 * @param file
+	 */
+	public void register(String namespaceURI, File file) {
+		try {
+			register(namespaceURI, file.toURI().toURL());
+		} catch (IOException e) {
+			throw new RuntimeException("Bad file: "+file, e);
+		}
+	}
+
+	/** registers a dictionary under its namespace.
+	 * it is never evicted.
+	 *
+	 * @param dictionary
+	 * @throws RuntimeException if dictionary has no namespace
+	 */
+	public void register(CMLDictionary dictionary) {
+		String namespaceURI = dictionary.getNamespace();
+		if (namespaceURI == null) {
+			throw new RuntimeException("dictionary has no namespace");
+		}
+		holderMap.put(namespaceURI, new Holder(namespaceURI, null, dictionary));
+	}
+
+	/**
+	 * @param namespaceURI
+	 */
+	public void unregister(String namespaceURI) {
+		holderMap.remove(namespaceURI);
+	}
+
+	/** removes all dictionaries.
+	 */
+	public void clear() {
+		holderMap.clear();
+	}
+
+	/**
+	 * @param namespaceURI
+	 * @return true if a dictionary is registered
+	 */
+	public boolean isRegistered(String namespaceURI) {
+		return namespaceURI != null && holderMap.containsKey(namespaceURI);
+	}
+
+	/**
+	 * @param namespaceURI
+	 * @return true if the dictionary is in memory
+	 */
+	public boolean isLoaded(String namespaceURI) {
+		Holder holder = (namespaceURI == null) ? null : holderMap.get(namespaceURI);
+		return holder != null && holder.loaded != null;
+	}
+
+	/**
+	 * @return maximum number of dictionaries from URLs kept in memory
+	 */
+	public int getMaxLoaded() {
+		return maxLoaded;
+	}
+
+	/**
+	 * @param maxLoaded maximum number of dictionaries from URLs kept in memory
+	 */
+	public void setMaxLoaded(int maxLoaded) {
+		if (maxLoaded < 1) {
+			throw new RuntimeException("maxLoaded must be positive: "+maxLoaded);
+		}
+		this.maxLoaded = maxLoaded;
+	}
+
+	/** gets dictionary, reading it if necessary.
+	 *
+	 * @param namespaceURI
+	 * @return dictionary or null if not registered
+	 * @throws RuntimeException if dictionary cannot be read
+	 */
+	public CMLDictionary getDictionary(String namespaceURI) {
+		Holder holder = (namespaceURI == null) ? null : holderMap.get(namespaceURI);
+		return (holder == null) ? null : holder.getLoaded();
+	}
+
+	/** gets entry, reading the dictionary if necessary.
+	 *
+	 * @param namespaceURI
+	 * @param id
+	 * @return entry or null if dictionary is not registered or has no such entry
+	 * @throws RuntimeException if dictionary cannot be read
+	 */
+	public CMLEntry getCMLEntry(String namespaceURI, String id) {
+		Holder holder = (namespaceURI == null) ? null : holderMap.get(namespaceURI);
+		return (holder == null || id == null) ? null : holder.getLoaded().getCMLEntry(id);
+	}
+
+	/** gets entry for dictRef such as castep:task.
+	 * the prefix is resolved on the element holding the attribute
+	 *
+	 * @param dictRef
+	 * @return entry or null
+	 */
+	public CMLEntry getCMLEntry(DictRefAttribute dictRef) {
+		if (dictRef == null || dictRef.getParent() == null) {
+			return null;
+		}
+		return getCMLEntry(dictRef.getNamespaceURIString(), dictRef.getIdRef());
+	}
+
+	/** gets entry for dictRef on element or its parent.
+	 * see DictRefAttribute.getDictRefFromElementOrParent()
+	 *
+	 * @param element
+	 * @return entry or null
+	 */
+	public CMLEntry getCMLEntryFromElementOrParent(CMLElement element) {
+		return getCMLEntry(DictRefAttribute.getDictRefFromElementOrParent(element));
+	}
+
+	private synchronized void evict(Holder justLoaded) {
+		while (true) {
+			int count = 0;
+			Holder oldest = null;
+			for (Holder holder : holderMap.values()) {
+				if (holder.url != null && holder.loaded != null) {
+					count++;
+					if (holder != justLoaded &&
+							(oldest == null || holder.lastUsed - oldest.lastUsed < 0)) {
+						oldest = holder;
+					}
+				}
+			}
+			if (count <= maxLoaded || oldest == null) {
+				break;
+			}
+			LOG.trace("evicting dictionary "+oldest.namespaceURI);
+			oldest.loaded = null;
+		}
+	}
+}
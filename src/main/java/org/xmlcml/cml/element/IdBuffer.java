@@ -0,0 +1,87 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.element;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xmlcml.cml.base.AttributeFactory;
+import org.xmlcml.cml.base.CMLElement;
+import org.xmlcml.cml.base.IntSTAttribute;
+import org.xmlcml.cml.base.StringArraySTAttribute;
+
+/**
+ * ids added to an atomSet or bondSet in buffered mode and not yet in its
+ * text content.
+ *
+ * @see CMLAtomSet#setBuffered(boolean)
+ * @see CMLBondSet#setBuffered(boolean)
+ */
+final class IdBuffer {
+
+    private static final String SIZE = "size";
+
+    private List<String> ids = new ArrayList<String>();
+
+    /**
+     * @param id
+     */
+    void add(String id) {
+        ids.add(id);
+    }
+
+    /** discards the buffered ids.
+     */
+    void clear() {
+        ids.clear();
+    }
+
+    /** appends the buffered ids to the text content and size of set.
+     * as in the unbuffered addAtomId()/addBondId() the old content is only
+     * kept if the size attribute is set. Empties the buffer; no-op if empty.
+     *
+     * @param set atomSet or bondSet
+     */
+    void flushTo(CMLElement set) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        StringArraySTAttribute content = new StringArraySTAttribute("_xmlContent");
+        String[] oldIds = {};
+        int size = 0;
+        String sizeValue = set.getAttributeValue(SIZE);
+        if (sizeValue != null) {
+            content.setCMLValue(set.getValue());
+            oldIds = content.getStringArray();
+            size = Integer.parseInt(sizeValue.trim());
+        }
+        String[] newIds = new String[oldIds.length + ids.size()];
+        System.arraycopy(oldIds, 0, newIds, 0, oldIds.length);
+        for (int i = 0; i < ids.size(); i++) {
+            newIds[oldIds.length + i] = ids.get(i);
+        }
+        content.setCMLValue(newIds);
+        set.removeChildren();
+        set.appendChild(content.getValue());
+        // the value must be set first as addAttribute() is routed to setSize()
+        IntSTAttribute newSize = new IntSTAttribute((IntSTAttribute)
+                AttributeFactory.attributeFactory.getAttribute(SIZE, set.getLocalName()));
+        newSize.setCMLValue(size + ids.size());
+        set.addAttribute(newSize);
+        ids.clear();
+    }
+}
@@ -0,0 +1,501 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.element;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * immutable snapshot of the bond graph of a molecule, indexed by integers.
+ * <p>
+ * Atoms are numbered 0..getAtomCount()-1 in the order of
+ * CMLMolecule.getAtoms() and bonds 0..getBondCount()-1 in the order of
+ * CMLMolecule.getBonds(). The neighbours of each atom are held in
+ * compressed sparse row form (one int array for all atoms) with atomic
+ * numbers and bond orders as primitive arrays, so that graph searches do
+ * not go through getLigandAtoms() or allocate per step. Bonds whose atoms
+ * are not in the molecule, bonds from an atom to itself and second bonds
+ * between the same two atoms are left out (getBondIndex() returns -1).
+ * </p>
+ * <p>
+ * CMLMolecule.getGraph() keeps the snapshot until atoms or bonds are
+ * added or removed; changes to elementType, order or atomRefs2 of
+ * existing atoms and bonds are not seen. Connected components are found
+ * when the snapshot is made; the other searches are run on each call. As
+ * nothing changes after construction the snapshot may be shared between
+ * threads.
+ * </p>
+ */
+public class MoleculeGraph {
+
+    /** bond order not known or not 1, 2, 3 or aromatic */
+    public final static int ORDER_UNKNOWN = 0;
+    /** aromatic bond order */
+    public final static int ORDER_AROMATIC = 4;
+
+    private List<CMLAtom> atoms;
+    private List<CMLBond> bonds;
+    private Map<CMLAtom, Integer> atomIndex;
+    private Map<CMLBond, Integer> bondIndex;
+    // neighbours of atom i are neighbour[start[i]..start[i+1]),
+    // joined by the bonds edge[...]
+    private int[] start;
+    private int[] neighbour;
+    private int[] edge;
+    // atoms of bond e are bondAtoms[2*e] and bondAtoms[2*e+1]
+    private int[] bondAtoms;
+    private int[] atomicNumber;
+    private byte[] bondOrder;
+    private int[] component;
+    private int componentCount;
+
+    /** makes the snapshot.
+     * usually called through CMLMolecule.getGraph() which caches the result
+     *
+     * @param molecule
+     */
+    public MoleculeGraph(CMLMolecule molecule) {
+        makeAtoms(molecule.getAtoms());
+        makeBonds(molecule.getBonds());
+        makeComponents();
+    }
+
+    /**
+     * @return number of atoms
+     */
+    public int getAtomCount() {
+        return atoms.size();
+    }
+
+    /**
+     * @return number of bonds in the graph
+     */
+    public int getBondCount() {
+        return bonds.size();
+    }
+
+    /**
+     * @param i atom index
+     * @return atom
+     */
+    public CMLAtom getAtom(int i) {
+        return atoms.get(i);
+    }
+
+    /**
+     * @param e bond index
+     * @return bond
+     */
+    public CMLBond getBond(int e) {
+        return bonds.get(e);
+    }
+
+    /**
+     * @param atom
+     * @return index of atom or -1 if not in graph
+     */
+    public int getAtomIndex(CMLAtom atom) {
+        Integer i = atomIndex.get(atom);
+        return (i == null) ? -1 : i;
+    }
+
+    /**
+     * @param bond
+     * @return index of bond or -1 if not in graph
+     */
+    public int getBondIndex(CMLBond bond) {
+        Integer e = bondIndex.get(bond);
+        return (e == null) ? -1 : e;
+    }
+
+    /**
+     * @param i atom index
+     * @return atomic number (0 if no or unknown element)
+     */
+    public int getAtomicNumber(int i) {
+        return atomicNumber[i];
+    }
+
+    /**
+     * @param e bond index
+     * @return 1, 2, 3, ORDER_AROMATIC or ORDER_UNKNOWN
+     */
+    public int getBondOrder(int e) {
+        return bondOrder[e];
+    }
+
+    /**
+     * @param e bond index
+     * @param end 0 or 1
+     * @return index of atom at that end of bond
+     */
+    public int getBondAtom(int e, int end) {
+        if (end != 0 && end != 1) {
+            throw new RuntimeException("bond end must be 0 or 1: " + end);
+        }
+        return bondAtoms[2 * e + end];
+    }
+
+    /**
+     * @param e bond index
+     * @param i index of one atom of bond
+     * @return index of the other atom
+     * @throws RuntimeException if atom is not in bond
+     */
+    public int getOtherAtom(int e, int i) {
+        if (bondAtoms[2 * e] == i) {
+            return bondAtoms[2 * e + 1];
+        } else if (bondAtoms[2 * e + 1] == i) {
+            return bondAtoms[2 * e];
+        }
+        throw new RuntimeException("atom " + i + " is not in bond " + e);
+    }
+
+    /**
+     * @param i atom index
+     * @return number of bonds to atom
+     */
+    public int getDegree(int i) {
+        return start[i + 1] - start[i];
+    }
+
+    /**
+     * @param i atom index
+     * @return indexes of ligand atoms (a copy)
+     */
+    public int[] getNeighbours(int i) {
+        return Arrays.copyOfRange(neighbour, start[i], start[i + 1]);
+    }
+
+    /**
+     * @param i atom index
+     * @return indexes of bonds to atom, in the order of getNeighbours(i) (a copy)
+     */
+    public int[] getNeighbourBonds(int i) {
+        return Arrays.copyOfRange(edge, start[i], start[i + 1]);
+    }
+
+    /**
+     * @return number of connected components (fragments)
+     */
+    public int getComponentCount() {
+        return componentCount;
+    }
+
+    /**
+     * components are numbered in order of their lowest atom index.
+     *
+     * @param i atom index
+     * @return component of atom
+     */
+    public int getComponent(int i) {
+        return component[i];
+    }
+
+    /**
+     * @param c component
+     * @return indexes of atoms in component, ascending
+     */
+    public int[] getComponentAtoms(int c) {
+        if (c < 0 || c >= componentCount) {
+            throw new RuntimeException("no component " + c);
+        }
+        int count = 0;
+        for (int i = 0; i < component.length; i++) {
+            if (component[i] == c) {
+                count++;
+            }
+        }
+        int[] members = new int[count];
+        for (int i = 0, k = 0; k < count; i++) {
+            if (component[i] == c) {
+                members[k++] = i;
+            }
+        }
+        return members;
+    }
+
+    /** topological distances (number of bonds) from one atom.
+     *
+     * @param from atom index
+     * @return distance to each atom; -1 if not connected
+     */
+    public int[] getDistances(int from) {
+        int[] distance = new int[atoms.size()];
+        Arrays.fill(distance, -1);
+        search(from, distance, null, new int[atoms.size()]);
+        return distance;
+    }
+
+    /** a shortest path between two atoms.
+     * if there is more than one the path through the lowest-indexed
+     * neighbours of to is returned.
+     *
+     * @param from atom index
+     * @param to atom index
+     * @return atom indexes from..to inclusive; null if not connected
+     */
+    public int[] getShortestPath(int from, int to) {
+        if (component[from] != component[to]) {
+            return null;
+        }
+        int natoms = atoms.size();
+        int[] distance = new int[natoms];
+        int[] parent = new int[natoms];
+        Arrays.fill(distance, -1);
+        // search from 'to' so the path can be read off forwards
+        search(to, distance, parent, new int[natoms]);
+        int[] path = new int[distance[from] + 1];
+        for (int k = 0, i = from; k < path.length; k++, i = parent[i]) {
+            path[k] = i;
+        }
+        return path;
+    }
+
+    /** topological distance matrix.
+     * one breadth-first search per atom, so time is atoms * (atoms + bonds)
+     * and space atoms^2.
+     *
+     * @return distance[i][j] in bonds; -1 if not connected
+     */
+    public int[][] getDistanceMatrix() {
+        int natoms = atoms.size();
+        int[][] distances = new int[natoms][];
+        int[] queue = new int[natoms];
+        for (int i = 0; i < natoms; i++) {
+            distances[i] = new int[natoms];
+            Arrays.fill(distances[i], -1);
+            search(i, distances[i], null, queue);
+        }
+        return distances;
+    }
+
+    /** bonds of a breadth-first spanning forest.
+     * one tree per component, rooted at its lowest-indexed atom; the other
+     * bonds (getBondCount() minus these) each close one independent cycle.
+     *
+     * @return bond indexes (atoms - components of them) in order found
+     */
+    public int[] getSpanningTreeBonds() {
+        int natoms = atoms.size();
+        int[] treeBonds = new int[natoms - componentCount];
+        boolean[] seen = new boolean[natoms];
+        int[] queue = new int[natoms];
+        int count = 0;
+        for (int root = 0; root < natoms; root++) {
+            if (seen[root]) {
+                continue;
+            }
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = root;
+            seen[root] = true;
+            while (head < tail) {
+                int v = queue[head++];
+                for (int k = start[v]; k < start[v + 1]; k++) {
+                    int w = neighbour[k];
+                    if (!seen[w]) {
+                        seen[w] = true;
+                        treeBonds[count++] = edge[k];
+                        queue[tail++] = w;
+                    }
+                }
+            }
+        }
+        return treeBonds;
+    }
+
+    /** atoms as CMLAtoms.
+     *
+     * @param indexes atom indexes
+     * @return atoms
+     */
+    public List<CMLAtom> getAtoms(int[] indexes) {
+        List<CMLAtom> atomList = new ArrayList<CMLAtom>(indexes.length);
+        for (int i : indexes) {
+            atomList.add(atoms.get(i));
+        }
+        return atomList;
+    }
+
+    /** bonds as CMLBonds.
+     *
+     * @param indexes bond indexes
+     * @return bonds
+     */
+    public List<CMLBond> getBonds(int[] indexes) {
+        List<CMLBond> bondList = new ArrayList<CMLBond>(indexes.length);
+        for (int e : indexes) {
+            bondList.add(bonds.get(e));
+        }
+        return bondList;
+    }
+
+    // shared arrays for MoleculeRings; not copied so must not be changed
+
+    int[] getStart() {
+        return start;
+    }
+
+    int[] getNeighbourArray() {
+        return neighbour;
+    }
+
+    int[] getEdgeArray() {
+        return edge;
+    }
+
+    /** breadth-first search filling distance (which must be -1 for unvisited).
+     * @param root
+     * @param distance
+     * @param parent if not null receives the atom each was reached from
+     * @param queue workspace of atoms length
+     */
+    private void search(int root, int[] distance, int[] parent, int[] queue) {
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = root;
+        distance[root] = 0;
+        if (parent != null) {
+            parent[root] = -1;
+        }
+        while (head < tail) {
+            int v = queue[head++];
+            for (int k = start[v]; k < start[v + 1]; k++) {
+                int w = neighbour[k];
+                if (distance[w] == -1) {
+                    distance[w] = distance[v] + 1;
+                    if (parent != null) {
+                        parent[w] = v;
+                    }
+                    queue[tail++] = w;
+                }
+            }
+        }
+    }
+
+    private void makeAtoms(List<CMLAtom> atomList) {
+        atoms = atomList;
+        int natoms = atoms.size();
+        atomIndex = new IdentityHashMap<CMLAtom, Integer>();
+        atomicNumber = new int[natoms];
+        for (int i = 0; i < natoms; i++) {
+            CMLAtom atom = atoms.get(i);
+            atomIndex.put(atom, i);
+            atomicNumber[i] = (atom.getElementType() == null) ? 0 : atom.getAtomicNumber();
+        }
+    }
+
+    private void makeBonds(List<CMLBond> bondList) {
+        int natoms = atoms.size();
+        List<CMLBond> bondsKept = new ArrayList<CMLBond>(bondList.size());
+        bondIndex = new IdentityHashMap<CMLBond, Integer>();
+        int[] ends = new int[2 * bondList.size()];
+        Set<Long> pairs = new HashSet<Long>();
+        int[] degree = new int[natoms];
+        for (CMLBond bond : bondList) {
+            Integer a0 = atomIndex.get(bond.getAtom(0));
+            Integer a1 = atomIndex.get(bond.getAtom(1));
+            if (a0 == null || a1 == null || a0.intValue() == a1.intValue()) {
+                continue;
+            }
+            int lo = Math.min(a0, a1);
+            int hi = Math.max(a0, a1);
+            if (!pairs.add(((long) lo << 32) | hi)) {
+                continue;
+            }
+            int e = bondsKept.size();
+            bondIndex.put(bond, e);
+            bondsKept.add(bond);
+            ends[2 * e] = a0;
+            ends[2 * e + 1] = a1;
+            degree[a0]++;
+            degree[a1]++;
+        }
+        bonds = Collections.unmodifiableList(bondsKept);
+        int nbonds = bonds.size();
+        bondAtoms = Arrays.copyOf(ends, 2 * nbonds);
+        bondOrder = new byte[nbonds];
+        for (int e = 0; e < nbonds; e++) {
+            bondOrder[e] = (byte) getOrderCode(bonds.get(e).getOrder());
+        }
+        start = new int[natoms + 1];
+        for (int i = 0; i < natoms; i++) {
+            start[i + 1] = start[i] + degree[i];
+        }
+        neighbour = new int[start[natoms]];
+        edge = new int[start[natoms]];
+        int[] next = Arrays.copyOf(start, natoms);
+        for (int e = 0; e < nbonds; e++) {
+            int a0 = bondAtoms[2 * e];
+            int a1 = bondAtoms[2 * e + 1];
+            neighbour[next[a0]] = a1;
+            edge[next[a0]++] = e;
+            neighbour[next[a1]] = a0;
+            edge[next[a1]++] = e;
+        }
+    }
+
+    private static int getOrderCode(String order) {
+        if (order == null) {
+            return ORDER_UNKNOWN;
+        } else if (CMLBond.SINGLE_S.equals(order)) {
+            return 1;
+        } else if (CMLBond.DOUBLE_D.equals(order)) {
+            return 2;
+        } else if (CMLBond.TRIPLE_T.equals(order)) {
+            return 3;
+        } else if (CMLBond.AROMATIC.equals(order)) {
+            return ORDER_AROMATIC;
+        }
+        return ORDER_UNKNOWN;
+    }
+
+    private void makeComponents() {
+        int natoms = atoms.size();
+        component = new int[natoms];
+        Arrays.fill(component, -1);
+        int[] queue = new int[natoms];
+        componentCount = 0;
+        for (int root = 0; root < natoms; root++) {
+            if (component[root] != -1) {
+                continue;
+            }
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = root;
+            component[root] = componentCount;
+            while (head < tail) {
+                int v = queue[head++];
+                for (int k = start[v]; k < start[v + 1]; k++) {
+                    int w = neighbour[k];
+                    if (component[w] == -1) {
+                        component[w] = componentCount;
+                        queue[tail++] = w;
+                    }
+                }
+            }
+            componentCount++;
+        }
+    }
+}
@@ -0,0 +1,582 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.element;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * rings of a molecule: the smallest set of smallest rings (SSSR).
+ * <p>
+ * The SSSR is a minimum cycle basis of the bond graph: as many rings as
+ * the graph has independent cycles (bonds - atoms + components), each as
+ * small as possible. Bridges and chains are removed so that only ring
+ * bonds are left; for each ring system candidate cycles made of shortest
+ * paths (Vismara's prototypes) are taken in order of size and kept if
+ * independent (over GF(2), as bond bitsets) of those kept so far. A ring
+ * system that is a single cycle, such as a macrocycle, is read off
+ * directly.
+ * </p>
+ * <p>
+ * The bond graph is taken from CMLMolecule.getGraph() (a MoleculeGraph).
+ * CMLMolecule.getRings() keeps the result until atoms or bonds are added
+ * or removed; changing atomRefs2 of an existing bond is not seen.
+ * </p>
+ * <p>
+ * The SSSR of a molecule is not always unique (for example cubane has six
+ * equivalent 4-rings of which five are chosen); which ones are chosen
+ * depends on the order of the atoms.
+ * </p>
+ */
+public class MoleculeRings {
+
+    /** a ring as atoms and bonds in cyclic order.
+     * bond i joins atom i and atom i+1 (and the last bond the last and
+     * first atoms)
+     */
+    public static class Ring {
+        private List<CMLAtom> atoms;
+        private List<CMLBond> bonds;
+
+        Ring(List<CMLAtom> atoms, List<CMLBond> bonds) {
+            this.atoms = Collections.unmodifiableList(atoms);
+            this.bonds = Collections.unmodifiableList(bonds);
+        }
+
+        /**
+         * @return atoms in cyclic order
+         */
+        public List<CMLAtom> getAtoms() {
+            return atoms;
+        }
+
+        /**
+         * @return bonds in cyclic order
+         */
+        public List<CMLBond> getBonds() {
+            return bonds;
+        }
+
+        /**
+         * @return number of atoms
+         */
+        public int size() {
+            return atoms.size();
+        }
+
+        /**
+         * @param atom
+         * @return true if atom is in ring
+         */
+        public boolean contains(CMLAtom atom) {
+            for (CMLAtom a : atoms) {
+                if (a == atom) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @param bond
+         * @return true if bond is in ring
+         */
+        public boolean contains(CMLBond bond) {
+            for (CMLBond b : bonds) {
+                if (b == bond) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return atom ids separated by spaces
+         */
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (CMLAtom atom : atoms) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(atom.getId());
+            }
+            return sb.toString();
+        }
+    }
+
+    /** candidate cycle. */
+    private static class Cycle {
+        // local atoms in cyclic order
+        int[] vertices;
+        // local edges, edge i joins vertex i and i+1
+        int[] edges;
+
+        Cycle(int[] vertices, int[] edges) {
+            this.vertices = vertices;
+            this.edges = edges;
+        }
+
+        /**
+         * @param nedges bonds in ring system
+         * @return new bitset of edges
+         */
+        long[] getBits(int nedges) {
+            long[] bits = new long[(nedges + 63) >> 6];
+            for (int e : edges) {
+                bits[e >> 6] |= 1L << (e & 63);
+            }
+            return bits;
+        }
+    }
+
+    private final static Comparator<Cycle> SIZE_ORDER = new Comparator<Cycle>() {
+        public int compare(Cycle c1, Cycle c2) {
+            return c1.vertices.length - c2.vertices.length;
+        }
+    };
+
+    private MoleculeGraph graph;
+    // from graph: neighbours of atom i are neighbour[start[i]..start[i+1]),
+    // joined by the bonds edge[...]
+    private int[] start;
+    private int[] neighbour;
+    private int[] edge;
+    private boolean[] ringAtom;
+    private boolean[] ringBond;
+    private List<Ring> sssr;
+    // rings of sssr containing each atom (null if none)
+    private List<List<Ring>> atomRings;
+
+    /** finds the rings of a molecule.
+     * usually called through CMLMolecule.getRings() which caches the result
+     *
+     * @param molecule
+     */
+    public MoleculeRings(CMLMolecule molecule) {
+        graph = molecule.getGraph();
+        start = graph.getStart();
+        neighbour = graph.getNeighbourArray();
+        edge = graph.getEdgeArray();
+        findRingBonds();
+        sssr = new ArrayList<Ring>();
+        // shared by all ring systems; see findSSSR()
+        int[] local = new int[graph.getAtomCount()];
+        int[] localEdge = new int[graph.getBondCount()];
+        Arrays.fill(localEdge, -1);
+        for (int[] system : getRingSystems()) {
+            findSSSR(system, local, localEdge);
+        }
+        Collections.sort(sssr, new Comparator<Ring>() {
+            public int compare(Ring r1, Ring r2) {
+                return r1.size() - r2.size();
+            }
+        });
+        sssr = Collections.unmodifiableList(sssr);
+        int natoms = graph.getAtomCount();
+        atomRings = new ArrayList<List<Ring>>(natoms);
+        for (int i = 0; i < natoms; i++) {
+            atomRings.add(null);
+        }
+        for (Ring ring : sssr) {
+            for (CMLAtom atom : ring.getAtoms()) {
+                int i = graph.getAtomIndex(atom);
+                if (atomRings.get(i) == null) {
+                    atomRings.set(i, new ArrayList<Ring>(2));
+                }
+                atomRings.get(i).add(ring);
+            }
+        }
+    }
+
+    /**
+     * @return smallest set of smallest rings, smallest first
+     */
+    public List<Ring> getSSSR() {
+        return sssr;
+    }
+
+    /**
+     * @return number of rings in SSSR (bonds - atoms + components)
+     */
+    public int getRingCount() {
+        return sssr.size();
+    }
+
+    /**
+     * @param atom
+     * @return true if atom is in any ring (not only those in the SSSR)
+     */
+    public boolean isInRing(CMLAtom atom) {
+        int i = graph.getAtomIndex(atom);
+        return i != -1 && ringAtom[i];
+    }
+
+    /**
+     * @param bond
+     * @return true if bond is in any ring (i.e. is not a bridge)
+     */
+    public boolean isInRing(CMLBond bond) {
+        int e = graph.getBondIndex(bond);
+        return e != -1 && ringBond[e];
+    }
+
+    /**
+     * @param atom
+     * @return rings of the SSSR containing atom, smallest first (may be empty)
+     */
+    public List<Ring> getRings(CMLAtom atom) {
+        int i = graph.getAtomIndex(atom);
+        List<Ring> rings = (i == -1) ? null : atomRings.get(i);
+        return (rings == null) ? Collections.<Ring>emptyList() : Collections.unmodifiableList(rings);
+    }
+
+    /**
+     * @param atom
+     * @return size of smallest ring of SSSR containing atom or 0
+     */
+    public int getSmallestRingSize(CMLAtom atom) {
+        List<Ring> rings = getRings(atom);
+        return rings.isEmpty() ? 0 : rings.get(0).size();
+    }
+
+    /** marks bonds that are not bridges, by depth-first search with low links.
+     * iterative so that long chains do not overflow the stack
+     */
+    private void findRingBonds() {
+        int natoms = graph.getAtomCount();
+        ringAtom = new boolean[natoms];
+        ringBond = new boolean[graph.getBondCount()];
+        int[] order = new int[natoms];
+        int[] low = new int[natoms];
+        int[] parentEdge = new int[natoms];
+        int[] pos = new int[natoms];
+        int[] stack = new int[natoms];
+        Arrays.fill(order, -1);
+        int counter = 0;
+        for (int root = 0; root < natoms; root++) {
+            if (order[root] != -1) {
+                continue;
+            }
+            int depth = 0;
+            stack[0] = root;
+            order[root] = low[root] = counter++;
+            parentEdge[root] = -1;
+            pos[root] = start[root];
+            while (depth >= 0) {
+                int v = stack[depth];
+                if (pos[v] < start[v + 1]) {
+                    int k = pos[v]++;
+                    int w = neighbour[k];
+                    if (edge[k] == parentEdge[v]) {
+                        continue;
+                    }
+                    if (order[w] == -1) {
+                        order[w] = low[w] = counter++;
+                        parentEdge[w] = edge[k];
+                        pos[w] = start[w];
+                        stack[++depth] = w;
+                    } else {
+                        low[v] = Math.min(low[v], order[w]);
+                    }
+                } else {
+                    depth--;
+                    if (depth >= 0) {
+                        int u = stack[depth];
+                        low[u] = Math.min(low[u], low[v]);
+                        if (low[v] <= order[u]) {
+                            ringBond[parentEdge[v]] = true;
+                        }
+                    }
+                }
+            }
+        }
+        // back edges are ring bonds too; they were never a parentEdge
+        for (int v = 0; v < natoms; v++) {
+            for (int k = start[v]; k < start[v + 1]; k++) {
+                int w = neighbour[k];
+                if (edge[k] != parentEdge[v] && edge[k] != parentEdge[w]) {
+                    ringBond[edge[k]] = true;
+                }
+            }
+        }
+        for (int v = 0; v < natoms; v++) {
+            for (int k = start[v]; k < start[v + 1]; k++) {
+                if (ringBond[edge[k]]) {
+                    ringAtom[v] = true;
+                }
+            }
+        }
+    }
+
+    /** groups ring atoms connected by ring bonds.
+     * @return atoms of each ring system
+     */
+    private List<int[]> getRingSystems() {
+        List<int[]> systems = new ArrayList<int[]>();
+        int natoms = graph.getAtomCount();
+        boolean[] seen = new boolean[natoms];
+        int[] queue = new int[natoms];
+        for (int root = 0; root < natoms; root++) {
+            if (!ringAtom[root] || seen[root]) {
+                continue;
+            }
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = root;
+            seen[root] = true;
+            while (head < tail) {
+                int v = queue[head++];
+                for (int k = start[v]; k < start[v + 1]; k++) {
+                    int w = neighbour[k];
+                    if (ringBond[edge[k]] && !seen[w]) {
+                        seen[w] = true;
+                        queue[tail++] = w;
+                    }
+                }
+            }
+            int[] system = Arrays.copyOf(queue, tail);
+            Arrays.sort(system);
+            systems.add(system);
+        }
+        return systems;
+    }
+
+    /** adds the SSSR of one ring system.
+     * only the entries of local and localEdge for the atoms and ring
+     * bonds of system are set or read. Ring systems share no atoms or
+     * ring bonds so the arrays need not be reset between systems.
+     *
+     * @param system atoms (sorted)
+     * @param local scratch, local number of each atom
+     * @param localEdge scratch, -1 until set; local number of each bond
+     */
+    private void findSSSR(int[] system, int[] local, int[] localEdge) {
+        int nv = system.length;
+        for (int i = 0; i < nv; i++) {
+            local[system[i]] = i;
+        }
+        // local graph of ring bonds
+        int[] lstart = new int[nv + 1];
+        for (int i = 0; i < nv; i++) {
+            int v = system[i];
+            int deg = 0;
+            for (int k = start[v]; k < start[v + 1]; k++) {
+                if (ringBond[edge[k]]) {
+                    deg++;
+                }
+            }
+            lstart[i + 1] = lstart[i] + deg;
+        }
+        int[] lneighbour = new int[lstart[nv]];
+        int[] ledge = new int[lstart[nv]];
+        // local edge numbers in order of first sight
+        List<Integer> globalEdge = new ArrayList<Integer>();
+        for (int i = 0, kk = 0; i < nv; i++) {
+            int v = system[i];
+            for (int k = start[v]; k < start[v + 1]; k++) {
+                int e = edge[k];
+                if (ringBond[e]) {
+                    if (localEdge[e] == -1) {
+                        localEdge[e] = globalEdge.size();
+                        globalEdge.add(e);
+                    }
+                    lneighbour[kk] = local[neighbour[k]];
+                    ledge[kk++] = localEdge[e];
+                }
+            }
+        }
+        int ne = globalEdge.size();
+        int nu = ne - nv + 1;
+        if (nu == 1) {
+            addRing(system, globalEdge, walkCycle(lstart, lneighbour, ledge, nv));
+            return;
+        }
+        List<Cycle> candidates = getCandidates(lstart, lneighbour, ledge, nv);
+        Collections.sort(candidates, SIZE_ORDER);
+        List<long[]> basis = new ArrayList<long[]>(nu);
+        List<Integer> pivots = new ArrayList<Integer>(nu);
+        for (Cycle cycle : candidates) {
+            long[] v = cycle.getBits(ne);
+            for (int b = 0; b < basis.size(); b++) {
+                int p = pivots.get(b);
+                if ((v[p >> 6] & (1L << (p & 63))) != 0) {
+                    long[] bv = basis.get(b);
+                    for (int w = 0; w < v.length; w++) {
+                        v[w] ^= bv[w];
+                    }
+                }
+            }
+            int pivot = lowestBit(v);
+            if (pivot >= 0) {
+                basis.add(v);
+                pivots.add(pivot);
+                addRing(system, globalEdge, cycle);
+                if (basis.size() == nu) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /** the only cycle of a ring system with one ring.
+     * every atom has exactly two ring bonds
+     */
+    private Cycle walkCycle(int[] lstart, int[] lneighbour, int[] ledge, int nv) {
+        int[] vertices = new int[nv];
+        int[] edges = new int[nv];
+        int prevEdge = -1;
+        int v = 0;
+        for (int i = 0; i < nv; i++) {
+            vertices[i] = v;
+            int k = (ledge[lstart[v]] != prevEdge) ? lstart[v] : lstart[v] + 1;
+            edges[i] = ledge[k];
+            prevEdge = ledge[k];
+            v = lneighbour[k];
+        }
+        return new Cycle(vertices, edges);
+    }
+
+    /** candidate cycles (Vismara's prototypes).
+     * <p>
+     * For each root the search only visits atoms of lower index, so each
+     * cycle is found from its highest atom. With d the distance from the
+     * root, a candidate is either two shortest paths to the ends y, z of a
+     * bond with d(y) == d(z), or two shortest paths to neighbours y, z of
+     * an atom p with d(y) == d(z) == d(p) - 1, if the paths only meet at
+     * the root. These contain a minimum cycle basis.
+     * </p>
+     */
+    private List<Cycle> getCandidates(int[] lstart, int[] lneighbour, int[] ledge, int nv) {
+        List<Cycle> candidates = new ArrayList<Cycle>();
+        int[] dist = new int[nv];
+        int[] pred = new int[nv];
+        int[] predEdge = new int[nv];
+        // child of root on the tree path to each atom; tree paths to y and
+        // z only meet at the root if they start in different branches
+        int[] branch = new int[nv];
+        int[] queue = new int[nv];
+        Arrays.fill(dist, -1);
+        for (int root = 0; root < nv; root++) {
+            dist[root] = 0;
+            pred[root] = -1;
+            predEdge[root] = -1;
+            branch[root] = root;
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = root;
+            while (head < tail) {
+                int v = queue[head++];
+                for (int k = lstart[v]; k < lstart[v + 1]; k++) {
+                    int w = lneighbour[k];
+                    if (w < root && dist[w] == -1) {
+                        dist[w] = dist[v] + 1;
+                        pred[w] = v;
+                        predEdge[w] = ledge[k];
+                        branch[w] = (v == root) ? w : branch[v];
+                        queue[tail++] = w;
+                    }
+                }
+            }
+            for (int q = 1; q < tail; q++) {
+                int p = queue[q];
+                for (int k = lstart[p]; k < lstart[p + 1]; k++) {
+                    int y = lneighbour[k];
+                    if (y > root || dist[y] == -1) {
+                        continue;
+                    }
+                    if (dist[y] == dist[p] && y < p) {
+                        // odd: bond y-p
+                        if (branch[y] != branch[p]) {
+                            candidates.add(makeCycle(root, y, -1, ledge[k], p, -1, dist, pred, predEdge));
+                        }
+                    } else if (dist[y] == dist[p] - 1) {
+                        // even: y-p-z
+                        for (int kz = k + 1; kz < lstart[p + 1]; kz++) {
+                            int z = lneighbour[kz];
+                            if (z <= root && dist[z] == dist[y]) {
+                                if (branch[y] != branch[z]) {
+                                    candidates.add(makeCycle(root, y, p, ledge[k], z, ledge[kz],
+                                            dist, pred, predEdge));
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            for (int q = 0; q < tail; q++) {
+                dist[queue[q]] = -1;
+            }
+        }
+        return candidates;
+    }
+
+    /** cycle root ... y [p] z ... root.
+     * @param p middle atom of an even cycle or -1
+     * @param e1 bond from y (to p or z)
+     * @param e2 bond from p to z or -1
+     */
+    private static Cycle makeCycle(int root, int y, int p, int e1, int z, int e2,
+            int[] dist, int[] pred, int[] predEdge) {
+        int size = dist[y] + dist[z] + ((p == -1) ? 1 : 2);
+        int[] vertices = new int[size];
+        int[] edges = new int[size];
+        // root ... y
+        int i = dist[y];
+        for (int u = y; u != root; u = pred[u]) {
+            vertices[i] = u;
+            edges[i - 1] = predEdge[u];
+            i--;
+        }
+        vertices[0] = root;
+        i = dist[y];
+        edges[i++] = e1;
+        if (p != -1) {
+            vertices[i] = p;
+            edges[i++] = e2;
+        }
+        // z ... back to root
+        for (int u = z; u != root; u = pred[u]) {
+            vertices[i] = u;
+            edges[i] = predEdge[u];
+            i++;
+        }
+        return new Cycle(vertices, edges);
+    }
+
+    private void addRing(int[] system, List<Integer> globalEdge, Cycle cycle) {
+        List<CMLAtom> ringAtoms = new ArrayList<CMLAtom>(cycle.vertices.length);
+        List<CMLBond> ringBonds = new ArrayList<CMLBond>(cycle.edges.length);
+        for (int i = 0; i < cycle.vertices.length; i++) {
+            ringAtoms.add(graph.getAtom(system[cycle.vertices[i]]));
+            ringBonds.add(graph.getBond(globalEdge.get(cycle.edges[i])));
+        }
+        sssr.add(new Ring(ringAtoms, ringBonds));
+    }
+
+    private static int lowestBit(long[] v) {
+        for (int w = 0; w < v.length; w++) {
+            if (v[w] != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(v[w]);
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.element;
+
+import nu.xom.Element;
+import nu.xom.Node;
+import nu.xom.Text;
+
+/**
+ * values parsed from the text content of an array or matrix.
+ * <p>
+ * The values belong to the single Text child they were parsed from, with
+ * the dataType and delimiter in force at the time. setXMLContent() and the
+ * other setters replace the Text child, so checking that the values are
+ * still current is O(1). Changing the value of the Text node in place
+ * (Text.setValue()) is not seen.
+ * </p>
+ * <p>
+ * The values are shared; callers must copy them before handing them out.
+ * </p>
+ */
+class ParsedContent {
+
+    private Node source;
+    private String dataType;
+    private String delimiter;
+    private Object values;
+
+    /** values parsed from the current content.
+     *
+     * @param element owning the content
+     * @param dataType current dataType
+     * @param delimiter current delimiter (may be null)
+     * @return values or null if not parsed or content has changed
+     */
+    Object getValues(Element element, String dataType, String delimiter) {
+        if (values != null &&
+                element.getChildCount() == 1 && element.getChild(0) == source &&
+                dataType.equals(this.dataType) &&
+                (delimiter == null ? this.delimiter == null : delimiter.equals(this.delimiter))) {
+            return values;
+        }
+        return null;
+    }
+
+    /** remembers values parsed from the current content.
+     * not kept unless the content is a single Text node
+     *
+     * @param element owning the content
+     * @param dataType current dataType
+     * @param delimiter current delimiter (may be null)
+     * @param values parsed values
+     */
+    void setValues(Element element, String dataType, String delimiter, Object values) {
+        if (element.getChildCount() == 1 && element.getChild(0) instanceof Text) {
+            this.source = element.getChild(0);
+            this.dataType = dataType;
+            this.delimiter = delimiter;
+            this.values = values;
+        } else {
+            clear();
+        }
+    }
+
+    /** forgets the values.
+     */
+    void clear() {
+        source = null;
+        values = null;
+    }
+}
@@ -0,0 +1,510 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.element;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.xmlcml.cml.base.CMLConstants;
+import org.xmlcml.cml.base.CMLElements;
+import org.xmlcml.cml.element.CMLTable.TableType;
+import org.xmlcml.cml.interfacex.HasArraySize;
+
+/**
+ * read-only columnar view of the arrays in an arrayList or columnBased table.
+ * rowBased and contentBased tables are parsed from their cells.
+ * <p>
+ * Each column is held as the primitive array parsed by its CMLArray
+ * (double[] for xsd:double, int[] for xsd:integer, String[] for
+ * xsd:string...). CMLArray keeps the values it has parsed, so making a
+ * view of an unchanged arrayList again does not re-parse it, and the
+ * view never goes through List&lt;String&gt;.
+ * </p>
+ * <p>
+ * getRows() and getColumns() return views sharing the same values, so
+ * slicing does not copy. The getXXXColumn() methods return copies of the
+ * rows in the view.
+ * </p>
+ * <p>
+ * A view is a snapshot: later changes to the arrays are not seen (the
+ * arrays parse new values instead of changing the old ones).
+ * </p>
+ * <pre>
+ * TableColumns columns = table.getTableColumns();
+ * double[] x = columns.getDoubleColumn(columns.getColumnIndex("x"));
+ * ...
+ * CMLTable table = new TableColumns.Builder()
+ *     .addColumn("x", x).addColumn("count", counts).addColumn("label", labels)
+ *     .createTable();
+ * </pre>
+ */
+public final class TableColumns {
+
+    // shared with the arrays or the builder; never modified
+    private final Object[] values;
+    private final String[] dataTypes;
+    private final String[] ids;
+    private final String[] dictRefs;
+    private final int rowOffset;
+    private final int rowCount;
+
+    private TableColumns(Object[] values, String[] dataTypes, String[] ids,
+            String[] dictRefs, int rowOffset, int rowCount) {
+        this.values = values;
+        this.dataTypes = dataTypes;
+        this.ids = ids;
+        this.dictRefs = dictRefs;
+        this.rowOffset = rowOffset;
+        this.rowCount = rowCount;
+    }
+
+    /** view of the arrays and lists in an arrayList.
+     * lists are read as strings.
+     *
+     * @param arrayList
+     * @return view
+     * @throws RuntimeException if columns have different lengths
+     */
+    public static TableColumns createTableColumns(CMLArrayList arrayList) {
+        List<HasArraySize> columns = arrayList.getArrays();
+        int ncols = columns.size();
+        Object[] values = new Object[ncols];
+        String[] dataTypes = new String[ncols];
+        String[] ids = new String[ncols];
+        String[] dictRefs = new String[ncols];
+        int rows = (ncols == 0) ? 0 : -1;
+        for (int j = 0; j < ncols; j++) {
+            HasArraySize column = columns.get(j);
+            if (column instanceof CMLArray) {
+                CMLArray array = (CMLArray) column;
+                values[j] = array.getParsedPrimitiveArray();
+                dataTypes[j] = array.getDataType();
+                ids[j] = array.getId();
+                dictRefs[j] = array.getDictRef();
+            } else {
+                CMLList list = (CMLList) column;
+                values[j] = list.getStringValues().toArray(new String[0]);
+                dataTypes[j] = CMLConstants.XSD_STRING;
+                ids[j] = list.getId();
+                dictRefs[j] = list.getDictRef();
+            }
+            int nr = length(values[j]);
+            if (rows == -1) {
+                rows = nr;
+            } else if (rows != nr) {
+                throw new RuntimeException("inconsistent row lengths: " + rows + CMLConstants.S_SLASH
+                        + nr);
+            }
+        }
+        return new TableColumns(values, dataTypes, ids, dictRefs, 0, rows);
+    }
+
+    /** view of the cells of a rowBased or contentBased table.
+     * the dataType, id and dictRef of each column come from its header
+     * cell. xsd:double, xsd:integer and xsd:boolean cells are parsed; other
+     * cells (and columns without a dataType) are kept as strings.
+     *
+     * @param header
+     * @param cells values as cells[row][column]
+     * @return view
+     * @throws RuntimeException if a row does not match the header or a
+     *     cell cannot be parsed
+     */
+    static TableColumns createTableColumns(CMLTableHeader header, String[][] cells) {
+        CMLElements<CMLTableHeaderCell> headerCells = header.getTableHeaderCellElements();
+        int ncols = headerCells.size();
+        int rows = cells.length;
+        for (int i = 0; i < rows; i++) {
+            if (cells[i].length != ncols) {
+                throw new RuntimeException("row " + i + " has " + cells[i].length
+                        + " cells; header has " + ncols);
+            }
+        }
+        Object[] values = new Object[ncols];
+        String[] dataTypes = new String[ncols];
+        String[] ids = new String[ncols];
+        String[] dictRefs = new String[ncols];
+        for (int j = 0; j < ncols; j++) {
+            CMLTableHeaderCell headerCell = headerCells.get(j);
+            String dataType = (headerCell.getDataTypeAttribute() == null)
+                ? CMLConstants.XSD_STRING : headerCell.getDataType();
+            values[j] = parseColumn(cells, j, dataType);
+            dataTypes[j] = dataType;
+            ids[j] = headerCell.getId();
+            dictRefs[j] = headerCell.getDictRef();
+        }
+        return new TableColumns(values, dataTypes, ids, dictRefs, 0, rows);
+    }
+
+    private static Object parseColumn(String[][] cells, int col, String dataType) {
+        int rows = cells.length;
+        try {
+            if (CMLConstants.XSD_DOUBLE.equals(dataType)) {
+                double[] column = new double[rows];
+                for (int i = 0; i < rows; i++) {
+                    column[i] = Double.parseDouble(cells[i][col].trim());
+                }
+                return column;
+            } else if (CMLConstants.XSD_INTEGER.equals(dataType)) {
+                int[] column = new int[rows];
+                for (int i = 0; i < rows; i++) {
+                    column[i] = Integer.parseInt(cells[i][col].trim());
+                }
+                return column;
+            } else if (CMLConstants.XSD_BOOLEAN.equals(dataType)) {
+                boolean[] column = new boolean[rows];
+                for (int i = 0; i < rows; i++) {
+                    column[i] = Boolean.parseBoolean(cells[i][col].trim());
+                }
+                return column;
+            }
+        } catch (NumberFormatException nfe) {
+            throw new RuntimeException("column " + col + ": " + nfe.getMessage(), nfe);
+        }
+        String[] column = new String[rows];
+        for (int i = 0; i < rows; i++) {
+            column[i] = cells[i][col];
+        }
+        return column;
+    }
+
+    private static int length(Object values) {
+        return (values == null) ? 0 : Array.getLength(values);
+    }
+
+    /**
+     * @return number of rows in view
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return number of columns in view
+     */
+    public int getColumnCount() {
+        return values.length;
+    }
+
+    /**
+     * @param col
+     * @return normalized dataType such as xsd:double
+     */
+    public String getDataType(int col) {
+        return dataTypes[col];
+    }
+
+    /**
+     * @param col
+     * @return id of column (may be null)
+     */
+    public String getId(int col) {
+        return ids[col];
+    }
+
+    /**
+     * @param col
+     * @return dictRef of column (may be null)
+     */
+    public String getDictRef(int col) {
+        return dictRefs[col];
+    }
+
+    /** finds column by id or, failing that, dictRef.
+     *
+     * @param idOrDictRef
+     * @return index of first matching column or -1
+     */
+    public int getColumnIndex(String idOrDictRef) {
+        if (idOrDictRef != null) {
+            for (int j = 0; j < ids.length; j++) {
+                if (idOrDictRef.equals(ids[j])) {
+                    return j;
+                }
+            }
+            for (int j = 0; j < dictRefs.length; j++) {
+                if (idOrDictRef.equals(dictRefs[j])) {
+                    return j;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param row
+     * @param col xsd:double or xsd:integer column
+     * @return value
+     * @throws RuntimeException if column is not numeric
+     */
+    public double getDouble(int row, int col) {
+        Object column = values[col];
+        int i = index(row);
+        if (column instanceof double[]) {
+            return ((double[]) column)[i];
+        } else if (column instanceof int[]) {
+            return ((int[]) column)[i];
+        }
+        throw new RuntimeException("column " + col + " is not numeric: " + dataTypes[col]);
+    }
+
+    /**
+     * @param row
+     * @param col xsd:integer column
+     * @return value
+     * @throws RuntimeException if column is not xsd:integer
+     */
+    public int getInt(int row, int col) {
+        return intValues(col)[index(row)];
+    }
+
+    /** gets value as string.
+     * numbers are converted as in CMLArray.getStringValues()
+     *
+     * @param row
+     * @param col any column
+     * @return value
+     */
+    public String getString(int row, int col) {
+        Object column = values[col];
+        int i = index(row);
+        if (column instanceof String[]) {
+            return ((String[]) column)[i];
+        } else if (column instanceof double[]) {
+            return CMLConstants.S_EMPTY + ((double[]) column)[i];
+        } else if (column instanceof int[]) {
+            return CMLConstants.S_EMPTY + ((int[]) column)[i];
+        } else if (column instanceof boolean[]) {
+            return CMLConstants.S_EMPTY + ((boolean[]) column)[i];
+        }
+        return String.valueOf(((Object[]) column)[i]);
+    }
+
+    /**
+     * @param col xsd:double or xsd:integer column
+     * @return copy of values in view
+     * @throws RuntimeException if column is not numeric
+     */
+    public double[] getDoubleColumn(int col) {
+        Object column = values[col];
+        if (column instanceof double[]) {
+            return Arrays.copyOfRange((double[]) column, rowOffset, rowOffset + rowCount);
+        } else if (column instanceof int[]) {
+            int[] ii = (int[]) column;
+            double[] dd = new double[rowCount];
+            for (int i = 0; i < rowCount; i++) {
+                dd[i] = ii[rowOffset + i];
+            }
+            return dd;
+        }
+        throw new RuntimeException("column " + col + " is not numeric: " + dataTypes[col]);
+    }
+
+    /**
+     * @param col xsd:integer column
+     * @return copy of values in view
+     * @throws RuntimeException if column is not xsd:integer
+     */
+    public int[] getIntColumn(int col) {
+        return Arrays.copyOfRange(intValues(col), rowOffset, rowOffset + rowCount);
+    }
+
+    /**
+     * @param col any column
+     * @return copy of values in view, converted as by getString()
+     */
+    public String[] getStringColumn(int col) {
+        if (values[col] instanceof String[]) {
+            return Arrays.copyOfRange((String[]) values[col], rowOffset, rowOffset + rowCount);
+        }
+        String[] ss = new String[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            ss[i] = getString(i, col);
+        }
+        return ss;
+    }
+
+    /** view of a range of rows. does not copy values.
+     *
+     * @param start first row
+     * @param end last row (inclusive, as in CMLArray.createSubArray())
+     * @return view
+     * @throws IllegalArgumentException if indexes are out of range
+     */
+    public TableColumns getRows(int start, int end) {
+        if (start < 0 || end >= rowCount || end < start - 1) {
+            throw new IllegalArgumentException("bad row slice indexes "+start+"/"+end+" in "+rowCount);
+        }
+        return new TableColumns(values, dataTypes, ids, dictRefs, rowOffset + start, end - start + 1);
+    }
+
+    /** view of selected columns. does not copy values.
+     * columns can be reordered or repeated
+     *
+     * @param cols indexes of columns in this view
+     * @return view
+     */
+    public TableColumns getColumns(int... cols) {
+        int ncols = cols.length;
+        Object[] newValues = new Object[ncols];
+        String[] newDataTypes = new String[ncols];
+        String[] newIds = new String[ncols];
+        String[] newDictRefs = new String[ncols];
+        for (int j = 0; j < ncols; j++) {
+            newValues[j] = values[cols[j]];
+            newDataTypes[j] = dataTypes[cols[j]];
+            newIds[j] = ids[cols[j]];
+            newDictRefs[j] = dictRefs[cols[j]];
+        }
+        return new TableColumns(newValues, newDataTypes, newIds, newDictRefs, rowOffset, rowCount);
+    }
+
+    /** creates arrayList holding the view.
+     * each array's content is written once from its values
+     *
+     * @return new arrayList
+     */
+    public CMLArrayList createArrayList() {
+        CMLArrayList arrayList = new CMLArrayList();
+        for (int j = 0; j < values.length; j++) {
+            CMLArray array = createArray(j);
+            if (ids[j] != null) {
+                array.setId(ids[j]);
+            }
+            if (dictRefs[j] != null) {
+                array.setDictRef(dictRefs[j]);
+            }
+            arrayList.addArray(array);
+        }
+        return arrayList;
+    }
+
+    private CMLArray createArray(int col) {
+        Object column = values[col];
+        if (column instanceof double[]) {
+            return new CMLArray(getDoubleColumn(col));
+        } else if (column instanceof int[]) {
+            return new CMLArray(getIntColumn(col));
+        } else if (column instanceof boolean[]) {
+            boolean[] bb = new boolean[rowCount];
+            System.arraycopy(column, rowOffset, bb, 0, rowCount);
+            return new CMLArray(bb);
+        }
+        String[] ss = getStringColumn(col);
+        for (String s : ss) {
+            if (s.trim().length() < s.length() || s.indexOf(' ') != -1 || s.length() == 0) {
+                return new CMLArray(ss, CMLConstants.S_PIPE);
+            }
+        }
+        return new CMLArray(ss);
+    }
+
+    /** creates columnBased table holding the view.
+     *
+     * @return new table
+     */
+    public CMLTable createTable() {
+        CMLTable table = new CMLTable();
+        table.appendChild(createArrayList());
+        table.setTableType(TableType.COLUMN_BASED);
+        return table;
+    }
+
+    private int[] intValues(int col) {
+        if (values[col] instanceof int[]) {
+            return (int[]) values[col];
+        }
+        throw new RuntimeException("column " + col + " is not xsd:integer: " + dataTypes[col]);
+    }
+
+    private int index(int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("row " + row + " not in 0-" + (rowCount - 1));
+        }
+        return rowOffset + row;
+    }
+
+    /**
+     * collects primitive columns for a new view or table.
+     * the arrays are copied when added.
+     */
+    public static class Builder {
+
+        private final List<Object> values = new ArrayList<Object>();
+        private final List<String> dataTypes = new ArrayList<String>();
+        private final List<String> ids = new ArrayList<String>();
+        private int rowCount = -1;
+
+        /**
+         * @param id of column (may be null)
+         * @param column
+         * @return this
+         */
+        public Builder addColumn(String id, double[] column) {
+            return add(id, column.clone(), column.length, CMLConstants.XSD_DOUBLE);
+        }
+
+        /**
+         * @param id of column (may be null)
+         * @param column
+         * @return this
+         */
+        public Builder addColumn(String id, int[] column) {
+            return add(id, column.clone(), column.length, CMLConstants.XSD_INTEGER);
+        }
+
+        /**
+         * @param id of column (may be null)
+         * @param column
+         * @return this
+         */
+        public Builder addColumn(String id, String[] column) {
+            return add(id, column.clone(), column.length, CMLConstants.XSD_STRING);
+        }
+
+        private Builder add(String id, Object column, int length, String dataType) {
+            if (rowCount == -1) {
+                rowCount = length;
+            } else if (rowCount != length) {
+                throw new RuntimeException("inconsistent row lengths: " + rowCount + CMLConstants.S_SLASH
+                        + length);
+            }
+            values.add(column);
+            dataTypes.add(dataType);
+            ids.add(id);
+            return this;
+        }
+
+        /**
+         * @return view of the columns added so far
+         */
+        public TableColumns build() {
+            int ncols = values.size();
+            return new TableColumns(values.toArray(), dataTypes.toArray(new String[ncols]),
+                    ids.toArray(new String[ncols]), new String[ncols], 0, Math.max(rowCount, 0));
+        }
+
+        /**
+         * @return new columnBased table
+         */
+        public CMLTable createTable() {
+            return build().createTable();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.base;
+
+import java.io.ByteArrayInputStream;
+
+import org.xmlcml.cml.element.CMLMolecule;
+
+/**
+ * times parsing of a molecule with many id and ref attributes, with and
+ * without CMLBuilder.setTrusted(), and checking the same values against the schema patterns with String.matches() and
+ * with CMLType.checkValue().
+ * <pre>
+ * java -cp ... org.xmlcml.cml.base.AttributeParsingBenchmark [natoms [repeats]]
+ * </pre>
+ * prints the times in milliseconds.
+ */
+public class AttributeParsingBenchmark {
+
+	/** chain of natoms atoms and natoms-1 bonds.
+	 *
+	 * @param natoms
+	 * @return CML
+	 */
+	public static String makeMolecule(int natoms) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<molecule id='m1' "+CMLConstants.CML_XMLNS+"><atomArray>");
+		for (int i = 1; i <= natoms; i++) {
+			sb.append("<atom id='a"+i+"' elementType='C' ref='r:a"+i+"' x3='"+(1.5 * i)+"' y3='0.0' z3='0.0'/>");
+		}
+		sb.append("</atomArray><bondArray>");
+		for (int i = 1; i < natoms; i++) {
+			sb.append("<bond id='b"+i+"' atomRefs2='a"+i+" a"+(i+1)+"' order='1'/>");
+		}
+		sb.append("</bondArray></molecule>");
+		return sb.toString();
+	}
+
+	private static long timeParse(byte[] bytes, int repeats, boolean trusted) throws Exception {
+		long start = System.nanoTime();
+		for (int i = 0; i < repeats; i++) {
+			CMLBuilder builder = new CMLBuilder();
+			builder.setTrusted(trusted);
+			builder.build(new ByteArrayInputStream(bytes));
+		}
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	private static long timeMatches(String[] values, String pattern, int repeats) {
+		long start = System.nanoTime();
+		int count = 0;
+		for (int i = 0; i < repeats; i++) {
+			for (String value : values) {
+				if (value.matches(pattern)) {
+					count++;
+				}
+			}
+		}
+		if (count != values.length * repeats) {
+			throw new RuntimeException("bad match");
+		}
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	private static long timeCheckValue(String[] values, CMLType type, int repeats) {
+		long start = System.nanoTime();
+		for (int i = 0; i < repeats; i++) {
+			for (String value : values) {
+				type.checkValue(value);
+			}
+		}
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	private static CMLType makeType(String pattern) {
+		CMLType type = new CMLType();
+		type.setName(pattern);
+		type.setBase(CMLConstants.XSD_STRING);
+		type.setPattern(pattern);
+		return type;
+	}
+
+	/**
+	 * @param args [natoms [repeats]]
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int natoms = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+		int repeats = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+		byte[] bytes = makeMolecule(natoms).getBytes("UTF-8");
+		// warm up
+		timeParse(bytes, repeats, false);
+		System.out.println("parse: "+natoms+" atoms x "+repeats+": "+timeParse(bytes, repeats, false)+" ms");
+		timeParse(bytes, repeats, true);
+		System.out.println("trusted parse: "+natoms+" atoms x "+repeats+": "+timeParse(bytes, repeats, true)+" ms");
+
+		String[] ids = new String[natoms];
+		String[] refs = new String[natoms];
+		for (int i = 0; i < natoms; i++) {
+			ids[i] = "a"+(i + 1);
+			refs[i] = "r:a"+(i + 1);
+		}
+		// a pattern without a fast path, equivalent to ID_PATTERN
+		String regex = "[A-Za-z][A-Za-z0-9_.\\-]*";
+		repeats *= 10;
+		String[][] valuesList = {ids, refs, ids};
+		String[] patterns = {CMLType.ID_PATTERN, CMLType.REF_PATTERN, regex};
+		for (int i = 0; i < patterns.length; i++) {
+			CMLType type = makeType(patterns[i]);
+			timeMatches(valuesList[i], patterns[i], repeats);
+			timeCheckValue(valuesList[i], type, repeats);
+			int nvalues = valuesList[i].length * repeats;
+			System.out.println(patterns[i]+": "+nvalues+" values; String.matches() "+
+					timeMatches(valuesList[i], patterns[i], repeats)+" ms, checkValue() "+
+					timeCheckValue(valuesList[i], type, repeats)+" ms");
+		}
+	}
+}
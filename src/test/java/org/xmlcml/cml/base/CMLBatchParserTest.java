@@ -0,0 +1,250 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.base;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xmlcml.cml.base.CMLBatchParser.Result;
+import org.xmlcml.cml.element.CMLMolecule;
+
+/**
+ * test CMLBatchParser.
+ */
+public class CMLBatchParserTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static String makeMolecule(int i) {
+		return "<molecule id='m"+i+"' "+CMLConstants.CML_XMLNS+">" +
+				"<atomArray><atom id='a1' elementType='C'/></atomArray></molecule>";
+	}
+
+	private static Map<String, Result> collect(Iterator<Result> results) {
+		Map<String, Result> map = new HashMap<String, Result>();
+		while (results.hasNext()) {
+			Result result = results.next();
+			map.put(result.getName(), result);
+		}
+		return map;
+	}
+
+	/**
+	 * @throws IOException
+	 */
+	@Test
+	public void testParseDirectory() throws IOException {
+		File dir = folder.newFolder("batch");
+		for (int i = 0; i < 20; i++) {
+			FileUtils.writeStringToFile(new File(dir, "mol"+i+".cml"), makeMolecule(i), "UTF-8");
+		}
+		FileUtils.writeStringToFile(new File(dir, "bad.cml"), "<molecule", "UTF-8");
+		FileUtils.writeStringToFile(new File(dir, "readme.txt"), "ignore me", "UTF-8");
+		CMLBatchParser parser = new CMLBatchParser(4);
+		try {
+			Map<String, Result> map = collect(parser.parseDirectory(dir, "*.cml"));
+			Assert.assertEquals("results", 21, map.size());
+			Result result = map.get(new File(dir, "mol7.cml").getPath());
+			Assert.assertTrue("ok", result.isOk());
+			Assert.assertTrue("molecule", result.getElement() instanceof CMLMolecule);
+			Assert.assertEquals("id", "m7", result.getElement().getId());
+			Result bad = map.get(new File(dir, "bad.cml").getPath());
+			Assert.assertFalse("bad", bad.isOk());
+			Assert.assertNotNull("exception", bad.getException());
+			Assert.assertEquals("documents", 20, parser.getDocumentCount());
+			Assert.assertEquals("failures", 1, parser.getFailureCount());
+			Assert.assertTrue("throughput", parser.getDocumentsPerSecond() > 0.0);
+		} finally {
+			parser.shutdown();
+		}
+	}
+
+	/**
+	 * @throws IOException
+	 */
+	@Test
+	public void testParseZip() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ZipOutputStream zos = new ZipOutputStream(baos);
+		for (int i = 0; i < 100; i++) {
+			zos.putNextEntry(new ZipEntry("dir/mol"+i+".xml"));
+			zos.write(makeMolecule(i).getBytes("UTF-8"));
+			zos.closeEntry();
+		}
+		zos.close();
+		// small queue exercises backpressure
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		CMLBatchParser parser = new CMLBatchParser(executor, 2);
+		try {
+			Map<String, Result> map = collect(parser.parseZip(
+					new ByteArrayInputStream(baos.toByteArray()), "**.xml"));
+			Assert.assertEquals("results", 100, map.size());
+			Assert.assertEquals("id", "m42", map.get("dir/mol42.xml").getElement().getId());
+			Assert.assertEquals("failures", 0, parser.getFailureCount());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * @throws IOException
+	 */
+	@Test
+	public void testParseTar() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		for (int i = 0; i < 5; i++) {
+			writeTarEntry(baos, "mol"+i+".cml", makeMolecule(i).getBytes("UTF-8"));
+		}
+		writeTarEntry(baos, "notes.txt", "not cml".getBytes("UTF-8"));
+		baos.write(new byte[1024]);
+		CMLBatchParser parser = new CMLBatchParser(2);
+		try {
+			Map<String, Result> map = collect(parser.parseTar(
+					new ByteArrayInputStream(baos.toByteArray()), "*.cml"));
+			Assert.assertEquals("results", 5, map.size());
+			Assert.assertEquals("id", "m3", map.get("mol3.cml").getElement().getId());
+		} finally {
+			parser.shutdown();
+		}
+	}
+
+	/**
+	 * @throws IOException
+	 */
+	@Test
+	public void testParseTarPax() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		writeTarEntry(baos, "pax_global_header", paxRecord("comment=made by test").getBytes("UTF-8"), 'g');
+		writeTarEntry(baos, "PaxHeaders/mol0", (paxRecord("mtime=1") +
+				paxRecord("path=long/dir/mol0.cml")).getBytes("UTF-8"), 'x');
+		writeTarEntry(baos, "mol0", makeMolecule(0).getBytes("UTF-8"), '0');
+		writeTarEntry(baos, "PaxHeaders/mol1.cml", paxRecord("mtime=1").getBytes("UTF-8"), 'x');
+		writeTarEntry(baos, "mol1.cml", makeMolecule(1).getBytes("UTF-8"), '0');
+		baos.write(new byte[1024]);
+		CMLBatchParser parser = new CMLBatchParser(2);
+		try {
+			Map<String, Result> map = collect(parser.parseTar(
+					new ByteArrayInputStream(baos.toByteArray()), "**.cml"));
+			Assert.assertEquals("results", 2, map.size());
+			Assert.assertEquals("path", "m0", map.get("long/dir/mol0.cml").getElement().getId());
+			Assert.assertEquals("name", "m1", map.get("mol1.cml").getElement().getId());
+			Assert.assertEquals("failures", 0, parser.getFailureCount());
+		} finally {
+			parser.shutdown();
+		}
+	}
+
+	/**
+	 * @throws IOException
+	 */
+	@Test
+	public void testParseTarMagic() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		writeTarEntry(baos, "mol0.cml", makeMolecule(0).getBytes("UTF-8"), '0', "ustar\u000000", "dir");
+		// GNU keeps atime and ctime where ustar has the prefix
+		writeTarEntry(baos, "mol1.cml", makeMolecule(1).getBytes("UTF-8"), '0', "ustar  \u0000", "14023451225");
+		baos.write(new byte[1024]);
+		CMLBatchParser parser = new CMLBatchParser(2);
+		try {
+			Map<String, Result> map = collect(parser.parseTar(
+					new ByteArrayInputStream(baos.toByteArray()), "**.cml"));
+			Assert.assertEquals("results", 2, map.size());
+			Assert.assertEquals("ustar prefix", "m0", map.get("dir/mol0.cml").getElement().getId());
+			Assert.assertEquals("gnu", "m1", map.get("mol1.cml").getElement().getId());
+		} finally {
+			parser.shutdown();
+		}
+	}
+
+	/**
+	 * @throws IOException
+	 */
+	@Test
+	public void testRejectedExecution() throws IOException {
+		File dir = folder.newFolder("rejected");
+		List<File> files = new ArrayList<File>();
+		for (int i = 0; i < 5; i++) {
+			File file = new File(dir, "mol"+i+".cml");
+			FileUtils.writeStringToFile(file, makeMolecule(i), "UTF-8");
+			files.add(file);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		executor.shutdown();
+		CMLBatchParser parser = new CMLBatchParser(executor, 2);
+		Map<String, Result> map = collect(parser.parseFiles(files));
+		Assert.assertEquals("results", 5, map.size());
+		Result result = map.get(files.get(3).getPath());
+		Assert.assertFalse("failed", result.isOk());
+		Assert.assertTrue("rejected", result.getException() instanceof RejectedExecutionException);
+		Assert.assertEquals("failures", 5, parser.getFailureCount());
+	}
+
+	private static String paxRecord(String keyValue) {
+		// length includes its own digits
+		int length = keyValue.length() + 3;
+		length += String.valueOf(length).length() - 1;
+		return length+" "+keyValue+"\n";
+	}
+
+	private static void writeTarEntry(ByteArrayOutputStream baos, String name, byte[] data) throws IOException {
+		writeTarEntry(baos, name, data, '0');
+	}
+
+	private static void writeTarEntry(ByteArrayOutputStream baos, String name, byte[] data, char type) throws IOException {
+		writeTarEntry(baos, name, data, type, null, null);
+	}
+
+	/** magic (with version) goes at 257, prefix (or GNU times) at 345. */
+	private static void writeTarEntry(ByteArrayOutputStream baos, String name, byte[] data, char type,
+			String magic, String prefix) throws IOException {
+		byte[] header = new byte[512];
+		byte[] nameBytes = name.getBytes("UTF-8");
+		System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+		if (magic != null) {
+			byte[] magicBytes = magic.getBytes("UTF-8");
+			System.arraycopy(magicBytes, 0, header, 257, magicBytes.length);
+		}
+		if (prefix != null) {
+			byte[] prefixBytes = prefix.getBytes("UTF-8");
+			System.arraycopy(prefixBytes, 0, header, 345, prefixBytes.length);
+		}
+		byte[] size = String.format("%011o", data.length).getBytes("UTF-8");
+		System.arraycopy(size, 0, header, 124, size.length);
+		header[156] = (byte) type;
+		baos.write(header);
+		baos.write(data);
+		baos.write(new byte[(512 - data.length % 512) % 512]);
+	}
+}
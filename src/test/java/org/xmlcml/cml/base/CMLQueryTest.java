@@ -0,0 +1,124 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.base;
+
+import java.util.Iterator;
+import java.util.List;
+
+import nu.xom.Element;
+import nu.xom.Node;
+import nu.xom.Nodes;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.cml.base.CMLQuery.Axis;
+
+/**
+ * test CMLQuery.
+ */
+public class CMLQueryTest {
+
+	private static String CML = "" +
+		"<cml xmlns='http://www.xml-cml.org/schema' xmlns:foo='http://foo'>" +
+		"  <molecule id='m1'>" +
+		"    <molecule id='m2'>" +
+		"      <atomArray><atom id='a1'/><atom id='a2'/></atomArray>" +
+		"      <foo:atom/>" +
+		"    </molecule>" +
+		"    <atomArray><atom id='a3'/></atomArray>" +
+		"    <peakList><peak id='p1'/><peakGroup><peak id='p2'/></peakGroup><peak id='p3'/></peakList>" +
+		"  </molecule>" +
+		"  <atom xmlns='' id='x'/>" +
+		"</cml>";
+
+	private static void assertSameAsXPath(String path, Node context) {
+		Nodes expected = context.query(path, CMLConstants.CML_XPATH);
+		CMLQuery query = CMLQuery.compile(path);
+		Nodes nodes = query.query(context);
+		Assert.assertEquals(path, expected.size(), nodes.size());
+		Assert.assertEquals(path, expected.size(), query.count(context));
+		List<Element> list = query.list(context);
+		Iterator<Element> iterator = query.iterator(context);
+		for (int i = 0; i < expected.size(); i++) {
+			Assert.assertSame(path, expected.get(i), nodes.get(i));
+			Assert.assertSame(path, expected.get(i), list.get(i));
+			Assert.assertSame(path, expected.get(i), iterator.next());
+		}
+		Assert.assertFalse(path, iterator.hasNext());
+	}
+
+	/**
+	 */
+	@Test
+	public void testCompile() {
+		CMLElement cml = CMLUtil.parseCML(CML);
+		CMLElement atom = cml.getElementsById("a1", false).get(0);
+		CMLElement peakList = (CMLElement) cml.query("//cml:peakList", CMLConstants.CML_XPATH).get(0);
+		String[] paths = {
+			"./cml:molecule", "cml:molecule", "child::cml:molecule", "./*", "*",
+			".//cml:atom", "descendant::cml:atom", ".//*", ".//cml:*", ".//atom",
+		};
+		for (String path : paths) {
+			assertSameAsXPath(path, cml);
+		}
+		assertSameAsXPath("ancestor::cml:molecule", atom);
+		assertSameAsXPath("ancestor::*", atom);
+		assertSameAsXPath("ancestor::cml:peakList", atom);
+		assertSameAsXPath("./cml:peak", peakList);
+		assertSameAsXPath(".//cml:peak", peakList);
+		assertSameAsXPath(".//cml:peak", atom);
+		Assert.assertEquals("outermost", "m1", ((CMLElement) CMLQuery.compile("ancestor::cml:molecule").first(atom)).getId());
+		Assert.assertSame("cached", CMLQuery.compile(".//cml:peak"), CMLQuery.compile(".//cml:peak"));
+		Assert.assertEquals("toString", "descendant::cml:peak", CMLQuery.compile(".//cml:peak").toString());
+		Assert.assertEquals("axis", Axis.ANCESTOR, CMLQuery.compile("ancestor::cml:molecule").getAxis());
+	}
+
+	/**
+	 */
+	@Test
+	public void testConstructor() {
+		CMLElement cml = CMLUtil.parseCML(CML);
+		CMLQuery query = new CMLQuery(Axis.DESCENDANT, "atom");
+		Assert.assertEquals("cml atoms", 3, query.count(cml));
+		query = new CMLQuery(Axis.DESCENDANT, "atom", null);
+		Assert.assertEquals("all atoms", 5, query.count(cml));
+		query = new CMLQuery(Axis.CHILD, "*", "");
+		Assert.assertEquals("no namespace", 1, query.count(cml));
+		Assert.assertNull("none", new CMLQuery(Axis.CHILD, "bond").first(cml));
+		int count = 0;
+		for (Element element : new CMLQuery(Axis.DESCENDANT, null).iterable(cml)) {
+			Assert.assertTrue("cml", element instanceof CMLElement);
+			count++;
+		}
+		Assert.assertEquals("descendants", 12, count);
+	}
+
+	/**
+	 */
+	@Test
+	public void testBadPath() {
+		String[] paths = {"//cml:atom", "cml:atom[1]", "foo:atom", "parent::cml:atom", "./"};
+		for (String path : paths) {
+			try {
+				CMLQuery.compile(path);
+				Assert.fail("should fail: "+path);
+			} catch (RuntimeException e) {
+				Assert.assertTrue(path, e.getMessage().startsWith("unsupported"));
+			}
+		}
+	}
+}
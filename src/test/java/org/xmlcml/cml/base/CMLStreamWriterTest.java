@@ -0,0 +1,109 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.base;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+
+import nu.xom.Attribute;
+import nu.xom.Document;
+import nu.xom.Element;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.cml.element.CMLAtom;
+import org.xmlcml.cml.element.CMLCml;
+import org.xmlcml.cml.element.CMLMolecule;
+
+/**
+ * test CMLStreamWriter.
+ */
+public class CMLStreamWriterTest {
+
+	private static CMLMolecule makeMolecule(int i) {
+		CMLMolecule molecule = new CMLMolecule();
+		molecule.setId("m"+i);
+		CMLAtom atom = new CMLAtom("a1");
+		atom.setElementType("C");
+		atom.setX3(1.5 * i);
+		molecule.addAtom(atom);
+		return molecule;
+	}
+
+	/**
+	 * @throws Exception
+	 */
+	@Test
+	public void testWriteElements() throws Exception {
+		// molecules stay inside their own document with namespaces on the root
+		CMLCml cml = new CMLCml();
+		cml.addNamespaceDeclaration("foo", "http://foo");
+		for (int i = 0; i < 1000; i++) {
+			CMLMolecule molecule = makeMolecule(i);
+			molecule.addAttribute(new Attribute("foo:bar", "http://foo", "x"+i));
+			cml.appendChild(molecule);
+		}
+		new Document(cml);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		CMLStreamWriter writer = new CMLStreamWriter(baos);
+		writer.writeStartRoot();
+		for (CMLElement molecule : cml.getChildCMLElements()) {
+			writer.writeElement(molecule);
+		}
+		writer.close();
+		Assert.assertEquals("count", 1000, writer.getElementCount());
+		Assert.assertEquals("not copied", cml, cml.getChildCMLElements().get(0).getParent());
+
+		Element root = new CMLBuilder().build(new ByteArrayInputStream(baos.toByteArray())).getRootElement();
+		Assert.assertTrue("cml", root instanceof CMLCml);
+		Assert.assertEquals("molecules", 1000, root.getChildElements().size());
+		CMLMolecule molecule = (CMLMolecule) root.getChildElements().get(7);
+		Assert.assertEquals("id", "m7", molecule.getId());
+		Assert.assertEquals("x3", 10.5, molecule.getAtom(0).getX3(), 0.000001);
+		Assert.assertEquals("foreign attribute", "x7", molecule.getAttributeValue("bar", "http://foo"));
+	}
+
+	/**
+	 * @throws Exception
+	 */
+	@Test
+	public void testWriteChannel() throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		CMLStreamWriter writer = new CMLStreamWriter(Channels.newChannel(baos));
+		writer.setIndent(1);
+		writer.writeStartRoot();
+		writer.writeElement(makeMolecule(1));
+		writer.writeElement(makeMolecule(2));
+		writer.writeEndRoot();
+		writer.close();
+		Element root = new CMLBuilder().build(new ByteArrayInputStream(baos.toByteArray())).getRootElement();
+		Assert.assertEquals("molecules", 2, ((CMLElement) root).getChildCMLElements(CMLMolecule.TAG).size());
+	}
+
+	/**
+	 */
+	@Test
+	public void testGetXML() {
+		CMLCml cml = new CMLCml();
+		CMLMolecule molecule = makeMolecule(3);
+		cml.appendChild(molecule);
+		String expected = new CMLSerializer().getXML(new Document((Element) molecule.copy()));
+		Assert.assertEquals("xml", expected, new CMLSerializer().getXML(molecule));
+		Assert.assertEquals("still attached", cml, molecule.getParent());
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.base;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.cml.element.CMLMolecule;
+import org.xmlcml.cml.element.CMLReaction;
+
+/**
+ * test CMLStreamingReader.
+ */
+public class CMLStreamingReaderTest {
+
+	private static InputStream makeMoleculeList(int n) throws Exception {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<cml "+CMLConstants.CML_XMLNS+" xmlns:foo='http://foo'>\n");
+		sb.append("<moleculeList>\n");
+		for (int i = 0; i < n; i++) {
+			sb.append("  <molecule id='m"+i+"' dictRef='foo:bar'>\n");
+			sb.append("    <atomArray><atom id='a1' elementType='C'/><atom id='a2' elementType='O'/></atomArray>\n");
+			sb.append("    <bondArray><bond atomRefs2='a1 a2' order='2'/></bondArray>\n");
+			sb.append("  </molecule>\n");
+		}
+		// nested molecules are part of their parent record
+		sb.append("  <molecule id='parent'><molecule id='child1'/><molecule id='child2'/></molecule>\n");
+		sb.append("</moleculeList>\n");
+		sb.append("<reaction id='r1'/>\n");
+		sb.append("</cml>\n");
+		return new ByteArrayInputStream(sb.toString().getBytes("UTF-8"));
+	}
+
+	/**
+	 * @throws Exception
+	 */
+	@Test
+	public void testReadMolecules() throws Exception {
+		CMLStreamingReader<CMLMolecule> reader =
+			new CMLStreamingReader<CMLMolecule>(makeMoleculeList(100), CMLMolecule.class);
+		int count = 0;
+		while (count < 100) {
+			Assert.assertTrue("has next", reader.hasNext());
+			CMLMolecule molecule = reader.next();
+			Assert.assertEquals("id", "m"+count, molecule.getId());
+			Assert.assertNull("detached", molecule.getParent());
+			Assert.assertEquals("atoms", 2, molecule.getAtomCount());
+			Assert.assertEquals("bonds", 1, molecule.getBondCount());
+			Assert.assertEquals("namespace", "http://foo", molecule.getNamespaceURI("foo"));
+			count++;
+		}
+		CMLMolecule parent = reader.next();
+		Assert.assertEquals("parent", "parent", parent.getId());
+		Assert.assertEquals("children", 2, parent.getMoleculeElements().size());
+		Assert.assertFalse("end", reader.hasNext());
+	}
+
+	/**
+	 * @throws Exception
+	 */
+	@Test
+	public void testOtherElementType() throws Exception {
+		CMLStreamingReader<CMLReaction> reader =
+			new CMLStreamingReader<CMLReaction>(makeMoleculeList(10), CMLReaction.class);
+		Assert.assertEquals("reactions", 1, reader.stream().count());
+	}
+
+	/**
+	 * @throws Exception
+	 */
+	@Test
+	public void testRootRecord() throws Exception {
+		String s = "<molecule id='m1' "+CMLConstants.CML_XMLNS+"/>";
+		CMLStreamingReader<CMLMolecule> reader = new CMLStreamingReader<CMLMolecule>(
+				new ByteArrayInputStream(s.getBytes("UTF-8")), CMLMolecule.class);
+		Assert.assertTrue("has next", reader.hasNext());
+		Assert.assertEquals("id", "m1", reader.next().getId());
+		Assert.assertFalse("end", reader.hasNext());
+	}
+
+	/**
+	 * @throws Exception
+	 */
+	@Test
+	public void testClose() throws Exception {
+		CMLStreamingReader<CMLMolecule> reader = new CMLStreamingReader<CMLMolecule>(
+				makeMoleculeList(1000), CMLMolecule.class, 1);
+		Assert.assertEquals("first", "m0", reader.next().getId());
+		reader.close();
+		Assert.assertFalse("closed", reader.hasNext());
+	}
+
+	/**
+	 * @throws Exception
+	 */
+	@Test
+	public void testBadXML() throws Exception {
+		String s = "<cml "+CMLConstants.CML_XMLNS+"><molecule id='m1'/><molecule";
+		CMLStreamingReader<CMLMolecule> reader = new CMLStreamingReader<CMLMolecule>(
+				new ByteArrayInputStream(s.getBytes("UTF-8")), CMLMolecule.class);
+		Assert.assertEquals("first", "m1", reader.next().getId());
+		try {
+			reader.hasNext();
+			Assert.fail("should throw parse error");
+		} catch (RuntimeException e) {
+			Assert.assertEquals("message", "cannot parse stream", e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.base;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * test CMLType.
+ */
+public class CMLTypeTest {
+
+	private static final String[] PATTERNS = {
+		CMLType.ID_PATTERN,
+		CMLType.ATOM_ID_PATTERN,
+		CMLType.BOND_REF_PATTERN,
+		CMLType.REF_PATTERN,
+	};
+
+	private static CMLType makeStringType(String pattern) {
+		CMLType type = new CMLType();
+		type.setName("test");
+		type.setBase(CMLConstants.XSD_STRING);
+		type.setPattern(pattern);
+		return type;
+	}
+
+	private static boolean checks(CMLType type, String s) {
+		try {
+			type.checkValue(s);
+			return true;
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 */
+	@Test
+	public void testSchemaPatterns() {
+		// the fast path patterns are those in the schema
+		Map<String, CMLType> typeMap = SchemaIndex.createFromSchemaFiles().getTypeMap();
+		Assert.assertEquals("idType", CMLType.ID_PATTERN, typeMap.get("idType").getPattern());
+		Assert.assertEquals("atomIDType", CMLType.ATOM_ID_PATTERN, typeMap.get("atomIDType").getPattern());
+		Assert.assertEquals("moleculeIDType", CMLType.ATOM_ID_PATTERN, typeMap.get("moleculeIDType").getPattern());
+		Assert.assertEquals("bondRefType", CMLType.BOND_REF_PATTERN, typeMap.get("bondRefType").getPattern());
+		Assert.assertEquals("refType", CMLType.REF_PATTERN, typeMap.get("refType").getPattern());
+	}
+
+	/**
+	 */
+	@Test
+	public void testFastPathMatchesRegex() {
+		String[] fixed = {"", "a", "A1", "_a", "1a", "a:b", "a:", ":b", "a:b:c", "a.b", "a-b",
+				"a_b", "_:_", "a b", "a1.2-3_4", "p:a.b", "é", "aé", "-", ".", "9"};
+		char[] chars = "aZ09_.-: é".toCharArray();
+		Random random = new Random(1L);
+		for (String pattern : PATTERNS) {
+			CMLType type = makeStringType(pattern);
+			for (String s : fixed) {
+				Assert.assertEquals(pattern+" "+s, s.matches(pattern), checks(type, s));
+			}
+			for (int i = 0; i < 5000; i++) {
+				StringBuilder sb = new StringBuilder();
+				int length = random.nextInt(6);
+				for (int j = 0; j < length; j++) {
+					sb.append(chars[random.nextInt(chars.length)]);
+				}
+				String s = sb.toString();
+				Assert.assertEquals(pattern+" "+s, s.matches(pattern), checks(type, s));
+			}
+		}
+	}
+
+	/**
+	 */
+	@Test
+	public void testCompiledPattern() {
+		CMLType type = makeStringType("[0-9]+");
+		Assert.assertTrue("digits", checks(type, "123"));
+		Assert.assertFalse("digits", checks(type, "12a"));
+		// recompiled when the pattern changes
+		type.setPattern("[a-z]+");
+		Assert.assertFalse("letters", checks(type, "123"));
+		Assert.assertTrue("letters", checks(type, "abc"));
+		type.setPattern(null);
+		Assert.assertTrue("no pattern", checks(type, "12a"));
+	}
+
+	/**
+	 */
+	@Test
+	public void testCheckAttributeValue() {
+		CMLType type = makeStringType(CMLType.ID_PATTERN);
+		StringSTAttribute attribute = new StringSTAttribute("id");
+		attribute.setCmlType(type);
+		attribute.setCMLValue("a1");
+		Assert.assertEquals("id", "a1", attribute.getValue());
+		try {
+			attribute.setCMLValue("2a");
+			Assert.fail("should throw");
+		} catch (RuntimeException e) {
+			// expected
+		}
+	}
+}
@@ -258,6 +258,47 @@ public class ElementTest {
 		Assert.assertEquals("nodes", 9, top.query("//cml:metadata", CMLConstants.CML_XPATH).size());
 			
 	}
+
+	/**
+	 * dereference all refs in one pass; the file is read once
+	 */
+	@Test
+	public void testDereferenceRefsBatch() {
+		String file = "src/test/resources/org/xmlcml/cml/element/examples/complex/castep2.xml";
+		String cmlString = "" +
+				"<cml:cml xmlns:cml=\"http://www.xml-cml.org/schema\">" +
+				"<cml:element ref='"+file+"'/>" +
+				"<cml:list><cml:element ref='h1' id='r1'/></cml:list>" +
+				"<cml:element ref='h1' id='r2'/>" +
+				"<cml:element ref='"+file+"'/>" +
+				"<cml:atom id=\"h1\" elementType=\"H\"/>" +
+				"</cml:cml>" +
+				"";
+		CMLElement top = CMLUtil.parseCML(cmlString);
+		top.dereferenceRefsCopyReplace();
+		Assert.assertEquals("nodes", 18, top.query("//cml:metadata", CMLConstants.CML_XPATH).size());
+		Assert.assertNotSame("copies", top.getChild(0), top.getChild(3));
+		Assert.assertTrue("r1", top.getElementsById("r1", false).get(0) instanceof org.xmlcml.cml.element.CMLAtom);
+		Assert.assertTrue("r2", top.getElementsById("r2", false).get(0) instanceof org.xmlcml.cml.element.CMLAtom);
+		Assert.assertEquals("h1", 1, top.getElementsById("h1", false).size());
+	}
+
+	/**
+	 * the target of a ref may sit inside non-CML markup
+	 */
+	@Test
+	public void testDereferenceRefInForeignMarkup() {
+		String cmlString = "" +
+				"<cml xmlns=\"http://www.xml-cml.org/schema\" xmlns:h=\"http://www.w3.org/1999/xhtml\">" +
+				"<h:div><molecule id=\"m1\"/></h:div>" +
+				"<molecule ref=\"m1\"/>" +
+				"</cml>" +
+				"";
+		CMLElement top = CMLUtil.parseCML(cmlString);
+		CMLElement target = (CMLElement) ((Element) top.getChild(0)).getChild(0);
+		CMLElement element = (CMLElement) top.getChild(1);
+		Assert.assertSame("ref", target, element.dereferenceRef());
+	}
 	
 	
 	/**
@@ -317,4 +358,78 @@ public class ElementTest {
 //		cml.debug("mol");
 	}
 
+	@Test
+	public void testIdIndex() {
+		CMLElement cml = CMLUtil.parseCML("" +
+			"<cml xmlns='http://www.xml-cml.org/schema'>" +
+			"  <molecule id='m1'>" +
+			"    <atomArray><atom id='a1'/><atom id='a2'/></atomArray>" +
+			"  </molecule>" +
+			"  <list id='l1'/>" +
+			"</cml>");
+		Assert.assertEquals("a1", 1, cml.getElementsById("a1", false).size());
+		CMLElement list = cml.getElementsById("l1", false).get(0);
+		CMLElement molecule = cml.getElementsById("m1", false).get(0);
+		Assert.assertEquals("descendant", 0, list.getElementsById("a1", false).size());
+		Assert.assertEquals("descendant", 1, molecule.getDescendantCMLElementsById("a2").size());
+		Assert.assertEquals("not self", 0, molecule.getDescendantCMLElementsById("m1").size());
+
+		// appendChild
+		CMLElement e1 = new CMLElement("scalar");
+		e1.setId("s1");
+		list.appendChild(e1);
+		Assert.assertSame("append", e1, cml.getElementsById("s1", false).get(0));
+		Assert.assertSame("descendant", e1, list.getDescendantCMLElementsById("s1").get(0));
+		// duplicate id via insertChild
+		CMLElement e2 = new CMLElement("scalar");
+		e2.setId("s1");
+		list.insertChild(e2, 0);
+		Assert.assertEquals("insert", 2, cml.getElementsById("s1", false).size());
+		// setId, resetId, setAttribute
+		e2.setId("s2");
+		Assert.assertEquals("setId", 1, cml.getElementsById("s1", false).size());
+		Assert.assertSame("setId", e2, cml.getElementsById("s2", false).get(0));
+		e2.resetId("s3");
+		Assert.assertEquals("resetId", 0, cml.getElementsById("s2", false).size());
+		Assert.assertSame("resetId", e2, cml.getElementsById("s3", false).get(0));
+		e2.setAttribute("id", "s4");
+		Assert.assertSame("setAttribute", e2, cml.getElementsById("s4", false).get(0));
+		e2.removeAttribute("id");
+		Assert.assertEquals("removeAttribute", 0, cml.getElementsById("s4", false).size());
+		// detach subtree
+		molecule.detach();
+		Assert.assertEquals("detach", 0, cml.getElementsById("a1", false).size());
+		Assert.assertEquals("detach", 0, cml.getElementsById("m1", false).size());
+		Assert.assertEquals("detached", 1, molecule.getElementsById("a1", false).size());
+		// move subtree to another tree
+		list.appendChild(molecule);
+		Assert.assertEquals("moved", 1, cml.getElementsById("a2", false).size());
+		Assert.assertEquals("moved", 0, molecule.getElementsById("l1", false).size());
+		// in place change is only seen after a refresh
+		e1.getAttribute("id").setValue("s5");
+		Assert.assertEquals("stale", 0, cml.getElementsById("s1", false).size());
+		Assert.assertEquals("stale", 0, cml.getElementsById("s5", false).size());
+		Assert.assertSame("refresh", e1, cml.getElementsById("s5", true).get(0));
+
+		// large tree
+		CMLElement root = new CMLElement("cml");
+		CMLElement parent = null;
+		for (int i = 0; i < 100000; i++) {
+			if (i % 100 == 0) {
+				parent = new CMLElement("list");
+				root.appendChild(parent);
+			}
+			CMLElement child = new CMLElement("scalar");
+			child.setId("x" + i);
+			parent.appendChild(child);
+			if (i == 0) {
+				Assert.assertSame("x0", child, root.getElementsById("x0", false).get(0));
+			}
+		}
+		Assert.assertEquals("large", 1, root.getElementsById("x99999", false).size());
+		((CMLElement) root.getChild(0)).detach();
+		Assert.assertEquals("large", 0, root.getElementsById("x0", false).size());
+		Assert.assertEquals("large", 1, root.getElementsById("x100", false).size());
+	}
+
 }
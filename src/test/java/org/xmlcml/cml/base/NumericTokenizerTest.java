@@ -0,0 +1,120 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.base;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.euclid.Util;
+
+/**
+ * test NumericTokenizer against String.split() and Double.valueOf().
+ */
+public class NumericTokenizerTest {
+
+	private static void assertSplit(String s, String delimiter) {
+		String regex = (delimiter == null) ? CMLConstants.S_WHITEREGEX : "\\Q"+delimiter+"\\E";
+		String[] expected = ((delimiter == null) ? s.trim() : s).split(regex);
+		NumericTokenizer tokenizer = new NumericTokenizer(s, delimiter);
+		String[] found = new String[tokenizer.countTokens()];
+		for (int i = 0; i < found.length; i++) {
+			Assert.assertTrue(s, tokenizer.hasMoreTokens());
+			found[i] = tokenizer.nextToken();
+		}
+		Assert.assertFalse(s, tokenizer.hasMoreTokens());
+		Assert.assertEquals("["+s+"]", Arrays.asList(expected), Arrays.asList(found));
+	}
+
+	private static void assertDouble(String s) throws Exception {
+		double expected = Util.parseFlexibleDouble(s);
+		double found = NumericTokenizer.parseDoubles(s, null)[0];
+		Assert.assertEquals(s, Double.doubleToRawLongBits(expected), Double.doubleToRawLongBits(found));
+	}
+
+	/**
+	 */
+	@Test
+	public void testTokens() {
+		for (String s : new String[]{"", " ", "1", " 1  2\t3\n", "a\u000Bb\fc\rd", "1\u00012"}) {
+			assertSplit(s, null);
+		}
+		for (String s : new String[]{"", "|", "||", "a", "a|b", "a|", "|a", "a||b||", "|a|b|"}) {
+			assertSplit(s, "|");
+		}
+		assertSplit("a, b,, c,", ", ");
+		Assert.assertTrue(NumericTokenizer.isWhitespace(null));
+		Assert.assertTrue(NumericTokenizer.isWhitespace(" "));
+		Assert.assertTrue(NumericTokenizer.isWhitespace(CMLConstants.S_WHITEREGEX));
+		Assert.assertFalse(NumericTokenizer.isWhitespace("|"));
+	}
+
+	/**
+	 * @throws Exception
+	 */
+	@Test
+	public void testDoubles() throws Exception {
+		for (String s : new String[]{"0", "-0", "-0.0", "+1.5", "1.", ".5", "1e5", "1E-5", "-2.5e+3",
+				"0.000123", "123456789012345", "1234567890123456789", "1.0000000000000000001",
+				"9007199254740993", "1e22", "1e23", "4.9e-324", "1.7976931348623157E308",
+				"0.1", "0.3", "2.2250738585072014E-308", "INF", "-INF", "NaN", "Infinity",
+				"1.5d", "0x1p3", "0e999"}) {
+			assertDouble(s);
+		}
+		Random random = new Random(1L);
+		for (int i = 0; i < 20000; i++) {
+			double d = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(40) - 20);
+			assertDouble(Double.toString(d));
+			assertDouble(String.format("%.6f", d));
+			assertDouble(String.format("%.4e", d));
+		}
+		Assert.assertTrue(Arrays.equals(new double[]{1.0, 2.5, -3.0},
+				NumericTokenizer.parseDoubles(" 1.0 2.5\n-3 ", null)));
+		Assert.assertTrue(Arrays.equals(new double[]{1.0, 2.5},
+				NumericTokenizer.parseDoubles("1.0|2.5", "|")));
+		for (String s : new String[]{"1 x 3", "1 . 3", "1e 3", "1e+", "--1", "1.2.3", ""}) {
+			try {
+				NumericTokenizer.parseDoubles(s, null);
+				Assert.fail("should throw "+s);
+			} catch (NumberFormatException e) {
+				Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Bad double: "));
+			}
+		}
+	}
+
+	/**
+	 */
+	@Test
+	public void testInts() {
+		Assert.assertTrue(Arrays.equals(new int[]{1, -2, 3, 2147483647, -2147483648},
+				NumericTokenizer.parseInts("1 -2 +3 2147483647 -2147483648", null)));
+		for (String s : new String[]{"2147483648", "1.0", "-", "12345678901", "a"}) {
+			try {
+				NumericTokenizer.parseInts(s, null);
+				Assert.fail("should throw "+s);
+			} catch (NumberFormatException e) {
+				Assert.assertEquals("Bad int: "+s+" at position 0", e.getMessage());
+			}
+		}
+		NumericTokenizer tokenizer = new NumericTokenizer("true FALSE TRUE yes", null);
+		Assert.assertTrue(tokenizer.nextBoolean());
+		Assert.assertFalse(tokenizer.nextBoolean());
+		Assert.assertTrue(tokenizer.nextBoolean());
+		Assert.assertFalse(tokenizer.nextBoolean());
+	}
+}
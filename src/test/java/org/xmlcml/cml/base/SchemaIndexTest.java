@@ -0,0 +1,128 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.base;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+
+import nu.xom.Element;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * test SchemaIndex.
+ */
+public class SchemaIndexTest {
+
+	private static void assertTypeEquals(String name, CMLType expected, CMLType type) {
+		Assert.assertEquals(name, expected.getName(), type.getName());
+		Assert.assertEquals(name, expected.getBase(), type.getBase());
+		Assert.assertEquals(name, expected.getJavaType(), type.getJavaType());
+		Assert.assertEquals(name, expected.getIsList(), type.getIsList());
+		Assert.assertEquals(name, expected.getPattern(), type.getPattern());
+		Assert.assertEquals(name, expected.getListLength(), type.getListLength());
+		Assert.assertEquals(name, expected.getSummary(), type.getSummary());
+		Assert.assertEquals(name, expected.getFullDescription(), type.getFullDescription());
+		Assert.assertTrue(name, Arrays.equals(expected.getStringEnumeration(), type.getStringEnumeration()));
+		Assert.assertTrue(name, Arrays.equals(expected.getIntEnumeration(), type.getIntEnumeration()));
+		Assert.assertEquals(name, expected.getSubTypes().length, type.getSubTypes().length);
+		assertXMLEquals(name+" simpleType", expected.getSimpleType(), type.getSimpleType());
+		assertXMLEquals(name+" restriction", expected.getRestriction(), type.getRestriction());
+		assertXMLEquals(name+" union", expected.getUnion(), type.getUnion());
+		assertXMLEquals(name+" list", expected.getList(), type.getList());
+		for (int i = 0; i < type.getSubTypes().length; i++) {
+			assertTypeEquals(name+" "+i, expected.getSubTypes()[i], type.getSubTypes()[i]);
+		}
+	}
+
+	private static void assertXMLEquals(String name, Element expected, Element element) {
+		if (expected == null) {
+			Assert.assertNull(name, element);
+		} else {
+			Assert.assertNotNull(name, element);
+			Assert.assertEquals(name, expected.copy().toXML(), element.copy().toXML());
+		}
+	}
+
+	/**
+	 * @throws Exception
+	 */
+	@Test
+	public void testRoundTrip() throws Exception {
+		SchemaIndex index = SchemaIndex.createFromSchemaFiles();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		index.write(baos, 42L);
+		SchemaIndex index1 = SchemaIndex.read(new ByteArrayInputStream(baos.toByteArray()), 42L);
+		Assert.assertEquals("synonyms", index.getElementSynonymMap(), index1.getElementSynonymMap());
+		Assert.assertEquals("groups", index.getAttributeGroupNames(), index1.getAttributeGroupNames());
+		Assert.assertEquals("types", index.getTypeMap().keySet(), index1.getTypeMap().keySet());
+		for (Map.Entry<String, CMLType> entry : index.getTypeMap().entrySet()) {
+			assertTypeEquals(entry.getKey(), entry.getValue(), index1.getTypeMap().get(entry.getKey()));
+		}
+		for (String groupName : index.getAttributeGroupNames()) {
+			CMLAttribute attribute = index.createAttribute(groupName);
+			CMLAttribute attribute1 = index1.createAttribute(groupName);
+			Assert.assertEquals(groupName, attribute.getClass(), attribute1.getClass());
+			Assert.assertEquals(groupName, attribute.getLocalName(), attribute1.getLocalName());
+			Assert.assertEquals(groupName, attribute.getSummary(), attribute1.getSummary());
+		}
+		Assert.assertNull("stale", SchemaIndex.read(new ByteArrayInputStream(baos.toByteArray()), 43L));
+	}
+
+	/**
+	 */
+	@Test
+	public void testCompiledIndex() {
+		// written by the build
+		SchemaIndex index = SchemaIndex.readIndex();
+		Assert.assertNotNull("compiled index", index);
+		Assert.assertEquals("atom@x3", "x3",
+				index.getElementSynonymMap().get("atom").get("x3"));
+		Assert.assertEquals("bond@order", "order",
+				index.getElementSynonymMap().get("bond").get("order"));
+		SchemaIndex schemaIndex = SchemaIndex.createFromSchemaFiles();
+		Assert.assertEquals("attributeGroups", index.getAttributeGroupNames(),
+				schemaIndex.getAttributeGroupNames());
+		for (Map.Entry<String, CMLType> entry : schemaIndex.getTypeMap().entrySet()) {
+			assertTypeEquals(entry.getKey(), entry.getValue(), index.getTypeMap().get(entry.getKey()));
+		}
+		// the XSDs were copied before the index was written
+		Assert.assertTrue("same build", SchemaIndex.isSameBuild(
+				getClass().getClassLoader().getResource(SchemaIndex.SCHEMA_INDEX)));
+	}
+
+	/**
+	 * @throws Exception
+	 */
+	@Test
+	public void testStartupBenchmark() throws Exception {
+		String java = System.getProperty("java.home")+File.separator+"bin"+File.separator+"java";
+		String classpath = System.getProperty("java.class.path");
+		for (String useIndex : new String[]{"true", "false"}) {
+			Process process = new ProcessBuilder(java, "-D"+SchemaIndex.USE_INDEX_PROPERTY+"="+useIndex,
+					"-cp", classpath, StartupBenchmark.class.getName()).redirectErrorStream(true).start();
+			String output = IOUtils.toString(process.getInputStream(), "UTF-8");
+			Assert.assertEquals(output, 0, process.waitFor());
+			Assert.assertTrue(output, output.contains("schema index: "+useIndex));
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.base;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+
+import org.xmlcml.cml.element.CMLMolecule;
+
+/**
+ * time from JVM start to the first parsed molecule.
+ * must run in a fresh JVM, e.g.
+ * <pre>
+ * java -cp ... org.xmlcml.cml.base.StartupBenchmark
+ * java -Dorg.xmlcml.cml.schemaindex=false -cp ... org.xmlcml.cml.base.StartupBenchmark
+ * </pre>
+ * prints the times in milliseconds.
+ */
+public class StartupBenchmark {
+
+	/** molecule parsed */
+	public static final String MOLECULE =
+		"<molecule id='m1' "+CMLConstants.CML_XMLNS+">" +
+		"<atomArray>" +
+		"<atom id='a1' elementType='C' x3='0.0' y3='0.0' z3='0.0'/>" +
+		"<atom id='a2' elementType='O' x3='1.2' y3='0.0' z3='0.0'/>" +
+		"</atomArray>" +
+		"<bondArray><bond atomRefs2='a1 a2' order='2'/></bondArray>" +
+		"</molecule>";
+
+	/**
+	 * @param args ignored
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		long mainStart = System.nanoTime();
+		CMLMolecule molecule = (CMLMolecule) new CMLBuilder().build(
+				new ByteArrayInputStream(MOLECULE.getBytes("UTF-8"))).getRootElement();
+		if (molecule.getAtomCount() != 2) {
+			throw new RuntimeException("bad molecule");
+		}
+		long now = System.currentTimeMillis();
+		long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+		System.out.println("schema index: "+(SchemaIndex.readIndex() != null));
+		System.out.println("first molecule (from main): "+(System.nanoTime() - mainStart) / 1000000+" ms");
+		System.out.println("first molecule (from JVM start): "+(now - jvmStart)+" ms");
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.element.lite;
+
+import java.util.Random;
+
+import org.xmlcml.cml.base.CMLConstants;
+import org.xmlcml.cml.base.DoubleArraySTAttribute;
+import org.xmlcml.cml.base.NumericTokenizer;
+import org.xmlcml.cml.element.CMLArray;
+import org.xmlcml.euclid.Util;
+
+/**
+ * compares splitting spectrum-sized array content with String.split() and
+ * Util.parseFlexibleDouble() against NumericTokenizer.
+ * <pre>
+ * java -cp ... org.xmlcml.cml.element.lite.ArrayParsingBenchmark [npoints [repeats]]
+ * </pre>
+ * builds the content of an array of npoints doubles (default 200000) and
+ * prints the time in milliseconds for repeats parses (default 20) of each.
+ */
+public class ArrayParsingBenchmark {
+
+    /** noisy spectrum intensities to 6 decimal places, as written by
+     * most instruments.
+     *
+     * @param npoints
+     * @param seed
+     * @return whitespace separated doubles
+     */
+    public static String makeSpectrum(int npoints, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < npoints; i++) {
+            if (i > 0) {
+                sb.append(CMLConstants.S_SPACE);
+            }
+            double y = Math.exp(-Math.pow((i - npoints / 2) / 500.0, 2)) + 0.01 * random.nextDouble();
+            sb.append(Math.round(y * 1000000) / 1000000.0);
+        }
+        return sb.toString();
+    }
+
+    private static double[] splitWithRegex(String content) throws Exception {
+        String[] ss = content.trim().split(CMLConstants.S_WHITEREGEX);
+        double[] dd = new double[ss.length];
+        for (int i = 0; i < ss.length; i++) {
+            dd[i] = Util.parseFlexibleDouble(ss[i]);
+        }
+        return dd;
+    }
+
+    /**
+     * @param args [npoints [repeats]]
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int npoints = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        int repeats = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+        String content = makeSpectrum(npoints, 1L);
+        double sum = 0;
+        // warm up
+        for (int i = 0; i < 3; i++) {
+            sum += splitWithRegex(content)[0] + NumericTokenizer.parseDoubles(content, null)[0];
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < repeats; i++) {
+            sum += splitWithRegex(content)[i];
+        }
+        System.out.println("String.split + parseFlexibleDouble: "+npoints+" points, "+
+                (System.nanoTime() - start) / 1000000+" ms");
+        start = System.nanoTime();
+        for (int i = 0; i < repeats; i++) {
+            sum += NumericTokenizer.parseDoubles(content, null)[i];
+        }
+        System.out.println("NumericTokenizer: "+npoints+" points, "+
+                (System.nanoTime() - start) / 1000000+" ms");
+        start = System.nanoTime();
+        for (int i = 0; i < repeats; i++) {
+            sum += DoubleArraySTAttribute.split(content, null)[i];
+        }
+        System.out.println("DoubleArraySTAttribute.split: "+npoints+" points, "+
+                (System.nanoTime() - start) / 1000000+" ms");
+        start = System.nanoTime();
+        for (int i = 0; i < repeats; i++) {
+            CMLArray array = new CMLArray();
+            array.setDataType(CMLConstants.XSD_DOUBLE);
+            array.setXMLContent(content);
+            sum += array.getDoubles()[i];
+        }
+        System.out.println("CMLArray.getDoubles: "+npoints+" points, "+
+                (System.nanoTime() - start) / 1000000+" ms");
+        System.out.println("checksum "+sum);
+    }
+}
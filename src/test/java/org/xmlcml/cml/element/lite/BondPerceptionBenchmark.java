@@ -0,0 +1,137 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.element.lite;
+
+import java.util.List;
+import java.util.Random;
+
+import org.xmlcml.cml.base.CMLElement.CoordinateType;
+import org.xmlcml.cml.element.AtomSpatialIndex;
+import org.xmlcml.cml.element.CMLAtom;
+import org.xmlcml.cml.element.CMLMolecule;
+import org.xmlcml.euclid.Point3;
+import org.xmlcml.molutil.ChemicalElement;
+import org.xmlcml.molutil.ChemicalElement.AS;
+
+/**
+ * compares CMLMolecule.createBondsFromCoordinates() with an all-pairs loop.
+ * <pre>
+ * java -cp ... org.xmlcml.cml.element.lite.BondPerceptionBenchmark [edge [naiveEdge [heavy]]]
+ * </pre>
+ * builds a jittered cubic grid of edge^3 carbon atoms 1.5 apart (default 50)
+ * and prints the times in milliseconds. The all-pairs loop is run on a
+ * grid of naiveEdge^3 atoms (default 20). If heavy is true the middle atom
+ * of the large grid is caesium, which has the largest covalent radius.
+ */
+public class BondPerceptionBenchmark {
+
+    /** jittered cubic grid; each inner atom is within bonding distance of 6 others.
+     *
+     * @param edge atoms along each side
+     * @param seed for the jitter
+     * @return molecule without bonds
+     */
+    public static CMLMolecule makeGrid(int edge, long seed) {
+        Random random = new Random(seed);
+        CMLMolecule molecule = new CMLMolecule();
+        int n = 0;
+        for (int i = 0; i < edge; i++) {
+            for (int j = 0; j < edge; j++) {
+                for (int k = 0; k < edge; k++) {
+                    CMLAtom atom = new CMLAtom("a" + (++n), AS.C);
+                    atom.setXYZ3(new Point3(1.5 * i + 0.05 * random.nextDouble(),
+                            1.5 * j + 0.05 * random.nextDouble(),
+                            1.5 * k + 0.05 * random.nextDouble()));
+                    molecule.addAtom(atom);
+                }
+            }
+        }
+        return molecule;
+    }
+
+    /** counts bonded pairs by checking all pairs.
+     *
+     * @param molecule
+     * @return number of pairs within bonding distance
+     */
+    public static int countNaiveBonds(CMLMolecule molecule) {
+        List<CMLAtom> atoms = molecule.getAtoms();
+        int natoms = atoms.size();
+        double[][] xyz = new double[natoms][];
+        double[] radius = new double[natoms];
+        for (int i = 0; i < natoms; i++) {
+            xyz[i] = atoms.get(i).getXYZ3().getArray();
+            radius[i] = atoms.get(i).getChemicalElement().getCovalentRadius();
+        }
+        double tolerance = ChemicalElement.getBondingRadiusTolerance();
+        int count = 0;
+        for (int i = 0; i < natoms; i++) {
+            for (int j = i + 1; j < natoms; j++) {
+                double dx = xyz[i][0] - xyz[j][0];
+                double dy = xyz[i][1] - xyz[j][1];
+                double dz = xyz[i][2] - xyz[j][2];
+                double cutoff = radius[i] + radius[j] + tolerance;
+                if (dx * dx + dy * dy + dz * dz < cutoff * cutoff) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param args [edge [naiveEdge [heavy]]]
+     */
+    public static void main(String[] args) {
+        int edge = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+        int naiveEdge = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+        boolean heavy = (args.length > 2) && Boolean.parseBoolean(args[2]);
+
+        CMLMolecule naive = makeGrid(naiveEdge, 1L);
+        long start = System.nanoTime();
+        int naiveCount = countNaiveBonds(naive);
+        long naiveTime = (System.nanoTime() - start) / 1000000;
+        System.out.println("all pairs: "+naive.getAtomCount()+" atoms, "+
+                naiveCount+" bonds, "+naiveTime+" ms");
+        start = System.nanoTime();
+        int count = naive.createBondsFromCoordinates().size();
+        System.out.println("spatial index: "+naive.getAtomCount()+" atoms, "+
+                count+" bonds, "+(System.nanoTime() - start) / 1000000+" ms");
+
+        CMLMolecule molecule = makeGrid(edge, 2L);
+        if (heavy) {
+            molecule.getAtom(((edge / 2) * edge + edge / 2) * edge + edge / 2).setElementType("Cs");
+        }
+        start = System.nanoTime();
+        List<CMLAtom> atoms = molecule.getAtoms();
+        double[] radii = new double[atoms.size()];
+        double maxRadius = 0.0;
+        for (int i = 0; i < radii.length; i++) {
+            radii[i] = atoms.get(i).getChemicalElement().getCovalentRadius();
+            maxRadius = Math.max(maxRadius, radii[i]);
+        }
+        double tolerance = ChemicalElement.getBondingRadiusTolerance();
+        double cutoff = 2 * maxRadius + tolerance;
+        int ncontacts = new AtomSpatialIndex(molecule, CoordinateType.CARTESIAN, null, cutoff).getContacts(radii, tolerance).size();
+        System.out.println("index and contacts only: "+molecule.getAtomCount()+" atoms, "+
+                ncontacts+" pairs, "+(System.nanoTime() - start) / 1000000+" ms");
+        start = System.nanoTime();
+        count = molecule.createBondsFromCoordinates().size();
+        System.out.println("spatial index: "+molecule.getAtomCount()+" atoms, "+
+                count+" bonds, "+(System.nanoTime() - start) / 1000000+" ms");
+    }
+}
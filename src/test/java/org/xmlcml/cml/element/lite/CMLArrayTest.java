@@ -26,6 +26,7 @@ import org.xmlcml.cml.attribute.DelimiterAttribute.Action;
 import org.xmlcml.cml.base.CC;
 import org.xmlcml.cml.base.CMLBuilder;
 import org.xmlcml.cml.base.CMLConstants;
+import org.xmlcml.cml.base.CMLSerializer;
 import org.xmlcml.cml.base.CMLUtil;
 import org.xmlcml.cml.base.CMLXOMTestUtils;
 import org.xmlcml.cml.element.CMLArray;
@@ -1360,4 +1361,79 @@ public class CMLArrayTest {
 				 "<array xmlns='http://www.xml-cml.org/schema' dataType='xsd:double' dictRef='foo:bar' size='4'>1.1 2.2 3.3 4.4</array>");
 		CMLXOMTestUtils.assertEqualsCanonically("subArray", ref, subArray);	
 	}
+
+	/**
+	 * Test method for 'org.xmlcml.cml.element.CMLArray.setBuffered(boolean)'
+	 */
+	@Test
+	public void testSetBuffered() {
+		CMLArray array = new CMLArray(new double[] { 1.0, 2.0 });
+		CMLArray buffered = new CMLArray(new double[] { 1.0, 2.0 });
+		buffered.setBuffered(true);
+		Assert.assertTrue("buffered", buffered.isBuffered());
+		for (int i = 0; i < 1000; i++) {
+			array.append(0.5 * i);
+			buffered.append(0.5 * i);
+		}
+		Assert.assertEquals("stale", "1.0 2.0", buffered.getValue());
+		Assert.assertEquals("size", 1002, buffered.getSize());
+		Assert.assertEquals("content", array.toXML(), buffered.toXML());
+		buffered.append(Math.PI);
+		Assert.assertEquals("doubles", Math.PI, buffered.getDoubles()[1002], EPS);
+		buffered.append(2.5);
+		Assert.assertEquals("copy", 1004, new CMLArray(buffered).getSize());
+		buffered.append(3.5);
+		String xml = new CMLSerializer().getXML(buffered);
+		Assert.assertTrue("serialized", xml.contains("2.5 3.5</array>"));
+		Assert.assertTrue("serialized", xml.contains("size=\"1005\""));
+		buffered.setBuffered(false);
+		buffered.append(4.5);
+		Assert.assertEquals("size", 1006, buffered.getSize());
+
+		array = new CMLArray();
+		array.setDelimiter("|");
+		buffered = new CMLArray();
+		buffered.setDelimiter("|");
+		buffered.setBuffered(true);
+		for (String s : new String[] { "a b", "c", "d" }) {
+			array.append(s);
+			buffered.append(s);
+		}
+		buffered.setBuffered(false);
+		Assert.assertEquals("delimited", "|a b|c|d|", buffered.getXMLContent());
+		Assert.assertEquals("delimited", array.toXML(), buffered.toXML());
+		buffered.setBuffered(true);
+		buffered.append("e");
+		buffered.setXMLContent("|f|");
+		Assert.assertEquals("discarded", "|f|", buffered.getXMLContent());
+	}
+
+	/**
+	 * parsed values are kept until the content changes.
+	 */
+	@Test
+	public void testParsedValues() {
+		CMLArray array = new CMLArray(new double[] { 1.0, 2.0, 3.0 });
+		array.removeAttribute(array.getSizeAttribute());
+		double[] dd = array.getDoubles();
+		dd[0] = 99.0;
+		Assert.assertEquals("copy", 1.0, array.getDoubles()[0], EPS);
+		Assert.assertEquals("element", 2.0,
+				array.getElementAt(1).getDouble(), EPS);
+		Assert.assertEquals("size", 3, array.getSize());
+		array.append(4.0);
+		Assert.assertEquals("append", 4.0, array.getDoubles()[3], EPS);
+		array.setXMLContent("5.0 6.0");
+		Assert.assertEquals("content", 6.0, array.getDoubles()[1], EPS);
+		Assert.assertEquals("size", 2, array.getDoubles().length);
+
+		array = new CMLArray(new String[] { "a", "b" });
+		Assert.assertEquals("strings", "b", array.getStrings()[1]);
+		array.setDelimiter("|");
+		Assert.assertEquals("delimiter", "|a|b|", array.getXMLContent());
+		Assert.assertEquals("strings", "b", array.getStrings()[1]);
+		array.setBuffered(true);
+		array.append("c");
+		Assert.assertEquals("buffered", "c", array.getElementAt(2).getString());
+	}
 }
@@ -23,13 +23,23 @@ package org.xmlcml.cml.element.lite;
 import java.util.List;
 import java.util.Map;
 
+import nu.xom.Element;
+import nu.xom.Node;
+
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.xmlcml.cml.base.CMLSerializer;
+import org.xmlcml.cml.base.CMLXOMTestUtils;
+import org.xmlcml.cml.base.CMLElement.CoordinateType;
 import org.xmlcml.cml.element.CMLAtom;
 import org.xmlcml.cml.element.CMLAtomArray;
 import org.xmlcml.cml.element.CMLMolecule;
 import org.xmlcml.cml.element.main.MoleculeAtomBondFixture;
+import org.xmlcml.euclid.Angle;
+import org.xmlcml.euclid.Axis.Axis3;
+import org.xmlcml.euclid.Point3;
+import org.xmlcml.euclid.Transform3;
 
 /**
  * @author pm286
@@ -346,4 +356,136 @@ public class CMLAtomArrayTest {
 		Assert.assertEquals("atom 4", "a4", atomx.getId());
 	}
 
+	/**
+	 * Test method for
+	 * {@link org.xmlcml.cml.element.CMLAtomArray#setCoordinateBacked(boolean)}
+	 * .
+	 */
+	@Test
+	public final void testCoordinateBacked() {
+		CMLMolecule molecule = new CMLMolecule();
+		molecule.addAtomArray(new CMLAtomArray());
+		CMLAtomArray atomArray = molecule.getAtomArray();
+		atomArray.setAtomID(new String[] { "a1", "a2", "a3" });
+		atomArray.setX3(new double[] { 1.0, 2.0, 3.0 });
+		atomArray.setY3(new double[] { 4.0, 5.0, 6.0 });
+		atomArray.setZ3(new double[] { 7.0, 8.0, 9.0 });
+		atomArray.getAtomById("a3").unsetXYZ3();
+		CMLMolecule expectedMolecule = (CMLMolecule) molecule.copy();
+		CMLAtomArray expected = expectedMolecule.getAtomArray();
+		Transform3 transform = new Transform3(Axis3.Z, new Angle(Math.PI / 2));
+		expected.transformCartesians(transform);
+		expected.getAtoms().get(1).setX2(1.5);
+
+		atomArray.setCoordinateBacked(true);
+		Assert.assertTrue("backed", atomArray.isCoordinateBacked());
+		CMLAtom a1 = atomArray.getAtomById("a1");
+		Assert.assertEquals("x3", 1.0, a1.getX3(), 0.00001);
+		atomArray.transformCartesians(transform);
+		atomArray.getAtoms().get(1).setX2(1.5);
+		Assert.assertTrue("xyz3", expected.getAtoms().get(0).getXYZ3().isEqualTo(a1.getXYZ3(), 0.00001));
+		// attributes are not updated until synced
+		Assert.assertEquals("x3 attribute", "1.0", a1.getX3Attribute().getValue());
+		Assert.assertNull("a2 x2", atomArray.getAtomById("a2").getX2Attribute());
+		Assert.assertFalse("a3", atomArray.getAtomById("a3").hasCoordinates(CoordinateType.CARTESIAN));
+		Assert.assertTrue("a2", atomArray.getAtomById("a2").hasCoordinates(CoordinateType.CARTESIAN));
+
+		// serialization brings the attributes up to date
+		new CMLSerializer().getXML(molecule);
+		CMLXOMTestUtils.assertEqualsCanonically("serialized", expectedMolecule, molecule);
+		Assert.assertEquals("x3 attribute", expected.getAtoms().get(0).getX3Attribute().getValue(),
+				a1.getX3Attribute().getValue());
+
+		a1.setXYZ3(new Point3(10.0, 11.0, 12.0));
+		CMLAtom a1Copy = (CMLAtom) a1.copy();
+		Assert.assertEquals("copy", 10.0, a1Copy.getX3(), 0.00001);
+		a1.setZ3(20.0);
+		atomArray.removeAtom(a1);
+		Assert.assertEquals("removed", 20.0, a1.getZ3(), 0.00001);
+		Assert.assertEquals("removed", "20.0", a1.getZ3Attribute().getValue());
+		CMLAtom a4 = new CMLAtom("a4");
+		atomArray.addAtom(a4);
+		a4.setXYZ3(new Point3(1.0, 2.0, 3.0));
+		atomArray.setCoordinateBacked(false);
+		Assert.assertEquals("a4", "3.0", a4.getZ3Attribute().getValue());
+		a4.setZ3(4.0);
+		Assert.assertEquals("a4", "4.0", a4.getZ3Attribute().getValue());
+
+		// NaN is stored as before if not backed but is unset when synced
+		a4.setY3(Double.NaN);
+		Assert.assertEquals("a4 NaN", "NaN", a4.getY3Attribute().getValue());
+		atomArray.setCoordinateBacked(true);
+		a4.setZ3(Double.NaN);
+		atomArray.syncCoordinates();
+		Assert.assertNull("a4 synced NaN", a4.getZ3Attribute());
+		Assert.assertEquals("a4 NaN", "NaN", a4.getY3Attribute().getValue());
+	}
+
+	private static String getAttributeNames(CMLAtom atom) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < atom.getAttributeCount(); i++) {
+			sb.append(atom.getAttribute(i).getLocalName()).append(" ");
+		}
+		return sb.toString().trim();
+	}
+
+	/**
+	 * atoms leaving a coordinate-backed atomArray by any route.
+	 */
+	@Test
+	public final void testCoordinateBackedRemove() {
+		CMLMolecule molecule = new CMLMolecule();
+		molecule.addAtomArray(new CMLAtomArray());
+		CMLAtomArray atomArray = molecule.getAtomArray();
+		atomArray.setAtomID(new String[] { "a1", "a2", "a3", "a4" });
+		atomArray.setX3(new double[] { 1.0, 2.0, 3.0, 4.0 });
+		atomArray.setY3(new double[] { 1.0, 2.0, 3.0, 4.0 });
+		atomArray.setZ3(new double[] { 1.0, 2.0, 3.0, 4.0 });
+		for (CMLAtom atom : atomArray.getAtoms()) {
+			atom.setElementType("C");
+		}
+		atomArray.setCoordinateBacked(true);
+		CMLAtom a1 = atomArray.getAtomById("a1");
+		CMLAtom a2 = atomArray.getAtomById("a2");
+		CMLAtom a3 = atomArray.getAtomById("a3");
+		CMLAtom a4 = atomArray.getAtomById("a4");
+
+		// values are set in place
+		String names = getAttributeNames(a1);
+		a1.setXYZ3(new Point3(5.0, 6.0, 7.0));
+		atomArray.syncCoordinates();
+		Assert.assertEquals("order", names, getAttributeNames(a1));
+		Assert.assertEquals("x3", "5.0", a1.getX3Attribute().getValue());
+
+		a1.setZ3(8.0);
+		a1.detach();
+		Assert.assertEquals("detach", "8.0", a1.getZ3Attribute().getValue());
+		a2.setZ3(9.0);
+		CMLAtom a5 = new CMLAtom("a5");
+		atomArray.replaceChild(a2, a5);
+		Assert.assertEquals("replace", "9.0", a2.getZ3Attribute().getValue());
+		a3.setZ3(10.0);
+		((Element) atomArray).removeChild((Node) a3);
+		Assert.assertEquals("removeChild", "10.0", a3.getZ3Attribute().getValue());
+
+		// slots are reused and hold the new atom's coordinates
+		for (int i = 0; i < 1000; i++) {
+			CMLAtom atom = new CMLAtom("b" + i);
+			atomArray.addAtom(atom);
+			Assert.assertFalse("reused slot", atom.hasCoordinates(CoordinateType.CARTESIAN));
+			atom.setXYZ3(new Point3(i, i, i));
+			atomArray.removeAtom(atom);
+			Assert.assertEquals("churn", (double) i, atom.getX3(), 0.0);
+		}
+		Assert.assertEquals("a4", 4.0, a4.getZ3(), 0.0);
+		Assert.assertFalse("a5", a5.hasCoordinates(CoordinateType.CARTESIAN));
+
+		atomArray.setCoordinateBacked(false);
+		for (CMLAtom atom : new CMLAtom[] { a1, a2, a3 }) {
+			atom.setX3(0.5);
+			Assert.assertEquals("unpacked", 0.5, atom.getX3(), 0.0);
+			Assert.assertEquals("unpacked", "0.5", atom.getX3Attribute().getValue());
+		}
+	}
+
 }
@@ -22,6 +22,8 @@ import static org.xmlcml.euclid.test.EuclidTestBase.getAssertFormat;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 import nu.xom.Document;
 import nu.xom.Element;
@@ -1167,6 +1169,93 @@ public class CMLFormulaTest {
 		Assert.assertEquals("concise", "C 1 H 3 F 1 N 1 O 1 S 1", form.getConcise());
 	}
 
+	private static CMLMolecule makeIonPair(String prefix) {
+		CMLMolecule molecule = new CMLMolecule();
+		CMLAtom o = new CMLAtom(prefix + "1", AS.O);
+		o.setFormalCharge(-1);
+		molecule.addAtom(o);
+		CMLAtom c = new CMLAtom(prefix + "2", AS.C);
+		c.setHydrogenCount(3);
+		molecule.addAtom(c);
+		molecule.addAtom(new CMLAtom(prefix + "3", AS.N));
+		CMLAtom h = new CMLAtom(prefix + "4", AS.H);
+		h.setFormalCharge(1);
+		molecule.addAtom(h);
+		CMLAtom h1 = new CMLAtom(prefix + "5", AS.H);
+		molecule.addAtom(h1);
+		molecule.addBond(new CMLBond(c, h1));
+		molecule.addAtom(new CMLAtom(prefix + "6", AS.Cl));
+		return molecule;
+	}
+
+	/**
+	 * Test method for
+	 * 'org.xmlcml.cml.element.CMLFormula.CMLFormula(CMLMolecule)'
+	 */
+	@Test
+	public void testCMLFormulaCMLMoleculeAsAdd() {
+		CMLFormula form = new CMLFormula(makeIonPair("a"));
+		// as built atom by atom
+		CMLFormula expected = new CMLFormula();
+		expected.add(AS.O.value, 1.0);
+		expected.add(AS.C.value, 1.0);
+		expected.add(AS.H.value, 3.0);
+		expected.add(AS.N.value, 1.0);
+		expected.add(AS.H.value, 1.0);
+		expected.add(AS.Cl.value, 1.0);
+		expected.setFormalCharge(0);
+		CMLXOMTestUtils.assertEqualsCanonically("formula", expected, form);
+		Assert.assertEquals("concise", "C 1 H 4 Cl 1 N 1 O 1", form.getConcise());
+		Assert.assertEquals("empty", null, new CMLFormula(new CMLMolecule()).getConcise());
+	}
+
+	/**
+	 * isotopes of hydrogen are counted apart from H.
+	 */
+	@Test
+	public void testCMLFormulaCMLMoleculeIsotopes() {
+		CMLMolecule molecule = new CMLMolecule();
+		CMLAtom d = new CMLAtom("a1");
+		d.setElementType("D");
+		molecule.addAtom(d);
+		CMLAtom c = new CMLAtom("a2", AS.C);
+		c.setHydrogenCount(3);
+		molecule.addAtom(c);
+		CMLAtom t = new CMLAtom("a3");
+		t.setElementType("T");
+		molecule.addAtom(t);
+		CMLFormula form = new CMLFormula(molecule);
+		CMLFormula expected = new CMLFormula();
+		expected.add("D", 1.0);
+		expected.add(AS.C.value, 1.0);
+		expected.add(AS.H.value, 3.0);
+		expected.add("T", 1.0);
+		expected.setFormalCharge(0);
+		CMLXOMTestUtils.assertEqualsCanonically("formula", expected, form);
+		Assert.assertEquals("concise", "C 1 H 3 D 1 T 1", form.getConcise());
+	}
+
+	/**
+	 * Test method for
+	 * 'org.xmlcml.cml.element.CMLFormula.createFormula(List<CMLMolecule>)'
+	 */
+	@Test
+	public void testCreateFormulaListOfCMLMolecule() {
+		List<CMLMolecule> molecules = new ArrayList<CMLMolecule>();
+		molecules.add(makeIonPair("a"));
+		molecules.add(makeIonPair("b"));
+		CMLMolecule carbon = new CMLMolecule();
+		for (int i = 0; i < 10000; i++) {
+			carbon.addAtom(new CMLAtom("c" + i, AS.C));
+		}
+		molecules.add(carbon);
+		CMLFormula form = CMLFormula.createFormula(molecules);
+		Assert.assertEquals("concise", "C 10002 H 8 Cl 2 N 2 O 2", form.getConcise());
+		Assert.assertEquals("count", 10000.0, new CMLFormula(carbon).getTotalAtomCount(), EPS);
+		molecules.get(0).getAtom(0).setFormalCharge(-2);
+		Assert.assertEquals("charge", -1, CMLFormula.createFormula(molecules).getFormalCharge());
+	}
+
 	/**
 	 * Test method for 'org.xmlcml.cml.element.CMLFormula.normalize()'
 	 * 
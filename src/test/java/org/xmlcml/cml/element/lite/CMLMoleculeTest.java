@@ -263,6 +263,152 @@ public class CMLMoleculeTest {
 				.getAtomRefs2());
 	}
 
+	private static CMLMolecule makeChain(String id, int natoms) {
+		CMLMolecule molecule = new CMLMolecule();
+		molecule.setId(id);
+		for (int i = 0; i < natoms; i++) {
+			CMLAtom atom = new CMLAtom("a" + i, AS.C);
+			molecule.addAtom(atom);
+			if (i > 0) {
+				molecule.addBond(new CMLBond(molecule.getAtom(i - 1), atom));
+			}
+		}
+		return molecule;
+	}
+
+	/**
+	 * Test method for
+	 * 'org.xmlcml.cml.element.CMLMolecule.getBond(CMLAtom, CMLAtom)'
+	 */
+	@Test
+	public void testGetBondLargeMolecule() {
+		int natoms = 10000;
+		CMLMolecule molecule = makeChain("m1", natoms);
+		List<CMLAtom> atoms = molecule.getAtoms();
+		for (int i = 1; i < natoms; i++) {
+			CMLBond bond = molecule.getBond(atoms.get(i), atoms.get(i - 1));
+			Assert.assertNotNull("bond", bond);
+			Assert.assertSame("bond", bond, molecule.getBond(atoms.get(i - 1), atoms.get(i)));
+			Assert.assertEquals("bond", CMLBond.atomHash(atoms.get(i - 1), atoms.get(i)), bond.atomHash());
+		}
+		for (int i = 2; i < natoms; i++) {
+			Assert.assertNull("no bond", molecule.getBond(atoms.get(i), atoms.get(i - 2)));
+		}
+		Assert.assertNull("same atom", molecule.getBond(atoms.get(1), atoms.get(1)));
+		Assert.assertNull("null atom", molecule.getBond(atoms.get(1), null));
+		// atoms from another molecule are matched on ids
+		CMLMolecule other = makeChain("m2", 3);
+		CMLBond bond = molecule.getBond(other.getAtom(1), other.getAtom(2));
+		Assert.assertNotNull("other", bond);
+		Assert.assertEquals("other", molecule, bond.getMolecule());
+	}
+
+	/**
+	 * Test method for
+	 * 'org.xmlcml.cml.element.CMLMolecule.getBond(CMLAtom, CMLAtom)'
+	 */
+	@Test
+	public void testGetBondContainer() {
+		CMLMolecule container = new CMLMolecule();
+		CMLMolecule child1 = makeChain("m1", 3);
+		CMLMolecule child2 = makeChain("m2", 3);
+		container.appendChild(child1);
+		container.appendChild(child2);
+		Assert.assertEquals("bonds", 4, container.getBondCount());
+		// same ids in both children
+		CMLBond bond = container.getBond(child2.getAtom(0), child2.getAtom(1));
+		Assert.assertEquals("child2", child2, bond.getMolecule());
+		Assert.assertNull("different children", container.getBond(child1.getAtom(0), child2.getAtom(1)));
+	}
+
+	/**
+	 * Test method for
+	 * 'org.xmlcml.cml.element.CMLMolecule.createBondsFromCoordinates()'
+	 */
+	@Test
+	public void testCreateBondsFromCoordinates() {
+		CMLMolecule molecule = BondPerceptionBenchmark.makeGrid(6, 1L);
+		int nbonds = BondPerceptionBenchmark.countNaiveBonds(molecule);
+		Assert.assertEquals("naive", 3 * 6 * 6 * 5, nbonds);
+		molecule.addBond(new CMLBond(molecule.getAtom(0), molecule.getAtom(1)));
+		List<CMLBond> bonds = molecule.createBondsFromCoordinates();
+		Assert.assertEquals("new bonds", nbonds - 1, bonds.size());
+		Assert.assertEquals("bonds", nbonds, molecule.getBondCount());
+		Assert.assertEquals("ligands", 3, molecule.getAtom(0).getLigandAtoms().size());
+		// atom in the middle of the grid
+		Assert.assertEquals("ligands", 6, molecule.getAtom(3 * 36 + 3 * 6 + 3).getLigandAtoms().size());
+		Assert.assertEquals("again", 0, molecule.createBondsFromCoordinates().size());
+
+		// no bonds between child molecules
+		CMLMolecule container = new CMLMolecule();
+		CMLMolecule child1 = BondPerceptionBenchmark.makeGrid(3, 2L);
+		CMLMolecule child2 = BondPerceptionBenchmark.makeGrid(3, 3L);
+		child1.setId("m1");
+		child2.setId("m2");
+		container.appendChild(child1);
+		container.appendChild(child2);
+		Assert.assertEquals("container", 2 * 3 * 3 * 3 * 2, container.createBondsFromCoordinates().size());
+		Assert.assertEquals("child", 3 * 3 * 3 * 2, child2.getBondCount());
+
+		// a caesium in the middle bonds to its 32 neighbours within 3.0
+		molecule = BondPerceptionBenchmark.makeGrid(6, 4L);
+		CMLAtom caesium = molecule.getAtom(3 * 36 + 3 * 6 + 3);
+		caesium.setElementType("Cs");
+		nbonds = BondPerceptionBenchmark.countNaiveBonds(molecule);
+		Assert.assertEquals("naive", 3 * 6 * 6 * 5 - 6 + 32, nbonds);
+		Assert.assertEquals("caesium", nbonds, molecule.createBondsFromCoordinates().size());
+		Assert.assertEquals("ligands", 32, caesium.getLigandAtoms().size());
+	}
+
+	/**
+	 * Test method for 'org.xmlcml.cml.element.CMLMolecule.getAtoms()' and
+	 * 'org.xmlcml.cml.element.CMLMolecule.getBonds()'
+	 */
+	@Test
+	public void testCachedAtomsAndBonds() {
+		CMLMolecule molecule = makeChain("m1", 3);
+		List<CMLAtom> atoms = molecule.getAtoms();
+		List<CMLBond> bonds = molecule.getBonds();
+		Assert.assertSame("cached", atoms, molecule.getAtoms());
+		Assert.assertSame("cached", bonds, molecule.getBonds());
+		try {
+			atoms.remove(0);
+			Assert.fail("should be unmodifiable");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		CMLAtom atom = new CMLAtom("a3", AS.O);
+		molecule.addAtom(atom);
+		Assert.assertEquals("addAtom", 4, molecule.getAtomCount());
+		Assert.assertEquals("old list", 3, atoms.size());
+		CMLBond bond = new CMLBond(molecule.getAtom(2), atom);
+		molecule.addBond(bond);
+		Assert.assertEquals("addBond", 3, molecule.getBondCount());
+		molecule.deleteBond(bond);
+		Assert.assertEquals("deleteBond", 2, molecule.getBondCount());
+		molecule.deleteAtom(atom);
+		Assert.assertEquals("deleteAtom", 3, molecule.getAtomCount());
+		// changes through XOM
+		molecule.getAtomArray().appendChild(atom);
+		Assert.assertEquals("appendChild", 4, molecule.getAtomCount());
+		atom.detach();
+		Assert.assertEquals("detach", 3, molecule.getAtomCount());
+		molecule.getBonds().get(0).detach();
+		Assert.assertEquals("detach", 1, molecule.getBondCount());
+
+		// child molecules
+		CMLMolecule container = makeChain("m2", 2);
+		Assert.assertEquals("atoms", 2, container.getAtomCount());
+		container.appendMolecule(molecule);
+		Assert.assertEquals("appendMolecule", 5, container.getAtomCount());
+		Assert.assertEquals("appendMolecule", 2, container.getBondCount());
+		molecule.addAtom(new CMLAtom("a4", AS.N));
+		Assert.assertEquals("child addAtom", 6, container.getAtomCount());
+		molecule.detach();
+		Assert.assertEquals("child detach", 2, container.getAtomCount());
+		Assert.assertEquals("child detach", 1, container.getBondCount());
+	}
+
 	/**
 	 * Test method for 'org.xmlcml.cml.element.CMLMolecule.getBondCount()'
 	 */
@@ -0,0 +1,85 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.element.lite;
+
+import java.util.List;
+import java.util.Random;
+
+import org.xmlcml.cml.base.CMLElement.CoordinateType;
+import org.xmlcml.cml.element.AtomDistanceMatrix;
+import org.xmlcml.cml.element.AtomDistanceMatrix.Precision;
+import org.xmlcml.cml.element.CMLAtom;
+import org.xmlcml.cml.element.CMLAtomSet;
+import org.xmlcml.euclid.Point3;
+import org.xmlcml.euclid.Real2;
+import org.xmlcml.molutil.ChemicalElement.AS;
+
+/**
+ * compares CMLAtomSet.getDistanceMatrix() (2D, through Real2) with
+ * AtomDistanceMatrix (3D).
+ * <pre>
+ * java -cp ... org.xmlcml.cml.element.lite.DistanceMatrixBenchmark [natoms [cutoff]]
+ * </pre>
+ * prints the times in milliseconds (defaults 5000 atoms, cutoff 3.0)
+ * for atoms at random in a box with about one atom per 10 A^3.
+ */
+public class DistanceMatrixBenchmark {
+
+    /**
+     * @param args [natoms [cutoff]]
+     */
+    public static void main(String[] args) {
+        int natoms = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+        double cutoff = (args.length > 1) ? Double.parseDouble(args[1]) : 3.0;
+        double size = Math.cbrt(10.0 * natoms);
+        Random random = new Random(1L);
+        CMLAtom[] atoms = new CMLAtom[natoms];
+        for (int i = 0; i < natoms; i++) {
+            atoms[i] = new CMLAtom("a" + i, AS.C);
+            double x = size * random.nextDouble();
+            double y = size * random.nextDouble();
+            atoms[i].setXYZ3(new Point3(x, y, size * random.nextDouble()));
+            atoms[i].setXY2(new Real2(x, y));
+        }
+        CMLAtomSet atomSet = new CMLAtomSet(atoms);
+        List<CMLAtom> atomList = atomSet.getAtoms();
+
+        for (int pass = 0; pass < 2; pass++) {
+            // first pass is warm-up
+            long start = System.nanoTime();
+            atomSet.getDistanceMatrix(atomSet);
+            long old2D = (System.nanoTime() - start) / 1000000;
+            start = System.nanoTime();
+            AtomDistanceMatrix.createDense(atomList, atomList,
+                    CoordinateType.CARTESIAN, null, Precision.DOUBLE);
+            long dense = (System.nanoTime() - start) / 1000000;
+            start = System.nanoTime();
+            AtomDistanceMatrix.createDense(atomList, atomList,
+                    CoordinateType.CARTESIAN, null, Precision.FLOAT);
+            long denseFloat = (System.nanoTime() - start) / 1000000;
+            start = System.nanoTime();
+            int count = AtomDistanceMatrix.createSparse(atomList, atomList,
+                    CoordinateType.CARTESIAN, null, cutoff, Precision.FLOAT).getCount();
+            long sparse = (System.nanoTime() - start) / 1000000;
+            if (pass == 1) {
+                System.out.println(natoms+" atoms: getDistanceMatrix (2D) "+old2D+
+                        " ms, dense double "+dense+" ms, dense float "+denseFloat+
+                        " ms, sparse within "+cutoff+" "+sparse+" ms ("+count+" distances)");
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.element.lite;
+
+import java.util.List;
+
+import org.xmlcml.cml.base.CMLConstants;
+import org.xmlcml.cml.base.CMLQuery;
+import org.xmlcml.cml.element.CMLAtom;
+import org.xmlcml.cml.element.CMLMolecule;
+import org.xmlcml.cml.element.CMLPeak;
+import org.xmlcml.cml.element.CMLPeakList;
+import org.xmlcml.molutil.ChemicalElement.AS;
+
+/**
+ * compares CMLQuery with XOM XPath for the paths used by CMLPeakList
+ * and CMLMolecule.getAncestorMolecule().
+ * <pre>
+ * java -cp ... org.xmlcml.cml.element.lite.QueryBenchmark [npeaks [natoms]]
+ * </pre>
+ * prints the times in milliseconds (defaults 1000 peaks, 1000 atoms).
+ */
+public class QueryBenchmark {
+
+    private static final int REPEAT = 200;
+
+    /**
+     * @param args [npeaks [natoms]]
+     */
+    public static void main(String[] args) {
+        int npeaks = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+        int natoms = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+
+        CMLPeakList peakList = new CMLPeakList();
+        for (int i = 0; i < npeaks; i++) {
+            CMLPeak peak = new CMLPeak();
+            peak.setXValue(i);
+            peakList.addPeak(peak);
+        }
+        CMLMolecule molecule = new CMLMolecule();
+        for (int i = 0; i < natoms; i++) {
+            molecule.addAtom(new CMLAtom("a" + i, AS.C));
+        }
+        List<CMLAtom> atoms = molecule.getAtoms();
+        CMLQuery peaks = CMLQuery.compile("./cml:peak");
+        CMLQuery ancestors = CMLQuery.compile("ancestor::cml:molecule");
+
+        for (int pass = 0; pass < 2; pass++) {
+            // first pass is warm-up
+            int count = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < REPEAT; i++) {
+                count += peakList.query("./cml:peak", CMLConstants.CML_XPATH).size();
+            }
+            long xpathPeaks = (System.nanoTime() - start) / 1000000;
+            start = System.nanoTime();
+            for (int i = 0; i < REPEAT; i++) {
+                count += peaks.list(peakList, CMLPeak.class).size();
+            }
+            long queryPeaks = (System.nanoTime() - start) / 1000000;
+            start = System.nanoTime();
+            for (CMLAtom atom : atoms) {
+                count += atom.query("ancestor::cml:molecule", CMLConstants.CML_XPATH).size();
+            }
+            long xpathAncestors = (System.nanoTime() - start) / 1000000;
+            start = System.nanoTime();
+            for (CMLAtom atom : atoms) {
+                count += (ancestors.first(atom) == null) ? 0 : 1;
+            }
+            long queryAncestors = (System.nanoTime() - start) / 1000000;
+            if (pass == 1) {
+                System.out.println(REPEAT+" x ./cml:peak on "+npeaks+" peaks: XPath "+
+                        xpathPeaks+" ms, CMLQuery "+queryPeaks+" ms");
+                System.out.println("ancestor::cml:molecule for "+natoms+" atoms: XPath "+
+                        xpathAncestors+" ms, CMLQuery "+queryAncestors+" ms ("+count+")");
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.element.main;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.cml.base.CMLElement.CoordinateType;
+import org.xmlcml.cml.element.AtomDistanceMatrix;
+import org.xmlcml.cml.element.AtomDistanceMatrix.Precision;
+import org.xmlcml.cml.element.AtomDistanceMatrix.Sparse;
+import org.xmlcml.cml.element.CMLAtom;
+import org.xmlcml.cml.element.CMLAtomSet;
+import org.xmlcml.cml.element.CMLCrystal;
+import org.xmlcml.cml.element.CMLMolecule;
+import org.xmlcml.euclid.Point3;
+import org.xmlcml.euclid.RealMatrix;
+import org.xmlcml.molutil.ChemicalElement.AS;
+
+/**
+ * test AtomDistanceMatrix.
+ */
+public class AtomDistanceMatrixTest {
+
+    private static CMLMolecule makeMolecule(int natoms, double size, long seed) {
+        Random random = new Random(seed);
+        CMLMolecule molecule = new CMLMolecule();
+        for (int i = 0; i < natoms; i++) {
+            CMLAtom atom = new CMLAtom("a" + i, AS.C);
+            Point3 point = new Point3(size * random.nextDouble(),
+                    size * random.nextDouble(), size * random.nextDouble());
+            atom.setXYZ3(point);
+            atom.setXYZFract(new Point3(point.getArray()[0] / 10.0,
+                    point.getArray()[1] / 10.0, point.getArray()[2] / 10.0));
+            molecule.addAtom(atom);
+        }
+        return molecule;
+    }
+
+    /**
+     */
+    @Test
+    public void testDense() {
+        // large enough to run in parallel and over several tiles
+        List<CMLAtom> atoms = makeMolecule(700, 20.0, 1L).getAtoms();
+        List<CMLAtom> atoms2 = atoms.subList(100, 400);
+        AtomDistanceMatrix matrix = AtomDistanceMatrix.createDense(
+                atoms, atoms2, CoordinateType.CARTESIAN, null, Precision.DOUBLE);
+        AtomDistanceMatrix floatMatrix = AtomDistanceMatrix.createDense(
+                atoms, atoms2, CoordinateType.CARTESIAN, null, Precision.FLOAT);
+        Assert.assertEquals("rows", 700, matrix.getRows());
+        Assert.assertEquals("cols", 300, matrix.getColumns());
+        Assert.assertEquals("float", Precision.FLOAT, floatMatrix.getPrecision());
+        for (int i = 0; i < atoms.size(); i += 7) {
+            for (int j = 0; j < atoms2.size(); j += 3) {
+                double d = atoms.get(i).getXYZ3().getDistanceFromPoint(atoms2.get(j).getXYZ3());
+                Assert.assertEquals("distance", d, matrix.get(i, j), 1.0e-12);
+                Assert.assertEquals("float distance", d, floatMatrix.get(i, j), 1.0e-5);
+            }
+        }
+        Assert.assertEquals("self", 0.0, matrix.get(150, 50), 0.0);
+        RealMatrix realMatrix = matrix.getRealMatrix();
+        Assert.assertEquals("real", matrix.get(699, 299), realMatrix.elementAt(699, 299), 0.0);
+        try {
+            matrix.get(700, 0);
+            Assert.fail("should fail");
+        } catch (IndexOutOfBoundsException e) {
+        }
+    }
+
+    /**
+     */
+    @Test
+    public void testDenseSymmetric() {
+        // one triangle is computed and copied, over several tiles
+        List<CMLAtom> atoms = makeMolecule(700, 20.0, 5L).getAtoms();
+        AtomDistanceMatrix matrix = AtomDistanceMatrix.createDense(
+                atoms, atoms, CoordinateType.CARTESIAN, null, Precision.DOUBLE);
+        AtomDistanceMatrix floatMatrix = AtomDistanceMatrix.createDense(
+                atoms, atoms, CoordinateType.CARTESIAN, null, Precision.FLOAT);
+        for (int i = 0; i < atoms.size(); i++) {
+            for (int j = 0; j < atoms.size(); j++) {
+                double d = atoms.get(i).getXYZ3().getDistanceFromPoint(atoms.get(j).getXYZ3());
+                Assert.assertEquals("distance "+i+" "+j, d, matrix.get(i, j), 1.0e-12);
+                Assert.assertEquals("float distance", d, floatMatrix.get(i, j), 1.0e-5);
+            }
+        }
+    }
+
+    /**
+     */
+    @Test
+    public void testFractional() {
+        List<CMLAtom> atoms = makeMolecule(50, 20.0, 2L).getAtoms();
+        CMLCrystal crystal = new CMLCrystal(new double[] { 10.0, 10.0, 10.0, 90.0, 90.0, 90.0 });
+        AtomDistanceMatrix cartesian = AtomDistanceMatrix.createDense(
+                atoms, atoms, CoordinateType.CARTESIAN, null, Precision.DOUBLE);
+        AtomDistanceMatrix fractional = AtomDistanceMatrix.createDense(
+                atoms, atoms, CoordinateType.FRACTIONAL, crystal, Precision.DOUBLE);
+        for (int i = 0; i < atoms.size(); i++) {
+            for (int j = 0; j < atoms.size(); j++) {
+                Assert.assertEquals("fractional", cartesian.get(i, j), fractional.get(i, j), 1.0e-10);
+            }
+        }
+        try {
+            AtomDistanceMatrix.createDense(atoms, atoms, CoordinateType.FRACTIONAL, null, Precision.DOUBLE);
+            Assert.fail("should fail");
+        } catch (RuntimeException e) {
+        }
+    }
+
+    /**
+     */
+    @Test
+    public void testSparse() {
+        List<CMLAtom> atoms = makeMolecule(500, 20.0, 3L).getAtoms();
+        AtomDistanceMatrix dense = AtomDistanceMatrix.createDense(
+                atoms, atoms, CoordinateType.CARTESIAN, null, Precision.DOUBLE);
+        Sparse sparse = AtomDistanceMatrix.createSparse(
+                atoms, atoms, CoordinateType.CARTESIAN, null, 3.0, Precision.DOUBLE);
+        Sparse floatSparse = AtomDistanceMatrix.createSparse(
+                atoms, atoms, CoordinateType.CARTESIAN, null, 3.0, Precision.FLOAT);
+        int count = 0;
+        for (int i = 0; i < atoms.size(); i++) {
+            int[] columns = sparse.getColumns(i);
+            double[] distances = sparse.getDistances(i);
+            int k = 0;
+            for (int j = 0; j < atoms.size(); j++) {
+                double d = dense.get(i, j);
+                if (d <= 3.0) {
+                    Assert.assertEquals("column", j, columns[k]);
+                    Assert.assertEquals("distance", d, distances[k], 0.0);
+                    Assert.assertEquals("get", d, sparse.get(i, j), 0.0);
+                    Assert.assertEquals("float", d, floatSparse.get(i, j), 1.0e-5);
+                    k++;
+                    count++;
+                } else {
+                    Assert.assertTrue("beyond cutoff", Double.isNaN(sparse.get(i, j)));
+                }
+            }
+            Assert.assertEquals("row", k, columns.length);
+        }
+        Assert.assertEquals("count", count, sparse.getCount());
+        Assert.assertEquals("float count", count, floatSparse.getCount());
+        Assert.assertTrue("not empty", count > atoms.size());
+    }
+
+    /**
+     */
+    @Test
+    public void testAtomSet() {
+        CMLAtomSet atomSet = CMLAtomSet.createFromAtoms(makeMolecule(20, 10.0, 4L).getAtoms());
+        AtomDistanceMatrix matrix = atomSet.getDistanceMatrix3(atomSet, CoordinateType.CARTESIAN, null);
+        Assert.assertEquals("rows", 20, matrix.getRows());
+        Assert.assertEquals("symmetric", matrix.get(3, 17), matrix.get(17, 3), 0.0);
+        CMLAtom atom = new CMLAtom("x", AS.C);
+        atomSet.addAtom(atom);
+        try {
+            atomSet.getDistanceMatrix3(atomSet, CoordinateType.CARTESIAN, null);
+            Assert.fail("should fail");
+        } catch (RuntimeException e) {
+            Assert.assertTrue("no coordinates", e.getMessage().startsWith("atom has no"));
+        }
+    }
+}
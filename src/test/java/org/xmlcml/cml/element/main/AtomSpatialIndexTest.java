@@ -0,0 +1,253 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.element.main;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.cml.base.CMLElement.CoordinateType;
+import org.xmlcml.cml.element.AtomSpatialIndex;
+import org.xmlcml.cml.element.AtomSpatialIndex.Contact;
+import org.xmlcml.cml.element.CMLAtom;
+import org.xmlcml.cml.element.CMLBond;
+import org.xmlcml.cml.element.CMLCrystal;
+import org.xmlcml.cml.element.CMLMolecule;
+import org.xmlcml.euclid.Point3;
+import org.xmlcml.euclid.Transform3;
+import org.xmlcml.molutil.ChemicalElement.AS;
+
+/**
+ * test AtomSpatialIndex.
+ */
+public class AtomSpatialIndexTest {
+
+    private static CMLMolecule makeCartesianMolecule(int natoms, double size, long seed) {
+        Random random = new Random(seed);
+        CMLMolecule molecule = new CMLMolecule();
+        for (int i = 0; i < natoms; i++) {
+            CMLAtom atom = new CMLAtom("a" + i, AS.C);
+            atom.setXYZ3(new Point3(size * random.nextDouble(),
+                    size * random.nextDouble(), size * random.nextDouble()));
+            molecule.addAtom(atom);
+        }
+        return molecule;
+    }
+
+    private static CMLMolecule makeFractionalMolecule(int natoms, long seed) {
+        Random random = new Random(seed);
+        CMLMolecule molecule = new CMLMolecule();
+        for (int i = 0; i < natoms; i++) {
+            CMLAtom atom = new CMLAtom("a" + i, AS.O);
+            // some outside the unit cell
+            atom.setXYZFract(new Point3(2 * random.nextDouble() - 0.5,
+                    random.nextDouble(), random.nextDouble() - 1.0));
+            molecule.addAtom(atom);
+        }
+        return molecule;
+    }
+
+    /**
+     */
+    @Test
+    public void testCartesian() {
+        CMLMolecule molecule = makeCartesianMolecule(1000, 24.0, 1L);
+        List<CMLAtom> atoms = molecule.getAtoms();
+        double radius = 2.5;
+        AtomSpatialIndex index = new AtomSpatialIndex(molecule, CoordinateType.CARTESIAN, null, radius);
+        Assert.assertFalse("periodic", index.isPeriodic());
+        int count = 0;
+        for (int i = 0; i < atoms.size(); i++) {
+            for (int j = i + 1; j < atoms.size(); j++) {
+                if (atoms.get(i).getDistanceTo(atoms.get(j)) <= radius) {
+                    count++;
+                }
+            }
+        }
+        List<Contact> contacts = index.getContacts(radius);
+        Assert.assertEquals("contacts", count, contacts.size());
+        for (Contact contact : contacts) {
+            Assert.assertEquals("distance", contact.getAtom1().getDistanceTo(contact.getAtom2()),
+                    contact.getDistance(), 1.0e-10);
+        }
+
+        CMLAtom atom = atoms.get(17);
+        List<CMLAtom> within = index.getAtomsWithin(atom, 4.0);
+        int n = 0;
+        for (CMLAtom atom2 : atoms) {
+            if (atom2 != atom && atom.getDistanceTo(atom2) <= 4.0) {
+                n++;
+                Assert.assertTrue("within", within.contains(atom2));
+            }
+        }
+        Assert.assertEquals("within", n, within.size());
+        for (int i = 1; i < within.size(); i++) {
+            Assert.assertTrue("sorted", atom.getDistanceTo(within.get(i - 1)) <= atom.getDistanceTo(within.get(i)));
+        }
+
+        List<CMLAtom> nearest = index.getNearestAtoms(atom, 20);
+        Assert.assertEquals("nearest", 20, nearest.size());
+        double d19 = atom.getDistanceTo(nearest.get(19));
+        int closer = 0;
+        for (CMLAtom atom2 : atoms) {
+            if (atom2 != atom && atom.getDistanceTo(atom2) < d19) {
+                closer++;
+            }
+        }
+        Assert.assertEquals("nearest", 19, closer);
+        // point far outside the atoms
+        Assert.assertEquals("far", 3, index.getNearestAtoms(new Point3(100, 100, 100), 3).size());
+        Assert.assertEquals("all", 999, index.getNearestAtoms(atom, 5000).size());
+    }
+
+    /**
+     */
+    @Test
+    public void testPeriodic() {
+        CMLCrystal crystal = new CMLCrystal(new double[] { 9.0, 10.0, 11.0, 80.0, 95.0, 105.0 });
+        Transform3 orth = crystal.getOrthogonalizationTransform();
+        CMLMolecule molecule = makeFractionalMolecule(500, 2L);
+        List<CMLAtom> atoms = molecule.getAtoms();
+        double radius = 3.0;
+        // brute force over neighbouring images
+        int count = 0;
+        for (int i = 0; i < atoms.size(); i++) {
+            for (int j = i + 1; j < atoms.size(); j++) {
+                double[] fi = atoms.get(i).getXYZFract().getArray();
+                double[] fj = atoms.get(j).getXYZFract().getArray();
+                double[] df = new double[3];
+                for (int d = 0; d < 3; d++) {
+                    df[d] = (fj[d] - Math.floor(fj[d])) - (fi[d] - Math.floor(fi[d]));
+                }
+                for (int si = -1; si <= 1; si++) {
+                    for (int sj = -1; sj <= 1; sj++) {
+                        for (int sk = -1; sk <= 1; sk++) {
+                            Point3 p = new Point3(df[0] + si, df[1] + sj, df[2] + sk).transform(orth);
+                            if (p.getDistanceFromPoint(new Point3(0, 0, 0)) <= radius) {
+                                count++;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        AtomSpatialIndex index = new AtomSpatialIndex(molecule, CoordinateType.FRACTIONAL, crystal, radius);
+        Assert.assertTrue("periodic", index.isPeriodic());
+        Assert.assertTrue("count", count > 0);
+        Assert.assertEquals("fractional", count, index.getContacts(radius).size());
+
+        // same atoms with cartesian coordinates outside the cell
+        for (CMLAtom atom : atoms) {
+            atom.setXYZ3(atom.getXYZFract().transform(orth));
+        }
+        AtomSpatialIndex index3 = new AtomSpatialIndex(atoms, CoordinateType.CARTESIAN, crystal, radius);
+        Assert.assertEquals("cartesian", count, index3.getContacts(radius).size());
+        Assert.assertEquals("within", index.getAtomsWithin(atoms.get(3), radius),
+                index3.getAtomsWithin(atoms.get(3), radius));
+    }
+
+    /**
+     */
+    @Test
+    public void testRadiusContacts() {
+        CMLMolecule molecule = makeCartesianMolecule(1000, 24.0, 4L);
+        List<CMLAtom> atoms = molecule.getAtoms();
+        double[] radii = new double[atoms.size()];
+        Random random = new Random(5L);
+        for (int i = 0; i < radii.length; i++) {
+            radii[i] = 0.3 + random.nextDouble();
+        }
+        // one large radius must not change the other pairs
+        radii[7] = 4.0;
+        double tolerance = 0.4;
+        AtomSpatialIndex index = new AtomSpatialIndex(molecule, CoordinateType.CARTESIAN, null, 2.0);
+        int count = 0;
+        for (int i = 0; i < atoms.size(); i++) {
+            for (int j = i + 1; j < atoms.size(); j++) {
+                if (atoms.get(i).getDistanceTo(atoms.get(j)) < radii[i] + radii[j] + tolerance) {
+                    count++;
+                }
+            }
+        }
+        List<Contact> contacts = index.getContacts(radii, tolerance);
+        Assert.assertEquals("contacts", count, contacts.size());
+        for (Contact contact : contacts) {
+            int i = atoms.indexOf(contact.getAtom1());
+            int j = atoms.indexOf(contact.getAtom2());
+            Assert.assertTrue("order", i < j);
+            Assert.assertTrue("distance", contact.getDistance() < radii[i] + radii[j] + tolerance);
+        }
+        try {
+            index.getContacts(new double[3], tolerance);
+            Assert.fail("should throw");
+        } catch (RuntimeException e) {
+        }
+    }
+
+    /**
+     */
+    @Test
+    public void testSmallCell() {
+        CMLCrystal crystal = new CMLCrystal(new double[] { 2.0, 2.0, 2.0, 90.0, 90.0, 90.0 });
+        List<CMLAtom> atoms = new ArrayList<CMLAtom>();
+        CMLAtom atom = new CMLAtom("a1", AS.Na);
+        atom.setXYZFract(new Point3(0.5, 0.5, 0.5));
+        atoms.add(atom);
+        AtomSpatialIndex index = new AtomSpatialIndex(atoms, CoordinateType.FRACTIONAL, crystal, 1.0);
+        // the 6 face-sharing images
+        Assert.assertEquals("images", 6, index.getAtomsWithin(atom, 2.5).size());
+        Assert.assertEquals("contacts", 3, index.getContacts(2.5).size());
+        Assert.assertEquals("nearest", 4, index.getNearestAtoms(atom, 4).size());
+        Assert.assertEquals("distance", 2.0, index.getContacts(2.5).get(0).getDistance(), 1.0e-10);
+    }
+
+    /**
+     */
+    @Test
+    public void testNonBondedContacts() {
+        CMLMolecule molecule = makeCartesianMolecule(3, 0.0, 3L);
+        molecule.getAtom(0).setXYZ3(new Point3(0.0, 0.0, 0.0));
+        molecule.getAtom(1).setXYZ3(new Point3(1.5, 0.0, 0.0));
+        molecule.getAtom(2).setXYZ3(new Point3(0.0, 2.0, 0.0));
+        molecule.addBond(new CMLBond(molecule.getAtom(0), molecule.getAtom(1)));
+        AtomSpatialIndex index = new AtomSpatialIndex(molecule, CoordinateType.CARTESIAN, null, 3.0);
+        Assert.assertEquals("contacts", 3, index.getContacts(3.0).size());
+        List<Contact> contacts = index.getNonBondedContacts(3.0);
+        Assert.assertEquals("nonbonded", 2, contacts.size());
+        for (Contact contact : contacts) {
+            Assert.assertTrue("nonbonded", contact.getAtom1() == molecule.getAtom(2) ||
+                    contact.getAtom2() == molecule.getAtom(2));
+        }
+    }
+
+    /**
+     */
+    @Test
+    public void testNoCrystal() {
+        try {
+            new AtomSpatialIndex(new ArrayList<CMLAtom>(), CoordinateType.FRACTIONAL, null, 1.0);
+            Assert.fail("should throw");
+        } catch (RuntimeException e) {
+            Assert.assertEquals("fractional coordinates need a crystal", e.getMessage());
+        }
+        AtomSpatialIndex index = new AtomSpatialIndex(new ArrayList<CMLAtom>(), CoordinateType.CARTESIAN, null, 1.0);
+        Assert.assertEquals("empty", 0, index.getNearestAtoms(new Point3(0, 0, 0), 3).size());
+        Assert.assertEquals("empty", 0, index.getContacts(1.0).size());
+    }
+}
@@ -30,6 +30,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.xmlcml.cml.base.CMLConstants;
 import org.xmlcml.cml.base.CMLElement.CoordinateType;
+import org.xmlcml.cml.base.CMLSerializer;
 import org.xmlcml.cml.element.CMLAtom;
 import org.xmlcml.cml.element.CMLAtomSet;
 import org.xmlcml.cml.element.CMLFormula;
@@ -1343,4 +1344,32 @@ public class CMLAtomSetTest {
 				.getXMLContent());
 	}
 
+	/**
+	 * Test method for 'org.xmlcml.cml.element.CMLAtomSet.setBuffered(boolean)'
+	 */
+	@Test
+	public void testSetBuffered() {
+		CMLMolecule molecule = new CMLMolecule();
+		for (int i = 0; i < 1000; i++) {
+			molecule.addAtom(new CMLAtom("a" + i, AS.C));
+		}
+		CMLAtomSet atomSet = new CMLAtomSet();
+		CMLAtomSet buffered = new CMLAtomSet();
+		buffered.setBuffered(true);
+		Assert.assertTrue("buffered", buffered.isBuffered());
+		for (CMLAtom atom : molecule.getAtoms()) {
+			atomSet.addAtom(atom);
+			buffered.addAtom(atom);
+		}
+		Assert.assertEquals("stale", "", buffered.getValue());
+		Assert.assertEquals("size", 1000, buffered.getSize());
+		Assert.assertEquals("content", atomSet.toXML(), buffered.toXML());
+		buffered.removeAtom(molecule.getAtom(0));
+		buffered.addAtom(molecule.getAtom(0));
+		String xml = new CMLSerializer().getXML(buffered);
+		Assert.assertTrue("serialized", xml.contains("a999 a0</atomSet>"));
+		Assert.assertTrue("serialized", xml.contains("size=\"1000\""));
+		buffered.setBuffered(false);
+		Assert.assertEquals("copy", buffered.toXML(), new CMLAtomSet(buffered).toXML());
+	}
 }
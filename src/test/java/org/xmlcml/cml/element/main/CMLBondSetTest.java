@@ -26,6 +26,7 @@ import java.util.Set;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.xmlcml.cml.base.CMLSerializer;
 import org.xmlcml.cml.element.CMLAtom;
 import org.xmlcml.cml.element.CMLAtomSet;
 import org.xmlcml.cml.element.CMLBond;
@@ -58,12 +59,12 @@ public class CMLBondSetTest {
 	@Before
 	public synchronized void setUp() throws Exception {
 		bondSet = new CMLBondSet(fixture.xmlMolecule);
-		bonds = fixture.xmlMolecule.getBonds();
+		bonds = new ArrayList<CMLBond>(fixture.xmlMolecule.getBonds());
 	}
 
 	private void makeBondSet12() {
-		List<CMLBond> bonds1 = fixture.xmlMolecule.getBonds();
-		List<CMLBond> bonds2 = fixture.xmlMolecule.getBonds();
+		List<CMLBond> bonds1 = new ArrayList<CMLBond>(fixture.xmlMolecule.getBonds());
+		List<CMLBond> bonds2 = new ArrayList<CMLBond>(fixture.xmlMolecule.getBonds());
 		bonds1.remove(1);
 		bonds2.remove(2);
 		bondSet1 = new CMLBondSet(bonds1);
@@ -71,8 +72,8 @@ public class CMLBondSetTest {
 	}
 
 	private void makeBondSet34() {
-		List<CMLBond> bonds3 = fixture.xmlMolecule.getBonds();
-		List<CMLBond> bonds4 = fixture.xmlMolecule.getBonds();
+		List<CMLBond> bonds3 = new ArrayList<CMLBond>(fixture.xmlMolecule.getBonds());
+		List<CMLBond> bonds4 = new ArrayList<CMLBond>(fixture.xmlMolecule.getBonds());
 		bonds3.remove(0);
 		bonds3.remove(1);
 		bonds4.remove(3);
@@ -323,7 +324,7 @@ public class CMLBondSetTest {
 	@Test
 	public final void testCMLBondSetListOfCMLBond() {
 		fixture.makeMol5a();
-		List<CMLBond> bondList = fixture.mol5a.getBonds();
+		List<CMLBond> bondList = new ArrayList<CMLBond>(fixture.mol5a.getBonds());
 		Assert.assertEquals("mol5a bonds", 4, bondList.size());
 		CMLBondSet bondSet = null;
 		bondSet = new CMLBondSet(bondList);
@@ -477,4 +478,27 @@ public class CMLBondSetTest {
 		}
 		Assert.assertTrue("compare atom sets", expectedSet.equals(foundSet));
 	}
+
+	/**
+	 * Test method for 'org.xmlcml.cml.element.CMLBondSet.setBuffered(boolean)'
+	 */
+	@Test
+	public void testSetBuffered() {
+		CMLBondSet buffered = new CMLBondSet();
+		buffered.setBuffered(true);
+		Assert.assertTrue("buffered", buffered.isBuffered());
+		for (CMLBond bond : bonds) {
+			buffered.addBond(bond);
+		}
+		Assert.assertEquals("stale", "", buffered.getValue());
+		Assert.assertEquals("size", 4, buffered.getSize());
+		Assert.assertEquals("content", bondSet.toXML(), buffered.toXML());
+		buffered.removeBond(bonds.get(0));
+		buffered.addBond(bonds.get(0));
+		String xml = new CMLSerializer().getXML(buffered);
+		Assert.assertTrue("serialized", xml.contains("b4 b1</bondSet>"));
+		buffered.setBuffered(false);
+		Assert.assertFalse("buffered", buffered.isBuffered());
+		Assert.assertEquals("copy", buffered.toXML(), new CMLBondSet(buffered).toXML());
+	}
 }
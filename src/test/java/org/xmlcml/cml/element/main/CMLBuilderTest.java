@@ -19,13 +19,32 @@ package org.xmlcml.cml.element.main;
 import static org.xmlcml.cml.element.main.AbstractTestBase.COMPLEX_RESOURCE;
 
 import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import junit.framework.Assert;
+import nu.xom.Attribute;
+import nu.xom.Builder;
+import nu.xom.Comment;
+import nu.xom.Document;
+import nu.xom.Element;
 import nu.xom.NodeFactory;
+import nu.xom.Text;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 import org.xmlcml.cml.base.CMLBuilder;
 import org.xmlcml.cml.base.CMLConstants;
+import org.xmlcml.cml.base.CMLElement;
+import org.xmlcml.cml.base.CMLUtil;
+import org.xmlcml.cml.element.CMLAtom;
+import org.xmlcml.cml.element.CMLMolecule;
+import org.xmlcml.cml.element.CMLScalar;
 import org.xmlcml.euclid.EuclidRuntimeException;
 import org.xmlcml.euclid.Util;
 
@@ -160,4 +179,186 @@ public class CMLBuilderTest {
 		}
 	}
 
+	/**
+	 * parses the same documents on many threads and checks that every
+	 * result is identical to the serial parse.
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentParse() throws Exception {
+		String[] files = {"castep2.xml", "castep3.xml", "TaC.xml", "spectrum4.xml"};
+		final List<String> xmlList = new ArrayList<String>();
+		final List<String> serialList = new ArrayList<String>();
+		for (String file : files) {
+			InputStream in = Util.getInputStreamFromResource(COMPLEX_RESOURCE +CMLConstants.U_S + file);
+			String xml = IOUtils.toString(in, "UTF-8");
+			in.close();
+			xmlList.add(xml);
+			Element root = new CMLBuilder().parseString(xml);
+			Assert.assertTrue("cml", root instanceof CMLElement);
+			serialList.add(CMLUtil.getCanonicalString(root));
+		}
+		int nThreads = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		List<Future<List<String>>> futureList = new ArrayList<Future<List<String>>>();
+		for (int i = 0; i < nThreads; i++) {
+			futureList.add(executor.submit(new Callable<List<String>>() {
+				public List<String> call() {
+					CMLBuilder builder = new CMLBuilder();
+					List<String> resultList = new ArrayList<String>();
+					for (int j = 0; j < 10; j++) {
+						for (String xml : xmlList) {
+							resultList.add(CMLUtil.getCanonicalString(builder.parseString(xml)));
+						}
+					}
+					return resultList;
+				}
+			}));
+		}
+		try {
+			for (Future<List<String>> future : futureList) {
+				List<String> resultList = future.get();
+				Assert.assertEquals("parses", 10 * serialList.size(), resultList.size());
+				for (int i = 0; i < resultList.size(); i++) {
+					Assert.assertEquals("parse "+i, serialList.get(i % serialList.size()), resultList.get(i));
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Test method for 'org.xmlcml.cml.base.CMLBuilder.setTrusted(boolean)'
+	 */
+	@Test
+	public void testSetTrusted() {
+		String s = "<molecule id='m1' " + CMLConstants.CML_XMLNS + ">" +
+			"<atomArray>" +
+			"<atom id='a1' elementType='C' formalCharge='1' x3='1.50' y3='0' z3='0'/>" +
+			"<atom id='a2' elementType='O' x3='2.70' y3='0' z3='0'/>" +
+			"</atomArray>" +
+			"<bondArray><bond atomRefs2='a1  a2' order='2'/></bondArray>" +
+			"</molecule>";
+		CMLMolecule eager = (CMLMolecule) new CMLBuilder().parseString(s);
+		CMLBuilder builder = new CMLBuilder();
+		Assert.assertFalse("default", builder.isTrusted());
+		builder.setTrusted(true);
+		Assert.assertTrue("trusted", builder.isTrusted());
+		CMLMolecule trusted = (CMLMolecule) builder.parseString(s);
+		// raw values are kept
+		Assert.assertEquals("raw", "1.50", trusted.getAtom(0).getAttributeValue("x3"));
+		Assert.assertEquals("raw", "a1  a2", trusted.getBonds().get(0).getAttributeValue("atomRefs2"));
+		// and parsed on typed access
+		Assert.assertEquals("x3", eager.getAtom(0).getX3(), trusted.getAtom(0).getX3(), 0.0);
+		Assert.assertEquals("charge", 1, trusted.getAtom(0).getFormalCharge());
+		Assert.assertEquals("atomRefs2", "a2", trusted.getBonds().get(0).getAtomRefs2()[1]);
+		Assert.assertEquals("bond", trusted.getBonds().get(0), trusted.getBond(trusted.getAtom(0), trusted.getAtom(1)));
+		// copying goes through the setters so parses and checks
+		trusted = (CMLMolecule) builder.parseString(s);
+		CMLMolecule copy = (CMLMolecule) trusted.copy();
+		Assert.assertEquals("copy", "2.7", copy.getAtom(1).getAttributeValue("x3"));
+
+		// validate() makes the tree the same as an untrusted parse
+		trusted = (CMLMolecule) builder.parseString(s);
+		trusted.validate();
+		Assert.assertEquals("validated", CMLUtil.getCanonicalString(eager),
+				CMLUtil.getCanonicalString(trusted));
+
+		String bad = s.replace("x3='2.70'", "x3='abc'");
+		trusted = (CMLMolecule) builder.parseString(bad);
+		Assert.assertEquals("unchecked", "abc", trusted.getAtom(1).getAttributeValue("x3"));
+		try {
+			trusted.validate();
+			Assert.fail("should throw");
+		} catch (RuntimeException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("bad x3 on atom"));
+		}
+		try {
+			new CMLBuilder().parseString(bad);
+			Assert.fail("should throw");
+		} catch (RuntimeException e) {
+			// OK
+		}
+		try {
+			new CMLBuilder(new NodeFactory()).setTrusted(true);
+			Assert.fail("should throw");
+		} catch (RuntimeException e) {
+			Assert.assertEquals("factory", "trusted parsing needs a CMLNodeFactory", e.getMessage());
+		}
+	}
+
+	private static String MOLECULE = "" +
+		"<molecule id='m1' xmlns='http://www.xml-cml.org/schema' xmlns:foo='http://foo'>" +
+		"  <!-- comment -->" +
+		"  <atomArray>" +
+		"    <atom id='a1' elementType='C' x3='1.0' y3='2.0' z3='3.0' foo:bar='x'/>" +
+		"    <atom id='a2' elementType='O'/>" +
+		"  </atomArray>" +
+		"  <foo:extra><scalar dataType='xsd:double'>1.5</scalar></foo:extra>" +
+		"  <scalar dataType='xsd:double'>2.5</scalar>" +
+		"</molecule>";
+
+	/**
+	 * @throws Exception
+	 */
+	@Test
+	public void testEnsureCMLElement() throws Exception {
+		Element xml = new Builder().build(new StringReader(MOLECULE)).getRootElement();
+		String before = xml.toXML();
+		CMLElement cml = CMLBuilder.ensureCML(xml);
+		Assert.assertEquals("unchanged", before, xml.toXML());
+		Assert.assertTrue("molecule", cml instanceof CMLMolecule);
+		Assert.assertNotNull("document", cml.getDocument());
+		CMLMolecule molecule = (CMLMolecule) cml;
+		Assert.assertEquals("atoms", 2, molecule.getAtomCount());
+		CMLAtom atom = molecule.getAtomById("a1");
+		Assert.assertEquals("x3", 1.0, atom.getX3(), 0.0);
+		Assert.assertEquals("foo:bar", "x", atom.getAttributeValue("bar", "http://foo"));
+		Assert.assertEquals("scalar", 2.5,
+			((CMLScalar) molecule.getFirstCMLChild(CMLScalar.TAG)).getDouble(), 0.0);
+		// same as parsing
+		Element parsed = new CMLBuilder().parseString(MOLECULE);
+		Assert.assertEquals("xml", parsed.toXML(), cml.toXML());
+	}
+
+	/**
+	 */
+	@Test
+	public void testEnsureCMLElementText() {
+		Element xml = new Element("scalar", CMLConstants.CML2);
+		xml.addAttribute(new Attribute("dataType", "xsd:double"));
+		xml.appendChild(new Text("1."));
+		xml.appendChild(new Text(""));
+		xml.appendChild(new Text("25"));
+		xml.appendChild(new Comment("c"));
+		CMLElement cml = CMLBuilder.ensureCML(xml);
+		Assert.assertTrue("scalar", cml instanceof CMLScalar);
+		Assert.assertEquals("namespace", CMLConstants.CML_NS, cml.getNamespaceURI());
+		Assert.assertEquals("children", 2, cml.getChildCount());
+		Assert.assertEquals("double", 1.25, ((CMLScalar) cml).getDouble(), 0.0);
+	}
+
+	/**
+	 * @throws Exception
+	 */
+	@Test
+	public void testEnsureCMLDocument() throws Exception {
+		String s = "<!-- prolog --><molecule id='m1'>" +
+			"<atomArray><atom id='a1' elementType='C'/></atomArray>" +
+			"<bar xmlns='http://bar'><atom/></bar>" +
+			"</molecule>";
+		Document doc = new Builder().build(new StringReader(s));
+		Document cmlDoc = CMLBuilder.ensureCML(doc);
+		Assert.assertNotSame("copy", doc, cmlDoc);
+		Assert.assertEquals("children", 2, cmlDoc.getChildCount());
+		Assert.assertTrue("comment", cmlDoc.getChild(0) instanceof Comment);
+		CMLMolecule molecule = (CMLMolecule) cmlDoc.getRootElement();
+		Assert.assertEquals("atoms", 1, molecule.getAtomCount());
+		Element bar = (Element) molecule.getChild(1);
+		Assert.assertFalse("bar", bar instanceof CMLElement);
+		Assert.assertFalse("bar atom", bar.getChild(0) instanceof CMLElement);
+		Assert.assertEquals("original", "", doc.getRootElement().getNamespaceURI());
+		Assert.assertSame("cml", cmlDoc, CMLBuilder.ensureCML(cmlDoc));
+	}
 }
@@ -606,4 +606,19 @@ public class CMLMatrixTest {
 		Assert.assertNull(scalar);
 	}
 
+	/**
+	 * parsed values are kept until the content changes.
+	 */
+	@Test
+	public void testParsedValues() {
+		CMLMatrix matrix = new CMLMatrix(2, 2, new double[] { 1.0, 2.0, 3.0, 4.0 });
+		double[] dd = matrix.getDoubleArray();
+		dd[0] = 99.0;
+		Assert.assertEquals("copy", 1.0, matrix.getDoubleArray()[0], EPS);
+		Assert.assertEquals("matrix", 3.0, matrix.getDoubleMatrix()[1][0], EPS);
+		Assert.assertEquals("element", 2.0, matrix.getElementAt(0, 1).getDouble(), EPS);
+		matrix.setMatrix(new double[][] { { 5.0, 6.0 }, { 7.0, 8.0 } });
+		Assert.assertEquals("reset", 6.0, matrix.getElementAt(0, 1).getDouble(), EPS);
+		Assert.assertEquals("reset", 7.0, matrix.getDoubleMatrix()[1][0], EPS);
+	}
 }
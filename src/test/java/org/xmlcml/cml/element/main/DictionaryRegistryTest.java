@@ -0,0 +1,182 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.element.main;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xmlcml.cml.attribute.DictRefAttribute;
+import org.xmlcml.cml.base.CMLElement;
+import org.xmlcml.cml.base.CMLUtil;
+import org.xmlcml.cml.element.CMLDictionary;
+import org.xmlcml.cml.element.CMLEntry;
+import org.xmlcml.cml.element.CMLScalar;
+import org.xmlcml.cml.element.DictionaryRegistry;
+
+/**
+ * test DictionaryRegistry.
+ */
+public class DictionaryRegistryTest {
+
+	private static final String CASTEP_NS = "http://www.materialsgrid.org/castep/namespace";
+	private static final String SIESTA_NS = "http://www.uam.es/siesta/namespace";
+	private static final String CML_DICT_NS = "http://www.xml-cml.org/dict/cml";
+
+	/** */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File castepFile;
+	private File siestaFile;
+
+	private File writeDictionary(String name, String namespace, String... ids) throws IOException {
+		File file = folder.newFile(name);
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		writer.write("<dictionary xmlns='http://www.xml-cml.org/schema' namespace='"+namespace+"'>");
+		for (String id : ids) {
+			writer.write("<entry id='"+id+"' term='"+id+"'/>");
+		}
+		writer.write("</dictionary>");
+		writer.close();
+		return file;
+	}
+
+	/**
+	 * @throws IOException
+	 */
+	@Before
+	public void setUp() throws IOException {
+		castepFile = writeDictionary("castep.xml", CASTEP_NS, "release", "version", "task");
+		siestaFile = writeDictionary("siesta.xml", SIESTA_NS, "SystemName", "NumberOfAtoms");
+	}
+
+	/**
+	 */
+	@Test
+	public void testLazyLoad() {
+		DictionaryRegistry registry = new DictionaryRegistry();
+		registry.register(CASTEP_NS, castepFile);
+		Assert.assertTrue("registered", registry.isRegistered(CASTEP_NS));
+		Assert.assertFalse("not loaded", registry.isLoaded(CASTEP_NS));
+		CMLEntry entry = registry.getCMLEntry(CASTEP_NS, "task");
+		Assert.assertNotNull("task", entry);
+		Assert.assertEquals("task", "task", entry.getId());
+		Assert.assertTrue("loaded", registry.isLoaded(CASTEP_NS));
+		Assert.assertSame("once", registry.getDictionary(CASTEP_NS), registry.getDictionary(CASTEP_NS));
+		Assert.assertNull("no entry", registry.getCMLEntry(CASTEP_NS, "notask"));
+		Assert.assertNull("no dictionary", registry.getCMLEntry(SIESTA_NS, "task"));
+		Assert.assertNull("null", registry.getCMLEntry(null, "task"));
+		registry.unregister(CASTEP_NS);
+		Assert.assertFalse("unregistered", registry.isRegistered(CASTEP_NS));
+	}
+
+	/**
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentLoad() throws Exception {
+		final DictionaryRegistry registry = new DictionaryRegistry();
+		registry.register(CASTEP_NS, castepFile);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<CMLDictionary>> futures = new ArrayList<Future<CMLDictionary>>();
+		for (int i = 0; i < 16; i++) {
+			futures.add(executor.submit(new Callable<CMLDictionary>() {
+				public CMLDictionary call() {
+					for (int j = 0; j < 1000; j++) {
+						Assert.assertNotNull("entry", registry.getCMLEntry(CASTEP_NS, "task"));
+					}
+					return registry.getDictionary(CASTEP_NS);
+				}
+			}));
+		}
+		CMLDictionary dictionary = futures.get(0).get();
+		for (Future<CMLDictionary> future : futures) {
+			Assert.assertSame("same", dictionary, future.get());
+		}
+		executor.shutdown();
+	}
+
+	/**
+	 */
+	@Test
+	public void testEviction() {
+		DictionaryRegistry registry = new DictionaryRegistry();
+		registry.setMaxLoaded(1);
+		registry.register(CASTEP_NS, castepFile);
+		registry.register(SIESTA_NS, siestaFile);
+		CMLDictionary cmlDict = (CMLDictionary) CMLUtil.parseCML(
+			"<dictionary xmlns='http://www.xml-cml.org/schema' namespace='"+CML_DICT_NS+"'>" +
+			"<entry id='e1' term='e1'/></dictionary>");
+		registry.register(cmlDict);
+
+		CMLDictionary castep = registry.getDictionary(CASTEP_NS);
+		Assert.assertTrue("castep", registry.isLoaded(CASTEP_NS));
+		registry.getDictionary(SIESTA_NS);
+		Assert.assertTrue("siesta", registry.isLoaded(SIESTA_NS));
+		Assert.assertFalse("castep evicted", registry.isLoaded(CASTEP_NS));
+		Assert.assertTrue("object kept", registry.isLoaded(CML_DICT_NS));
+		Assert.assertSame("object", cmlDict, registry.getDictionary(CML_DICT_NS));
+		Assert.assertNotNull("e1", registry.getCMLEntry(CML_DICT_NS, "e1"));
+		Assert.assertNotSame("reloaded", castep, registry.getDictionary(CASTEP_NS));
+		Assert.assertFalse("siesta evicted", registry.isLoaded(SIESTA_NS));
+	}
+
+	/**
+	 */
+	@Test
+	public void testDictRef() {
+		DictionaryRegistry registry = new DictionaryRegistry();
+		registry.register(CASTEP_NS, castepFile);
+		CMLElement property = CMLUtil.parseCML(
+			"<property xmlns='http://www.xml-cml.org/schema' " +
+			"    xmlns:castep='"+CASTEP_NS+"' dictRef='castep:task'>" +
+			"  <scalar dataType='xsd:string'>SinglePoint</scalar>" +
+			"</property>");
+		CMLScalar scalar = (CMLScalar) property.getChildCMLElements().get(0);
+		CMLEntry entry = registry.getCMLEntryFromElementOrParent(scalar);
+		Assert.assertNotNull("entry", entry);
+		Assert.assertEquals("task", "task", entry.getId());
+		Assert.assertSame("dictionary index", entry,
+			registry.getDictionary(CASTEP_NS).getCMLEntry("task"));
+		Assert.assertSame("attribute", entry,
+			DictRefAttribute.getCMLEntryFromElementOrParent(scalar, registry));
+		Assert.assertNull("not in default registry",
+			DictRefAttribute.getCMLEntryFromElementOrParent(scalar));
+		DictionaryRegistry.dictionaryRegistry.register(CASTEP_NS, castepFile);
+		try {
+			Assert.assertEquals("default registry", "task",
+				DictRefAttribute.getCMLEntryFromElementOrParent(scalar).getId());
+		} finally {
+			DictionaryRegistry.dictionaryRegistry.unregister(CASTEP_NS);
+		}
+		Assert.assertNull("unregistered", new DictionaryRegistry().getCMLEntryFromElementOrParent(scalar));
+	}
+}
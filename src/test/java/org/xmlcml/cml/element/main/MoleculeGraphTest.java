@@ -0,0 +1,137 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.element.main;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.cml.element.CMLAtom;
+import org.xmlcml.cml.element.CMLBond;
+import org.xmlcml.cml.element.CMLMolecule;
+import org.xmlcml.cml.element.MoleculeGraph;
+import org.xmlcml.molutil.ChemicalElement.AS;
+
+/**
+ * test MoleculeGraph.
+ */
+public class MoleculeGraphTest {
+
+    /** ethanol (a0-a2, O is a2) with a double bond a1=a2 for the order test,
+     * a separate water a3, and a chain a4-a5-a6-a7 closed into a ring by a7-a4.
+     */
+    private static CMLMolecule makeMolecule() {
+        CMLMolecule molecule = new CMLMolecule();
+        AS[] elements = {AS.C, AS.C, AS.O, AS.O, AS.C, AS.C, AS.C, AS.N};
+        for (int i = 0; i < elements.length; i++) {
+            molecule.addAtom(new CMLAtom("a" + i, elements[i]));
+        }
+        int[][] bonds = {{0, 1}, {1, 2}, {4, 5}, {5, 6}, {6, 7}, {7, 4}};
+        for (int[] bond : bonds) {
+            molecule.addBond(new CMLBond(molecule.getAtom(bond[0]), molecule.getAtom(bond[1])));
+        }
+        molecule.getBonds().get(1).setOrder(CMLBond.DOUBLE_D);
+        molecule.getBonds().get(2).setOrder(CMLBond.AROMATIC);
+        return molecule;
+    }
+
+    /**
+     */
+    @Test
+    public void testSnapshot() {
+        CMLMolecule molecule = makeMolecule();
+        MoleculeGraph graph = molecule.getGraph();
+        Assert.assertSame("cached", graph, molecule.getGraph());
+        Assert.assertEquals("atoms", 8, graph.getAtomCount());
+        Assert.assertEquals("bonds", 6, graph.getBondCount());
+        Assert.assertEquals("O", 8, graph.getAtomicNumber(2));
+        Assert.assertEquals("N", 7, graph.getAtomicNumber(7));
+        Assert.assertEquals("single", MoleculeGraph.ORDER_UNKNOWN, graph.getBondOrder(0));
+        Assert.assertEquals("double", 2, graph.getBondOrder(1));
+        Assert.assertEquals("aromatic", MoleculeGraph.ORDER_AROMATIC, graph.getBondOrder(2));
+        Assert.assertEquals("index", 5, graph.getAtomIndex(molecule.getAtom(5)));
+        Assert.assertEquals("not in graph", -1, graph.getAtomIndex(new CMLAtom("x", AS.C)));
+        Assert.assertSame("bond", molecule.getBonds().get(3), graph.getBond(3));
+        Assert.assertEquals("bond index", 3, graph.getBondIndex(molecule.getBonds().get(3)));
+        Assert.assertEquals("bond atom", 6, graph.getBondAtom(3, 1));
+        Assert.assertEquals("other", 5, graph.getOtherAtom(3, 6));
+        Assert.assertEquals("degree", 2, graph.getDegree(1));
+        Assert.assertArrayEquals("neighbours", new int[] {0, 2}, graph.getNeighbours(1));
+        Assert.assertArrayEquals("neighbour bonds", new int[] {0, 1}, graph.getNeighbourBonds(1));
+        Assert.assertEquals("isolated", 0, graph.getDegree(3));
+        try {
+            graph.getOtherAtom(3, 0);
+            Assert.fail("should fail");
+        } catch (RuntimeException e) {
+        }
+
+        molecule.addBond(new CMLBond(molecule.getAtom(2), molecule.getAtom(3)));
+        Assert.assertNotSame("bond added", graph, molecule.getGraph());
+        Assert.assertEquals("new bonds", 7, molecule.getGraph().getBondCount());
+        Assert.assertEquals("old bonds", 6, graph.getBondCount());
+    }
+
+    /**
+     */
+    @Test
+    public void testSearch() {
+        MoleculeGraph graph = makeMolecule().getGraph();
+        Assert.assertEquals("components", 3, graph.getComponentCount());
+        Assert.assertEquals("component", 1, graph.getComponent(3));
+        Assert.assertArrayEquals("component atoms", new int[] {4, 5, 6, 7}, graph.getComponentAtoms(2));
+        Assert.assertArrayEquals("distances", new int[] {-1, -1, -1, -1, 0, 1, 2, 1}, graph.getDistances(4));
+        Assert.assertArrayEquals("path", new int[] {0, 1, 2}, graph.getShortestPath(0, 2));
+        Assert.assertArrayEquals("path to self", new int[] {5}, graph.getShortestPath(5, 5));
+        int[] path = graph.getShortestPath(5, 7);
+        Assert.assertEquals("ring path", 3, path.length);
+        Assert.assertEquals("ring path end", 7, path[2]);
+        Assert.assertNull("not connected", graph.getShortestPath(0, 4));
+
+        int[][] matrix = graph.getDistanceMatrix();
+        for (int i = 0; i < graph.getAtomCount(); i++) {
+            Assert.assertArrayEquals("row " + i, graph.getDistances(i), matrix[i]);
+        }
+        Assert.assertEquals("symmetric", matrix[6][4], matrix[4][6]);
+
+        int[] tree = graph.getSpanningTreeBonds();
+        Assert.assertEquals("tree", graph.getAtomCount() - graph.getComponentCount(), tree.length);
+        Assert.assertArrayEquals("tree bonds", new int[] {0, 1, 2, 5, 3}, tree);
+    }
+
+    /**
+     */
+    @Test
+    public void testFragments() {
+        CMLMolecule molecule = makeMolecule();
+        List<CMLMolecule> fragments = molecule.createFragments();
+        Assert.assertEquals("fragments", 3, fragments.size());
+        int[] atoms = {3, 1, 4};
+        int[] bonds = {2, 0, 4};
+        for (int i = 0; i < atoms.length; i++) {
+            CMLMolecule fragment = fragments.get(i);
+            Assert.assertEquals("atoms " + i, atoms[i], fragment.getAtomCount());
+            Assert.assertEquals("bonds " + i, bonds[i], fragment.getBondCount());
+            Assert.assertEquals("connected " + i, 1, fragment.getGraph().getComponentCount());
+        }
+        Assert.assertEquals("copy", "a4", fragments.get(2).getAtom(0).getId());
+        Assert.assertNotSame("copy", molecule.getAtom(4), fragments.get(2).getAtom(0));
+        Assert.assertSame("bond atoms", fragments.get(2).getAtom(0),
+                fragments.get(2).getBonds().get(0).getAtom(0));
+        Assert.assertEquals("ring", 1, fragments.get(2).getRings().getRingCount());
+        Assert.assertEquals("unchanged", 8, molecule.getAtomCount());
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.element.main;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.cml.element.CMLAtom;
+import org.xmlcml.cml.element.CMLBond;
+import org.xmlcml.cml.element.CMLMolecule;
+import org.xmlcml.cml.element.MoleculeRings;
+import org.xmlcml.cml.element.MoleculeRings.Ring;
+import org.xmlcml.molutil.ChemicalElement.AS;
+
+/**
+ * test MoleculeRings.
+ */
+public class MoleculeRingsTest {
+
+    /** molecule of carbons a0, a1... with bonds between the given pairs. */
+    private static CMLMolecule makeMolecule(int natoms, int[][] bonds) {
+        CMLMolecule molecule = new CMLMolecule();
+        for (int i = 0; i < natoms; i++) {
+            molecule.addAtom(new CMLAtom("a" + i, AS.C));
+        }
+        for (int[] bond : bonds) {
+            molecule.addBond(new CMLBond(molecule.getAtom(bond[0]), molecule.getAtom(bond[1])));
+        }
+        return molecule;
+    }
+
+    private static int[] getSizes(MoleculeRings rings) {
+        List<Ring> sssr = rings.getSSSR();
+        int[] sizes = new int[sssr.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = sssr.get(i).size();
+        }
+        return sizes;
+    }
+
+    /** checks that each ring is a closed path of its bonds. */
+    private static void assertRingsConsistent(MoleculeRings rings) {
+        for (Ring ring : rings.getSSSR()) {
+            List<CMLAtom> atoms = ring.getAtoms();
+            List<CMLBond> bonds = ring.getBonds();
+            Assert.assertEquals("bonds", atoms.size(), bonds.size());
+            for (int i = 0; i < atoms.size(); i++) {
+                CMLBond bond = bonds.get(i);
+                CMLAtom next = atoms.get((i + 1) % atoms.size());
+                Assert.assertSame("joins " + ring, next, bond.getOtherAtom(atoms.get(i)));
+            }
+        }
+    }
+
+    /**
+     */
+    @Test
+    public void testSimpleRings() {
+        // naphthalene
+        CMLMolecule naphthalene = makeMolecule(10, new int[][] {
+            {0, 1}, {1, 2}, {2, 3}, {3, 4}, {4, 5}, {5, 0},
+            {4, 6}, {6, 7}, {7, 8}, {8, 9}, {9, 5}});
+        MoleculeRings rings = naphthalene.getRings();
+        Assert.assertArrayEquals("naphthalene", new int[] {6, 6}, getSizes(rings));
+        Assert.assertEquals("fusion atom", 2, rings.getRings(naphthalene.getAtom(4)).size());
+        Assert.assertEquals("smallest", 6, rings.getSmallestRingSize(naphthalene.getAtom(0)));
+        assertRingsConsistent(rings);
+
+        // norbornane: two 5-rings, not the 6-ring
+        CMLMolecule norbornane = makeMolecule(7, new int[][] {
+            {0, 1}, {1, 2}, {2, 3}, {3, 4}, {4, 5}, {5, 0}, {0, 6}, {6, 3}});
+        Assert.assertArrayEquals("norbornane", new int[] {5, 5}, getSizes(norbornane.getRings()));
+        assertRingsConsistent(norbornane.getRings());
+
+        // cubane
+        CMLMolecule cubane = makeMolecule(8, new int[][] {
+            {0, 1}, {1, 2}, {2, 3}, {3, 0}, {4, 5}, {5, 6}, {6, 7}, {7, 4},
+            {0, 4}, {1, 5}, {2, 6}, {3, 7}});
+        Assert.assertArrayEquals("cubane", new int[] {4, 4, 4, 4, 4}, getSizes(cubane.getRings()));
+        assertRingsConsistent(cubane.getRings());
+
+        // adamantane
+        CMLMolecule adamantane = makeMolecule(10, new int[][] {
+            {0, 4}, {0, 5}, {0, 6}, {1, 4}, {1, 7}, {1, 8}, {2, 5}, {2, 7}, {2, 9},
+            {3, 6}, {3, 8}, {3, 9}});
+        Assert.assertArrayEquals("adamantane", new int[] {6, 6, 6}, getSizes(adamantane.getRings()));
+        assertRingsConsistent(adamantane.getRings());
+    }
+
+    /**
+     */
+    @Test
+    public void testRingBonds() {
+        // biphenyl with a methyl: rings joined by a bridge
+        CMLMolecule biphenyl = makeMolecule(13, new int[][] {
+            {0, 1}, {1, 2}, {2, 3}, {3, 4}, {4, 5}, {5, 0},
+            {6, 7}, {7, 8}, {8, 9}, {9, 10}, {10, 11}, {11, 6},
+            {0, 6}, {3, 12}});
+        MoleculeRings rings = biphenyl.getRings();
+        Assert.assertEquals("rings", 2, rings.getRingCount());
+        Assert.assertTrue("ring bond", rings.isInRing(biphenyl.getBonds().get(0)));
+        Assert.assertFalse("bridge", rings.isInRing(biphenyl.getBonds().get(12)));
+        Assert.assertFalse("chain", rings.isInRing(biphenyl.getBonds().get(13)));
+        Assert.assertTrue("ring atom", rings.isInRing(biphenyl.getAtom(0)));
+        Assert.assertFalse("methyl", rings.isInRing(biphenyl.getAtom(12)));
+        Assert.assertEquals("methyl rings", 0, rings.getRings(biphenyl.getAtom(12)).size());
+        Assert.assertEquals("methyl smallest", 0, rings.getSmallestRingSize(biphenyl.getAtom(12)));
+
+        // spiro[4.5]decane
+        CMLMolecule spiro = makeMolecule(10, new int[][] {
+            {0, 1}, {1, 2}, {2, 3}, {3, 0}, {0, 4}, {4, 5}, {5, 6}, {6, 7}, {7, 8}, {8, 0}});
+        Assert.assertArrayEquals("spiro", new int[] {4, 6}, getSizes(spiro.getRings()));
+        Assert.assertEquals("spiro atom", 2, spiro.getRings().getRings(spiro.getAtom(0)).size());
+
+        Assert.assertEquals("acyclic", 0, makeMolecule(3, new int[][] {{0, 1}, {1, 2}}).getRings().getRingCount());
+    }
+
+    /**
+     */
+    @Test
+    public void testLarge() {
+        // macrocycle
+        int n = 5000;
+        int[][] bonds = new int[n][];
+        for (int i = 0; i < n; i++) {
+            bonds[i] = new int[] {i, (i + 1) % n};
+        }
+        CMLMolecule macrocycle = makeMolecule(n, bonds);
+        Assert.assertArrayEquals("macrocycle", new int[] {n}, getSizes(macrocycle.getRings()));
+        assertRingsConsistent(macrocycle.getRings());
+
+        // square grid of 20 x 20 atoms: 361 fused 4-rings
+        int edge = 20;
+        bonds = new int[2 * edge * (edge - 1)][];
+        int k = 0;
+        for (int i = 0; i < edge; i++) {
+            for (int j = 0; j < edge; j++) {
+                if (j + 1 < edge) {
+                    bonds[k++] = new int[] {i * edge + j, i * edge + j + 1};
+                }
+                if (i + 1 < edge) {
+                    bonds[k++] = new int[] {i * edge + j, (i + 1) * edge + j};
+                }
+            }
+        }
+        MoleculeRings rings = makeMolecule(edge * edge, bonds).getRings();
+        Assert.assertEquals("grid", (edge - 1) * (edge - 1), rings.getRingCount());
+        Assert.assertEquals("largest", 4, rings.getSSSR().get(rings.getRingCount() - 1).size());
+        assertRingsConsistent(rings);
+
+        // 500 naphthalenes joined by bridges: 500 ring systems
+        int[][] naphthalene = {
+            {0, 1}, {1, 2}, {2, 3}, {3, 4}, {4, 5}, {5, 0},
+            {4, 6}, {6, 7}, {7, 8}, {8, 9}, {9, 5}};
+        int units = 500;
+        bonds = new int[units * 12 - 1][];
+        k = 0;
+        for (int u = 0; u < units; u++) {
+            for (int[] bond : naphthalene) {
+                bonds[k++] = new int[] {10 * u + bond[0], 10 * u + bond[1]};
+            }
+            if (u > 0) {
+                bonds[k++] = new int[] {10 * u - 2, 10 * u};
+            }
+        }
+        rings = makeMolecule(10 * units, bonds).getRings();
+        Assert.assertEquals("polymer", 2 * units, rings.getRingCount());
+        Assert.assertEquals("polymer largest", 6, rings.getSSSR().get(rings.getRingCount() - 1).size());
+        assertRingsConsistent(rings);
+    }
+
+    /**
+     */
+    @Test
+    public void testCache() {
+        CMLMolecule molecule = makeMolecule(4, new int[][] {{0, 1}, {1, 2}, {2, 3}});
+        MoleculeRings rings = molecule.getRings();
+        Assert.assertSame("cached", rings, molecule.getRings());
+        Assert.assertEquals("chain", 0, rings.getRingCount());
+        molecule.addBond(new CMLBond(molecule.getAtom(3), molecule.getAtom(0)));
+        Assert.assertNotSame("bond added", rings, molecule.getRings());
+        Assert.assertArrayEquals("ring", new int[] {4}, getSizes(molecule.getRings()));
+        molecule.deleteBond(molecule.getBonds().get(3));
+        Assert.assertEquals("bond deleted", 0, molecule.getRings().getRingCount());
+    }
+}
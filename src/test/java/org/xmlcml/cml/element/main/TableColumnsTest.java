@@ -0,0 +1,181 @@
+/**
+ *    Copyright 2011 Peter Murray-Rust et. al.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.xmlcml.cml.element.main;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.cml.base.CMLConstants;
+import org.xmlcml.cml.base.CMLUtil;
+import org.xmlcml.cml.element.CMLArray;
+import org.xmlcml.cml.element.CMLArrayList;
+import org.xmlcml.cml.element.CMLTable;
+import org.xmlcml.cml.element.CMLTable.TableType;
+import org.xmlcml.cml.element.TableColumns;
+
+/**
+ * test TableColumns.
+ */
+public class TableColumnsTest {
+
+	private static String TABLE = "" +
+		"<table xmlns='http://www.xml-cml.org/schema' tableType='columnBased'>" +
+		"  <arrayList>" +
+		"    <array id='x' dataType='xsd:double'>1.5 2.5 3.5 4.5</array>" +
+		"    <array id='n' dictRef='foo:count' dataType='xsd:integer'>1 2 3 4</array>" +
+		"    <array id='s' dataType='xsd:string' delimiter='|'>|a|b c|d|e|</array>" +
+		"  </arrayList>" +
+		"</table>";
+
+	/**
+	 */
+	@Test
+	public void testTableColumns() {
+		CMLTable table = (CMLTable) CMLUtil.parseCML(TABLE);
+		TableColumns columns = table.getTableColumns();
+		Assert.assertEquals("rows", 4, columns.getRowCount());
+		Assert.assertEquals("cols", 3, columns.getColumnCount());
+		Assert.assertEquals("x", 0, columns.getColumnIndex("x"));
+		Assert.assertEquals("dictRef", 1, columns.getColumnIndex("foo:count"));
+		Assert.assertEquals("none", -1, columns.getColumnIndex("y"));
+		Assert.assertEquals("type", CMLConstants.XSD_INTEGER, columns.getDataType(1));
+		Assert.assertArrayEquals("x", new double[]{1.5, 2.5, 3.5, 4.5}, columns.getDoubleColumn(0), 0.0);
+		Assert.assertArrayEquals("n", new int[]{1, 2, 3, 4}, columns.getIntColumn(1));
+		Assert.assertArrayEquals("n as doubles", new double[]{1, 2, 3, 4}, columns.getDoubleColumn(1), 0.0);
+		Assert.assertArrayEquals("s", new String[]{"a", "b c", "d", "e"}, columns.getStringColumn(2));
+		Assert.assertEquals("string", "2.5", columns.getString(1, 0));
+		Assert.assertEquals("int", 3, columns.getInt(2, 1));
+		List<List<String>> valuesList = table.getColumnValuesList();
+		for (int j = 0; j < columns.getColumnCount(); j++) {
+			Assert.assertEquals("as strings", valuesList.get(j),
+				Arrays.asList(columns.getStringColumn(j)));
+		}
+		try {
+			columns.getIntColumn(0);
+			Assert.fail("should fail");
+		} catch (RuntimeException e) {
+			Assert.assertTrue("type", e.getMessage().startsWith("column 0"));
+		}
+		// changes are seen by new views only
+		CMLArray x = table.getArrayListElements().get(0).getArrayElements().get(0);
+		x.setArray(new double[]{9, 8, 7, 6});
+		Assert.assertEquals("old", 1.5, columns.getDouble(0, 0), 0.0);
+		Assert.assertEquals("new", 9.0, table.getTableColumns().getDouble(0, 0), 0.0);
+		Assert.assertNull("not columnBased", new CMLTable().getTableColumns());
+	}
+
+	/**
+	 */
+	@Test
+	public void testRowAndContentBased() {
+		String header = "" +
+			"  <tableHeader>" +
+			"    <tableHeaderCell id='x' dataType='xsd:double'/>" +
+			"    <tableHeaderCell dictRef='foo:count' dataType='xsd:integer'/>" +
+			"    <tableHeaderCell id='s'/>" +
+			"  </tableHeader>";
+		CMLTable rowTable = (CMLTable) CMLUtil.parseCML("" +
+			"<table xmlns='http://www.xml-cml.org/schema' tableType='rowBased'>" + header +
+			"  <tableRowList>" +
+			"    <tableRow><tableCell>1.5</tableCell><tableCell>1</tableCell><tableCell>a</tableCell></tableRow>" +
+			"    <tableRow><tableCell>2.5</tableCell><tableCell>2</tableCell><tableCell>b c</tableCell></tableRow>" +
+			"  </tableRowList>" +
+			"</table>");
+		CMLTable contentTable = (CMLTable) CMLUtil.parseCML("" +
+			"<table xmlns='http://www.xml-cml.org/schema' tableType='contentBased'>" + header +
+			"  <tableContent delimiter='|'>|1.5|1|a|2.5|2|b c|</tableContent>" +
+			"</table>");
+		for (CMLTable table : new CMLTable[]{rowTable, contentTable}) {
+			TableColumns columns = table.getTableColumns();
+			Assert.assertEquals("rows", 2, columns.getRowCount());
+			Assert.assertEquals("cols", 3, columns.getColumnCount());
+			Assert.assertEquals("dictRef", 1, columns.getColumnIndex("foo:count"));
+			Assert.assertEquals("type", CMLConstants.XSD_STRING, columns.getDataType(2));
+			Assert.assertArrayEquals("x", new double[]{1.5, 2.5}, columns.getDoubleColumn(0), 0.0);
+			Assert.assertArrayEquals("n", new int[]{1, 2}, columns.getIntColumn(1));
+			Assert.assertArrayEquals("s", new String[]{"a", "b c"}, columns.getStringColumn(2));
+		}
+		rowTable.getTableRowListElements().get(0).getTableRowElements().get(1)
+			.getTableCellElements().get(2).detach();
+		try {
+			rowTable.getTableColumns();
+			Assert.fail("should fail");
+		} catch (RuntimeException e) {
+			Assert.assertTrue("short row", e.getMessage().startsWith("row 1"));
+		}
+	}
+
+	/**
+	 */
+	@Test
+	public void testSlices() {
+		TableColumns columns = ((CMLTable) CMLUtil.parseCML(TABLE)).getTableColumns();
+		TableColumns rows = columns.getRows(1, 2);
+		Assert.assertEquals("rows", 2, rows.getRowCount());
+		Assert.assertArrayEquals("x", new double[]{2.5, 3.5}, rows.getDoubleColumn(0), 0.0);
+		Assert.assertEquals("s", "d", rows.getString(1, 2));
+		TableColumns cols = rows.getColumns(2, 0);
+		Assert.assertEquals("cols", 2, cols.getColumnCount());
+		Assert.assertEquals("id", "s", cols.getId(0));
+		Assert.assertArrayEquals("x", new double[]{3.5}, cols.getRows(1, 1).getDoubleColumn(1), 0.0);
+		Assert.assertEquals("empty", 0, columns.getRows(2, 1).getRowCount());
+		try {
+			rows.getDouble(2, 0);
+			Assert.fail("should fail");
+		} catch (IndexOutOfBoundsException e) {
+		}
+		try {
+			columns.getRows(2, 4);
+			Assert.fail("should fail");
+		} catch (IllegalArgumentException e) {
+		}
+		CMLArrayList arrayList = cols.createArrayList();
+		Assert.assertEquals("arrays", 2, arrayList.getArraysCount());
+		Assert.assertArrayEquals("s", new String[]{"b c", "d"},
+			arrayList.getArrayElements().get(0).getStrings());
+		Assert.assertEquals("id", "x", arrayList.getArrayElements().get(1).getId());
+	}
+
+	/**
+	 */
+	@Test
+	public void testBuilder() {
+		double[] x = {0.1, 0.2, 0.3};
+		CMLTable table = new TableColumns.Builder()
+			.addColumn("x", x)
+			.addColumn("n", new int[]{10, 20, 30})
+			.addColumn("label", new String[]{"C1", "C2", "C3"})
+			.createTable();
+		x[0] = 99.;
+		Assert.assertTrue("columnBased", table.check(TableType.COLUMN_BASED));
+		Assert.assertEquals("rows", 3, table.getRows());
+		Assert.assertEquals("cols", 3, table.getColumns());
+		TableColumns columns = table.getTableColumns();
+		Assert.assertArrayEquals("x", new double[]{0.1, 0.2, 0.3}, columns.getDoubleColumn(0), 0.0);
+		Assert.assertArrayEquals("n", new int[]{10, 20, 30}, columns.getIntColumn(1));
+		Assert.assertEquals("label", "C2", columns.getString(1, 2));
+		Assert.assertEquals("id", 2, columns.getColumnIndex("label"));
+		try {
+			new TableColumns.Builder().addColumn("x", x).addColumn("n", new int[2]);
+			Assert.fail("should fail");
+		} catch (RuntimeException e) {
+			Assert.assertTrue("rows", e.getMessage().startsWith("inconsistent"));
+		}
+	}
+}